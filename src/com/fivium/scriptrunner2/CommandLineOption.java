@@ -9,12 +9,14 @@ public enum CommandLineOption {
   , INSTALL("install")
   , UPDATE("update")
   , PARSE_SCRIPTS("parse")
+  , ARCHIVE("archive")
   , NO_EXEC("noexec")
   , LOG_DIRECTORY("logdir")
   , LOG_STANDARD_OUT("logstdout")
   , LOG_DEBUG("logdebug")
   , SKIP_VERSION_CHECK("noversioncheck")
   , SKIP_HASH_CHECK("nohashcheck")
+  , DEFER_HASH_CHECK("deferhashcheck")
   , PROMOTE_USER("user")
   , PROMOTE_PASSWORD("password")
   , JDBC_CONNECT_STRING("jdbc")
@@ -29,7 +31,26 @@ public enum CommandLineOption {
   , INSTALL_PROMOTE_USER("newpromoteuser")
   , INSTALL_PROMOTE_PASSWORD("newpromotepassword")
   , NO_UNIMPLICATED_FILES("nounimplicatedfiles")
-  , VERIFY_LOADERS("verifyloaders");
+  , VERIFY_LOADERS("verifyloaders")
+  , ASYNC_LOG_COMMIT("asynclogcommit")
+  , LOB_CHUNK_SIZE("lobchunksize")
+  , LOB_TEMPORARY_THRESHOLD("lobtempthreshold")
+  , PARALLEL("parallel")
+  , PREFETCH("prefetch")
+  , PREFETCH_BUDGET("prefetchbudget")
+  , LOB_STAGING("lobstaging")
+  , PARALLEL_COMPILE("parallelcompile")
+  , RECOMPILE("recompile")
+  , DELTA("delta")
+  , PROXY_CACHE("proxycache")
+  , JDBC_PROPERTIES_FILE("jdbcproperties")
+  , JDBC_PROPERTY("jdbcproperty")
+  , TARGETS("targets")
+  , MAX_CONCURRENT_TARGETS("maxtargets")
+  , SERVE("serve")
+  , DAEMON_PORT("daemon")
+  , DIALECT("dialect")
+  , JDBC_STATISTICS("jdbcstats");
 
   private final String mArgString;
 
@@ -1,8 +1,12 @@
 package com.fivium.scriptrunner2;
 
 
+import com.fivium.scriptrunner2.database.ConnectionProperties;
 import com.fivium.scriptrunner2.database.DatabaseConnection;
+import com.fivium.scriptrunner2.database.DatabaseDialect;
 import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.loader.DatabaseSourceLoader;
+import com.fivium.scriptrunner2.loader.LobBinder;
 import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
 import com.fivium.scriptrunner2.util.XFUtil;
 
@@ -30,10 +34,14 @@ import org.apache.commons.cli.PosixParser;
  */
 public class CommandLineWrapper {
   
-  private static final Options gCommandLineOptions;
-  static {
+  /**
+   * Creates the definitions of all command line options. A new instance is required for every parse because option groups
+   * record which of their options was selected.
+   * @return New Options.
+   */
+  private static Options createCommandLineOptions(){
     //Setup for Apache CLI 
-    gCommandLineOptions = new Options();
+    Options lCommandLineOptions = new Options();
     
     Option lBuildOption = new Option(CommandLineOption.BUILD.getArgString(), true, "Builds a promotion archive from the given source directory.");
     Option lRunOption = new Option(CommandLineOption.RUN.getArgString(), true, "Runs a promotion from given source archive or directory.");
@@ -41,6 +49,8 @@ public class CommandLineWrapper {
     Option lUpdateOption = new Option(CommandLineOption.UPDATE.getArgString(), false, "Updates ScriptRunner metadata tables to the latest version.");
     Option lParseOption = new Option(CommandLineOption.PARSE_SCRIPTS.getArgString(), false, "Parses patch scripts and outputs the result to standard out.");
     lParseOption.setArgs(999);
+    Option lArchiveOption = new Option(CommandLineOption.ARCHIVE.getArgString(), true, "Moves finished promotion runs older than the given number of days into the ScriptRunner archive tables.");
+    Option lServeOption = new Option(CommandLineOption.SERVE.getArgString(), true, "Runs ScriptRunner as a daemon which accepts run and build jobs on the given loopback port.");
     
     OptionGroup lStartOptionGroup = new OptionGroup();
     lStartOptionGroup.addOption(lBuildOption);
@@ -48,30 +58,59 @@ public class CommandLineWrapper {
     lStartOptionGroup.addOption(lInstallOption);
     lStartOptionGroup.addOption(lUpdateOption);
     lStartOptionGroup.addOption(lParseOption);
+    lStartOptionGroup.addOption(lArchiveOption);
+    lStartOptionGroup.addOption(lServeOption);
     lStartOptionGroup.setRequired(true);
     
-    gCommandLineOptions.addOptionGroup(lStartOptionGroup);
+    lCommandLineOptions.addOptionGroup(lStartOptionGroup);
+    
+    lCommandLineOptions.addOption(CommandLineOption.LOG_DIRECTORY.getArgString(), true, "Directory to write log file to. Default is current directory.");
+    lCommandLineOptions.addOption(CommandLineOption.LOG_STANDARD_OUT.getArgString(), false, "Log all output to standard out in addition to the log file.");
+    lCommandLineOptions.addOption(CommandLineOption.LOG_DEBUG.getArgString(), false, "Turns verbose debug logging on.");
+    
+    lCommandLineOptions.addOption(CommandLineOption.DAEMON_PORT.getArgString(), true, "(Run and build only) Sends the job to the ScriptRunner daemon listening on the given loopback port instead of running it in this process. The job's log is streamed back.");
+    
+    lCommandLineOptions.addOption(CommandLineOption.SKIP_VERSION_CHECK.getArgString(), false, "(Run only) Skips the ScriptRunner version verification.");
+    
+    lCommandLineOptions.addOption(CommandLineOption.SKIP_HASH_CHECK.getArgString(), false, "(Run only) Skips checking file hashes against entries the manifest");
+    lCommandLineOptions.addOption(CommandLineOption.DEFER_HASH_CHECK.getArgString(), false, "(Run only) Checks the hashes of files loaded by metadata loaders as they are streamed to the database, instead of reading them in advance.");
+    
+    lCommandLineOptions.addOption(CommandLineOption.NO_EXEC.getArgString(), false, "(Run only) Does not execute the promote but produces output showing what would be run.");
+    lCommandLineOptions.addOption(CommandLineOption.DELTA.getArgString(), false, "(Run only) Skips DatabaseSource files which are unchanged since their latest successful deployment under any label, unless they have the " + DatabaseSourceLoader.FORCE_PROMOTE_PROPERTY_NAME + " property.");
+    
+    lCommandLineOptions.addOption(CommandLineOption.ASYNC_LOG_COMMIT.getArgString(), false, "(Run only) Commits intermediate log rows asynchronously. Final statuses are always committed synchronously.");
     
-    gCommandLineOptions.addOption(CommandLineOption.LOG_DIRECTORY.getArgString(), true, "Directory to write log file to. Default is current directory.");
-    gCommandLineOptions.addOption(CommandLineOption.LOG_STANDARD_OUT.getArgString(), false, "Log all output to standard out in addition to the log file.");
-    gCommandLineOptions.addOption(CommandLineOption.LOG_DEBUG.getArgString(), false, "Turns verbose debug logging on.");
+    lCommandLineOptions.addOption(CommandLineOption.PARALLEL.getArgString(), true, "(Run only) Number of database sessions to use when promoting consecutive files marked with the " + PromotionLanes.PARALLEL_SAFE_PROPERTY_NAME + " property. Default is 1.");
+    lCommandLineOptions.addOption(CommandLineOption.PARALLEL_COMPILE.getArgString(), false, "(Run only) Promotes consecutive DatabaseSource files across the parallel lanes in the order allowed by the dependencies between them. Requires -" + CommandLineOption.PARALLEL.getArgString() + ".");
+    lCommandLineOptions.addOption(CommandLineOption.RECOMPILE.getArgString(), true, "(Run only) Recompiles invalid objects in the schemas of promoted DatabaseSource files after a successful promote, using the given degree of parallelism.");
     
-    gCommandLineOptions.addOption(CommandLineOption.SKIP_VERSION_CHECK.getArgString(), false, "(Run only) Skips the ScriptRunner version verification.");
+    lCommandLineOptions.addOption(CommandLineOption.PREFETCH.getArgString(), true, "(Run only) Number of files to read and prepare in the background ahead of the file being promoted. Default is 0 (no prefetching).");
+    lCommandLineOptions.addOption(CommandLineOption.PREFETCH_BUDGET.getArgString(), true, "(Run only) Maximum estimated size in bytes of prefetched files held in memory, and of DatabaseSource files kept from validation. Default is " + PromotionPrefetcher.DEFAULT_BYTE_BUDGET + ".");
     
-    gCommandLineOptions.addOption(CommandLineOption.SKIP_HASH_CHECK.getArgString(), false, "(Run only) Skips checking file hashes against entries the manifest");
+    lCommandLineOptions.addOption(CommandLineOption.LOB_CHUNK_SIZE.getArgString(), true, "(Run only) Number of bytes to read at a time when binding files as LOBs. Default is " + LobBinder.DEFAULT_CHUNK_SIZE + ".");
+    lCommandLineOptions.addOption(CommandLineOption.LOB_TEMPORARY_THRESHOLD.getArgString(), true, "(Run only) File size in bytes at which files are written into a temporary LOB before binding. Default is " + LobBinder.DEFAULT_TEMPORARY_LOB_THRESHOLD + ".");
+    lCommandLineOptions.addOption(CommandLineOption.LOB_STAGING.getArgString(), false, "(Run only) Uploads each distinct file content bound by metadata loaders once per promote and binds the staged copy for every file with the same contents.");
     
-    gCommandLineOptions.addOption(CommandLineOption.NO_EXEC.getArgString(), false, "(Run only) Does not execute the promote but produces output showing what would be run.");
+    lCommandLineOptions.addOption(CommandLineOption.JDBC_STATISTICS.getArgString(), false, "(Run only) Counts and times the JDBC calls made on the database connections, and writes a summary to the log and the promotion_runs table when the promote finishes.");
     
-    gCommandLineOptions.addOption(CommandLineOption.PROMOTE_USER.getArgString(), true, "Specify the database user to connect as (default is " + DatabaseConnection.DEFAULT_PROMOTE_USER + ")");
-    gCommandLineOptions.addOption(CommandLineOption.PROMOTE_PASSWORD.getArgString(), true, "Specify the password for the database user. If not specified this will be prompted for.");
+    lCommandLineOptions.addOption(CommandLineOption.PROXY_CACHE.getArgString(), true, "(Run only) Number of proxy connections to keep open for users connected to with CONNECT, so they can be switched back to without opening a new session. Default is 0 (no caching).");
     
-    gCommandLineOptions.addOption(CommandLineOption.JDBC_CONNECT_STRING.getArgString(), true, "A full JDBC connect string for establishing a database connection.");
+    lCommandLineOptions.addOption(CommandLineOption.TARGETS.getArgString(), true, "(Run only) File listing the databases to promote to concurrently, one per line as a JDBC connect string optionally preceded by a target name. Each target is logged to its own log file.");
+    lCommandLineOptions.addOption(CommandLineOption.MAX_CONCURRENT_TARGETS.getArgString(), true, "(Run only) Maximum number of targets to promote to at once when using -" + CommandLineOption.TARGETS.getArgString() + ". Default is " + TargetFanOut.DEFAULT_MAX_CONCURRENT_TARGETS + ".");
+    
+    lCommandLineOptions.addOption(CommandLineOption.PROMOTE_USER.getArgString(), true, "Specify the database user to connect as (default is " + DatabaseConnection.DEFAULT_PROMOTE_USER + ")");
+    lCommandLineOptions.addOption(CommandLineOption.PROMOTE_PASSWORD.getArgString(), true, "Specify the password for the database user. If not specified this will be prompted for.");
+    
+    lCommandLineOptions.addOption(CommandLineOption.JDBC_CONNECT_STRING.getArgString(), true, "A full JDBC connect string for establishing a database connection.");
+    lCommandLineOptions.addOption(CommandLineOption.JDBC_PROPERTIES_FILE.getArgString(), true, "Properties file of Oracle JDBC driver properties for the database connections, or the name of a bundled profile (e.g. lob-heavy). Prefix a property with " + ConnectionProperties.PROMOTE_PREFIX + " or " + ConnectionProperties.LOGGING_PREFIX + " to apply it to one connection only.");
+    lCommandLineOptions.addOption(CommandLineOption.JDBC_PROPERTY.getArgString(), true, "An Oracle JDBC driver property in the form name=value, overriding the properties file. Can be specified more than once.");
+    lCommandLineOptions.addOption(CommandLineOption.DIALECT.getArgString(), true, "Database dialect to use: " + DatabaseConnection.DEFAULT_DIALECT + ", " + DatabaseConnection.H2_DIALECT + " or the class name of a dialect implementing " + DatabaseDialect.class.getName() + ". Default is " + DatabaseConnection.DEFAULT_DIALECT + ".");
 
-    gCommandLineOptions.addOption(CommandLineOption.INSTALL_PROMOTE_USER.getArgString(), true, "(install only) The new promotion user to create.");
-    gCommandLineOptions.addOption(CommandLineOption.INSTALL_PROMOTE_PASSWORD.getArgString(), true, "(install only) The password to use for the new promote user.");
+    lCommandLineOptions.addOption(CommandLineOption.INSTALL_PROMOTE_USER.getArgString(), true, "(install only) The new promotion user to create.");
+    lCommandLineOptions.addOption(CommandLineOption.INSTALL_PROMOTE_PASSWORD.getArgString(), true, "(install only) The password to use for the new promote user.");
     
-    gCommandLineOptions.addOption(CommandLineOption.DB_HOST.getArgString(), true, "Database hostname.");
-    gCommandLineOptions.addOption(CommandLineOption.DB_PORT.getArgString(), true, "Database port.");
+    lCommandLineOptions.addOption(CommandLineOption.DB_HOST.getArgString(), true, "Database hostname.");
+    lCommandLineOptions.addOption(CommandLineOption.DB_PORT.getArgString(), true, "Database port.");
     
     
     Option lSidOption = new Option(CommandLineOption.DB_SID.getArgString(), true, "Database SID.");
@@ -80,18 +119,20 @@ public class CommandLineWrapper {
     lSidServiceNameGroup.addOption(lSidOption);
     lSidServiceNameGroup.addOption(lServiceNameOption);
     
-    gCommandLineOptions.addOptionGroup(lSidServiceNameGroup);
+    lCommandLineOptions.addOptionGroup(lSidServiceNameGroup);
     
-    gCommandLineOptions.addOption(CommandLineOption.DB_SYSDBA.getArgString(), false, "Connect to the database as SYSDBA.");
+    lCommandLineOptions.addOption(CommandLineOption.DB_SYSDBA.getArgString(), false, "Connect to the database as SYSDBA.");
     
-    gCommandLineOptions.addOption(CommandLineOption.OUTPUT_FILE_PATH.getArgString(), true, "(Build only) File path where the output will be written to. Default is {CURRENT_DIR}/{PROMOTE_LABEL}.zip");
-    gCommandLineOptions.addOption(CommandLineOption.PROMOTION_LABEL.getArgString(), true, "(Build only) Promotion label for builder.");
-    gCommandLineOptions.addOption(CommandLineOption.ADDITIONAL_PROPERTIES.getArgString(), true, "(Build only) Location of the additional properties file for the builder.");
+    lCommandLineOptions.addOption(CommandLineOption.OUTPUT_FILE_PATH.getArgString(), true, "(Build only) File path where the output will be written to. Default is {CURRENT_DIR}/{PROMOTE_LABEL}.zip");
+    lCommandLineOptions.addOption(CommandLineOption.PROMOTION_LABEL.getArgString(), true, "(Build only) Promotion label for builder.");
+    lCommandLineOptions.addOption(CommandLineOption.ADDITIONAL_PROPERTIES.getArgString(), true, "(Build only) Location of the additional properties file for the builder.");
 
-    gCommandLineOptions.addOption(CommandLineOption.NO_UNIMPLICATED_FILES.getArgString(), false, "(Build only) Error (rather than warn) if files are found in source directory but not implicated by manifest builder rules.");
-    gCommandLineOptions.addOption(CommandLineOption.VERIFY_LOADERS.getArgString(), false, "(Build only) Validate that the Loader files can be found at build time.");
+    lCommandLineOptions.addOption(CommandLineOption.NO_UNIMPLICATED_FILES.getArgString(), false, "(Build only) Error (rather than warn) if files are found in source directory but not implicated by manifest builder rules.");
+    lCommandLineOptions.addOption(CommandLineOption.VERIFY_LOADERS.getArgString(), false, "(Build only) Validate that the Loader files can be found at build time.");
     
-    //gCommandLineOptions.addOption("help", false, "Prints help.");
+    //lCommandLineOptions.addOption("help", false, "Prints help.");
+    
+    return lCommandLineOptions;
   }
   
   private final CommandLine mCommandLine;
@@ -105,7 +146,17 @@ public class CommandLineWrapper {
   public CommandLineWrapper(String[] pArgs) 
   throws ParseException {    
     CommandLineParser lCLParser = new PosixParser();
-    mCommandLine = lCLParser.parse(gCommandLineOptions, pArgs);
+    mCommandLine = lCLParser.parse(createCommandLineOptions(), pArgs);
+  }
+  
+  /**
+   * Constructs a copy of the given wrapper, including its overridden options. Options can then be overridden in the copy
+   * without affecting the original.
+   * @param pCommandLineWrapper Wrapper to copy.
+   */
+  public CommandLineWrapper(CommandLineWrapper pCommandLineWrapper) {
+    mCommandLine = pCommandLineWrapper.mCommandLine;
+    mOverrideMap.putAll(pCommandLineWrapper.mOverrideMap);
   }
   
   /**
@@ -150,7 +201,7 @@ public class CommandLineWrapper {
    */
   public static void printHelp(){    
     HelpFormatter lFormatter = new HelpFormatter();
-    lFormatter.printHelp("java -jar ScriptRunner.jar", gCommandLineOptions);
+    lFormatter.printHelp("java -jar ScriptRunner.jar", createCommandLineOptions());
   }
   
   /**
@@ -0,0 +1,229 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.CompileSchedule.SourceObject;
+import com.fivium.scriptrunner2.database.DatabaseConnection;
+import com.fivium.scriptrunner2.database.DatabaseDialect;
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+import com.fivium.scriptrunner2.loader.DatabaseSourceLoader;
+import com.fivium.scriptrunner2.loader.Loader;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Records the compilation errors of objects created by the DatabaseSource files in a promote. When the promote has
+ * finished, the objects defined by every promoted DatabaseSource file are checked against <tt>ALL_OBJECTS</tt> and
+ * <tt>ALL_ERRORS</tt> in a single set-based statement. Errors and invalid statuses are recorded against the file's
+ * <tt>promotion_files</tt> row in <tt>promotion_file_errors</tt>, and a summary is written to the log.<br/><br/>
+ *
+ * If a degree of parallelism is given, the invalid objects in the schemas of the promoted objects are recompiled with
+ * <tt>UTL_RECOMP</tt> before the errors are harvested. If the promotion user cannot use <tt>UTL_RECOMP</tt>, the schemas
+ * are recompiled serially with <tt>DBMS_UTILITY</tt>.<br/><br/>
+ *
+ * Harvesting is diagnostic, so failures are logged as warnings and do not fail the promote.
+ */
+public class CompileErrorHarvester {
+
+  private final ScriptRunner mScriptRunner;
+
+  /** Promoted objects and the ID of the promotion_files row of the file which defined them. */
+  private final List<SourceObject> mObjectList = new ArrayList<SourceObject>();
+  private final List<Integer> mFileIdList = new ArrayList<Integer>();
+
+  /**
+   * Harvests the compilation errors of the objects promoted by DatabaseSource files, optionally recompiling invalid
+   * objects first.
+   * @param pScriptRunner ScriptRunner which ran the promote.
+   * @param pFileList All files in the promotion.
+   * @param pLoaderMap Map of loader names to loaders.
+   * @param pRecompileDegree Degree of parallelism for recompiling invalid objects, or 0 to skip recompilation.
+   */
+  public static void harvest(ScriptRunner pScriptRunner, List<PromotionFile> pFileList, Map<String, Loader> pLoaderMap, int pRecompileDegree){
+
+    CompileErrorHarvester lHarvester = new CompileErrorHarvester(pScriptRunner);
+    lHarvester.collectObjects(pFileList, pLoaderMap);
+
+    if(lHarvester.mObjectList.size() == 0){
+      return;
+    }
+
+    Logger.logInfo("\nChecking " + lHarvester.mObjectList.size() + " promoted objects for compilation errors");
+    try {
+      if(pRecompileDegree > 0){
+        lHarvester.recompileSchemas(pRecompileDegree);
+      }
+      lHarvester.recordErrors();
+      lHarvester.logSummary();
+    }
+    catch (SQLException e) {
+      Logger.logWarning("Failed to harvest compilation errors: " + e.getMessage());
+    }
+  }
+
+  private CompileErrorHarvester(ScriptRunner pScriptRunner) {
+    mScriptRunner = pScriptRunner;
+  }
+
+  /**
+   * Collects the objects defined by every DatabaseSource file which has a promotion_files row in this promote, as parsed
+   * when the file was prepared.
+   */
+  private void collectObjects(List<PromotionFile> pFileList, Map<String, Loader> pLoaderMap){
+    for(PromotionFile lFile : pFileList){
+      if(!(pLoaderMap.get(lFile.getLoaderName()) instanceof DatabaseSourceLoader) || lFile.getPromotionFileId() == -1){
+        continue;
+      }
+
+      if(lFile.getSourceReferences() == null){
+        Logger.logDebug("Not checking " + lFile.getFilePath() + " for compilation errors: file was not parsed");
+        continue;
+      }
+
+      for(SourceObject lObject : lFile.getSourceReferences().mDefinedObjects){
+        if(CompileSchedule.RECOMPILABLE_TYPES.contains(lObject.mType)){
+          mObjectList.add(lObject);
+          mFileIdList.add(lFile.getPromotionFileId());
+        }
+      }
+    }
+  }
+
+  /**
+   * Recompiles invalid objects in each schema which contains a promoted object.
+   */
+  private void recompileSchemas(int pDegree)
+  throws SQLException {
+
+    //A null owner represents the promotion user's schema
+    Set<String> lOwners = new LinkedHashSet<String>();
+    for(SourceObject lObject : mObjectList){
+      lOwners.add(lObject.mOwner);
+    }
+
+    DatabaseConnection lDatabaseConnection = mScriptRunner.getDatabaseConnection();
+    Connection lConnection = lDatabaseConnection.getPromoteConnection();
+    for(String lOwner : lOwners){
+      String lDisplayOwner = lOwner == null ? "current schema" : lOwner;
+      Logger.logInfo("Recompiling invalid objects in " + lDisplayOwner + " with parallelism " + pDegree);
+      long lStart = System.currentTimeMillis();
+
+      CallableStatement lStatement = lDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_RECOMPILE_SCHEMA_PARALLEL);
+      try {
+        lStatement.setInt(1, pDegree);
+        lStatement.setString(2, lOwner);
+        lStatement.execute();
+      }
+      catch (SQLException e) {
+        Logger.logInfo("Parallel recompilation not available (" + e.getMessage().trim() + "); recompiling serially");
+        CallableStatement lSerialStatement = lDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_RECOMPILE_SCHEMA);
+        try {
+          lSerialStatement.setString(1, lOwner);
+          lSerialStatement.execute();
+        }
+        catch (SQLException e2) {
+          Logger.logWarning("Failed to recompile " + lDisplayOwner + ": " + e2.getMessage());
+        }
+        finally {
+          lSerialStatement.close();
+        }
+      }
+      finally {
+        lStatement.close();
+      }
+
+      Logger.logInfo("Recompiled " + lDisplayOwner + " in " + (System.currentTimeMillis() - lStart) + "ms");
+    }
+  }
+
+  /**
+   * Inserts the errors and invalid statuses of all the promoted objects into promotion_file_errors in one statement.
+   */
+  private void recordErrors()
+  throws SQLException {
+
+    int lSize = mObjectList.size();
+    Integer[] lFileIds = mFileIdList.toArray(new Integer[lSize]);
+    String[] lOwners = new String[lSize];
+    String[] lNames = new String[lSize];
+    String[] lTypes = new String[lSize];
+    for(int i = 0; i < lSize; i++){
+      lOwners[i] = mObjectList.get(i).mOwner;
+      lNames[i] = mObjectList.get(i).mName;
+      lTypes[i] = mObjectList.get(i).mType;
+    }
+
+    DatabaseConnection lDatabaseConnection = mScriptRunner.getDatabaseConnection();
+    Connection lConnection = lDatabaseConnection.getLoggingConnection();
+    DatabaseDialect lDialect = lDatabaseConnection.getDialect();
+
+    //Binds are set by position as the arrays must be bound as the dialect's collection types
+    CallableStatement lStatement = lDialect.prepareControlCall(lConnection, SQLManager.SQL_FILE_HARVEST_COMPILE_ERRORS);
+    try {
+      lStatement.setArray(1, lDialect.createNumberArray(lConnection, lFileIds));
+      lStatement.setArray(2, lDialect.createStringArray(lConnection, lOwners));
+      lStatement.setArray(3, lDialect.createStringArray(lConnection, lNames));
+      lStatement.setArray(4, lDialect.createStringArray(lConnection, lTypes));
+      lStatement.registerOutParameter(5, Types.INTEGER);
+      lStatement.execute();
+
+      Logger.logDebug("Recorded " + lStatement.getInt(5) + " compilation error rows");
+    }
+    finally {
+      lStatement.close();
+    }
+
+    lDatabaseConnection.commitLoggingConnection(true);
+  }
+
+  /**
+   * Writes a table of the objects which have errors or are invalid to the log.
+   */
+  private void logSummary()
+  throws SQLException {
+
+    DatabaseConnection lDatabaseConnection = mScriptRunner.getDatabaseConnection();
+    PreparedStatement lStatement = lDatabaseConnection.getLoggingConnection().prepareStatement(lDatabaseConnection.getControlSQL(SQLManager.SQL_FILE_SELECT_COMPILE_ERROR_SUMMARY));
+    try {
+      lStatement.setInt(1, mScriptRunner.getPromotionController().getPromotionRunId());
+      ResultSet lResultSet = lStatement.executeQuery();
+
+      StringBuilder lSummary = new StringBuilder();
+      int lObjectCount = 0;
+      while(lResultSet.next()){
+        if(lObjectCount++ == 0){
+          lSummary.append(String.format("%-60s %-8s %-6s %-8s %s%n", "Object", "Status", "Errors", "Warnings", "First error"));
+        }
+        String lFirstError = lResultSet.getString("first_error");
+        lSummary.append(String.format("%-60s %-8s %-6d %-8d %s%n",
+          lResultSet.getString("owner") + "." + lResultSet.getString("object_name") + " (" + lResultSet.getString("object_type") + ")",
+          lResultSet.getString("object_status"), lResultSet.getInt("error_count"), lResultSet.getInt("warning_count"),
+          lFirstError == null ? "" : lFirstError.replaceAll("\\s+", " ")));
+        lSummary.append(String.format("  from %s%n", lResultSet.getString("file_path")));
+      }
+      lResultSet.close();
+
+      if(lObjectCount == 0){
+        Logger.logInfo("No compilation errors or invalid objects found");
+      }
+      else {
+        Logger.logWarning(lObjectCount + " promoted objects have compilation errors or are invalid:\n" + lSummary.toString());
+      }
+    }
+    finally {
+      lStatement.close();
+    }
+  }
+
+}
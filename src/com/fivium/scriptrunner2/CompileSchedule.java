@@ -0,0 +1,416 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.ex.ExParser;
+import com.fivium.scriptrunner2.loader.DatabaseSourceLoader;
+import com.fivium.scriptrunner2.loader.Loader;
+import com.fivium.scriptrunner2.script.parser.ParsedStatement;
+import com.fivium.scriptrunner2.script.parser.ScriptParser;
+
+import java.io.IOException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Schedules a run of consecutive DatabaseSource files across the {@link PromotionLanes} according to the dependencies
+ * between them, so independent objects can be compiled concurrently. Each file's <tt>CREATE</tt> statements are parsed
+ * for the names of the objects they define, and its code is scanned for identifiers. A file depends on an earlier file
+ * in the run if either file refers to an object defined by the other, or if both have the same path. A file which does
+ * not only define recognised objects depends on every earlier file and every later file depends on it. A file is only
+ * started once all the files it depends on have completed, so related objects are compiled in manifest order.<br/><br/>
+ *
+ * An object which refers to an object defined later in the run may be compiled before its dependency, as it would be in
+ * a serial promote. When the run is complete, any objects defined in the run which are invalid are recompiled once.
+ */
+public class CompileSchedule
+implements PromotionLanes.FileSource {
+
+  /** Matches the start of a statement which defines a named object, capturing the object type, schema and name. */
+  private static final Pattern CREATE_PATTERN = Pattern.compile(
+    "^\\s*CREATE\\s+(?:OR\\s+REPLACE\\s+)?(?:(?:NON)?EDITIONABLE\\s+)?(?:(?:NO\\s+)?FORCE\\s+)?" +
+    "(PACKAGE\\s+BODY|TYPE\\s+BODY|PACKAGE|TYPE|VIEW|TRIGGER|FUNCTION|PROCEDURE|(?:PUBLIC\\s+)?SYNONYM)\\s+" +
+    "(?:(\"[^\"]+\"|[A-Z][\\w$#]*)\\s*\\.\\s*)?(\"[^\"]+\"|[A-Z][\\w$#]*)", Pattern.CASE_INSENSITIVE
+  );
+
+  /** Matches a quoted or unquoted identifier. */
+  private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("\"[^\"]+\"|[A-Za-z][\\w$#]*");
+
+  /** Object types which can be recompiled with an ALTER statement. */
+  static final Set<String> RECOMPILABLE_TYPES = new HashSet<String>();
+  static {
+    Collections.addAll(RECOMPILABLE_TYPES, "PACKAGE", "PACKAGE BODY", "TYPE", "TYPE BODY", "VIEW", "TRIGGER", "FUNCTION", "PROCEDURE");
+  }
+
+  private final List<PromotionFile> mFileList;
+
+  /** Indexes of the files each file depends on, which have not yet completed. */
+  private final List<Set<Integer>> mPendingDependencyList = new ArrayList<Set<Integer>>();
+
+  /** Objects defined by each file. */
+  private final List<List<SourceObject>> mDefinedObjectList = new ArrayList<List<SourceObject>>();
+
+  private final boolean[] mStarted;
+  private final boolean[] mCompleted;
+  private int mUnstartedCount;
+  private boolean mCancelled = false;
+
+  /**
+   * A database object defined by a DatabaseSource file.
+   */
+  static class SourceObject {
+    final String mType;
+    final String mOwner;
+    final String mName;
+
+    SourceObject(String pType, String pOwner, String pName){
+      mType = pType;
+      mOwner = pOwner;
+      mName = pName;
+    }
+  }
+
+  /**
+   * The objects defined by a DatabaseSource file and the identifiers it refers to. These are parsed once when the file is
+   * prepared and held on its {@link PromotionFile} for use by the schedule and the {@link CompileErrorHarvester}.
+   */
+  public static class SourceReferences {
+    final List<SourceObject> mDefinedObjects;
+    final Set<String> mIdentifiers;
+    /** True if the file contains statements which do not define a recognised object. */
+    final boolean mIsBarrier;
+
+    SourceReferences(List<SourceObject> pDefinedObjects, Set<String> pIdentifiers, boolean pIsBarrier){
+      mDefinedObjects = pDefinedObjects;
+      mIdentifiers = pIdentifiers;
+      mIsBarrier = pIsBarrier;
+    }
+
+    boolean isBarrier(){
+      return mIsBarrier;
+    }
+
+    boolean refersToObjectIn(SourceReferences pOther){
+      for(SourceObject lObject : pOther.mDefinedObjects){
+        if(mIdentifiers.contains(lObject.mName)){
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Tests if the given file can be promoted as part of a compile schedule.
+   * @param pLoader Loader for the file.
+   * @return True if the file is a DatabaseSource file.
+   */
+  public static boolean isSchedulable(Loader pLoader){
+    return pLoader instanceof DatabaseSourceLoader;
+  }
+
+  /**
+   * Gets the consecutive DatabaseSource files, starting at the given position in the file list, which can be scheduled
+   * together. The returned list always contains at least the file at the start position.
+   * @param pFileList Full list of files in the promotion.
+   * @param pStartIndex Index of the first file in the run.
+   * @param pLoaderMap Map of loader names to loaders.
+   * @return List of files to schedule.
+   */
+  public static List<PromotionFile> getRunFromPosition(List<PromotionFile> pFileList, int pStartIndex, Map<String, Loader> pLoaderMap){
+    int lEndIndex = pStartIndex + 1;
+    while(lEndIndex < pFileList.size() && isSchedulable(pLoaderMap.get(pFileList.get(lEndIndex).getLoaderName()))){
+      lEndIndex++;
+    }
+    return pFileList.subList(pStartIndex, lEndIndex);
+  }
+
+  /**
+   * Creates a schedule for the given DatabaseSource files, using the references parsed when they were prepared. Files
+   * which have not been prepared are read and parsed now.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pFileList Files to schedule, in manifest order.
+   * @return New schedule.
+   * @throws ExFatalError If a file cannot be read.
+   */
+  public static CompileSchedule createForFiles(ScriptRunner pScriptRunner, List<PromotionFile> pFileList)
+  throws ExFatalError {
+    List<SourceReferences> lReferenceList = new ArrayList<SourceReferences>();
+    for(PromotionFile lFile : pFileList){
+      if(lFile.getSourceReferences() != null){
+        lReferenceList.add(lFile.getSourceReferences());
+        continue;
+      }
+
+      String lFileContents;
+      try {
+        lFileContents = FileUtils.readFileToString(pScriptRunner.resolveFile(lFile.getFilePath()));
+      }
+      catch (IOException e) {
+        throw new ExFatalError("Failed to read contents of file " + lFile.getFilePath(), e);
+      }
+
+      try {
+        lReferenceList.add(parseReferences(lFileContents));
+      }
+      catch (ExParser e) {
+        //The error will be reported when the file is promoted - until then treat it as depending on everything
+        Logger.logDebug("Could not parse " + lFile.getFilePath() + " for dependencies: " + e.getMessage());
+        lReferenceList.add(new SourceReferences(Collections.<SourceObject>emptyList(), Collections.<String>emptySet(), true));
+      }
+    }
+    return new CompileSchedule(pFileList, lReferenceList);
+  }
+
+  /**
+   * Parses the contents of a DatabaseSource file for the objects it defines and the identifiers it refers to. Unquoted
+   * names are converted to upper case.
+   * @param pFileContents Contents of the file.
+   * @return The file's references.
+   * @throws ExParser If the file cannot be parsed.
+   */
+  static SourceReferences parseReferences(String pFileContents)
+  throws ExParser {
+    return parseReferences(ScriptParser.parse(pFileContents));
+  }
+
+  /**
+   * Gets the objects defined by, and the identifiers referred to by, the statements parsed from a DatabaseSource file.
+   * Unquoted names are converted to upper case.
+   * @param pParsedStatementList Statements parsed from the file.
+   * @return The file's references.
+   */
+  public static SourceReferences parseReferences(List<ParsedStatement> pParsedStatementList) {
+
+    List<SourceObject> lDefinedObjects = new ArrayList<SourceObject>();
+    Set<String> lIdentifiers = new HashSet<String>();
+    boolean lIsBarrier = false;
+
+    for(ParsedStatement lStatement : pParsedStatementList){
+      if(lStatement.isAllCommentsOrEmpty()){
+        continue;
+      }
+
+      String lCode = lStatement.getCodeString();
+      Matcher lCreateMatcher = CREATE_PATTERN.matcher(lCode);
+      if(lCreateMatcher.find()){
+        String lType = lCreateMatcher.group(1).toUpperCase().replaceAll("\\s+", " ");
+        String lOwner = lCreateMatcher.group(2) == null ? null : normaliseIdentifier(lCreateMatcher.group(2));
+        lDefinedObjects.add(new SourceObject(lType, lOwner, normaliseIdentifier(lCreateMatcher.group(3))));
+      }
+      else {
+        lIsBarrier = true;
+      }
+
+      Matcher lIdentifierMatcher = IDENTIFIER_PATTERN.matcher(lCode);
+      while(lIdentifierMatcher.find()){
+        lIdentifiers.add(normaliseIdentifier(lIdentifierMatcher.group()));
+      }
+    }
+
+    return new SourceReferences(lDefinedObjects, lIdentifiers, lIsBarrier);
+  }
+
+  private static String normaliseIdentifier(String pIdentifier){
+    if(pIdentifier.startsWith("\"")){
+      return pIdentifier.substring(1, pIdentifier.length() - 1);
+    }
+    else {
+      return pIdentifier.toUpperCase();
+    }
+  }
+
+  /**
+   * Creates a schedule for the given files.
+   * @param pFileList Files to schedule, in manifest order.
+   * @param pReferenceList References of each file in the file list.
+   */
+  CompileSchedule(List<PromotionFile> pFileList, List<SourceReferences> pReferenceList) {
+    mFileList = pFileList;
+    mStarted = new boolean[pFileList.size()];
+    mCompleted = new boolean[pFileList.size()];
+    mUnstartedCount = pFileList.size();
+
+    for(int i = 0; i < pFileList.size(); i++){
+      SourceReferences lReferences = pReferenceList.get(i);
+      Set<Integer> lDependencies = new HashSet<Integer>();
+      for(int j = 0; j < i; j++){
+        SourceReferences lEarlierReferences = pReferenceList.get(j);
+        if(lReferences.isBarrier() || lEarlierReferences.isBarrier() || pFileList.get(i).getFilePath().equals(pFileList.get(j).getFilePath()) ||
+           lReferences.refersToObjectIn(lEarlierReferences) || lEarlierReferences.refersToObjectIn(lReferences)){
+          lDependencies.add(j);
+        }
+      }
+      mPendingDependencyList.add(lDependencies);
+      mDefinedObjectList.add(lReferences.mDefinedObjects);
+    }
+  }
+
+  /**
+   * Gets the indexes of the earlier files which the given file is waiting for.
+   * @param pIndex Index of a file in the schedule.
+   * @return Indexes of files which have not yet completed.
+   */
+  synchronized Set<Integer> getPendingDependencies(int pIndex){
+    return new HashSet<Integer>(mPendingDependencyList.get(pIndex));
+  }
+
+  /**
+   * Gets the earliest file in manifest order whose dependencies have all completed, waiting for a file to complete if no
+   * file is ready.
+   * @return The next file to promote, or null if every file has been started or the schedule has been cancelled.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public synchronized PromotionFile next()
+  throws InterruptedException {
+    while(!mCancelled && mUnstartedCount > 0){
+      for(int i = 0; i < mFileList.size(); i++){
+        if(!mStarted[i] && mPendingDependencyList.get(i).isEmpty()){
+          mStarted[i] = true;
+          mUnstartedCount--;
+          return mFileList.get(i);
+        }
+      }
+      wait();
+    }
+    return null;
+  }
+
+  /**
+   * Marks a file as successfully promoted, releasing any files which were waiting for it.
+   * @param pPromotionFile File which has completed.
+   */
+  public synchronized void complete(PromotionFile pPromotionFile){
+    int lIndex = indexOf(pPromotionFile);
+    mCompleted[lIndex] = true;
+    for(Set<Integer> lDependencies : mPendingDependencyList){
+      lDependencies.remove(lIndex);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Stops any further files from being started.
+   */
+  public synchronized void cancel(){
+    mCancelled = true;
+    notifyAll();
+  }
+
+  public synchronized int getUnstartedCount(){
+    return mUnstartedCount;
+  }
+
+  private int indexOf(PromotionFile pPromotionFile){
+    for(int i = 0; i < mFileList.size(); i++){
+      if(mFileList.get(i) == pPromotionFile){
+        return i;
+      }
+    }
+    throw new ExFatalError("File " + pPromotionFile.getFilePath() + " is not part of this compile schedule");
+  }
+
+  /**
+   * Recompiles any objects defined by completed files in this schedule which are invalid. Objects which are still
+   * invalid afterwards are logged but do not cause an error, as would be the case in a serial promote.
+   * @param pScriptRunner ScriptRunner whose promote connection should be used.
+   * @throws SQLException If the status of an object cannot be queried.
+   */
+  public void recompileInvalidObjects(ScriptRunner pScriptRunner)
+  throws SQLException {
+
+    Connection lConnection = pScriptRunner.getDatabaseConnection().getPromoteConnection();
+    PreparedStatement lStatusStatement = lConnection.prepareStatement(pScriptRunner.getDatabaseConnection().getControlSQL(SQLManager.SQL_FILE_SELECT_OBJECT_STATUS));
+    try {
+      for(int i = 0; i < mFileList.size(); i++){
+        if(!mCompleted[i]){
+          continue;
+        }
+
+        for(SourceObject lObject : mDefinedObjectList.get(i)){
+          if(!RECOMPILABLE_TYPES.contains(lObject.mType)){
+            continue;
+          }
+
+          String lOwner = queryInvalidObjectOwner(lStatusStatement, lObject);
+          if(lOwner != null){
+            String lDisplayName = lOwner + "." + lObject.mName + " (" + lObject.mType + ")";
+            Logger.logInfo("Recompiling invalid object " + lDisplayName);
+
+            Statement lStatement = lConnection.createStatement();
+            try {
+              lStatement.execute(getRecompileStatement(lObject, lOwner));
+            }
+            catch (SQLException e) {
+              Logger.logInfo("Failed to recompile " + lDisplayName + ": " + e.getMessage());
+            }
+            finally {
+              lStatement.close();
+            }
+
+            if(queryInvalidObjectOwner(lStatusStatement, lObject) != null){
+              Logger.logInfo(lDisplayName + " is still invalid");
+            }
+          }
+        }
+      }
+    }
+    finally {
+      lStatusStatement.close();
+    }
+  }
+
+  /**
+   * Gets the owner of the given object if it is invalid. An object without an explicit owner is looked up in the current
+   * schema.
+   * @return Owner name, or null if the object is valid or does not exist.
+   */
+  private static String queryInvalidObjectOwner(PreparedStatement pStatusStatement, SourceObject pObject)
+  throws SQLException {
+    pStatusStatement.setString(1, pObject.mOwner);
+    pStatusStatement.setString(2, pObject.mName);
+    pStatusStatement.setString(3, pObject.mType);
+    ResultSet lResultSet = pStatusStatement.executeQuery();
+    try {
+      if(lResultSet.next() && "INVALID".equals(lResultSet.getString("status"))){
+        return lResultSet.getString("owner");
+      }
+      return null;
+    }
+    finally {
+      lResultSet.close();
+    }
+  }
+
+  /**
+   * Gets the ALTER statement which recompiles the given object. Bodies are recompiled with the COMPILE BODY clause of
+   * their specification's type.
+   */
+  static String getRecompileStatement(SourceObject pObject, String pOwner){
+    String lName = "\"" + pOwner + "\".\"" + pObject.mName + "\"";
+    if(pObject.mType.endsWith(" BODY")){
+      return "ALTER " + pObject.mType.substring(0, pObject.mType.length() - " BODY".length()) + " " + lName + " COMPILE BODY";
+    }
+    else {
+      return "ALTER " + pObject.mType + " " + lName + " COMPILE";
+    }
+  }
+
+}
@@ -27,7 +27,13 @@ import org.apache.commons.io.IOUtils;
 
 /**
  * Provider of a simple logging interface for ScriptRunner. Multiple log destinations are supported and there is basic support
- * for different logging levels.
+ * for different logging levels. Messages are written under a lock so messages from parallel promotion lanes are not
+ * interleaved mid-line.<br/><br/>
+ *
+ * When promoting to several targets at once, each target's thread sets its own {@link LogContext}, which is inherited by
+ * any threads it creates. Messages logged on those threads are written to the target's own log file instead of the main
+ * log, and are prefixed with the target name on standard out. Jobs run by the daemon use a LogContext in the same way,
+ * with an echo writer which streams every message back to the client which submitted the job.
  */
 public class Logger {
   
@@ -37,7 +43,7 @@ public class Logger {
   
   private static final String LOG_FILE_NAME_PREFIX = "ScriptRunner-";
   private static final String LOG_FILE_NAME_SUFFIX = ".log";
-  private static final DateFormat LOG_FILE_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd_HHmmss");
+  private static final String LOG_FILE_DATE_FORMAT_MASK = "yyyy-MM-dd_HHmmss";
   public static final DateFormat LOG_FILE_LOG_TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
   
   private static File gLogFile = null;
@@ -46,12 +52,49 @@ public class Logger {
   
   private static boolean gLogDebug = false;  
   
+  private static Writer gStandardOutWriter = null;
+  
+  /** Log destination for the current thread and the threads it creates. Null for the main log. */
+  private static final InheritableThreadLocal<LogContext> gLogContext = new InheritableThreadLocal<LogContext>();
+  
+  /**
+   * A separate log file for messages logged while promoting to one target of a multi-target promote, or while running
+   * a daemon job.
+   */
+  public static class LogContext {
+    private final String mName;
+    private final File mLogFile;
+    private final Writer mWriter;
+    /**
+     * Additional destination for every message, used instead of standard out for echoed messages. May be null. As it is
+     * written to under the global logging lock, it must not block (i.e. it should queue messages for another thread).
+     */
+    private final Writer mEchoWriter;
+    private int mWarningCount = 0;
+    
+    private LogContext(String pName, File pLogFile, Writer pWriter, Writer pEchoWriter){
+      mName = pName;
+      mLogFile = pLogFile;
+      mWriter = pWriter;
+      mEchoWriter = pEchoWriter;
+    }
+
+    public File getLogFile() {
+      return mLogFile;
+    }
+    
+    public synchronized int getWarningCount() {
+      return mWarningCount;
+    }
+  }
+  
   /**
    * Enables standard out logging.
    */
   public static void logToStandardOut(){
     if(!gLogToStandardOut){
-      gLogWriterList.add(new OutputStreamWriter(System.out));
+      gStandardOutWriter = new OutputStreamWriter(System.out);
+      gLogWriterList.add(gStandardOutWriter);
       gLogToStandardOut = true;
     }
   }
@@ -87,8 +130,9 @@ public class Logger {
     
     Writer lClobWriter;
     try {
+      LogContext lContext = gLogContext.get();
       lClobWriter = pClob.setCharacterStream(0);
-      IOUtils.copy(new FileInputStream(gLogFile), lClobWriter);
+      IOUtils.copy(new FileInputStream(lContext != null ? lContext.mLogFile : gLogFile), lClobWriter);
       lClobWriter.close();
     }
     catch (IOException e) {
@@ -113,7 +157,7 @@ public class Logger {
         throw new IOException("Supplied log location " + pLogDirectory.getAbsolutePath() + " is not a directory");
       }
       
-      String lLogFileName = LOG_FILE_NAME_PREFIX + LOG_FILE_DATE_FORMAT.format(new Date()) + LOG_FILE_NAME_SUFFIX;
+      String lLogFileName = LOG_FILE_NAME_PREFIX + new SimpleDateFormat(LOG_FILE_DATE_FORMAT_MASK).format(new Date()) + LOG_FILE_NAME_SUFFIX;
       gLogFile = new File(pLogDirectory, lLogFileName);
       
       gLogWriterList.add(new FileWriter(gLogFile));
@@ -121,15 +165,118 @@ public class Logger {
     }
   }
   
+  /**
+   * Creates a log file for one target of a multi-target promote. If the current thread has a log context, the new log
+   * file is created in the same directory and echoed to the same writer. Otherwise it is created in the same directory
+   * as the main log file. The file name includes the target name.
+   * @param pTargetName Name of the target, which must be valid in a file name.
+   * @return New LogContext.
+   * @throws IOException If the log file cannot be created.
+   */
+  public static LogContext createLogContext(String pTargetName)
+  throws IOException {
+    LogContext lCurrentContext = gLogContext.get();
+    if(lCurrentContext != null){
+      return createLogContext(pTargetName, lCurrentContext.mLogFile.getParentFile(), lCurrentContext.mEchoWriter);
+    }
+    else {
+      return createLogContext(pTargetName, gLogFile.getParentFile(), null);
+    }
+  }
+  
+  /**
+   * Creates a log file in the given directory. The file name includes the given name. If a log file with the same name
+   * was created in the same second, a counter is added to the name so each context has its own file.
+   * @param pName Name of the context, which must be valid in a file name.
+   * @param pLogDirectory Directory to create the log file in.
+   * @param pEchoWriter Writer to echo all messages to, or null.
+   * @return New LogContext.
+   * @throws IOException If the log file cannot be created.
+   */
+  public static LogContext createLogContext(String pName, File pLogDirectory, Writer pEchoWriter)
+  throws IOException {
+    if(!pLogDirectory.isDirectory()){
+      throw new IOException("Log directory " + pLogDirectory.getAbsolutePath() + " does not exist");
+    }
+    
+    //Contexts are created concurrently by target and daemon job threads, and SimpleDateFormat is not thread safe
+    String lLogFileName = LOG_FILE_NAME_PREFIX + new SimpleDateFormat(LOG_FILE_DATE_FORMAT_MASK).format(new Date()) + "-" + pName;
+    
+    //Claim the file name atomically so two contexts started in the same second cannot share a file
+    File lLogFile = new File(pLogDirectory, lLogFileName + LOG_FILE_NAME_SUFFIX);
+    for(int i = 2; !lLogFile.createNewFile(); i++){
+      lLogFile = new File(pLogDirectory, lLogFileName + "-" + i + LOG_FILE_NAME_SUFFIX);
+    }
+    
+    return new LogContext(pName, lLogFile, new FileWriter(lLogFile), pEchoWriter);
+  }
+  
+  /**
+   * Formats a timestamp in the format used for log messages. Safe to call from any thread.
+   * @param pDate Date to format.
+   * @return Formatted timestamp.
+   */
+  public static synchronized String formatLogTimestamp(Date pDate){
+    return LOG_FILE_LOG_TIMESTAMP_FORMAT.format(pDate);
+  }
+  
+  /**
+   * Sets the log context for the current thread, and any threads it subsequently creates.
+   * @param pLogContext Context to log to, or null to log to the main log.
+   */
+  public static void setLogContext(LogContext pLogContext){
+    gLogContext.set(pLogContext);
+  }
+  
+  /**
+   * Closes a log context's log file. It must not be used after this.
+   * @param pLogContext Context to close.
+   */
+  public static synchronized void closeLogContext(LogContext pLogContext){
+    try {
+      pLogContext.mWriter.close();
+    }
+    catch (IOException e) {
+      throw new ExInternal("Logging exception", e);
+    }
+  }
+  
+  /**
+   * Gets the writers which messages on the current thread should be written to.
+   * @return List of writers.
+   */
+  private static List<Writer> currentLogWriters(){
+    LogContext lContext = gLogContext.get();
+    if(lContext == null){
+      return gLogWriterList;
+    }
+    
+    List<Writer> lWriterList = new ArrayList<Writer>(3);
+    lWriterList.add(lContext.mWriter);
+    if(lContext.mEchoWriter != null){
+      lWriterList.add(lContext.mEchoWriter);
+    }
+    if(gStandardOutWriter != null){
+      lWriterList.add(gStandardOutWriter);
+    }
+    return lWriterList;
+  }
+  
   /**
    * Internal method for logging a message to all loggers.
    * @param pString Message.
    */
-  private static void log(String pString){
-    for(Writer lWriter : gLogWriterList){
+  private static synchronized void log(String pString){
+    LogContext lContext = gLogContext.get();
+    for(Writer lWriter : currentLogWriters()){
       String timeStamp = LOG_FILE_LOG_TIMESTAMP_FORMAT.format(new Date());
       try {
         lWriter.write("[" + timeStamp + "] ");
+        
+        //Distinguish targets' messages on standard out
+        if(lContext != null && lWriter == gStandardOutWriter){
+          lWriter.write("[" + lContext.mName + "] ");
+        }
 
         lWriter.write(pString);     
         lWriter.write("\n");
@@ -157,17 +304,20 @@ public class Logger {
    */
   public static void logAndEcho(String pString){
     log(pString);  
-    if(!gLogToStandardOut){
-      System.out.println(pString);
+    //Messages in a context with an echo writer have already been echoed by log()
+    LogContext lContext = gLogContext.get();
+    if(!gLogToStandardOut && (lContext == null || lContext.mEchoWriter == null)){
+      System.out.println(lContext != null ? "[" + lContext.mName + "] " + pString : pString);
     }
   }
   
   /**
-   * Gets the number of warnings which have occurred so far.
+   * Gets the number of warnings which have occurred so far in the current log context.
    * @return Warning count.
    */
-  public static int getWarningCount(){
-    return gWarningCount;
+  public static synchronized int getWarningCount(){
+    LogContext lContext = gLogContext.get();
+    return lContext != null ? lContext.getWarningCount() : gWarningCount;
   }
   
   /**
@@ -196,8 +346,16 @@ public class Logger {
    * Logs a warning message. If warnings are logged, the user is notified at the end of the run.
    * @param pMessage Warning message to log.
    */
-  public static void logWarning(String pMessage){
-    gWarningCount++;
+  public static synchronized void logWarning(String pMessage){
+    LogContext lContext = gLogContext.get();
+    if(lContext != null){
+      synchronized(lContext){
+        lContext.mWarningCount++;
+      }
+    }
+    else {
+      gWarningCount++;
+    }
     log("***WARNING***\n" + pMessage);
   }
   
@@ -205,9 +363,9 @@ public class Logger {
    * Prints the stacktrace of an error to each logger.
    * @param pError Error to log.
    */
-  public static void logError(Throwable pError){      
+  public static synchronized void logError(Throwable pError){      
     //Loop through every logger to print stack trace information
-    for(Writer lWriter : gLogWriterList){
+    for(Writer lWriter : currentLogWriters()){
       pError.printStackTrace(new PrintWriter(lWriter));
       try {
         lWriter.flush();
@@ -1,6 +1,9 @@
 package com.fivium.scriptrunner2;
 
 
+import com.fivium.scriptrunner2.archive.Archiver;
+import com.fivium.scriptrunner2.daemon.DaemonClient;
+import com.fivium.scriptrunner2.daemon.ScriptRunnerDaemon;
 import com.fivium.scriptrunner2.install.Installer;
 import com.fivium.scriptrunner2.update.Updater;
 import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
@@ -41,6 +44,12 @@ public class Main {
       System.exit(1);
     }
     
+    //Jobs sent to a daemon are logged by the daemon
+    if(lCommandLineOptions.hasOption(CommandLineOption.DAEMON_PORT) && 
+      (lCommandLineOptions.hasOption(CommandLineOption.RUN) || lCommandLineOptions.hasOption(CommandLineOption.BUILD))){
+      System.exit(DaemonClient.submitJob(lCommandLineOptions, args));
+    }
+    
     //Set up logging
     try {
       File lLogDir;
@@ -72,45 +81,13 @@ public class Main {
     
     Logger.logAndEcho(ScriptRunnerVersion.getVersionString());
     
-    //Main branch - call the relevant subprocess based on supplied arguments    
     boolean lError = false;  
     try {
-      if(lCommandLineOptions.hasOption(CommandLineOption.RUN)){
-        ScriptRunner.run(lCommandLineOptions);
-        if(lCommandLineOptions.hasOption(CommandLineOption.NO_EXEC)){
-          Logger.logAndEcho("-noexec parse completed successfully");   
-        }
-        else {
-          Logger.logAndEcho("Promotion completed successfully");  
-        }
+      if(lCommandLineOptions.hasOption(CommandLineOption.SERVE)){
+        ScriptRunnerDaemon.run(lCommandLineOptions);
       }
-      else if(lCommandLineOptions.hasOption(CommandLineOption.BUILD)){
-        ScriptBuilder lScriptBuilder = new ScriptBuilder(lCommandLineOptions);
-        lScriptBuilder.run();
-        Logger.logAndEcho("Build completed successfully");        
-      } 
-      else if(lCommandLineOptions.hasOption(CommandLineOption.INSTALL)){
-        Logger.logAndEcho("Installing ScriptRunner"); 
-        Installer.run(lCommandLineOptions);
-        //Haul up to latest version
-        Updater.run(lCommandLineOptions);
-        Logger.logAndEcho("Install completed successfully");             
-      }
-      else if(lCommandLineOptions.hasOption(CommandLineOption.UPDATE)){
-        Logger.logAndEcho("Checking Scriptrunner is up to date"); 
-        Updater.run(lCommandLineOptions);
-        Logger.logAndEcho("Update check completed successfully");             
-      }
-      else if(lCommandLineOptions.hasOption(CommandLineOption.PARSE_SCRIPTS)){
-        List<String> lFileList = lCommandLineOptions.getOptionValues(CommandLineOption.PARSE_SCRIPTS);
-        Logger.logAndEcho("Parsing " + lFileList.size() + " PatchScript" + (lFileList.size() != 1 ? "s" : "")); 
-        lError = !PatchScript.printScriptsToStandardOut(new File(System.getProperty("user.dir")), lFileList);
-      } 
-      
-      //Print a message to standard out if warnings were encountered
-      int lWarnCount = Logger.getWarningCount();
-      if(Logger.getWarningCount() > 0){
-        Logger.logAndEcho(lWarnCount + " warning" + (lWarnCount != 1 ? "s were" : " was") +" detected during execution; please review the log for details");  
+      else {
+        lError = runCommand(lCommandLineOptions);
       }
     }
     catch (Throwable th){
@@ -130,4 +107,61 @@ public class Main {
     //Exit with the correct code
     System.exit(lError ? 1 : 0);
   }
+  
+  /**
+   * Runs the ScriptRunner subprocess requested by the given command line options, and reports any warnings. This is 
+   * used for commands run directly and for jobs run by the daemon.
+   * @param pCommandLineOptions Command line options.
+   * @return True if the subprocess reported an error without throwing an exception.
+   * @throws Throwable If the subprocess failed.
+   */
+  public static boolean runCommand(CommandLineWrapper pCommandLineOptions)
+  throws Throwable {
+    
+    //Main branch - call the relevant subprocess based on supplied arguments    
+    boolean lError = false;  
+    if(pCommandLineOptions.hasOption(CommandLineOption.RUN)){
+      ScriptRunner.run(pCommandLineOptions);
+      if(pCommandLineOptions.hasOption(CommandLineOption.NO_EXEC)){
+        Logger.logAndEcho("-noexec parse completed successfully");   
+      }
+      else {
+        Logger.logAndEcho("Promotion completed successfully");  
+      }
+    }
+    else if(pCommandLineOptions.hasOption(CommandLineOption.BUILD)){
+      ScriptBuilder lScriptBuilder = new ScriptBuilder(pCommandLineOptions);
+      lScriptBuilder.run();
+      Logger.logAndEcho("Build completed successfully");        
+    } 
+    else if(pCommandLineOptions.hasOption(CommandLineOption.INSTALL)){
+      Logger.logAndEcho("Installing ScriptRunner"); 
+      Installer.run(pCommandLineOptions);
+      //Haul up to latest version
+      Updater.run(pCommandLineOptions);
+      Logger.logAndEcho("Install completed successfully");             
+    }
+    else if(pCommandLineOptions.hasOption(CommandLineOption.UPDATE)){
+      Logger.logAndEcho("Checking Scriptrunner is up to date"); 
+      Updater.run(pCommandLineOptions);
+      Logger.logAndEcho("Update check completed successfully");             
+    }
+    else if(pCommandLineOptions.hasOption(CommandLineOption.ARCHIVE)){
+      Archiver.run(pCommandLineOptions);
+      Logger.logAndEcho("Archive completed successfully");             
+    }
+    else if(pCommandLineOptions.hasOption(CommandLineOption.PARSE_SCRIPTS)){
+      List<String> lFileList = pCommandLineOptions.getOptionValues(CommandLineOption.PARSE_SCRIPTS);
+      Logger.logAndEcho("Parsing " + lFileList.size() + " PatchScript" + (lFileList.size() != 1 ? "s" : "")); 
+      lError = !PatchScript.printScriptsToStandardOut(new File(System.getProperty("user.dir")), lFileList);
+    } 
+    
+    //Print a message to standard out if warnings were encountered
+    int lWarnCount = Logger.getWarningCount();
+    if(Logger.getWarningCount() > 0){
+      Logger.logAndEcho(lWarnCount + " warning" + (lWarnCount != 1 ? "s were" : " was") +" detected during execution; please review the log for details");  
+    }
+    
+    return lError;
+  }
 }
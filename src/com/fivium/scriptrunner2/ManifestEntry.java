@@ -5,6 +5,7 @@ import com.fivium.scriptrunner2.builder.BuilderManifestEntry;
 import com.fivium.scriptrunner2.ex.ExParser;
 import com.fivium.scriptrunner2.util.XFUtil;
 
+import com.google.common.hash.HashCodes;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
@@ -54,10 +55,17 @@ public abstract class ManifestEntry {
   
   private String mFileHash = null;
   
+  /** True if mFileHash is the manifest's expected hash, which has not yet been verified against the file. */
+  private boolean mIsFileHashDeferred = false;
+  
   private int mFileIndex;
   
+  /** Must use the same algorithm as {@link #HASH_DIGEST_ALGORITHM}. */
   private static final HashFunction gHashFunction = Hashing.md5();
   
+  /** MessageDigest algorithm name for the standard hash function, for hashing a file as it is streamed. */
+  public static final String HASH_DIGEST_ALGORITHM = "MD5";
+  
   /**
    * Parses a manifest file line into a BuilderManifestEntry or PromotionFile.
    * @param pLine String contents of the line.
@@ -137,6 +145,21 @@ public abstract class ManifestEntry {
     mIsForcedDuplicate = pIsForcedDuplicate;
   } 
   
+  /**
+   * Constructs a copy of the given entry, including its file hash state.
+   * @param pEntry Entry to copy.
+   */
+  protected ManifestEntry(ManifestEntry pEntry){
+    mIsAugmentation = pEntry.mIsAugmentation;
+    mFilePath = pEntry.mFilePath;
+    mLoaderName = pEntry.mLoaderName;
+    mPropertyMap = pEntry.mPropertyMap;
+    mIsForcedDuplicate = pEntry.mIsForcedDuplicate;
+    mFileHash = pEntry.mFileHash;
+    mIsFileHashDeferred = pEntry.mIsFileHashDeferred;
+    mFileIndex = pEntry.mFileIndex;
+  }
+  
   /**
    * Gets the position of this entry in the overal promotion order.
    * @return Sequence position.
@@ -210,6 +233,48 @@ public abstract class ManifestEntry {
     }
     return mFileHash;
   }
+  
+  /**
+   * Formats the result of a {@link #HASH_DIGEST_ALGORITHM} MessageDigest in the same way as {@link #hashFile}.
+   * @param pDigest Digest bytes.
+   * @return Hash string.
+   */
+  public static String formatHashDigest(byte[] pDigest){
+    return HashCodes.fromBytes(pDigest).toString();
+  }
+  
+  /**
+   * Sets this file's hash to the expected hash from the manifest without reading the file. The hash must be verified
+   * later, either as the file is streamed to the database or by calling {@link #verifyDeferredFileHash}.
+   * @param pExpectedHash Hash from the manifest.
+   */
+  public void deferFileHash(String pExpectedHash){
+    mFileHash = pExpectedHash;
+    mIsFileHashDeferred = true;
+  }
+  
+  /**
+   * Tests if this file's hash was taken from the manifest and has not yet been verified against the file.
+   * @return True if the hash check is deferred.
+   */
+  public boolean isFileHashDeferred(){
+    return mIsFileHashDeferred;
+  }
+  
+  /**
+   * Hashes the file and compares the result to its deferred hash. If they match the hash is no longer deferred.
+   * @param pResolver Resolver for locating the file.
+   * @return True if the file matches its deferred hash.
+   * @throws IOException If the file cannot be read.
+   */
+  public boolean verifyDeferredFileHash(FileResolver pResolver)
+  throws IOException {
+    if(hashFile(mFilePath, pResolver).equals(mFileHash)){
+      mIsFileHashDeferred = false;
+      return true;
+    }
+    return false;
+  }
 
   /**
    * Tests if this entry is an augmentation entry (i.e. a "~"-prefixed entry used for overriding the position or properties
@@ -1,6 +1,7 @@
 package com.fivium.scriptrunner2;
 
 
+import com.fivium.scriptrunner2.CompileSchedule.SourceReferences;
 import com.fivium.scriptrunner2.builder.ManifestBuilder;
 import com.fivium.scriptrunner2.util.XFUtil;
 
@@ -23,6 +24,18 @@ extends ManifestEntry {
     mSequencePosition = pSequencePosition;
   }
   
+  /**
+   * Constructs a copy of the given PromotionFile without its promotion state, so the same manifest entry can be promoted
+   * to another database.
+   * @param pPromotionFile File to copy.
+   */
+  public PromotionFile(PromotionFile pPromotionFile){
+    super(pPromotionFile);
+    mSequencePosition = pPromotionFile.mSequencePosition;
+    //References depend only on the file's contents
+    mSourceReferences = pPromotionFile.mSourceReferences;
+  }
+  
   /** ID of corresponding log row for this file on the database. Only populated just-in-time before the file is promoted. */
   private int mPromotionFileId = -1;  
   
@@ -39,6 +52,24 @@ extends ManifestEntry {
     return mPromotionFileId;
   }
 
+  /** 
+   * Objects defined and referred to by a DatabaseSource file, parsed when the file is prepared. Set on a pre-parsing
+   * thread and read on the promote thread.
+   */
+  private volatile SourceReferences mSourceReferences = null;
+
+  public void setSourceReferences(SourceReferences pSourceReferences) {
+    mSourceReferences = pSourceReferences;
+  }
+
+  /**
+   * Gets the objects defined and referred to by this file if it is a DatabaseSource file which has been prepared.
+   * @return The file's references, or null if they have not been parsed.
+   */
+  public SourceReferences getSourceReferences() {
+    return mSourceReferences;
+  }
+
   public int getSequencePosition() {
     return mSequencePosition;
   }
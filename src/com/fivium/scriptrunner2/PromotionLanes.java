@@ -0,0 +1,310 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.ex.ExPromote;
+import com.fivium.scriptrunner2.loader.Loader;
+import com.fivium.scriptrunner2.loader.MetadataLoader;
+import com.fivium.scriptrunner2.loader.SourceLoader;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A pool of parallel promotion lanes, each with its own database connections and PromotionController logging against
+ * the current promotion run. Consecutive files which are marked with the <tt>parallel_safe</tt> property are promoted
+ * as a run across the lanes, in no particular order. Every file in a run is complete before the next file in the
+ * manifest is promoted, so ordering is preserved at the boundaries of each run.<br/><br/>
+ *
+ * Runs of DatabaseSource files can also be promoted across the lanes in dependency order using a {@link CompileSchedule}.
+ * <br/><br/>
+ * 
+ * If a file fails in one lane, the other lanes finish the file they are currently promoting and then stop. Files which
+ * were not started are not logged, as is the case when a serial promote fails.
+ */
+public class PromotionLanes {
+
+  /** Property which marks a file as safe to promote in parallel with its neighbours. */
+  public static final String PARALLEL_SAFE_PROPERTY_NAME = "parallel_safe";
+
+  private final ScriptRunner mScriptRunner;
+  private final int mLaneCount;
+
+  /** Lane ScriptRunners, created when the first run is promoted. */
+  private final List<ScriptRunner> mLaneList = new ArrayList<ScriptRunner>();
+
+  private ExecutorService mExecutorService = null;
+  
+  /**
+   * Supplies files to the lanes as they become available for promotion.
+   */
+  interface FileSource {
+    
+    /**
+     * Gets the next file to promote, waiting until one is available if necessary.
+     * @return Next file, or null if no more files should be started.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    PromotionFile next()
+    throws InterruptedException;
+    
+    /**
+     * Records that a file has been promoted successfully.
+     * @param pPromotionFile Promoted file.
+     */
+    void complete(PromotionFile pPromotionFile);
+    
+    /**
+     * Stops any more files being supplied, after a lane has failed.
+     */
+    void cancel();
+    
+    /**
+     * Gets the number of files which have not been supplied to a lane.
+     * @return Number of unstarted files.
+     */
+    int getUnstartedCount();
+  }
+  
+  /**
+   * Supplies the files of a parallel safe run in any order.
+   */
+  private static class QueueFileSource
+  implements FileSource {
+    
+    private final Queue<PromotionFile> mFileQueue;
+    private final AtomicBoolean mCancelled = new AtomicBoolean(false);
+    
+    QueueFileSource(List<PromotionFile> pRun){
+      mFileQueue = new ConcurrentLinkedQueue<PromotionFile>(pRun);
+    }
+    
+    public PromotionFile next() {
+      return mCancelled.get() ? null : mFileQueue.poll();
+    }
+    
+    public void complete(PromotionFile pPromotionFile) {
+    }
+    
+    public void cancel() {
+      mCancelled.set(true);
+    }
+    
+    public int getUnstartedCount() {
+      return mFileQueue.size();
+    }
+  }
+
+  /**
+   * Tests if the given file may be promoted in a parallel lane. The file must be marked as parallel safe and use a
+   * SourceLoader. Files which specify a batch size are promoted in their batches instead.
+   * @param pPromotionFile File to test.
+   * @param pLoader Loader for the file.
+   * @return True if the file can be promoted in a lane.
+   */
+  public static boolean isParallelSafe(PromotionFile pPromotionFile, Loader pLoader){
+    return "true".equals(pPromotionFile.getPropertyMap().get(PARALLEL_SAFE_PROPERTY_NAME)) && pLoader instanceof SourceLoader &&
+      !(pLoader instanceof MetadataLoader && MetadataLoader.getBatchSize(pPromotionFile) > 1);
+  }
+
+  /**
+   * Gets the consecutive parallel safe files, starting at the given position in the file list, which can be promoted
+   * together in a run. A run ends before any file whose path already appears in the run, so repeated promotes of the
+   * same file keep their order. The returned list always contains at least the file at the start position.
+   * @param pFileList Full list of files in the promotion.
+   * @param pStartIndex Index of the first file in the run.
+   * @param pLoaderMap Map of loader names to loaders.
+   * @return List of files to promote in parallel.
+   */
+  public static List<PromotionFile> getRunFromPosition(List<PromotionFile> pFileList, int pStartIndex, Map<String, Loader> pLoaderMap){
+    List<PromotionFile> lRun = new ArrayList<PromotionFile>();
+    Set<String> lRunPaths = new HashSet<String>();
+
+    lRun.add(pFileList.get(pStartIndex));
+    lRunPaths.add(pFileList.get(pStartIndex).getFilePath());
+
+    for(int i = pStartIndex + 1; i < pFileList.size(); i++){
+      PromotionFile lFile = pFileList.get(i);
+      if(!isParallelSafe(lFile, pLoaderMap.get(lFile.getLoaderName())) || !lRunPaths.add(lFile.getFilePath())){
+        break;
+      }
+      lRun.add(lFile);
+    }
+
+    return lRun;
+  }
+
+  /**
+   * Creates a new set of lanes. No connections are established until the first run is promoted.
+   * @param pScriptRunner ScriptRunner which has started the promote.
+   * @param pLaneCount Number of lanes.
+   */
+  public PromotionLanes(ScriptRunner pScriptRunner, int pLaneCount) {
+    mScriptRunner = pScriptRunner;
+    mLaneCount = pLaneCount;
+  }
+
+  private void createLanes()
+  throws ExPromote {
+    Logger.logInfo("Establishing " + mLaneCount + " parallel promotion lanes");
+    for(int i = 0; i < mLaneCount; i++){
+      mLaneList.add(mScriptRunner.createLaneScriptRunner());
+    }
+
+    final AtomicInteger lThreadNumber = new AtomicInteger(1);
+    mExecutorService = Executors.newFixedThreadPool(mLaneCount, new ThreadFactory() {
+      public Thread newThread(Runnable pRunnable) {
+        return new Thread(pRunnable, "ScriptRunner-lane-" + lThreadNumber.getAndIncrement());
+      }
+    });
+  }
+
+  /**
+   * Promotes a run of parallel safe files across the lanes and waits for all of them to complete.
+   * @param pRun Files to promote, as established by {@link #getRunFromPosition}.
+   * @param pLoaderMap Map of loader names to loaders.
+   * @throws ExPromote If any file fails to promote. If more than one lane fails, the first failure is reported.
+   */
+  public void promoteRun(List<PromotionFile> pRun, Map<String, Loader> pLoaderMap)
+  throws ExPromote {
+
+    if(mExecutorService == null){
+      createLanes();
+    }
+
+    Logger.logInfo("\nPromoting " + pRun.size() + " parallel safe files from manifest position #" + pRun.get(0).getSequencePosition() +
+                   " across " + Math.min(mLaneCount, pRun.size()) + " lanes");
+
+    promoteFromSource(new QueueFileSource(pRun), pRun.size(), pLoaderMap);
+  }
+
+  /**
+   * Promotes a run of DatabaseSource files across the lanes in the order allowed by their dependencies, waits for all of
+   * them to complete and then recompiles any objects from the run which are invalid.
+   * @param pRun Files to promote, as established by {@link CompileSchedule#getRunFromPosition}.
+   * @param pSchedule Schedule for the files in the run.
+   * @param pLoaderMap Map of loader names to loaders.
+   * @throws ExPromote If any file fails to promote. If more than one lane fails, the first failure is reported.
+   */
+  public void promoteSchedule(List<PromotionFile> pRun, CompileSchedule pSchedule, Map<String, Loader> pLoaderMap)
+  throws ExPromote {
+
+    if(mExecutorService == null){
+      createLanes();
+    }
+
+    Logger.logInfo("\nPromoting " + pRun.size() + " DatabaseSource files from manifest position #" + pRun.get(0).getSequencePosition() +
+                   " across " + Math.min(mLaneCount, pRun.size()) + " lanes in dependency order");
+
+    promoteFromSource(pSchedule, pRun.size(), pLoaderMap);
+
+    try {
+      pSchedule.recompileInvalidObjects(mLaneList.get(0));
+    }
+    catch (SQLException e) {
+      throw new ExPromote("Failed to check status of compiled objects: " + e.getMessage(), e);
+    }
+  }
+
+  private void promoteFromSource(final FileSource pFileSource, int pFileCount, final Map<String, Loader> pLoaderMap)
+  throws ExPromote {
+
+    List<Future<Void>> lFutureList = new ArrayList<Future<Void>>();
+    for(int i = 0; i < mLaneCount && i < pFileCount; i++){
+      final ScriptRunner lLane = mLaneList.get(i);
+      lFutureList.add(mExecutorService.submit(new Callable<Void>() {
+        public Void call()
+        throws ExPromote, InterruptedException {
+          PromotionFile lFile;
+          while((lFile = pFileSource.next()) != null){
+            try {
+              pLoaderMap.get(lFile.getLoaderName()).promoteFile(lLane, lFile);
+              pFileSource.complete(lFile);
+            }
+            catch (ExPromote e) {
+              pFileSource.cancel();
+              throw e;
+            }
+            catch (RuntimeException e) {
+              pFileSource.cancel();
+              throw e;
+            }
+            catch (Error e) {
+              pFileSource.cancel();
+              throw e;
+            }
+          }
+          return null;
+        }
+      }));
+    }
+
+    //Wait for every lane to finish, even after a failure, so no file is still promoting when the error is reported
+    Throwable lError = null;
+    for(Future<Void> lFuture : lFutureList){
+      try {
+        lFuture.get();
+      }
+      catch (ExecutionException e) {
+        if(lError == null){
+          lError = e.getCause();
+        }
+      }
+      catch (InterruptedException e) {
+        if(lError == null){
+          lError = e;
+        }
+      }
+    }
+
+    if(lError != null){
+      if(pFileSource.getUnstartedCount() > 0){
+        Logger.logInfo("Parallel run cancelled; " + pFileSource.getUnstartedCount() + " files were not started");
+      }
+
+      if(lError instanceof ExPromote){
+        throw (ExPromote) lError;
+      }
+      else {
+        throw new ExPromote("Unexpected error in parallel promotion lane: " + lError.getMessage(), lError);
+      }
+    }
+  }
+
+  /**
+   * Stops the lane threads and closes the connections of all lanes. Errors are logged but not thrown.
+   */
+  public void close(){
+    if(mExecutorService != null){
+      mExecutorService.shutdownNow();
+    }
+
+    for(ScriptRunner lLane : mLaneList){
+      try {
+        lLane.getDatabaseConnection().closePromoteConnection();
+        lLane.getDatabaseConnection().closeLoggingConnection();
+      }
+      catch (ExFatalError e) {
+        Logger.logWarning("Failed to close lane connection: " + e.getMessage());
+      }
+    }
+    mLaneList.clear();
+  }
+
+}
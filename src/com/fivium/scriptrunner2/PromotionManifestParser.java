@@ -78,12 +78,18 @@ extends ManifestParser {
       
       lAllFilePaths.remove(pScriptRunner.relativeFilePath(lFile));
       
-      String lFileHash;
-      try {
-        lFileHash = lPromotionFile.generateFileHash(pScriptRunner);
-      }
-      catch (IOException e) {
-        throw new ExManifest("Could not generate hash for file " + lPromotionFile.getFilePath(), e);
+      //Files loaded by a metadata loader can have their hash checked as they are loaded; other files are hashed now
+      boolean lDeferHashCheck = pScriptRunner.hasCommandLineOption(CommandLineOption.DEFER_HASH_CHECK) && 
+        !pScriptRunner.hasCommandLineOption(CommandLineOption.SKIP_HASH_CHECK) && mLoaderMap.containsKey(lPromotionFile.getLoaderName());
+      
+      String lFileHash = null;
+      if(!lDeferHashCheck){
+        try {
+          lFileHash = lPromotionFile.generateFileHash(pScriptRunner);
+        }
+        catch (IOException e) {
+          throw new ExManifest("Could not generate hash for file " + lPromotionFile.getFilePath(), e);
+        }
       }
             
       //Do a hash code check if required
@@ -93,6 +99,17 @@ extends ManifestParser {
           throw new ExManifest("Cannot perform hash check for " + lPromotionFile.getFilePath() + " as the " + ManifestBuilder.PROPERTY_NAME_FILE_HASH + " property is not specified");
         }
         
+        if(lDeferHashCheck){
+          //Only check the size now, if the manifest records it
+          String lPropertySize = lPromotionFile.getPropertyMap().get(ManifestBuilder.PROPERTY_NAME_FILE_SIZE);
+          if(!XFUtil.isNull(lPropertySize) && !lPropertySize.equals(Long.toString(lFile.length()))){
+            throw new ExManifest("Size verification failed for file " + lPromotionFile.getFilePath() + " - expected " + lPropertySize + " bytes but got " + lFile.length());
+          }
+          lPromotionFile.deferFileHash(lPropertyHash);
+          Logger.logDebug("Hash check deferred for file " + lPromotionFile.getFilePath());
+          continue;
+        }
+        
         if(!lPropertyHash.equals(lFileHash)){
           throw new ExManifest("Hash verification failed for file " + lPromotionFile.getFilePath() + " - expected " + lPropertyHash + " but got " + lFileHash);
         }
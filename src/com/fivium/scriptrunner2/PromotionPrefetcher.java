@@ -0,0 +1,185 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.loader.Loader;
+import com.fivium.scriptrunner2.loader.PreparedFile;
+import com.fivium.scriptrunner2.loader.SourceLoader;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Prepares promotion files on background threads ahead of their promotion, so reading, parsing and substitution for the
+ * next files in the manifest overlaps with the execution of the current file. Files are prepared by their
+ * {@link SourceLoader}. At most a given number of files ahead of the current position are prepared, and the estimated
+ * size of prepared files which have not yet been promoted is kept within a byte budget. A file which does not fit in an
+ * empty budget is not prefetched.<br/><br/>
+ *
+ * A prefetched file which fails to prepare is simply prepared again when it is promoted, so the error is reported in the
+ * normal way.
+ */
+public class PromotionPrefetcher {
+
+  /** Default maximum estimated size of prepared files which have not been promoted. */
+  public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+
+  private final ScriptRunner mScriptRunner;
+  private final List<PromotionFile> mFileList;
+  private final Map<String, Loader> mLoaderMap;
+  private final int mReadAhead;
+  private final long mByteBudget;
+  private final ExecutorService mExecutorService;
+
+  /** Files which have been submitted for preparation and not yet taken. */
+  private final Map<PromotionFile, Prefetch> mPrefetchMap = new IdentityHashMap<PromotionFile, Prefetch>();
+
+  /** Index of the next file in the file list to consider for prefetching. */
+  private int mNextIndex = 0;
+
+  /** Total estimated size of the files in the prefetch map. */
+  private long mReservedBytes = 0;
+
+  /**
+   * A file which has been submitted for preparation.
+   */
+  private static class Prefetch {
+    final int mIndex;
+    final long mByteSize;
+    final Future<PreparedFile> mFuture;
+
+    Prefetch(int pIndex, long pByteSize, Future<PreparedFile> pFuture){
+      mIndex = pIndex;
+      mByteSize = pByteSize;
+      mFuture = pFuture;
+    }
+  }
+
+  /**
+   * Creates a new prefetcher for the given files. Nothing is prefetched until {@link #advanceTo} is called.
+   * @param pScriptRunner ScriptRunner performing the promote.
+   * @param pFileList All files in the promotion, in order.
+   * @param pLoaderMap Map of loader names to loaders.
+   * @param pReadAhead Maximum number of files ahead of the current file to prepare.
+   * @param pByteBudget Maximum estimated size of prepared files which have not been promoted.
+   */
+  public PromotionPrefetcher(ScriptRunner pScriptRunner, List<PromotionFile> pFileList, Map<String, Loader> pLoaderMap, int pReadAhead, long pByteBudget) {
+    mScriptRunner = pScriptRunner;
+    mFileList = pFileList;
+    mLoaderMap = pLoaderMap;
+    mReadAhead = pReadAhead;
+    mByteBudget = pByteBudget;
+
+    final AtomicInteger lThreadNumber = new AtomicInteger(1);
+    mExecutorService = Executors.newFixedThreadPool(Math.min(pReadAhead, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+      public Thread newThread(Runnable pRunnable) {
+        Thread lThread = new Thread(pRunnable, "ScriptRunner-prefetch-" + lThreadNumber.getAndIncrement());
+        lThread.setDaemon(true);
+        return lThread;
+      }
+    });
+  }
+
+  /**
+   * Informs the prefetcher that the file at the given index is about to be promoted. Prefetched files before this index
+   * which were not taken are discarded, and files up to the read ahead limit are submitted for preparation as long as
+   * the budget allows.
+   * @param pIndex Index of the file about to be promoted.
+   */
+  public synchronized void advanceTo(int pIndex){
+
+    //Discard files which have been passed without being taken, i.e. files which were batched
+    Iterator<Prefetch> lIterator = mPrefetchMap.values().iterator();
+    while(lIterator.hasNext()){
+      Prefetch lPrefetch = lIterator.next();
+      if(lPrefetch.mIndex < pIndex){
+        lPrefetch.mFuture.cancel(true);
+        mReservedBytes -= lPrefetch.mByteSize;
+        lIterator.remove();
+      }
+    }
+
+    mNextIndex = Math.max(mNextIndex, pIndex);
+    while(mNextIndex < mFileList.size() && mNextIndex <= pIndex + mReadAhead){
+      final PromotionFile lFile = mFileList.get(mNextIndex);
+      Loader lLoader = mLoaderMap.get(lFile.getLoaderName());
+
+      if(lLoader instanceof SourceLoader && !mScriptRunner.isFilePreParsed(lFile)){
+        final SourceLoader lSourceLoader = (SourceLoader) lLoader;
+        long lByteSize = lSourceLoader.estimatePreparedSize(mScriptRunner, lFile);
+        if(mReservedBytes + lByteSize > mByteBudget){
+          if(mReservedBytes > 0){
+            //Wait for the budget to be released by files being taken
+            break;
+          }
+          //The file would not fit in the budget on its own, so it will be prepared when it is promoted
+          Logger.logDebug("Not prefetching " + lFile.getFilePath() + " as it exceeds the prefetch budget");
+        }
+        else {
+          Future<PreparedFile> lFuture = mExecutorService.submit(new Callable<PreparedFile>() {
+            public PreparedFile call()
+            throws Exception {
+              return lSourceLoader.prepareFile(mScriptRunner, lFile);
+            }
+          });
+          mPrefetchMap.put(lFile, new Prefetch(mNextIndex, lByteSize, lFuture));
+          mReservedBytes += lByteSize;
+        }
+      }
+
+      mNextIndex++;
+    }
+  }
+
+  /**
+   * Takes the prepared result for a file, waiting for it to finish preparing if required.
+   * @param pPromotionFile File about to be promoted.
+   * @return The prepared file, or null if it was not prefetched or its preparation failed.
+   * @throws ExFatalError If the thread is interrupted while waiting, i.e. because its lane or target is being shut down.
+   */
+  public PreparedFile take(PromotionFile pPromotionFile)
+  throws ExFatalError {
+
+    Prefetch lPrefetch;
+    synchronized(this){
+      lPrefetch = mPrefetchMap.remove(pPromotionFile);
+      if(lPrefetch == null){
+        return null;
+      }
+      mReservedBytes -= lPrefetch.mByteSize;
+    }
+
+    try {
+      return lPrefetch.mFuture.get();
+    }
+    catch (ExecutionException e) {
+      Logger.logDebug("Prefetch failed for " + pPromotionFile.getFilePath() + ": " + e.getCause().getMessage());
+      return null;
+    }
+    catch (InterruptedException e) {
+      //Keep the interrupt so the thread's owner still sees the shutdown request
+      Thread.currentThread().interrupt();
+      throw new ExFatalError("Interrupted waiting for prefetch of " + pPromotionFile.getFilePath(), e);
+    }
+  }
+
+  /**
+   * Stops all background preparation and discards any prefetched files.
+   */
+  public synchronized void close(){
+    mExecutorService.shutdownNow();
+    mPrefetchMap.clear();
+    mReservedBytes = 0;
+  }
+
+}
@@ -12,9 +12,14 @@ import com.fivium.scriptrunner2.ex.ExManifest;
 import com.fivium.scriptrunner2.ex.ExParser;
 import com.fivium.scriptrunner2.ex.ExPromote;
 import com.fivium.scriptrunner2.loader.BuiltInLoader;
+import com.fivium.scriptrunner2.loader.DatabaseSourceLoader;
 import com.fivium.scriptrunner2.loader.Loader;
+import com.fivium.scriptrunner2.loader.LobBinder;
+import com.fivium.scriptrunner2.loader.LobStaging;
 import com.fivium.scriptrunner2.loader.MetadataLoader;
 import com.fivium.scriptrunner2.loader.PatchScriptLoader;
+import com.fivium.scriptrunner2.loader.PreparedFile;
+import com.fivium.scriptrunner2.loader.UtilLoader;
 import com.fivium.scriptrunner2.script.ScriptSQL;
 import com.fivium.scriptrunner2.util.ArchiveUtil;
 import com.fivium.scriptrunner2.util.XFUtil;
@@ -28,10 +33,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipException;
 
 import org.apache.commons.io.FileUtils;
@@ -70,6 +82,42 @@ implements FileResolver {
   /** Container for all command line options which were used to invoke ScriptRunner. */
   private final CommandLineWrapper mCommandLineWrapper;
   
+  /** Binder used by loaders to bind file contents as LOBs. */
+  private final LobBinder mLobBinder;
+  
+  /** Number of parallel lanes requested with -parallel. 1 if files should only be promoted serially. */
+  private final int mParallelLaneCount;
+  
+  /** True if runs of DatabaseSource files should be scheduled across the lanes by dependency, as requested with -parallelcompile. */
+  private final boolean mIsParallelCompile;
+  
+  /** Degree of parallelism for recompiling invalid objects after the promote, as requested with -recompile. 0 if not recompiling. */
+  private final int mRecompileDegree;
+  
+  /** Lanes for promoting parallel safe files. Null if parallel promotion is not in use. */
+  private PromotionLanes mPromotionLanes = null;
+  
+  /** Number of files to prepare ahead of the current file, as requested with -prefetch. 0 if prefetching is not used. */
+  private final int mPrefetchCount;
+  
+  /** Maximum estimated size in bytes of prefetched files which have not been promoted. */
+  private final long mPrefetchByteBudget;
+  
+  /** Parsed DatabaseSource files from the validation phase. Null until validation has been performed. */
+  private SourcePreParser mSourcePreParser = null;
+  
+  /** Prefetcher for preparing files ahead of their promotion. Null if prefetching is not in use. */
+  private PromotionPrefetcher mPrefetcher = null;
+  
+  /** Staging for file contents bound by metadata loaders, as requested with -lobstaging. Null if staging is not in use. */
+  private LobStaging mLobStaging = null;
+  
+  /** Parsed ScriptRunnerUtil scripts, keyed by file path and hash. Access must be synchronized on the map. */
+  private final Map<String, MetadataLoader> mUtilLoaderScriptCache;
+  
+  /** Fan-out to the databases listed by -targets. Null if promoting to a single database. */
+  private final TargetFanOut mTargetFanOut;
+  
   /** List of log entries which is populated when ScriptRunner is run in -noexec mode */
   private final List<NoExecLogEntry> mNoExecLog = new ArrayList<NoExecLogEntry>();
     
@@ -87,7 +135,8 @@ implements FileResolver {
     }
     finally {
       lScriptRunner.cleanUp();
-      if(lSuccess){
+      //Each target of a multi-target promote reports its own noexec results
+      if(lSuccess && lScriptRunner.mTargetFanOut == null){
         lScriptRunner.logNoExecResults();
       }
     }
@@ -123,6 +172,35 @@ implements FileResolver {
     if(!lSourceFile.exists()){
       throw new ExFatalError("Failed to locate source file at " + lSourceLocation);
     }
+    
+    mLobBinder = LobBinder.createFromCommandLine(mCommandLineWrapper);
+    mUtilLoaderScriptCache = new HashMap<String, MetadataLoader>();
+    mParallelLaneCount = getParallelLaneCount();
+    mIsParallelCompile = hasCommandLineOption(CommandLineOption.PARALLEL_COMPILE);
+    if(mIsParallelCompile && mParallelLaneCount < 2){
+      throw new ExFatalError("-" + CommandLineOption.PARALLEL_COMPILE.getArgString() + " requires -" + CommandLineOption.PARALLEL.getArgString() + " to be greater than 1");
+    }
+    mRecompileDegree = (int) getNumericOption(CommandLineOption.RECOMPILE, 0, 1, Integer.MAX_VALUE, "degree of parallelism");
+    mPrefetchCount = (int) getNumericOption(CommandLineOption.PREFETCH, 0, 0, Integer.MAX_VALUE, "number of files");
+    mPrefetchByteBudget = getNumericOption(CommandLineOption.PREFETCH_BUDGET, PromotionPrefetcher.DEFAULT_BYTE_BUDGET, 1, Long.MAX_VALUE, "number of bytes");
+    
+    //Staged contents are identified by file hash so hashes must be verified
+    if(hasCommandLineOption(CommandLineOption.LOB_STAGING) && hasCommandLineOption(CommandLineOption.SKIP_HASH_CHECK)){
+      throw new ExFatalError("-" + CommandLineOption.LOB_STAGING.getArgString() + " cannot be used with -" + CommandLineOption.SKIP_HASH_CHECK.getArgString());
+    }
+    
+    //Unchanged files are identified by file hash so hashes must be verified
+    if(hasCommandLineOption(CommandLineOption.DELTA) && hasCommandLineOption(CommandLineOption.SKIP_HASH_CHECK)){
+      throw new ExFatalError("-" + CommandLineOption.DELTA.getArgString() + " cannot be used with -" + CommandLineOption.SKIP_HASH_CHECK.getArgString());
+    }
+    
+    if(hasCommandLineOption(CommandLineOption.TARGETS)){
+      int lMaxConcurrentTargets = (int) getNumericOption(CommandLineOption.MAX_CONCURRENT_TARGETS, TargetFanOut.DEFAULT_MAX_CONCURRENT_TARGETS, 1, Integer.MAX_VALUE, "number of targets");
+      mTargetFanOut = TargetFanOut.createFromFile(new File(getCommandLineOption(CommandLineOption.TARGETS)), lMaxConcurrentTargets);
+    }
+    else {
+      mTargetFanOut = null;
+    }
         
     if(lSourceFile.isDirectory()){
       mIsBaseDirectoryTemp = false;
@@ -147,6 +225,123 @@ implements FileResolver {
     Logger.logInfo("Base directory is " + mBaseDirectory.getAbsolutePath());    
   }
   
+  /**
+   * Constructs a ScriptRunner for a parallel promotion lane, which shares the base directory and options of its parent
+   * but promotes files using its own database connection and controller.
+   * @param pParentScriptRunner ScriptRunner which is running the promote.
+   * @param pLaneConnection Database connection for the lane.
+   * @param pLaneController Promotion controller for the lane.
+   */
+  private ScriptRunner(ScriptRunner pParentScriptRunner, DatabaseConnection pLaneConnection, PromotionController pLaneController) {
+    mCommandLineWrapper = pParentScriptRunner.mCommandLineWrapper;
+    mBaseDirectory = pParentScriptRunner.mBaseDirectory;
+    mIsBaseDirectoryTemp = false;
+    mLobBinder = pParentScriptRunner.mLobBinder;
+    mUtilLoaderScriptCache = pParentScriptRunner.mUtilLoaderScriptCache;
+    mParallelLaneCount = 1;
+    mIsParallelCompile = false;
+    mRecompileDegree = 0;
+    mPrefetchCount = 0;
+    mPrefetchByteBudget = 0;
+    //Lanes take files from the parent's prefetcher
+    mPrefetcher = pParentScriptRunner.mPrefetcher;
+    mSourcePreParser = pParentScriptRunner.mSourcePreParser;
+    mLobStaging = pParentScriptRunner.mLobStaging;
+    mDatabaseConnection = pLaneConnection;
+    mPromotionController = pLaneController;
+    mTargetFanOut = null;
+  }
+  
+  /**
+   * Constructs a ScriptRunner for one target of a multi-target promote, which shares the base directory and prepared
+   * loaders of its parent but promotes to the database given in its own command line.
+   * @param pParentScriptRunner ScriptRunner which prepared the promote.
+   * @param pTargetCommandLineWrapper Command line options for the target.
+   */
+  private ScriptRunner(ScriptRunner pParentScriptRunner, CommandLineWrapper pTargetCommandLineWrapper) {
+    mCommandLineWrapper = pTargetCommandLineWrapper;
+    mBaseDirectory = pParentScriptRunner.mBaseDirectory;
+    mIsBaseDirectoryTemp = false;
+    mLobBinder = pParentScriptRunner.mLobBinder;
+    mUtilLoaderScriptCache = pParentScriptRunner.mUtilLoaderScriptCache;
+    mParallelLaneCount = pParentScriptRunner.mParallelLaneCount;
+    mIsParallelCompile = pParentScriptRunner.mIsParallelCompile;
+    mRecompileDegree = pParentScriptRunner.mRecompileDegree;
+    mPrefetchCount = pParentScriptRunner.mPrefetchCount;
+    mPrefetchByteBudget = pParentScriptRunner.mPrefetchByteBudget;
+    mTargetFanOut = null;
+  }
+  
+  /**
+   * Establishes the number of parallel promotion lanes from the command line.
+   * @return Number of lanes, or 1 if -parallel was not specified.
+   * @throws ExFatalError If the argument is not a positive integer or cannot be used with the other options.
+   */
+  private int getParallelLaneCount(){
+    int lLaneCount = (int) getNumericOption(CommandLineOption.PARALLEL, 1, 1, Integer.MAX_VALUE, "number of lanes");
+    
+    if(lLaneCount > 1 && hasCommandLineOption(CommandLineOption.DB_SYSDBA)){
+      throw new ExFatalError("-" + CommandLineOption.PARALLEL.getArgString() + " cannot be used with -" + CommandLineOption.DB_SYSDBA.getArgString());
+    }
+    
+    return lLaneCount;
+  }
+  
+  /**
+   * Gets the value of a numeric command line option.
+   * @param pOption Option to get.
+   * @param pDefault Value to use if the option was not specified.
+   * @param pMin Minimum allowed value.
+   * @param pMax Maximum allowed value.
+   * @param pDescription Description of the value for error messages, e.g. "number of files".
+   * @return Option value.
+   * @throws ExFatalError If the argument is not a number in the allowed range.
+   */
+  private long getNumericOption(CommandLineOption pOption, long pDefault, long pMin, long pMax, String pDescription){
+    String lValueString = mCommandLineWrapper.getOption(pOption);
+    if(XFUtil.isNull(lValueString)){
+      return pDefault;
+    }
+    
+    long lValue;
+    try {
+      lValue = Long.parseLong(lValueString.trim());
+    }
+    catch (NumberFormatException e) {
+      throw new ExFatalError("-" + pOption.getArgString() + " argument must be a " + pDescription + ", got '" + lValueString + "'", e);
+    }
+    
+    if(lValue < pMin || lValue > pMax){
+      throw new ExFatalError("-" + pOption.getArgString() + " argument must be a " + pDescription + " between " + pMin + " and " + pMax + ", got '" + lValueString + "'");
+    }
+    
+    return lValue;
+  }
+  
+  /**
+   * Creates a ScriptRunner for a parallel promotion lane, with a new database connection and a controller which logs
+   * against this ScriptRunner's promotion run. The promote must have been started.
+   * @return New lane ScriptRunner.
+   * @throws ExPromote If the lane's connection cannot be established.
+   */
+  ScriptRunner createLaneScriptRunner()
+  throws ExPromote {
+    DatabaseConnection lLaneConnection = mDatabaseConnection.createLaneConnection();
+    return new ScriptRunner(this, lLaneConnection, mPromotionController.createLaneController(lLaneConnection));
+  }
+  
+  /**
+   * Creates a ScriptRunner for promoting this ScriptRunner's prepared files to one target of a multi-target promote. The
+   * target uses the same options as this ScriptRunner apart from its JDBC connect string.
+   * @param pJDBCConnectString JDBC connect string of the target database.
+   * @return New target ScriptRunner.
+   */
+  ScriptRunner createTargetScriptRunner(String pJDBCConnectString) {
+    CommandLineWrapper lTargetCommandLineWrapper = new CommandLineWrapper(mCommandLineWrapper);
+    lTargetCommandLineWrapper.overrideOption(CommandLineOption.JDBC_CONNECT_STRING, pJDBCConnectString);
+    return new ScriptRunner(this, lTargetCommandLineWrapper);
+  }
+  
   /**
    * Gets a file from this ScriptRunner's base directory.
    * @param pPath A path to the desired file, relative to the base directory.
@@ -308,7 +503,7 @@ implements FileResolver {
   private PromotionController createPromotionController(String pPromotionLabel){
     
     if(!hasCommandLineOption(CommandLineOption.NO_EXEC)){
-      return new PromotionController(getDatabaseConnection(), pPromotionLabel);
+      return new PromotionController(getDatabaseConnection(), pPromotionLabel, true, true);
     }
     else {
       return new NoExecPromotionController(this, getDatabaseConnection(), pPromotionLabel);
@@ -330,21 +525,127 @@ implements FileResolver {
     }
   }
   
+  /**
+   * Starts establishing the database connection on a background thread, so the connection latency overlaps with parsing
+   * and validating local files. If any connection details or the password need to be prompted for, the connection is
+   * established in the foreground by {@link #joinConnection} instead.
+   * @return Future connection, or null if the connection must be established in the foreground.
+   */
+  private Future<DatabaseConnection> startConnection(){
+    
+    if(DatabaseConnection.isPromptRequired(mCommandLineWrapper)){
+      return null;
+    }
+    
+    ExecutorService lExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable pRunnable) {
+        Thread lThread = new Thread(pRunnable, "ScriptRunner-connect");
+        lThread.setDaemon(true);
+        return lThread;
+      }
+    });
+    
+    Future<DatabaseConnection> lFuture = lExecutorService.submit(new Callable<DatabaseConnection>() {
+      public DatabaseConnection call()
+      throws ExPromote {
+        return DatabaseConnection.createConnection(mCommandLineWrapper, hasCommandLineOption(CommandLineOption.NO_EXEC));
+      }
+    });
+    lExecutorService.shutdown();
+    
+    return lFuture;
+  }
+  
+  /**
+   * Gets the database connection started by {@link #startConnection}, waiting for it if it is not yet established, or
+   * establishes the connection now if it was not started.
+   * @param pConnectionFuture Future connection, or null.
+   * @return The established connection.
+   * @throws Throwable If the connection failed.
+   */
+  private DatabaseConnection joinConnection(Future<DatabaseConnection> pConnectionFuture)
+  throws Throwable {
+    
+    if(pConnectionFuture == null){
+      return DatabaseConnection.createConnection(mCommandLineWrapper, hasCommandLineOption(CommandLineOption.NO_EXEC));
+    }
+    
+    long lStartTime = System.currentTimeMillis();
+    try {
+      DatabaseConnection lConnection = pConnectionFuture.get();
+      Logger.logDebug("Waited " + (System.currentTimeMillis() - lStartTime) + "ms for background database connection");
+      return lConnection;
+    }
+    catch (ExecutionException e) {
+      //Report the connection error as if the connection had been made in the foreground
+      throw e.getCause();
+    }
+    catch (InterruptedException e) {
+      throw new ExFatalError("Interrupted while connecting to database", e);
+    }
+  }
+  
+  /**
+   * Closes a database connection started by {@link #startConnection} which will not be used because the promote did not
+   * start. Waits for the connection to be established if it is still in progress. Errors are logged and suppressed so
+   * they do not hide the error which stopped the promote.
+   * @param pConnectionFuture Future connection, or null.
+   */
+  private static void abandonConnection(Future<DatabaseConnection> pConnectionFuture){
+    
+    if(pConnectionFuture == null){
+      return;
+    }
+    
+    try {
+      DatabaseConnection lConnection = pConnectionFuture.get();
+      lConnection.closePromoteConnection();
+      lConnection.closeLoggingConnection();
+    }
+    catch (ExecutionException e) {
+      //The connection failed so there is nothing to close
+      Logger.logDebug("Background database connection failed: " + e.getCause().getMessage());
+    }
+    catch (InterruptedException e) {
+      //Interrupt the connection attempt instead of waiting for it
+      pConnectionFuture.cancel(true);
+      Thread.currentThread().interrupt();
+    }
+    catch (Throwable th) {
+      Logger.logDebug("Failed to close background database connection: " + th.getMessage());
+    }
+  }
+  
   /**
    * Parses the manifest, parses and validates all loaders, establishes a database connection and then runs the promotion.
+   * If -targets was specified the files are parsed and validated once and then promoted to each target concurrently.
    * @throws Throwable In the event of any error.
    */
   private boolean doPromote() 
   throws Throwable {
     
     Logger.logAndEcho("Starting " +  (hasCommandLineOption(CommandLineOption.NO_EXEC) ? "-noexec " : "") + "promotion");
+    
+    //Targets connect on their own threads so the password must be known before they start
+    if(mTargetFanOut != null && XFUtil.isNull(getCommandLineOption(CommandLineOption.PROMOTE_PASSWORD))){
+      String lPassword = CommandLineWrapper.readPassword("Enter password for " + DatabaseConnection.establishPromoteUser(mCommandLineWrapper) + " on all targets");
+      mCommandLineWrapper.overrideOption(CommandLineOption.PROMOTE_PASSWORD, lPassword);
+    }
+    
     Logger.logAndEcho("Parsing files...");
     
     //Parse and verify the manifest
     PromotionManifestParser lManifestParser;
     Map<String, Loader> lLoaderMap;
     Map<String, PatchScript> lParsedScriptMap;
+    Future<DatabaseConnection> lConnectionFuture = null;
+    boolean lValidated = false;
     try {
+      //Connect while local files are parsed and validated - for a -noexec promote this includes the version check
+      if(mTargetFanOut == null){
+        lConnectionFuture = startConnection();
+      }
+      
       lManifestParser = loadManifest();
       
       //Construct a definitive single map of loaders to be used by this promote by combining loaders from the manifest
@@ -355,6 +656,11 @@ implements FileResolver {
       //Parse all implicated scripts in advance to check for syntax errors - this will error out if there is a problem
       lParsedScriptMap = preParsePatchScripts(lManifestParser);
       
+      //Parse all DatabaseSource files in parallel, keeping as many as the prefetch budget allows for execution time
+      //Parsed files are consumed by the promote, so none are kept when promoting to several targets
+      Logger.logInfo("Validating DatabaseSource files...");
+      mSourcePreParser = SourcePreParser.preParse(this, lManifestParser.getPromotionFileList(), lLoaderMap, mTargetFanOut == null ? mPrefetchByteBudget : 0);
+      
       Logger.logInfo("Validating loaders...");
       
       //Prepare all the PL/SQL loaders in advance
@@ -362,24 +668,71 @@ implements FileResolver {
         lLoader.prepare(this);
       }
       
-      //Check all bind variables that each loader requires can be provided by each PromotionFile
+      //Check all bind variables that each loader (or utility script) requires can be provided by each PromotionFile
       for(PromotionFile lFile : lManifestParser.getPromotionFileList()){
         Loader lLoader = lLoaderMap.get(lFile.getLoaderName());
-        if(lLoader instanceof MetadataLoader){
-          try {
+        try {
+          if(lLoader instanceof MetadataLoader){
             ((MetadataLoader) lLoader).validateForFile(this, lFile);
           }
-          catch (ExPromote e) {
-            throw new ExFatalError("Loader validation failed: " + e.getMessage() , e);
+          else if(lLoader instanceof UtilLoader){
+            ((UtilLoader) lLoader).validateForFile(this, lFile);
           }
         }
+        catch (ExPromote e) {
+          throw new ExFatalError("Loader validation failed: " + e.getMessage() , e);
+        }
       }
       
-      //Establish a connection to the target database
-      mDatabaseConnection = DatabaseConnection.createConnection(mCommandLineWrapper);
+      lValidated = true;
+    }
+    catch(Throwable th){
+      //Log the stacktrack of any errors up to this point
+      Logger.logError(th);
+      throw th;
+    }
+    finally {
+      //The promote will not start, so close the connection which was being established in the background
+      if(!lValidated){
+        abandonConnection(lConnectionFuture);
+      }
+    }
+    
+    String lPromotionLabel = lManifestParser.getPromotionPropertyMap().get(ManifestParser.PROMOTION_LABEL_PROPERTY);
+    if(mTargetFanOut != null){
+      mTargetFanOut.promoteToTargets(this, lManifestParser.getPromotionFileList(), lPromotionLabel, lLoaderMap, lParsedScriptMap);
+      return true;
+    }
+    else {
+      return promoteToDatabase(lConnectionFuture, lManifestParser.getPromotionFileList(), lPromotionLabel, lLoaderMap, lParsedScriptMap);
+    }
+  }
+  
+  /**
+   * Establishes a database connection and runs the promotion of files which have been parsed and validated.
+   * @param pConnectionFuture Connection started by {@link #startConnection}, or null to connect in the foreground.
+   * @param pPromotionFileList All files in the promotion, in order.
+   * @param pPromotionLabel Promotion label of the promotion.
+   * @param pLoaderMap Map of loader names to prepared loaders.
+   * @param pParsedScriptMap Map of file paths to parsed PatchScripts.
+   * @return True if the promote succeeded.
+   * @throws Throwable In the event of any error.
+   */
+  boolean promoteToDatabase(Future<DatabaseConnection> pConnectionFuture, List<PromotionFile> pPromotionFileList, String pPromotionLabel, 
+                            Map<String, Loader> pLoaderMap, Map<String, PatchScript> pParsedScriptMap) 
+  throws Throwable {
+    
+    try {
+      //Wait for the connection to the target database - for a real promote the version check is done when the promote starts
+      mDatabaseConnection = joinConnection(pConnectionFuture);
       
       //Create a new promotion controller for interfacing with the database log tables
-      mPromotionController = createPromotionController(lManifestParser.getPromotionPropertyMap().get(ManifestParser.PROMOTION_LABEL_PROPERTY));
+      mPromotionController = createPromotionController(pPromotionLabel);
+      
+      //Lanes are only used for real promotes; a -noexec promote reports parallel safe files serially
+      if(mParallelLaneCount > 1 && !hasCommandLineOption(CommandLineOption.NO_EXEC)){
+        mPromotionLanes = new PromotionLanes(this, mParallelLaneCount);
+      }
       
     }
     catch(Throwable th){
@@ -396,21 +749,73 @@ implements FileResolver {
     ExFatalError lError = null;
     try {
       
-      boolean lStartAllowed = mPromotionController.startPromote();
+      //Establish the distinct patch labels in this promote so their run history can be retrieved up front
+      Set<String> lPatchLabels = new TreeSet<String>();
+      for(PatchScript lPatchScript : pParsedScriptMap.values()){
+        lPatchLabels.add(lPatchScript.getPatchLabel());
+      }
+      
+      //For a -delta promote, the last deployment of every DatabaseSource file is also retrieved up front
+      Set<String> lDeltaPaths = new HashSet<String>();
+      if(hasCommandLineOption(CommandLineOption.DELTA)){
+        for(PromotionFile lFile : pPromotionFileList){
+          if(pLoaderMap.get(lFile.getLoaderName()) instanceof DatabaseSourceLoader){
+            lDeltaPaths.add(lFile.getFilePath());
+          }
+        }
+      }
+      
+      boolean lStartAllowed = mPromotionController.startPromote(lPatchLabels, lDeltaPaths);
       
       if(lStartAllowed) {      
         //Promote all files
-        for(PromotionFile lFile : lManifestParser.getPromotionFileList()){        
-          Loader lLoader = lLoaderMap.get(lFile.getLoaderName());
+        //Prepare upcoming files in the background while the current file executes (not required for -noexec)
+        if(mPrefetchCount > 0 && !hasCommandLineOption(CommandLineOption.NO_EXEC)){
+          mPrefetcher = new PromotionPrefetcher(this, pPromotionFileList, pLoaderMap, mPrefetchCount, mPrefetchByteBudget);
+        }
+        
+        if(hasCommandLineOption(CommandLineOption.LOB_STAGING) && !hasCommandLineOption(CommandLineOption.NO_EXEC)){
+          mLobStaging = new LobStaging(mDatabaseConnection, mPromotionController.getPromotionRunId(), mLobBinder);
+        }
+        
+        for(int i = 0; i < pPromotionFileList.size(); i++){
+          PromotionFile lFile = pPromotionFileList.get(i);
+          if(mPrefetcher != null){
+            mPrefetcher.advanceTo(i);
+          }
+          Loader lLoader = pLoaderMap.get(lFile.getLoaderName());
           if(lLoader instanceof PatchScriptLoader){
             //If this is a patch, directly load the pre-parsed patch
-            ((PatchScriptLoader) lLoader).runPatchScript(this, lParsedScriptMap.get(lFile.getFilePath()));
+            ((PatchScriptLoader) lLoader).runPatchScript(this, pParsedScriptMap.get(lFile.getFilePath()));
+          }
+          else if(mPromotionLanes != null && mIsParallelCompile && CompileSchedule.isSchedulable(lLoader)){
+            //Promote this file and any following DatabaseSource files across the lanes in dependency order
+            List<PromotionFile> lRun = CompileSchedule.getRunFromPosition(pPromotionFileList, i, pLoaderMap);
+            mPromotionLanes.promoteSchedule(lRun, CompileSchedule.createForFiles(this, lRun), pLoaderMap);
+            i += lRun.size() - 1;
+          }
+          else if(mPromotionLanes != null && PromotionLanes.isParallelSafe(lFile, lLoader)){
+            //Promote this file and any following parallel safe files across the lanes
+            List<PromotionFile> lRun = PromotionLanes.getRunFromPosition(pPromotionFileList, i, pLoaderMap);
+            mPromotionLanes.promoteRun(lRun, pLoaderMap);
+            i += lRun.size() - 1;
+          }
+          else if(lLoader instanceof MetadataLoader && MetadataLoader.getBatchSize(lFile) > 1){
+            //Promote this file and any following files which can be batched with it
+            List<PromotionFile> lBatch = MetadataLoader.getBatchFromPosition(pPromotionFileList, i);
+            ((MetadataLoader) lLoader).promoteFileBatch(this, lBatch);
+            i += lBatch.size() - 1;
           }
           else {
             //For all other file types, load as normal
             lLoader.promoteFile(this, lFile);  
           }
         }      
+        
+        //Record compilation errors for promoted source objects against their files
+        if(!hasCommandLineOption(CommandLineOption.NO_EXEC)){
+          CompileErrorHarvester.harvest(this, pPromotionFileList, pLoaderMap, mRecompileDegree);
+        }
       }
     }
     catch(ExPromote e){      
@@ -426,6 +831,20 @@ implements FileResolver {
     }
     finally {
       
+      //Close the lanes before the run is finalised - no lane is still promoting at this point
+      if(mPromotionLanes != null){
+        mPromotionLanes.close();
+      }
+      
+      if(mPrefetcher != null){
+        mPrefetcher.close();
+      }
+      
+      //Staged contents are removed on the logging connection, which is closed by endPromote
+      if(mLobStaging != null){
+        mLobStaging.close();
+      }
+      
       //Write any error to all logs
       if(lError != null){
         Logger.logInfo("\n\nSERIOUS ERROR while executing ScriptRunner! Marking promotion as failed.\nSee below for error details:\n");
@@ -463,7 +882,7 @@ implements FileResolver {
   /**
    * Formats and outputs the list of NoExecLogEntries to all loggers.
    */
-  private void logNoExecResults() {    
+  void logNoExecResults() {    
     if(hasCommandLineOption(CommandLineOption.NO_EXEC)){
       
       final String lSequenceHeader = "Sequence";
@@ -544,6 +963,53 @@ implements FileResolver {
     return mPromotionController;
   }
   
+  /**
+   * Gets the LobBinder which should be used to bind file contents into loader statements.
+   * @return LobBinder for this run.
+   */
+  public LobBinder getLobBinder() {
+    return mLobBinder;
+  }
+  
+  /**
+   * Gets the LobStaging which should be used to bind file contents which have verified hashes.
+   * @return LobStaging for this run, or null if -lobstaging is not in use.
+   */
+  public LobStaging getLobStaging() {
+    return mLobStaging;
+  }
+  
+  /**
+   * Gets the cache of parsed ScriptRunnerUtil scripts for this promote. Access must be synchronized on the map.
+   * @return Map of file path and hash keys to prepared utility scripts.
+   */
+  public Map<String, MetadataLoader> getUtilLoaderScriptCache() {
+    return mUtilLoaderScriptCache;
+  }
+  
+  /**
+   * Takes the prefetched preparation of the given file, if it was kept from the validation phase or has been prefetched.
+   * @param pPromotionFile File about to be promoted.
+   * @return Prepared file, or null if it was not prefetched or prefetching failed.
+   * @throws ExFatalError If interrupted while waiting for a prefetch.
+   */
+  public PreparedFile takePrefetchedFile(PromotionFile pPromotionFile) {
+    PreparedFile lPreparedFile = mSourcePreParser != null ? mSourcePreParser.take(pPromotionFile) : null;
+    if(lPreparedFile == null && mPrefetcher != null){
+      lPreparedFile = mPrefetcher.take(pPromotionFile);
+    }
+    return lPreparedFile;
+  }
+  
+  /**
+   * Tests if the given file was parsed in the validation phase and is being held for execution time.
+   * @param pPromotionFile File to test.
+   * @return True if the file does not need to be prepared again.
+   */
+  public boolean isFilePreParsed(PromotionFile pPromotionFile) {
+    return mSourcePreParser != null && mSourcePreParser.contains(pPromotionFile);
+  }
+  
   /**
    * Gets the value of the given command line option which was used when invoking ScriptRunner.
    * @param pCommandLineOption Option to get value for.
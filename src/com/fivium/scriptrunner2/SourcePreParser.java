@@ -0,0 +1,166 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.loader.DatabaseSourceLoader;
+import com.fivium.scriptrunner2.loader.Loader;
+import com.fivium.scriptrunner2.loader.PreparedFile;
+import com.fivium.scriptrunner2.loader.SourceLoader;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Reads, parses and validates all DatabaseSource files in a promote on a pool of threads before the promote starts, so
+ * errors in any file are reported up front. Files are prepared by their {@link DatabaseSourceLoader}. Prepared files are
+ * kept in manifest order for use at execution time while their estimated size fits within a byte budget. Files beyond
+ * the budget are validated and then discarded, and are prepared again when they are promoted.
+ */
+public class SourcePreParser {
+
+  /** Files which have been prepared and not yet taken. */
+  private final Map<PromotionFile, PreparedFile> mPreparedFileMap = new IdentityHashMap<PromotionFile, PreparedFile>();
+
+  /**
+   * A file which has been submitted for preparation.
+   */
+  private static class PreParse {
+    final PromotionFile mPromotionFile;
+    final long mByteSize;
+    final Future<PreparedFile> mFuture;
+
+    PreParse(PromotionFile pPromotionFile, long pByteSize, Future<PreparedFile> pFuture){
+      mPromotionFile = pPromotionFile;
+      mByteSize = pByteSize;
+      mFuture = pFuture;
+    }
+  }
+
+  /**
+   * Prepares all DatabaseSource files in the given list and validates their contents. Only a limited number of files are
+   * in progress at once, so files which are discarded do not accumulate in memory.
+   * @param pScriptRunner ScriptRunner performing the promote.
+   * @param pFileList All files in the promotion, in order.
+   * @param pLoaderMap Map of loader names to loaders.
+   * @param pByteBudget Maximum estimated size of prepared files to keep.
+   * @return A SourcePreParser holding the kept files.
+   * @throws ExFatalError If any file is invalid. The first invalid file in manifest order is reported.
+   */
+  public static SourcePreParser preParse(final ScriptRunner pScriptRunner, List<PromotionFile> pFileList, Map<String, Loader> pLoaderMap, long pByteBudget)
+  throws ExFatalError {
+
+    SourcePreParser lPreParser = new SourcePreParser();
+
+    int lThreadCount = Runtime.getRuntime().availableProcessors();
+    final AtomicInteger lThreadNumber = new AtomicInteger(1);
+    ExecutorService lExecutorService = Executors.newFixedThreadPool(lThreadCount, new ThreadFactory() {
+      public Thread newThread(Runnable pRunnable) {
+        Thread lThread = new Thread(pRunnable, "ScriptRunner-preparse-" + lThreadNumber.getAndIncrement());
+        lThread.setDaemon(true);
+        return lThread;
+      }
+    });
+
+    long lStartTime = System.currentTimeMillis();
+    int lFileCount = 0;
+    long lKeptBytes = 0;
+    Queue<PreParse> lInProgress = new ArrayDeque<PreParse>();
+    try {
+      for(final PromotionFile lFile : pFileList){
+        Loader lLoader = pLoaderMap.get(lFile.getLoaderName());
+        if(!(lLoader instanceof DatabaseSourceLoader)){
+          continue;
+        }
+
+        final SourceLoader lSourceLoader = (SourceLoader) lLoader;
+        Future<PreparedFile> lFuture = lExecutorService.submit(new Callable<PreparedFile>() {
+          public PreparedFile call()
+          throws Exception {
+            return lSourceLoader.prepareFile(pScriptRunner, lFile);
+          }
+        });
+        lInProgress.add(new PreParse(lFile, lSourceLoader.estimatePreparedSize(pScriptRunner, lFile), lFuture));
+        lFileCount++;
+
+        //Limit the number of results which can be waiting to be kept or discarded
+        if(lInProgress.size() >= lThreadCount * 2){
+          lKeptBytes = lPreParser.keepOrDiscard(lInProgress.remove(), lKeptBytes, pByteBudget);
+        }
+      }
+
+      while(!lInProgress.isEmpty()){
+        lKeptBytes = lPreParser.keepOrDiscard(lInProgress.remove(), lKeptBytes, pByteBudget);
+      }
+    }
+    finally {
+      lExecutorService.shutdownNow();
+    }
+
+    if(lFileCount > 0){
+      Logger.logInfo("Validated " + lFileCount + " DatabaseSource files in " + (System.currentTimeMillis() - lStartTime) + "ms; kept " +
+                     lPreParser.mPreparedFileMap.size() + " parsed files (estimated " + lKeptBytes + " bytes)");
+    }
+
+    return lPreParser;
+  }
+
+  /**
+   * Waits for a file to be prepared and keeps it if it fits in the budget.
+   * @return Estimated size of all kept files.
+   */
+  private long keepOrDiscard(PreParse pPreParse, long pKeptBytes, long pByteBudget)
+  throws ExFatalError {
+
+    PreparedFile lPreparedFile;
+    try {
+      lPreparedFile = pPreParse.mFuture.get();
+    }
+    catch (ExecutionException e) {
+      throw new ExFatalError("Validation of DatabaseSource " + pPreParse.mPromotionFile.getFilePath() + " failed: " + e.getCause().getMessage(), e.getCause());
+    }
+    catch (InterruptedException e) {
+      throw new ExFatalError("Interrupted while validating DatabaseSource files", e);
+    }
+
+    if(pKeptBytes + pPreParse.mByteSize <= pByteBudget){
+      mPreparedFileMap.put(pPreParse.mPromotionFile, lPreparedFile);
+      return pKeptBytes + pPreParse.mByteSize;
+    }
+    else {
+      return pKeptBytes;
+    }
+  }
+
+  private SourcePreParser() {
+  }
+
+  /**
+   * Takes the prepared result for a file, so it is not held in memory after the file has been promoted.
+   * @param pPromotionFile File about to be promoted.
+   * @return The prepared file, or null if the file was not kept.
+   */
+  public synchronized PreparedFile take(PromotionFile pPromotionFile){
+    return mPreparedFileMap.remove(pPromotionFile);
+  }
+
+  /**
+   * Tests if a prepared result is being held for the given file.
+   * @param pPromotionFile File to test.
+   * @return True if the file has been prepared and not yet taken.
+   */
+  public synchronized boolean contains(PromotionFile pPromotionFile){
+    return mPreparedFileMap.containsKey(pPromotionFile);
+  }
+
+}
@@ -0,0 +1,303 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.loader.Loader;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Promotes one parsed and validated set of promotion files to several databases concurrently, as requested with
+ * <tt>-targets</tt>. The archive is extracted, verified and parsed once by the parent ScriptRunner. Each target is then
+ * promoted on its own thread by a target ScriptRunner with its own database connection, promotion controller and log
+ * file, and with its own copy of the promotion files so promotion state is not shared between targets.<br/><br/>
+ *
+ * Targets are listed in a targets file, one per line, as a JDBC connect string optionally preceded by a target name and
+ * whitespace. Blank lines and lines starting with <tt>#</tt> are ignored. A failure on one target does not stop the
+ * others; when all targets have finished a summary is written to the main log.
+ */
+public class TargetFanOut {
+
+  public static final int DEFAULT_MAX_CONCURRENT_TARGETS = 4;
+
+  /** Target names are used in log file names so are restricted to file name safe characters. */
+  private static final Pattern NAMED_TARGET_PATTERN = Pattern.compile("^([A-Za-z0-9_\\-\\.]+)\\s+(\\S.*)$");
+
+  private static final String DEFAULT_TARGET_NAME_PREFIX = "target";
+
+  private final List<Target> mTargetList;
+  private final int mMaxConcurrentTargets;
+
+  /**
+   * A database listed in the targets file.
+   */
+  static class Target {
+    final String mName;
+    final String mJDBCConnectString;
+
+    Target(String pName, String pJDBCConnectString){
+      mName = pName;
+      mJDBCConnectString = pJDBCConnectString;
+    }
+  }
+
+  /**
+   * The outcome of promoting to one target.
+   */
+  private static class TargetResult {
+    final Target mTarget;
+    final boolean mSuccess;
+    final long mDurationMS;
+    final int mWarningCount;
+    final String mLogFileName;
+    final String mErrorMessage;
+
+    TargetResult(Target pTarget, boolean pSuccess, long pDurationMS, int pWarningCount, String pLogFileName, String pErrorMessage){
+      mTarget = pTarget;
+      mSuccess = pSuccess;
+      mDurationMS = pDurationMS;
+      mWarningCount = pWarningCount;
+      mLogFileName = pLogFileName;
+      mErrorMessage = pErrorMessage;
+    }
+  }
+
+  /**
+   * Creates a TargetFanOut for the targets listed in the given file.
+   * @param pTargetsFile Targets file.
+   * @param pMaxConcurrentTargets Maximum number of targets to promote to at once.
+   * @return New TargetFanOut.
+   * @throws ExFatalError If the file cannot be read or is invalid.
+   */
+  public static TargetFanOut createFromFile(File pTargetsFile, int pMaxConcurrentTargets)
+  throws ExFatalError {
+    List<String> lLines;
+    try {
+      lLines = FileUtils.readLines(pTargetsFile);
+    }
+    catch (IOException e) {
+      throw new ExFatalError("Failed to read targets file " + pTargetsFile.getPath() + ": " + e.getMessage(), e);
+    }
+
+    return new TargetFanOut(parseTargets(lLines), pMaxConcurrentTargets);
+  }
+
+  /**
+   * Parses the lines of a targets file. Targets without a name are named by their position in the file.
+   * @param pLines Lines of the file.
+   * @return List of targets in file order.
+   * @throws ExFatalError If no targets are listed or a target name is used twice.
+   */
+  static List<Target> parseTargets(List<String> pLines)
+  throws ExFatalError {
+    List<Target> lTargetList = new ArrayList<Target>();
+    Set<String> lTargetNames = new HashSet<String>();
+
+    int lLineNumber = 0;
+    for(String lLine : pLines){
+      lLineNumber++;
+      String lTrimmedLine = lLine.trim();
+      if(lTrimmedLine.length() == 0 || lTrimmedLine.startsWith("#")){
+        continue;
+      }
+
+      //A connect string contains a colon in its first word so cannot be mistaken for a target name
+      Target lTarget;
+      Matcher lMatcher = NAMED_TARGET_PATTERN.matcher(lTrimmedLine);
+      if(lMatcher.matches()){
+        lTarget = new Target(lMatcher.group(1), lMatcher.group(2).trim());
+      }
+      else {
+        lTarget = new Target(DEFAULT_TARGET_NAME_PREFIX + (lTargetList.size() + 1), lTrimmedLine);
+      }
+
+      if(!lTargetNames.add(lTarget.mName)){
+        throw new ExFatalError("Duplicate target name " + lTarget.mName + " on line " + lLineNumber + " of targets file");
+      }
+      lTargetList.add(lTarget);
+    }
+
+    if(lTargetList.size() == 0){
+      throw new ExFatalError("Targets file does not list any targets");
+    }
+
+    return lTargetList;
+  }
+
+  private TargetFanOut(List<Target> pTargetList, int pMaxConcurrentTargets) {
+    mTargetList = pTargetList;
+    mMaxConcurrentTargets = pMaxConcurrentTargets;
+  }
+  
+  /**
+   * Gets the JDBC connect strings of all the targets.
+   * @return List of connect strings in file order.
+   */
+  public List<String> getTargetConnectStrings() {
+    List<String> lConnectStrings = new ArrayList<String>(mTargetList.size());
+    for(Target lTarget : mTargetList){
+      lConnectStrings.add(lTarget.mJDBCConnectString);
+    }
+    return lConnectStrings;
+  }
+
+  /**
+   * Promotes the given files to every target, running at most the maximum number of targets at once, and waits for all
+   * the targets to finish.
+   * @param pScriptRunner ScriptRunner which parsed and validated the files.
+   * @param pPromotionFileList All files in the promotion, in order.
+   * @param pPromotionLabel Promotion label of the promotion.
+   * @param pLoaderMap Map of loader names to prepared loaders.
+   * @param pParsedScriptMap Map of file paths to parsed PatchScripts.
+   * @throws ExFatalError If the promote failed on any target.
+   */
+  void promoteToTargets(final ScriptRunner pScriptRunner, final List<PromotionFile> pPromotionFileList, final String pPromotionLabel,
+                        final Map<String, Loader> pLoaderMap, final Map<String, PatchScript> pParsedScriptMap)
+  throws ExFatalError {
+
+    int lThreadCount = Math.min(mMaxConcurrentTargets, mTargetList.size());
+    Logger.logAndEcho("Promoting to " + mTargetList.size() + " targets, " + lThreadCount + " at a time");
+
+    final AtomicInteger lThreadNumber = new AtomicInteger(1);
+    ExecutorService lExecutorService = Executors.newFixedThreadPool(lThreadCount, new ThreadFactory() {
+      public Thread newThread(Runnable pRunnable) {
+        Thread lThread = new Thread(pRunnable, "ScriptRunner-target-" + lThreadNumber.getAndIncrement());
+        lThread.setDaemon(true);
+        return lThread;
+      }
+    });
+
+    List<TargetResult> lResultList = new ArrayList<TargetResult>();
+    try {
+      List<Future<TargetResult>> lFutureList = new ArrayList<Future<TargetResult>>();
+      for(final Target lTarget : mTargetList){
+        lFutureList.add(lExecutorService.submit(new Callable<TargetResult>() {
+          public TargetResult call() {
+            return promoteToTarget(pScriptRunner, lTarget, pPromotionFileList, pPromotionLabel, pLoaderMap, pParsedScriptMap);
+          }
+        }));
+      }
+
+      for(Future<TargetResult> lFuture : lFutureList){
+        try {
+          lResultList.add(lFuture.get());
+        }
+        catch (ExecutionException e) {
+          throw new ExFatalError("Unexpected error promoting to target: " + e.getCause().getMessage(), e.getCause());
+        }
+        catch (InterruptedException e) {
+          throw new ExFatalError("Interrupted while promoting to targets", e);
+        }
+      }
+    }
+    finally {
+      lExecutorService.shutdownNow();
+    }
+
+    int lFailureCount = logSummary(lResultList);
+    if(lFailureCount > 0){
+      throw new ExFatalError(lFailureCount + " of " + mTargetList.size() + " targets failed; see the log file of each failed target for details");
+    }
+  }
+
+  /**
+   * Promotes the files to a single target, logging to the target's own log file. Errors are logged and reported in the
+   * result rather than thrown.
+   */
+  private static TargetResult promoteToTarget(ScriptRunner pScriptRunner, Target pTarget, List<PromotionFile> pPromotionFileList, String pPromotionLabel,
+                                              Map<String, Loader> pLoaderMap, Map<String, PatchScript> pParsedScriptMap) {
+
+    long lStartTime = System.currentTimeMillis();
+
+    Logger.LogContext lLogContext;
+    try {
+      lLogContext = Logger.createLogContext(pTarget.mName);
+    }
+    catch (IOException e) {
+      return new TargetResult(pTarget, false, 0, 0, "", "Failed to create log file: " + e.getMessage());
+    }
+
+    //Threads created by the target (e.g. for parallel lanes) inherit its log context
+    Logger.setLogContext(lLogContext);
+    boolean lSuccess = false;
+    String lErrorMessage = "";
+    try {
+      Logger.logAndEcho("Starting promotion to target " + pTarget.mName);
+      Logger.logDebug("Target JDBC connect string is " + pTarget.mJDBCConnectString);
+
+      //Promotion files record the target's log row IDs so each target needs its own copies
+      List<PromotionFile> lTargetFileList = new ArrayList<PromotionFile>(pPromotionFileList.size());
+      for(PromotionFile lFile : pPromotionFileList){
+        lTargetFileList.add(new PromotionFile(lFile));
+      }
+
+      ScriptRunner lTargetScriptRunner = pScriptRunner.createTargetScriptRunner(pTarget.mJDBCConnectString);
+      lSuccess = lTargetScriptRunner.promoteToDatabase(null, lTargetFileList, pPromotionLabel, pLoaderMap, pParsedScriptMap);
+      if(lSuccess){
+        lTargetScriptRunner.logNoExecResults();
+        Logger.logAndEcho("Promotion to target " + pTarget.mName + " complete");
+      }
+    }
+    catch (Throwable th) {
+      //The error has already been written to the target's log
+      lErrorMessage = th.getMessage();
+      Logger.logAndEcho("Promotion to target " + pTarget.mName + " failed: " + lErrorMessage);
+    }
+    finally {
+      Logger.setLogContext(null);
+      Logger.closeLogContext(lLogContext);
+    }
+
+    return new TargetResult(pTarget, lSuccess, System.currentTimeMillis() - lStartTime, lLogContext.getWarningCount(), lLogContext.getLogFile().getName(), lErrorMessage);
+  }
+
+  /**
+   * Writes a table of the result of each target to the main log.
+   * @return Number of targets which failed.
+   */
+  private static int logSummary(List<TargetResult> pResultList){
+
+    int lLongestName = "Target".length();
+    for(TargetResult lResult : pResultList){
+      lLongestName = Math.max(lLongestName, lResult.mTarget.mName.length());
+    }
+
+    String lFormatMask = "%-" + (lLongestName + 2) + "s%-10s%-12s%-10s%s";
+    StringBuilder lSummary = new StringBuilder();
+    lSummary.append(String.format(lFormatMask, "Target", "Result", "Time (ms)", "Warnings", "Log file / error"));
+
+    int lFailureCount = 0;
+    for(TargetResult lResult : pResultList){
+      if(!lResult.mSuccess){
+        lFailureCount++;
+      }
+      lSummary.append("\n");
+      lSummary.append(String.format(lFormatMask, lResult.mTarget.mName, lResult.mSuccess ? "COMPLETE" : "FAILED", lResult.mDurationMS,
+                                    lResult.mWarningCount, lResult.mSuccess ? lResult.mLogFileName : lResult.mLogFileName + " " + lResult.mErrorMessage));
+    }
+
+    Logger.logAndEcho("\nTarget results\n====================================\n" + lSummary.toString() + "\n");
+
+    return lFailureCount;
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.fivium.scriptrunner2.archive;
+
+
+import com.fivium.scriptrunner2.CommandLineOption;
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.database.DatabaseConnection;
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+import com.fivium.scriptrunner2.ex.ExArchiver;
+import com.fivium.scriptrunner2.ex.ExPromote;
+import com.fivium.scriptrunner2.install.Installer;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+
+
+/**
+ * Moves old promotion runs out of the ScriptRunner log tables and into their compressed archive counterparts, so the 
+ * tables consulted for every file during a promote stay small. Archived runs are still taken into account when deciding
+ * if a label, file, patch or statement has already been run.
+ */
+public class Archiver {
+  
+  private final CommandLineWrapper mCommandLineWrapper;
+  
+  /**
+   * Runs the archive process.
+   * @param pCommandLineWrapper Command line arguments.
+   * @throws ExArchiver If the archive process fails.
+   */
+  public static void run(CommandLineWrapper pCommandLineWrapper) 
+  throws ExArchiver {
+    Archiver lArchiver = new Archiver(pCommandLineWrapper);
+    lArchiver.archive();
+  }
+  
+  private Archiver(CommandLineWrapper pCommandLineWrapper) {
+    mCommandLineWrapper = pCommandLineWrapper;
+  }
+  
+  /**
+   * Establishes the archive cutoff from the command line.
+   * @return Minimum age in days of a promotion run before it is archived.
+   * @throws ExArchiver If the argument is not a non-negative integer.
+   */
+  private int getCutoffDays() 
+  throws ExArchiver {
+    String lDaysString = mCommandLineWrapper.getOption(CommandLineOption.ARCHIVE);
+    int lDays;
+    try {
+      lDays = Integer.parseInt(lDaysString);
+    }
+    catch (NumberFormatException e) {
+      throw new ExArchiver("-" + CommandLineOption.ARCHIVE.getArgString() + " argument must be a number of days, got '" + lDaysString + "'", e);
+    }
+    
+    if(lDays < 0){
+      throw new ExArchiver("-" + CommandLineOption.ARCHIVE.getArgString() + " argument cannot be negative");
+    }
+    
+    return lDays;
+  }
+  
+  /**
+   * Performs the archive in a single transaction on the logging connection. Only finished promotion runs are archived, 
+   * along with all their promotion files, patch runs and patch statements.
+   * @throws ExArchiver If the archive process fails.
+   */
+  private void archive() 
+  throws ExArchiver {
+    
+    int lDays = getCutoffDays();
+    
+    DatabaseConnection lDatabaseConnection;
+    try {
+      //Check the version to make sure the archive tables exist
+      lDatabaseConnection = DatabaseConnection.createConnection(mCommandLineWrapper, false, true, true);
+    }
+    catch (ExPromote e) {
+      throw new ExArchiver("Failed to connect to database: " + e.getMessage(), e);
+    }
+    
+    Logger.logAndEcho("Archiving promotion runs started more than " + lDays + " day" + (lDays != 1 ? "s" : "") + " ago...");
+    
+    Connection lConnection = lDatabaseConnection.getLoggingConnection();
+    try {
+      CallableStatement lStatement = lDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_ARCHIVE_PROMOTION_RUNS);
+      
+      lStatement.setInt   ("days", lDays);
+      lStatement.setString("internal_patch_label", Installer.INSTALL_PATCH_PREFIX);
+      
+      lStatement.registerOutParameter("promotion_run_count", Types.INTEGER);
+      lStatement.registerOutParameter("promotion_file_count", Types.INTEGER);
+      lStatement.registerOutParameter("patch_run_count", Types.INTEGER);
+      lStatement.registerOutParameter("statement_count", Types.INTEGER);
+      
+      lStatement.executeUpdate();
+      
+      lConnection.commit();
+      
+      Logger.logAndEcho("Archived " + lStatement.getInt("promotion_run_count") + " promotion run(s), " + 
+                        lStatement.getInt("promotion_file_count") + " promotion file(s), " + 
+                        lStatement.getInt("patch_run_count") + " patch run(s) and " + 
+                        lStatement.getInt("statement_count") + " patch statement(s)");
+      
+      lStatement.close();
+    }
+    catch (SQLException e) {
+      try {
+        lConnection.rollback();
+      }
+      catch (SQLException e2) {
+        Logger.logInfo("Error: failed to roll back archive transaction");
+        Logger.logError(e2);
+      }
+      throw new ExArchiver("Failed to archive promotion runs: " + e.getMessage(), e);
+    }
+    finally {
+      lDatabaseConnection.closePromoteConnection();
+      lDatabaseConnection.closeLoggingConnection();
+    }
+  }
+  
+}
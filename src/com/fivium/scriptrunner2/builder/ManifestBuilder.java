@@ -83,6 +83,7 @@ implements FileResolver {
   public static final String PROPERTY_NAME_GENERATED_DATETIME = "manifest_generated_datetime";  
   public static final String PROPERTY_NAME_FILE_VERSION = "file_version";
   public static final String PROPERTY_NAME_FILE_HASH = "file_hash";
+  public static final String PROPERTY_NAME_FILE_SIZE = "file_size";
    
   private final File mBaseDirectory;
   private final String mPromotionLabel;
@@ -442,13 +443,14 @@ implements FileResolver {
   
   /**
    * Populates the given map with the set of default properties which are given to every file. Currently this includes
-   * the file hash.
+   * the file hash and size.
    * @param pPropertyMap Map to populate.
    * @param pFilePath Canonical file path.
    */
   private void populateDefaultProperties(Map<String, String> pPropertyMap, String pFilePath){
     try {
       pPropertyMap.put(PROPERTY_NAME_FILE_HASH, ManifestEntry.hashFile(pFilePath, this));
+      pPropertyMap.put(PROPERTY_NAME_FILE_SIZE, Long.toString(resolveFile(pFilePath).length()));
     }
     catch (IOException e) {
       throw new ExFatalError("Failed to generate file hash for file " + pFilePath, e);
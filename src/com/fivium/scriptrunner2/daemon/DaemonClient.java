@@ -0,0 +1,116 @@
+package com.fivium.scriptrunner2.daemon;
+
+
+import com.fivium.scriptrunner2.CommandLineOption;
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.database.DatabaseConnection;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.util.XFUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.net.InetAddress;
+import java.net.Socket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Sends a run or build job to a {@link ScriptRunnerDaemon} on a loopback port, as requested with <tt>-daemon</tt>, and
+ * prints the job's log to standard out as it is streamed back. The job's exit status is returned so the client process
+ * can exit with it. The client authenticates with the token from the daemon's token file, so it must be run by the
+ * daemon's user.
+ */
+public class DaemonClient {
+
+  /**
+   * Sends the job described by the given arguments to the daemon and waits for it to finish. If the job is a run and no
+   * password was given, the password is prompted for before the job is sent.
+   * @param pCommandLineWrapper Parsed command line options.
+   * @param pArgs Original command line arguments.
+   * @return Exit status of the job.
+   */
+  public static int submitJob(CommandLineWrapper pCommandLineWrapper, String[] pArgs) {
+
+    List<String> lArgs = new ArrayList<String>(Arrays.asList(pArgs));
+
+    Socket lSocket = null;
+    try {
+      int lPort = ScriptRunnerDaemon.parsePort(pCommandLineWrapper, CommandLineOption.DAEMON_PORT);
+
+      //The daemon has no console, so the password must be prompted for here
+      if(pCommandLineWrapper.hasOption(CommandLineOption.RUN) && XFUtil.isNull(pCommandLineWrapper.getOption(CommandLineOption.PROMOTE_PASSWORD))){
+        lArgs.add("-" + CommandLineOption.PROMOTE_PASSWORD.getArgString());
+        lArgs.add(CommandLineWrapper.readPassword("Enter password for " + DatabaseConnection.establishPromoteUser(pCommandLineWrapper)));
+      }
+
+      //Only users who can read the daemon's token file may submit jobs
+      String lToken = ScriptRunnerDaemon.readTokenFile(lPort);
+
+      lSocket = new Socket(InetAddress.getLoopbackAddress(), lPort);
+
+      DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(lSocket.getOutputStream()));
+      lOutput.writeUTF(lToken);
+      lOutput.writeUTF(System.getProperty("user.dir"));
+      lOutput.writeInt(lArgs.size());
+      for(String lArg : lArgs){
+        lOutput.writeUTF(lArg);
+      }
+      lOutput.flush();
+
+      return readFrames(new DataInputStream(new BufferedInputStream(lSocket.getInputStream())));
+    }
+    catch (ExFatalError e) {
+      System.err.println(e.getMessage());
+      return 1;
+    }
+    catch (EOFException e) {
+      System.err.println("ScriptRunner daemon closed the connection before the job finished");
+      return 1;
+    }
+    catch (IOException e) {
+      System.err.println("Failed to run job on ScriptRunner daemon: " + e.getMessage());
+      return 1;
+    }
+    finally {
+      if(lSocket != null){
+        try {
+          lSocket.close();
+        }
+        catch (IOException e) {
+          //Ignore errors closing the socket
+        }
+      }
+    }
+  }
+
+  /**
+   * Prints output frames from the daemon until the exit frame is received.
+   * @return Exit status of the job.
+   */
+  private static int readFrames(DataInputStream pInput)
+  throws IOException {
+    while(true){
+      int lFrameType = pInput.readByte();
+      if(lFrameType == ScriptRunnerDaemon.FRAME_EXIT){
+        return pInput.readInt();
+      }
+
+      byte[] lBytes = new byte[pInput.readInt()];
+      pInput.readFully(lBytes);
+
+      PrintStream lStream = lFrameType == ScriptRunnerDaemon.FRAME_ERROR ? System.err : System.out;
+      lStream.print(new String(lBytes, "UTF-8"));
+      lStream.flush();
+    }
+  }
+
+}
@@ -0,0 +1,683 @@
+package com.fivium.scriptrunner2.daemon;
+
+
+import com.fivium.scriptrunner2.CommandLineOption;
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.Main;
+import com.fivium.scriptrunner2.TargetFanOut;
+import com.fivium.scriptrunner2.database.DatabaseConnection;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.ex.ExInternal;
+import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
+import com.fivium.scriptrunner2.util.XFUtil;
+
+import com.google.common.hash.HashCodes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.cli.ParseException;
+
+
+/**
+ * A long-running ScriptRunner process which accepts run and build jobs from {@link DaemonClient}s on a loopback port,
+ * as requested with <tt>-serve</tt>. Jobs avoid the cost of starting a JVM, loading classes and initialising the JDBC
+ * driver for every promote.<br/><br/>
+ *
+ * Each job runs on its own thread with its own log file, written to the job's log directory, and every message is
+ * streamed back to the client. Messages are queued and sent to the client by a separate thread, so a client which stops
+ * reading cannot block the job or the daemon's logging; if the queue fills up, the client's messages are dropped. Jobs against different databases run concurrently, while jobs against the same database
+ * (identified by its JDBC connect string) are run one at a time in the order they acquire the database. Relative paths in
+ * a job's arguments are resolved against the client's working directory.<br/><br/>
+ *
+ * The daemon only listens on the loopback interface, and jobs are run with the privileges of the daemon's user. So that
+ * other local users cannot submit jobs, the daemon writes a random token to a file in its user's home directory which
+ * only that user can read, and a client must send the token before its job is accepted.
+ */
+public class ScriptRunnerDaemon {
+
+  /** Frame containing UTF-8 text for the client's standard out. */
+  static final int FRAME_OUTPUT = 1;
+  /** Frame containing UTF-8 text for the client's standard error. */
+  static final int FRAME_ERROR = 2;
+  /** Frame containing the job's exit status. Always the last frame sent for a job. */
+  static final int FRAME_EXIT = 3;
+
+  private static final String TOKEN_FILE_PREFIX = ".scriptrunner-daemon-";
+  private static final String TOKEN_FILE_SUFFIX = ".token";
+  private static final int TOKEN_BYTES = 32;
+
+  /** Time a client has to send its token and job before the connection is dropped. */
+  private static final int HANDSHAKE_TIMEOUT_MS = 30000;
+
+  /** Number of output frames which may be queued for a client before further frames are dropped. */
+  static final int MAX_QUEUED_FRAMES = 10000;
+
+  /** Time the queued frames for a finished job have to reach the client before its connection is closed. */
+  private static final int CLIENT_DRAIN_TIMEOUT_MS = 60000;
+
+  /** Upper limit on the number of arguments a job may have. */
+  static final int MAX_JOB_ARGUMENTS = 1000;
+
+  /** Options whose values are file paths, which are resolved against the client's working directory. */
+  private static final CommandLineOption[] PATH_OPTIONS = {
+    CommandLineOption.RUN, CommandLineOption.BUILD, CommandLineOption.OUTPUT_FILE_PATH, CommandLineOption.ADDITIONAL_PROPERTIES,
+    CommandLineOption.TARGETS, CommandLineOption.LOG_DIRECTORY
+  };
+
+  private final int mPort;
+
+  /** Token which clients must send before their job is accepted. */
+  private byte[] mToken;
+
+  /**
+   * Locks for the databases which jobs are currently using or waiting for, keyed by JDBC connect string. A lock is
+   * removed when no job is using or waiting for it. The map must be synchronized on.
+   */
+  private final Map<String, TargetLock> mTargetLockMap = new HashMap<String, TargetLock>();
+
+  private final AtomicInteger mJobNumber = new AtomicInteger(1);
+
+  /**
+   * Runs the daemon until the process is terminated.
+   * @param pCommandLineWrapper Command line options for the daemon.
+   * @throws ExFatalError If the daemon cannot listen on the requested port.
+   */
+  public static void run(CommandLineWrapper pCommandLineWrapper)
+  throws ExFatalError {
+    new ScriptRunnerDaemon(parsePort(pCommandLineWrapper, CommandLineOption.SERVE)).serve();
+  }
+
+  /**
+   * Gets a port number from a command line option.
+   * @param pCommandLineWrapper Command line options.
+   * @param pOption Option containing the port number.
+   * @return Port number.
+   * @throws ExFatalError If the argument is not a valid port number.
+   */
+  static int parsePort(CommandLineWrapper pCommandLineWrapper, CommandLineOption pOption)
+  throws ExFatalError {
+    String lPortString = pCommandLineWrapper.getOption(pOption);
+    try {
+      int lPort = Integer.parseInt(XFUtil.nvl(lPortString, "").trim());
+      if(lPort < 1 || lPort > 65535){
+        throw new NumberFormatException();
+      }
+      return lPort;
+    }
+    catch (NumberFormatException e) {
+      throw new ExFatalError("-" + pOption.getArgString() + " argument must be a port number between 1 and 65535, got '" + lPortString + "'");
+    }
+  }
+
+  private ScriptRunnerDaemon(int pPort) {
+    mPort = pPort;
+  }
+
+  /**
+   * Gets the file which contains the token for the daemon listening on the given port.
+   * @param pPort Daemon port.
+   * @return Token file in the user's home directory.
+   */
+  static File getTokenFile(int pPort){
+    return new File(System.getProperty("user.home"), TOKEN_FILE_PREFIX + pPort + TOKEN_FILE_SUFFIX);
+  }
+
+  /**
+   * Generates a new random token and writes it to the token file for the given port, replacing any previous file. The
+   * file is created so only its owner can read or write it.
+   * @param pPort Daemon port.
+   * @return The new token.
+   * @throws ExFatalError If the token file cannot be written.
+   */
+  static String createTokenFile(int pPort)
+  throws ExFatalError {
+
+    byte[] lTokenBytes = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(lTokenBytes);
+    String lToken = HashCodes.fromBytes(lTokenBytes).toString();
+
+    Path lTokenPath = getTokenFile(pPort).toPath();
+    try {
+      Files.deleteIfExists(lTokenPath);
+      if(lTokenPath.getFileSystem().supportedFileAttributeViews().contains("posix")){
+        //Create the file with restricted permissions so there is no window in which other users can read it
+        Files.createFile(lTokenPath, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      }
+      else {
+        File lTokenFile = Files.createFile(lTokenPath).toFile();
+        if(!(lTokenFile.setReadable(false, false) && lTokenFile.setReadable(true, true) && lTokenFile.setWritable(false, false) && lTokenFile.setWritable(true, true))){
+          throw new IOException("Could not restrict permissions of " + lTokenFile.getAbsolutePath());
+        }
+      }
+      Files.write(lTokenPath, lToken.getBytes("US-ASCII"));
+    }
+    catch (IOException e) {
+      throw new ExFatalError("Failed to write daemon token file: " + e.getMessage(), e);
+    }
+
+    return lToken;
+  }
+
+  /**
+   * Reads the token for the daemon listening on the given port from its token file.
+   * @param pPort Daemon port.
+   * @return Token.
+   * @throws ExFatalError If the token file cannot be read, e.g. because the daemon is not running or is run by another
+   * user.
+   */
+  static String readTokenFile(int pPort)
+  throws ExFatalError {
+    File lTokenFile = getTokenFile(pPort);
+    try {
+      return new String(Files.readAllBytes(lTokenFile.toPath()), "US-ASCII").trim();
+    }
+    catch (IOException e) {
+      throw new ExFatalError("Failed to read daemon token file " + lTokenFile.getAbsolutePath() + " - check the daemon is running as the current user on port " + pPort, e);
+    }
+  }
+
+  /**
+   * Accepts connections and runs each job on a new thread.
+   */
+  private void serve()
+  throws ExFatalError {
+
+    ServerSocket lServerSocket;
+    try {
+      lServerSocket = new ServerSocket(mPort, 50, InetAddress.getLoopbackAddress());
+    }
+    catch (IOException e) {
+      throw new ExFatalError("Failed to listen on loopback port " + mPort + ": " + e.getMessage(), e);
+    }
+
+    ExecutorService lExecutorService = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable pRunnable) {
+        Thread lThread = new Thread(pRunnable, "ScriptRunner-job");
+        lThread.setDaemon(true);
+        return lThread;
+      }
+    });
+
+    try {
+      mToken = createTokenFile(mPort).getBytes("US-ASCII");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new ExInternal("US-ASCII not supported", e);
+    }
+
+    Logger.logAndEcho("ScriptRunner daemon listening on loopback port " + mPort + " (token file " + getTokenFile(mPort).getAbsolutePath() + ")");
+
+    try {
+      while(true){
+        final Socket lSocket = lServerSocket.accept();
+        lExecutorService.execute(new Runnable() {
+          public void run() {
+            handleConnection(lSocket);
+          }
+        });
+      }
+    }
+    catch (IOException e) {
+      throw new ExFatalError("Failed to accept connection: " + e.getMessage(), e);
+    }
+    finally {
+      lExecutorService.shutdownNow();
+      getTokenFile(mPort).delete();
+      try {
+        lServerSocket.close();
+      }
+      catch (IOException e) {
+        Logger.logDebug("Failed to close server socket: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Reads a job from a client connection, runs it and sends its exit status.
+   */
+  private void handleConnection(Socket pSocket){
+
+    int lJobNumber = mJobNumber.getAndIncrement();
+    FrameSender lSender = null;
+    try {
+      DataInputStream lInput = new DataInputStream(new BufferedInputStream(pSocket.getInputStream()));
+      lSender = new FrameSender(new DataOutputStream(new BufferedOutputStream(pSocket.getOutputStream())), lJobNumber);
+
+      //Drop clients which connect but do not send a job
+      pSocket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+
+      //Compare in constant time so the token cannot be discovered a character at a time
+      if(!MessageDigest.isEqual(mToken, lInput.readUTF().getBytes("US-ASCII"))){
+        Logger.logWarning("Job " + lJobNumber + ": rejected connection with invalid token");
+        rejectConnection(lSender, "Invalid daemon token");
+        return;
+      }
+
+      String lWorkingDirectory = lInput.readUTF();
+      int lArgCount = lInput.readInt();
+      if(lArgCount < 0 || lArgCount > MAX_JOB_ARGUMENTS){
+        Logger.logWarning("Job " + lJobNumber + ": rejected connection with " + lArgCount + " arguments");
+        rejectConnection(lSender, "Jobs may have at most " + MAX_JOB_ARGUMENTS + " arguments");
+        return;
+      }
+
+      String[] lArgs = new String[lArgCount];
+      for(int i = 0; i < lArgs.length; i++){
+        lArgs[i] = lInput.readUTF();
+      }
+
+      //Jobs can legitimately wait a long time for their databases
+      pSocket.setSoTimeout(0);
+
+      lSender.finish(runJob(lJobNumber, new File(lWorkingDirectory), lArgs, lSender));
+    }
+    catch (IOException e) {
+      Logger.logWarning("Job " + lJobNumber + ": client connection failed: " + e.getMessage());
+    }
+    finally {
+      if(lSender != null){
+        lSender.awaitFinish();
+      }
+      try {
+        pSocket.close();
+      }
+      catch (IOException e) {
+        Logger.logDebug("Failed to close job socket: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Sends an error and a failed exit status to a client whose job will not be run.
+   */
+  private static void rejectConnection(FrameSender pSender, String pMessage){
+    new FrameWriter(pSender, FRAME_ERROR).writeLine(pMessage);
+    pSender.finish(1);
+  }
+
+  /**
+   * Runs a job with its own log context, holding the locks for the databases it uses.
+   * @return Exit status for the client.
+   */
+  private int runJob(int pJobNumber, File pWorkingDirectory, String[] pArgs, FrameSender pSender){
+
+    FrameWriter lErrorWriter = new FrameWriter(pSender, FRAME_ERROR);
+
+    CommandLineWrapper lCommandLine;
+    try {
+      lCommandLine = new CommandLineWrapper(pArgs);
+    }
+    catch (ParseException e) {
+      lErrorWriter.writeLine("Invalid job arguments: " + e.getMessage());
+      return 1;
+    }
+
+    boolean lIsRun = lCommandLine.hasOption(CommandLineOption.RUN);
+    if(!lIsRun && !lCommandLine.hasOption(CommandLineOption.BUILD)){
+      lErrorWriter.writeLine("Only -" + CommandLineOption.RUN.getArgString() + " and -" + CommandLineOption.BUILD.getArgString() + " jobs can be run by the daemon");
+      return 1;
+    }
+
+    resolvePaths(lCommandLine, pWorkingDirectory);
+
+    File lLogDirectory = lCommandLine.hasOption(CommandLineOption.LOG_DIRECTORY) ? new File(lCommandLine.getOption(CommandLineOption.LOG_DIRECTORY)) : pWorkingDirectory;
+    Logger.LogContext lLogContext;
+    try {
+      lLogContext = Logger.createLogContext("job" + pJobNumber, lLogDirectory, new FrameWriter(pSender, FRAME_OUTPUT));
+    }
+    catch (IOException e) {
+      lErrorWriter.writeLine("Failed to create log file: " + e.getMessage());
+      return 1;
+    }
+
+    Logger.logInfo("Job " + pJobNumber + " started: -" + (lIsRun ? CommandLineOption.RUN.getArgString() + " " + lCommandLine.getOption(CommandLineOption.RUN) :
+                                                                    CommandLineOption.BUILD.getArgString() + " " + lCommandLine.getOption(CommandLineOption.BUILD)));
+    long lStartTime = System.currentTimeMillis();
+
+    //Threads created by the job (e.g. for parallel lanes) inherit its log context
+    Logger.setLogContext(lLogContext);
+    List<String> lHeldTargets = Collections.emptyList();
+    int lExitStatus;
+    try {
+      Logger.logAndEcho(ScriptRunnerVersion.getVersionString());
+
+      if(lIsRun){
+        try {
+          lHeldTargets = lockTargets(lCommandLine);
+        }
+        catch (ExFatalError e) {
+          //Errors before the promote starts are not logged by the runner
+          Logger.logError(e);
+          throw e;
+        }
+      }
+
+      lExitStatus = Main.runCommand(lCommandLine) ? 1 : 0;
+    }
+    catch (Throwable th) {
+      String lTimestamp = Logger.formatLogTimestamp(new Date());
+      lErrorWriter.writeLine("[" + lTimestamp + "] Error encountered while running ScriptRunner (see log for details):\n" + th.getMessage());
+      if(!lIsRun){
+        //Error will already have been logged by runner; for all others log it now
+        Logger.logError(th);
+      }
+      lExitStatus = 1;
+    }
+    finally {
+      unlockTargets(lHeldTargets);
+      Logger.setLogContext(null);
+      Logger.closeLogContext(lLogContext);
+    }
+
+    Logger.logInfo("Job " + pJobNumber + " finished with exit status " + lExitStatus + " in " + (System.currentTimeMillis() - lStartTime) + "ms");
+
+    return lExitStatus;
+  }
+
+  /**
+   * Resolves relative paths in the job's arguments against the client's working directory, and directs a build with no
+   * output path to the client's working directory.
+   */
+  private static void resolvePaths(CommandLineWrapper pCommandLine, File pWorkingDirectory){
+
+    for(CommandLineOption lOption : PATH_OPTIONS){
+      String lPath = pCommandLine.getOption(lOption);
+      if(!XFUtil.isNull(lPath) && !new File(lPath).isAbsolute()){
+        pCommandLine.overrideOption(lOption, new File(pWorkingDirectory, lPath).getPath());
+      }
+    }
+
+    //A JDBC properties argument may instead be the name of a bundled profile
+    String lPropertiesPath = pCommandLine.getOption(CommandLineOption.JDBC_PROPERTIES_FILE);
+    if(!XFUtil.isNull(lPropertiesPath) && !new File(lPropertiesPath).isAbsolute() && new File(pWorkingDirectory, lPropertiesPath).exists()){
+      pCommandLine.overrideOption(CommandLineOption.JDBC_PROPERTIES_FILE, new File(pWorkingDirectory, lPropertiesPath).getPath());
+    }
+
+    String lPromotionLabel = pCommandLine.getOption(CommandLineOption.PROMOTION_LABEL);
+    if(pCommandLine.hasOption(CommandLineOption.BUILD) && XFUtil.isNull(pCommandLine.getOption(CommandLineOption.OUTPUT_FILE_PATH)) && !XFUtil.isNull(lPromotionLabel)){
+      pCommandLine.overrideOption(CommandLineOption.OUTPUT_FILE_PATH, new File(pWorkingDirectory, lPromotionLabel + ".zip").getPath());
+    }
+  }
+
+  /**
+   * Locks every database a run job promotes to, waiting for any other job using one of them to finish. Locks are taken in
+   * a consistent order so jobs with overlapping targets cannot deadlock.
+   * @return Connect strings of the databases locked, in the order they were locked.
+   * @throws ExFatalError If the job's connection details are incomplete.
+   */
+  private List<String> lockTargets(CommandLineWrapper pCommandLine)
+  throws ExFatalError {
+
+    SortedSet<String> lTargetKeys = new TreeSet<String>();
+    if(pCommandLine.hasOption(CommandLineOption.TARGETS)){
+      lTargetKeys.addAll(TargetFanOut.createFromFile(new File(pCommandLine.getOption(CommandLineOption.TARGETS)), 1).getTargetConnectStrings());
+    }
+    else {
+      //Jobs cannot prompt for connection details as they have no console
+      if(DatabaseConnection.isPromptRequired(pCommandLine)){
+        throw new ExFatalError("Daemon jobs must specify a password and either a JDBC connect string or a host, port and SID or service name");
+      }
+      lTargetKeys.add(DatabaseConnection.establishConnectionString(pCommandLine));
+    }
+
+    List<String> lHeldTargets = new ArrayList<String>();
+    for(String lTargetKey : lTargetKeys){
+      //Register as a user of the lock before waiting for it so it is not removed in the meantime
+      TargetLock lTargetLock;
+      synchronized(mTargetLockMap){
+        lTargetLock = mTargetLockMap.get(lTargetKey);
+        if(lTargetLock == null){
+          lTargetLock = new TargetLock();
+          mTargetLockMap.put(lTargetKey, lTargetLock);
+        }
+        lTargetLock.mUserCount++;
+      }
+
+      if(!lTargetLock.mLock.tryLock()){
+        Logger.logAndEcho("Waiting for another job to finish promoting to " + lTargetKey);
+        lTargetLock.mLock.lock();
+      }
+      lHeldTargets.add(lTargetKey);
+    }
+
+    return lHeldTargets;
+  }
+
+  /**
+   * Unlocks databases locked by {@link #lockTargets} in reverse order, removing the locks which no other job is using or
+   * waiting for.
+   * @param pHeldTargets Connect strings of the databases locked.
+   */
+  private void unlockTargets(List<String> pHeldTargets){
+    synchronized(mTargetLockMap){
+      for(int i = pHeldTargets.size() - 1; i >= 0; i--){
+        TargetLock lTargetLock = mTargetLockMap.get(pHeldTargets.get(i));
+        lTargetLock.mLock.unlock();
+        if(--lTargetLock.mUserCount == 0){
+          mTargetLockMap.remove(pHeldTargets.get(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * A fair lock for one database, with the number of jobs which hold it or are waiting for it.
+   */
+  private static class TargetLock {
+    private final ReentrantLock mLock = new ReentrantLock(true);
+    /** Number of jobs holding or waiting for the lock. Guarded by the lock map. */
+    private int mUserCount = 0;
+  }
+
+  /**
+   * Sends frames to one client on its own thread, so that writing to a client which has stopped reading does not block
+   * the job or the logging lock it is written under. At most {@link #MAX_QUEUED_FRAMES} text frames are queued; any more
+   * are dropped. If the client disconnects, queued and subsequent frames are discarded.
+   */
+  private static class FrameSender
+  implements Runnable {
+
+    private final DataOutputStream mOutput;
+    private final int mJobNumber;
+    private final BlockingQueue<Frame> mQueue = new LinkedBlockingQueue<Frame>();
+    /** Permits for text frames, so the exit frame can always be queued. */
+    private final Semaphore mQueuePermits = new Semaphore(MAX_QUEUED_FRAMES);
+    private final Thread mThread;
+    private final AtomicInteger mDroppedFrameCount = new AtomicInteger();
+    private volatile boolean mIsFinished = false;
+    private boolean mIsDisconnected = false;
+
+    FrameSender(DataOutputStream pOutput, int pJobNumber) {
+      mOutput = pOutput;
+      mJobNumber = pJobNumber;
+      mThread = new Thread(this, "ScriptRunner-job" + pJobNumber + "-output");
+      mThread.setDaemon(true);
+      mThread.start();
+    }
+
+    /**
+     * Queues a text frame without blocking, or drops it if the queue is full.
+     */
+    void send(int pFrameType, byte[] pBytes){
+      if(mQueuePermits.tryAcquire()){
+        mQueue.add(new Frame(pFrameType, pBytes, 0));
+      }
+      else {
+        mDroppedFrameCount.incrementAndGet();
+      }
+    }
+
+    /**
+     * Queues the exit frame, which is the last frame sent to the client.
+     */
+    void finish(int pExitStatus){
+      mQueue.add(new Frame(FRAME_EXIT, null, pExitStatus));
+      mIsFinished = true;
+    }
+
+    /**
+     * Waits for the queued frames to be sent, up to {@link #CLIENT_DRAIN_TIMEOUT_MS}, or stops the sender if no exit frame
+     * was queued. The caller should then close the socket, which stops the sender if it is still blocked on the client.
+     */
+    void awaitFinish(){
+      if(!mIsFinished){
+        mThread.interrupt();
+        return;
+      }
+
+      try {
+        mThread.join(CLIENT_DRAIN_TIMEOUT_MS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      if(mThread.isAlive()){
+        Logger.logWarning("Job " + mJobNumber + ": client did not read its output within " + CLIENT_DRAIN_TIMEOUT_MS + "ms; closing connection");
+      }
+      if(mDroppedFrameCount.get() > 0){
+        Logger.logWarning("Job " + mJobNumber + ": client was not reading its output; " + mDroppedFrameCount.get() + " frames were dropped (see job log file for full output)");
+      }
+    }
+
+    public void run() {
+      try {
+        Frame lFrame;
+        do {
+          lFrame = mQueue.take();
+          if(lFrame.mFrameType != FRAME_EXIT){
+            mQueuePermits.release();
+          }
+          if(!mIsDisconnected){
+            try {
+              mOutput.writeByte(lFrame.mFrameType);
+              if(lFrame.mFrameType == FRAME_EXIT){
+                mOutput.writeInt(lFrame.mExitStatus);
+              }
+              else {
+                mOutput.writeInt(lFrame.mBytes.length);
+                mOutput.write(lFrame.mBytes);
+              }
+              //Only flush once the queue is empty, so a burst of messages is sent together
+              if(mQueue.isEmpty()){
+                mOutput.flush();
+              }
+            }
+            catch (IOException e) {
+              mIsDisconnected = true;
+            }
+          }
+        }
+        while(lFrame.mFrameType != FRAME_EXIT);
+      }
+      catch (InterruptedException e) {
+        //The connection failed before the job finished, or the daemon is shutting down
+      }
+    }
+  }
+
+  /**
+   * A frame queued for a client.
+   */
+  private static class Frame {
+    private final int mFrameType;
+    /** Text for output and error frames. */
+    private final byte[] mBytes;
+    /** Status for an exit frame. */
+    private final int mExitStatus;
+
+    Frame(int pFrameType, byte[] pBytes, int pExitStatus) {
+      mFrameType = pFrameType;
+      mBytes = pBytes;
+      mExitStatus = pExitStatus;
+    }
+  }
+
+  /**
+   * Writer which sends text to the client in frames of the given type. Each flush queues one frame on the client's
+   * {@link FrameSender} and never blocks, so the writer is safe to use under the logging lock.
+   */
+  private static class FrameWriter
+  extends Writer {
+
+    private final FrameSender mSender;
+    private final int mFrameType;
+    private final StringBuilder mBuffer = new StringBuilder();
+
+    FrameWriter(FrameSender pSender, int pFrameType) {
+      mSender = pSender;
+      mFrameType = pFrameType;
+    }
+
+    @Override
+    public synchronized void write(char[] pChars, int pOffset, int pLength) {
+      mBuffer.append(pChars, pOffset, pLength);
+    }
+
+    @Override
+    public synchronized void flush() {
+      if(mBuffer.length() == 0){
+        return;
+      }
+
+      byte[] lBytes;
+      try {
+        lBytes = mBuffer.toString().getBytes("UTF-8");
+      }
+      catch (IOException e) {
+        throw new ExFatalError("UTF-8 not supported", e);
+      }
+      mBuffer.setLength(0);
+
+      mSender.send(mFrameType, lBytes);
+    }
+
+    @Override
+    public void close() {
+      flush();
+    }
+
+    synchronized void writeLine(String pLine){
+      mBuffer.append(pLine).append('\n');
+      flush();
+    }
+  }
+
+}
@@ -0,0 +1,171 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.CommandLineOption;
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.util.XFUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * Oracle JDBC driver properties to be used when establishing the promote and logging connections. Settings are read from
+ * the properties file given by <tt>-jdbcproperties</tt>, then from any <tt>-jdbcproperty name=value</tt> arguments,
+ * which override the file. Each setting name may be prefixed with <tt>promote.</tt> or <tt>logging.</tt> to apply it
+ * to only that connection. Unprefixed settings apply to both connections, and a prefixed setting takes precedence over
+ * an unprefixed setting with the same name.<br/><br/>
+ *
+ * If no file exists at the path given by <tt>-jdbcproperties</tt>, a profile of that name bundled with ScriptRunner is
+ * used instead (for example, <tt>lob-heavy</tt>). The connection credentials and SYSDBA setting cannot be overridden.
+ */
+public class ConnectionProperties {
+
+  public static final String PROMOTE_PREFIX = "promote.";
+  public static final String LOGGING_PREFIX = "logging.";
+
+  private static final String BUNDLED_PROFILE_SUFFIX = ".properties";
+
+  /** Driver properties which are always set by {@link DatabaseConnection}. */
+  private static final Set<String> RESERVED_PROPERTY_NAMES = new HashSet<String>(Arrays.asList("user", "password", "internal_logon"));
+
+  private final Properties mPromoteProperties = new Properties();
+  private final Properties mLoggingProperties = new Properties();
+
+  /**
+   * Creates a ConnectionProperties from the <tt>-jdbcproperties</tt> and <tt>-jdbcproperty</tt> command line options.
+   * @param pCommandLine Command line options.
+   * @return New ConnectionProperties, which is empty if neither option was specified.
+   * @throws ExFatalError If the properties file cannot be read or a setting is invalid.
+   */
+  public static ConnectionProperties createFromCommandLine(CommandLineWrapper pCommandLine)
+  throws ExFatalError {
+
+    Properties lSettings = new Properties();
+
+    String lProfile = pCommandLine.getOption(CommandLineOption.JDBC_PROPERTIES_FILE);
+    if(!XFUtil.isNull(lProfile)){
+      loadProfile(lProfile, lSettings);
+    }
+
+    if(pCommandLine.hasOption(CommandLineOption.JDBC_PROPERTY)){
+      for(String lSetting : pCommandLine.getOptionValues(CommandLineOption.JDBC_PROPERTY)){
+        int lEqualsIndex = lSetting.indexOf('=');
+        if(lEqualsIndex < 1){
+          throw new ExFatalError("-" + CommandLineOption.JDBC_PROPERTY.getArgString() + " argument must be in the form name=value, got '" + lSetting + "'");
+        }
+        lSettings.setProperty(lSetting.substring(0, lEqualsIndex).trim(), lSetting.substring(lEqualsIndex + 1).trim());
+      }
+    }
+
+    return new ConnectionProperties(lSettings);
+  }
+
+  /**
+   * Loads the given properties file, or the bundled profile with the given name if the file does not exist.
+   */
+  private static void loadProfile(String pProfile, Properties pSettings){
+    File lFile = new File(pProfile);
+    InputStream lInputStream;
+    try {
+      if(lFile.exists()){
+        lInputStream = new FileInputStream(lFile);
+      }
+      else {
+        lInputStream = ConnectionProperties.class.getResourceAsStream(pProfile + BUNDLED_PROFILE_SUFFIX);
+        if(lInputStream == null){
+          throw new ExFatalError("JDBC properties file " + pProfile + " not found");
+        }
+      }
+
+      try {
+        pSettings.load(lInputStream);
+      }
+      finally {
+        lInputStream.close();
+      }
+    }
+    catch (IOException e) {
+      throw new ExFatalError("Failed to read JDBC properties file " + pProfile + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Creates a ConnectionProperties by resolving the given settings for each connection.
+   * @param pSettings Settings, which may have connection prefixes.
+   * @throws ExFatalError If a setting is reserved.
+   */
+  ConnectionProperties(Properties pSettings)
+  throws ExFatalError {
+
+    //Apply unprefixed settings first so prefixed settings override them
+    for(String lName : pSettings.stringPropertyNames()){
+      if(!lName.startsWith(PROMOTE_PREFIX) && !lName.startsWith(LOGGING_PREFIX)){
+        setProperty(mPromoteProperties, lName, pSettings.getProperty(lName));
+        setProperty(mLoggingProperties, lName, pSettings.getProperty(lName));
+      }
+    }
+
+    for(String lName : pSettings.stringPropertyNames()){
+      if(lName.startsWith(PROMOTE_PREFIX)){
+        setProperty(mPromoteProperties, lName.substring(PROMOTE_PREFIX.length()), pSettings.getProperty(lName));
+      }
+      else if(lName.startsWith(LOGGING_PREFIX)){
+        setProperty(mLoggingProperties, lName.substring(LOGGING_PREFIX.length()), pSettings.getProperty(lName));
+      }
+    }
+  }
+
+  private static void setProperty(Properties pProperties, String pName, String pValue){
+    if(RESERVED_PROPERTY_NAMES.contains(pName)){
+      throw new ExFatalError("JDBC property " + pName + " cannot be overridden");
+    }
+    pProperties.setProperty(pName, pValue);
+  }
+
+  /**
+   * Gets the driver properties for the promote connection, including any SYSDBA or proxy connections.
+   * @return Properties, which the caller must not modify.
+   */
+  public Properties getPromoteProperties() {
+    return mPromoteProperties;
+  }
+
+  /**
+   * Gets the driver properties for the logging connection.
+   * @return Properties, which the caller must not modify.
+   */
+  public Properties getLoggingProperties() {
+    return mLoggingProperties;
+  }
+
+  /**
+   * Writes the effective driver properties for each connection to the log, if any were set.
+   */
+  public void logEffectiveSettings(){
+    logProperties("promote", mPromoteProperties);
+    logProperties("logging", mLoggingProperties);
+  }
+
+  private static void logProperties(String pConnectionName, Properties pProperties){
+    if(pProperties.size() > 0){
+      StringBuilder lSettings = new StringBuilder();
+      for(Map.Entry<Object, Object> lEntry : new TreeMap<Object, Object>(pProperties).entrySet()){
+        lSettings.append("\n  " + lEntry.getKey() + "=" + lEntry.getValue());
+      }
+      Logger.logInfo("JDBC properties for " + pConnectionName + " connection:" + lSettings.toString());
+    }
+  }
+
+}
@@ -6,19 +6,23 @@ import com.fivium.scriptrunner2.CommandLineWrapper;
 import com.fivium.scriptrunner2.Logger;
 import com.fivium.scriptrunner2.ex.ExFatalError;
 import com.fivium.scriptrunner2.ex.ExPromote;
-import com.fivium.scriptrunner2.install.Installer;
 import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
 import com.fivium.scriptrunner2.util.XFUtil;
 
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Types;
+import java.sql.Statement;
 
-import java.util.Properties;
-
-import oracle.jdbc.OracleDriver;
-import oracle.jdbc.driver.OracleConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -26,23 +30,37 @@ import oracle.jdbc.driver.OracleConnection;
  * logging connection, which should be used to log the promotion's progress. The promote connection can be switched to
  * connect as different users if required, or as SYSDBA using the special "CONNECT SYSDBA" connection markup. <br/><br/>
  *
+ * By default, a CONNECT opens a proxy session on the promote connection which is closed again by the next DISCONNECT or
+ * CONNECT. If a proxy cache size is given with <tt>-proxycache</tt>, each proxied user is instead given its own physical
+ * connection which is created just in time and kept open, so switching to a user who has been connected to before only
+ * changes which connection is active. The least recently used proxy connection is closed when the cache is full. Note 
+ * that session state such as package variables persists between CONNECTs to a cached user.<br/><br/>
+ *
+ * Proxy grants are only issued once per user for each promote, including for any lane connections.<br/><br/>
+ *
+ * Database specific behaviour, including how connections are created and users are switched, is provided by the
+ * {@link DatabaseDialect} chosen with <tt>-dialect</tt>.<br/><br/>
+ *
+ * If <tt>-jdbcstats</tt> is given, every promote and logging connection is wrapped so the JDBC calls made on it are
+ * recorded to a {@link JDBCStatistics}, which is shared with any lane connections.<br/><br/>
+ *
  * It is the consumer's responsibility to close both connections before the application exits.
  */
 public class DatabaseConnection {  
   
-  private static final String GRANT_PROXY_GRANTEE_BIND =  ":grantee";
-  private static final String GRANT_PROXY_PROMOTEUSER_BIND =  ":promoteuser";
-  private static final String GRANT_PROXY_SQL =  "ALTER USER " + GRANT_PROXY_GRANTEE_BIND + " GRANT CONNECT THROUGH " + GRANT_PROXY_PROMOTEUSER_BIND;
-  
-  private static final String JDBC_PREFIX =  "jdbc:oracle:thin:@";
-  
   public static final String DEFAULT_PROMOTE_USER = "PROMOTEMGR";
   
   public static final String SYSDBA_USER = "SYSDBA";
   
-  private final OracleConnection mPromoteConnection;
-  private OracleConnection mSysDBAPromoteConnection = null;
-  private final OracleConnection mLoggingConnection;
+  public static final String DEFAULT_DIALECT = "oracle";
+  
+  public static final String H2_DIALECT = "h2";
+  
+  private final DatabaseDialect mDialect;
+  
+  private final Connection mPromoteConnection;
+  private Connection mSysDBAPromoteConnection = null;
+  private final Connection mLoggingConnection;
   
   /** Name of the initial user being used to perform the promote (i.e. PROMOTEMGR) */
   private final String mPromoteUserName;
@@ -53,6 +71,68 @@ public class DatabaseConnection {
   private boolean mIsProxyConnectionActive = false;
   private boolean mIsSysDBAConnectionActive = false;
   private String mProxyUserName = "";
+  
+  /** Maximum number of proxy connections to keep open, as requested with -proxycache. 0 if proxy sessions are not cached. */
+  private final int mProxyCacheSize;
+  /** Open proxy connections keyed by user name, in least recently used order. */
+  private final LinkedHashMap<String, Connection> mProxyConnectionCache = new LinkedHashMap<String, Connection>(16, 0.75f, true);
+  /** The cached proxy connection which is currently active, or null if the promote connection is in use. */
+  private Connection mActiveProxyConnection = null;
+  
+  /** Users who have been granted proxy connect through the promote user in this promote. Shared with lane connections. */
+  private final Set<String> mProxyGrantedUsers;
+  
+  /** Driver properties used to create new promote and logging connections. */
+  private final ConnectionProperties mConnectionProperties;
+  
+  /** Statistics the connections record JDBC calls to, or null if -jdbcstats was not given. */
+  private final JDBCStatistics mStatistics;
+  
+  /** If true, intermediate commits on the logging connection do not wait for redo to be written. */
+  private final boolean mIsAsyncLoggingCommit;
+  /** Statement used to issue COMMIT WRITE commands on the logging connection. Created just in time. */
+  private Statement mLoggingCommitStatement = null;
+  
+  /** 
+   * Statements prepared on each physical promote connection as it is currently connected, keyed by SQL. Cleared whenever 
+   * the connection changes user.
+   */
+  private final Map<Connection, Map<String, PreparedStatement>> mPromoteStatementCache = new IdentityHashMap<Connection, Map<String, PreparedStatement>>();
+  
+  /**
+   * Creates the database dialect requested with <tt>-dialect</tt>, or the Oracle dialect if none was requested. The
+   * built in dialects can be requested by name.
+   * @param pCommandLine Command line options.
+   * @return New dialect.
+   * @throws ExFatalError If the dialect class cannot be loaded or does not implement DatabaseDialect.
+   */
+  public static DatabaseDialect establishDialect(CommandLineWrapper pCommandLine)
+  throws ExFatalError {
+    String lDialectName = pCommandLine.getOption(CommandLineOption.DIALECT);
+    if(XFUtil.isNull(lDialectName) || DEFAULT_DIALECT.equalsIgnoreCase(lDialectName)){
+      return new OracleDialect();
+    }
+    else if(H2_DIALECT.equalsIgnoreCase(lDialectName)){
+      return new H2Dialect();
+    }
+    
+    try {
+      Object lDialect = Class.forName(lDialectName).newInstance();
+      if(!(lDialect instanceof DatabaseDialect)){
+        throw new ExFatalError("Dialect class " + lDialectName + " does not implement " + DatabaseDialect.class.getName());
+      }
+      return (DatabaseDialect) lDialect;
+    }
+    catch (ClassNotFoundException e) {
+      throw new ExFatalError("Dialect class " + lDialectName + " not found", e);
+    }
+    catch (InstantiationException e) {
+      throw new ExFatalError("Failed to create dialect " + lDialectName + ": " + e.getMessage(), e);
+    }
+    catch (IllegalAccessException e) {
+      throw new ExFatalError("Failed to create dialect " + lDialectName + ": " + e.getMessage(), e);
+    }
+  }
     
   /**
    * Establishes a JDBC connection string from the various combinations of arguments that can be provided to the ScriptRunner
@@ -65,7 +145,7 @@ public class DatabaseConnection {
    * @param pCommandLine Command line options.
    * @return A JDBC connection string.
    */
-  private static String establishConnectionString(CommandLineWrapper pCommandLine){
+  public static String establishConnectionString(CommandLineWrapper pCommandLine){
     
     String lConnectionString;
     String lCmdLineJDBC = pCommandLine.getOption(CommandLineOption.JDBC_CONNECT_STRING);
@@ -93,20 +173,33 @@ public class DatabaseConnection {
         lSID = CommandLineWrapper.readArg("Enter database SID (for service name, specify -service argument)", false);
       }      
       
-      if(!XFUtil.isNull(lSID)){
-        //Construct SID connect syntax if a SID was specified
-        lConnectionString = JDBC_PREFIX + lHostName + ":" + lPort + ":" + lSID;
-      }
-      else {
-        //Otherwise construct service name connect syntax
-        lConnectionString = JDBC_PREFIX + "//" + lHostName + ":" + lPort + "/" + lServiceName;
-      }
+      lConnectionString = establishDialect(pCommandLine).buildConnectString(lHostName, lPort, XFUtil.isNull(lSID) ? null : lSID, lServiceName);
       
     }   
     
     return lConnectionString;
   }
   
+  /**
+   * Tests if establishing a connection from the given command line would prompt the user for a password or any part of
+   * the connect string.
+   * @param pCommandLine Command line options.
+   * @return True if the user would be prompted.
+   */
+  public static boolean isPromptRequired(CommandLineWrapper pCommandLine){
+    
+    if(XFUtil.isNull(pCommandLine.getOption(CommandLineOption.PROMOTE_PASSWORD))){
+      return true;
+    }
+    
+    if(!XFUtil.isNull(pCommandLine.getOption(CommandLineOption.JDBC_CONNECT_STRING))){
+      return false;
+    }
+    
+    return XFUtil.isNull(pCommandLine.getOption(CommandLineOption.DB_HOST)) || XFUtil.isNull(pCommandLine.getOption(CommandLineOption.DB_PORT)) ||
+      (XFUtil.isNull(pCommandLine.getOption(CommandLineOption.DB_SID)) && XFUtil.isNull(pCommandLine.getOption(CommandLineOption.DB_SERVICE_NAME)));
+  }
+  
   /**
    * Establishes a connection to the database using the command line options provided. Note that these connections should
    * be cleaned up after use.
@@ -132,6 +225,16 @@ public class DatabaseConnection {
     return createConnection(pCommandLine, pCommandLine.hasOption(CommandLineOption.DB_SYSDBA), true, pCheckVersion);
   }
   
+  /**
+   * Gets the name of the user to connect as.
+   * @param pCommandLine CommandLine containing the user argument, if specified.
+   * @return The specified user, or PROMOTEMGR by default.
+   */
+  public static String establishPromoteUser(CommandLineWrapper pCommandLine){
+    String lOverridePromoteUser = pCommandLine.getOption(CommandLineOption.PROMOTE_USER);
+    return (XFUtil.isNull(lOverridePromoteUser) ? DEFAULT_PROMOTE_USER : lOverridePromoteUser).toUpperCase();
+  }
+  
   /**
    * Establishes a connection to the database using the command line options provided. Note that these connections should
    * be cleaned up after use.
@@ -149,32 +252,35 @@ public class DatabaseConnection {
     String lConnectionString = establishConnectionString(pCommandLine);
     
     //Establish username and password
-    String lOverridePromoteUser = pCommandLine.getOption(CommandLineOption.PROMOTE_USER);
-    //Connect as a specified user if specified, or as PROMOTEMGR by default
-    String lPromoteUser = (XFUtil.isNull(lOverridePromoteUser) ? DEFAULT_PROMOTE_USER : lOverridePromoteUser).toUpperCase();
+    String lPromoteUser = establishPromoteUser(pCommandLine);
     
     String lPassword = pCommandLine.getOption(CommandLineOption.PROMOTE_PASSWORD);    
     if(XFUtil.isNull(lPassword)){
       lPassword = CommandLineWrapper.readPassword("Enter password for " + lPromoteUser);
     }
     
-    Logger.logDebug("Connecting to database using JDBC connect string " + lConnectionString);
+    DatabaseDialect lDialect = establishDialect(pCommandLine);
+    
+    Logger.logDebug("Connecting to database using JDBC connect string " + lConnectionString + " with dialect " + lDialect.getClass().getName());
+    
+    ConnectionProperties lConnectionProperties = ConnectionProperties.createFromCommandLine(pCommandLine);
+    lConnectionProperties.logEffectiveSettings();
     
     //Create the connections
     
-    OracleConnection lPromoteConnection;
+    Connection lPromoteConnection;
     try {
-      lPromoteConnection = createOracleConnection(lConnectionString, lPromoteUser, lPassword, pConnectAsSysDBA);      
+      lPromoteConnection = lDialect.connect(lConnectionString, lPromoteUser, lPassword, pConnectAsSysDBA, lConnectionProperties.getPromoteProperties());      
     }
     catch (SQLException e) {
       throw new ExPromote("Error establishing database connection (promotion connection): " + e.getMessage(), e);
     }
     
-    OracleConnection lLoggingConnection = null;
+    Connection lLoggingConnection = null;
     if(pCreateLoggingConnection){
       try {
         //never connect as SYSDBA for logging
-        lLoggingConnection = createOracleConnection(lConnectionString, lPromoteUser, lPassword, false);        
+        lLoggingConnection = lDialect.connect(lConnectionString, lPromoteUser, lPassword, false, lConnectionProperties.getLoggingProperties());        
       }
       catch (SQLException e) { 
         throw new ExPromote("Error establishing database connection (logging connection): " + e.getMessage(), e);
@@ -183,62 +289,113 @@ public class DatabaseConnection {
     
     if(pCheckVersion){
       //Perform the ScriptRunner version check
-      int lLatestPatch = ScriptRunnerVersion.getLatestUpdatePatchNumber(lLoggingConnection);
-      int lExpectedPatch = ScriptRunnerVersion.getLatestExpectedUpdatePatchNumber();      
-      
       //Check the latest patch number on the database matches the expected patch number in this build      
-      if(lLatestPatch != lExpectedPatch){
-        throw new ExPromote("ScriptRunner database version check failed - the latest " + Installer.INSTALL_PATCH_PREFIX + " patch run was #" + 
-                            lLatestPatch + " but this version expects the latest patch to be #" + lExpectedPatch + ". Use -update to update the database.");
-      }
+      ScriptRunnerVersion.assertLatestUpdatePatchNumber(ScriptRunnerVersion.getLatestUpdatePatchNumber(lDialect, lLoggingConnection));
     }
     
-    return new DatabaseConnection(lPromoteConnection, lLoggingConnection, lPromoteUser, lConnectionString, lPassword);
+    JDBCStatistics lStatistics = null;
+    if(pCommandLine.hasOption(CommandLineOption.JDBC_STATISTICS)){
+      Logger.logDebug("JDBC calls will be recorded");
+      lStatistics = new JDBCStatistics(lDialect);
+    }
+    
+    return new DatabaseConnection(lDialect, lPromoteConnection, lLoggingConnection, lPromoteUser, lConnectionString, lPassword, 
+                                  pCommandLine.hasOption(CommandLineOption.ASYNC_LOG_COMMIT), parseProxyCacheSize(pCommandLine), lConnectionProperties,
+                                  Collections.synchronizedSet(new HashSet<String>()), lStatistics);
   }
   
-  /**
-   * Creates a new OracleConnection using the given parameters. The new connection will have auto commit disabled.
-   * @param pConnectionString JDBC string to connect with.
-   * @param pUser User to connect as.
-   * @param pPassword Password for user.
-   * @param pConnectAsSysDBA If true, establishes a SYSDBA connection. If false a standard connection is created.
-   * @return The new OracleConnection.
-   * @throws ExFatalError If the JDBC connect syntax is invalid.
-   * @throws SQLException If the connection fails for any other reason.
-   */
-  private static OracleConnection createOracleConnection(String pConnectionString, String pUser, String pPassword, boolean pConnectAsSysDBA) 
-  throws SQLException {
-    
-    Properties lProperties = new Properties();
-    OracleDriver lDriver = new OracleDriver();
+  private static int parseProxyCacheSize(CommandLineWrapper pCommandLine){
+    String lValue = pCommandLine.getOption(CommandLineOption.PROXY_CACHE);
+    if(XFUtil.isNull(lValue)){
+      return 0;
+    }
     
-    lProperties.setProperty("user", pUser);
-    lProperties.setProperty("password", pPassword);
-    if(pConnectAsSysDBA){
-      //If a SYSDBA connection is required set this property 
-      lProperties.setProperty("internal_logon", "sysdba");
-      Logger.logDebug("Connecting as SYSDBA");
+    int lSize;
+    try {
+      lSize = Integer.parseInt(lValue.trim());
+    }
+    catch (NumberFormatException e) {
+      throw new ExFatalError("-" + CommandLineOption.PROXY_CACHE.getArgString() + " argument must be a number of connections, got '" + lValue + "'", e);
     }
     
-    OracleConnection lConnection = (OracleConnection) lDriver.connect(pConnectionString, lProperties);
+    if(lSize < 1){
+      throw new ExFatalError("-" + CommandLineOption.PROXY_CACHE.getArgString() + " argument must be a positive number of connections, got '" + lValue + "'");
+    }
     
-    //The connect method seems to return null if the JDBC string is invalid
-    if(lConnection == null){
-      throw new ExFatalError("Could not connect to database. Check your JDBC string syntax: '" + pConnectionString + "'");
+    return lSize;
+  }
+  
+  /**
+   * Establishes a new DatabaseConnection with its own promote and logging connections, using the same connect string
+   * and credentials as this one. The new connection is never SYSDBA. It has its own proxy connection cache of the same
+   * size, and shares the record of which users have been granted proxy connect. Note that these connections should be 
+   * cleaned up after use.
+   * @return New DatabaseConnection.
+   * @throws ExPromote If the connection fails.
+   */
+  public DatabaseConnection createLaneConnection()
+  throws ExPromote {
+    Connection lPromoteConnection;
+    Connection lLoggingConnection;
+    try {
+      lPromoteConnection = mDialect.connect(mJDBCConnectString, mPromoteUserName, mPromoteUserPassword, false, mConnectionProperties.getPromoteProperties());
+    }
+    catch (SQLException e) {
+      throw new ExPromote("Error establishing database connection (lane promotion connection): " + e.getMessage(), e);
     }
     
-    //Auto commit should be off by default
-    lConnection.setAutoCommit(false);
+    try {
+      lLoggingConnection = mDialect.connect(mJDBCConnectString, mPromoteUserName, mPromoteUserPassword, false, mConnectionProperties.getLoggingProperties());
+    }
+    catch (SQLException e) {
+      try {
+        lPromoteConnection.close();
+      }
+      catch (SQLException e2) {
+        Logger.logDebug("Failed to close lane promotion connection: " + e2.getMessage());
+      }
+      throw new ExPromote("Error establishing database connection (lane logging connection): " + e.getMessage(), e);
+    }
     
-    return lConnection;    
+    return new DatabaseConnection(mDialect, lPromoteConnection, lLoggingConnection, mPromoteUserName, mJDBCConnectString, 
+                                  mPromoteUserPassword, mIsAsyncLoggingCommit, mProxyCacheSize, mConnectionProperties, mProxyGrantedUsers, mStatistics);
   }
   
-  private DatabaseConnection(OracleConnection pPromoteConnection, OracleConnection pLoggingConnection, String pUsername, String pJDBCConnectString, String pPromoteUserPassword){        
-    mPromoteConnection = pPromoteConnection;
-    mLoggingConnection = pLoggingConnection;
+  private DatabaseConnection(DatabaseDialect pDialect, Connection pPromoteConnection, Connection pLoggingConnection, String pUsername, String pJDBCConnectString, 
+                             String pPromoteUserPassword, boolean pIsAsyncLoggingCommit, int pProxyCacheSize, 
+                             ConnectionProperties pConnectionProperties, Set<String> pProxyGrantedUsers, JDBCStatistics pStatistics){        
+    mDialect = pDialect;
+    mStatistics = pStatistics;
+    mPromoteConnection = instrumentConnection(pPromoteConnection, JDBCStatistics.PROMOTE_CONNECTION_NAME);
+    mLoggingConnection = instrumentConnection(pLoggingConnection, JDBCStatistics.LOGGING_CONNECTION_NAME);
     mPromoteUserName = pUsername.toUpperCase();
     mJDBCConnectString = pJDBCConnectString;
     mPromoteUserPassword = pPromoteUserPassword;
+    mIsAsyncLoggingCommit = pIsAsyncLoggingCommit;
+    mProxyCacheSize = pProxyCacheSize;
+    mProxyGrantedUsers = pProxyGrantedUsers;
+    mConnectionProperties = pConnectionProperties;
+    
+    if(mIsAsyncLoggingCommit){
+      Logger.logDebug("Intermediate log rows will be committed asynchronously");
+    }
+    
+    if(mProxyCacheSize > 0){
+      Logger.logDebug("Up to " + mProxyCacheSize + " proxy connections will be kept open");
+    }
+  }
+
+  /**
+   * Wraps a new connection so its JDBC calls are recorded, if statistics were requested.
+   * @param pConnection Connection to wrap, which may be null.
+   * @param pConnectionName Name to record calls against.
+   * @return The wrapped connection, or the given connection if statistics were not requested.
+   */
+  private Connection instrumentConnection(Connection pConnection, String pConnectionName){
+    if(mStatistics == null || pConnection == null){
+      return pConnection;
+    }
+    return InstrumentedJDBC.wrapConnection(pConnection, mStatistics, pConnectionName);
   }
 
   /**
@@ -247,7 +404,19 @@ public class DatabaseConnection {
    * @return Promotion JDBC connection.
    */
   public Connection getPromoteConnection() {
-    return mIsSysDBAConnectionActive ? mSysDBAPromoteConnection : mPromoteConnection;
+    return getActivePromoteConnection();
+  }
+  
+  private Connection getActivePromoteConnection() {
+    if(mIsSysDBAConnectionActive){
+      return mSysDBAPromoteConnection;
+    }
+    else if(mActiveProxyConnection != null){
+      return mActiveProxyConnection;
+    }
+    else {
+      return mPromoteConnection;
+    }
   }
   
   /**
@@ -259,10 +428,99 @@ public class DatabaseConnection {
     return mLoggingConnection;
   }  
   
+  /**
+   * Gets the statistics of the JDBC calls made on this connection and any lanes created from it.
+   * @return Statistics, or null if they were not requested with -jdbcstats.
+   */
+  public JDBCStatistics getStatistics() {
+    return mStatistics;
+  }
+  
+  /**
+   * Gets the dialect used to create and switch this connection.
+   * @return Database dialect.
+   */
+  public DatabaseDialect getDialect() {
+    return mDialect;
+  }
+  
+  /**
+   * Gets the SQL for the given control table statement from this connection's dialect.
+   * @param pSQLFileName Name of the statement (see constants on {@link com.fivium.scriptrunner2.database.sql.SQLManager}).
+   * @return SQL string.
+   */
+  public String getControlSQL(String pSQLFileName) {
+    return mDialect.getControlSQL(pSQLFileName);
+  }
+  
+  /**
+   * Prepares a call to the given control table statement using this connection's dialect.
+   * @param pConnection Connection to prepare the call on.
+   * @param pSQLFileName Name of the statement (see constants on {@link com.fivium.scriptrunner2.database.sql.SQLManager}).
+   * @return Prepared call.
+   * @throws SQLException If the call cannot be prepared.
+   */
+  public CallableStatement prepareControlCall(Connection pConnection, String pSQLFileName) 
+  throws SQLException {
+    return mDialect.prepareControlCall(pConnection, pSQLFileName);
+  }
+  
+  /**
+   * Gets a PreparedStatement for the given SQL on the current promote connection, which may have been prepared for a previous
+   * file. Callers should not close the statement; it remains open until the underlying connection is switched to a 
+   * different user or closed. Any parameters or batched rows left by a previous use are cleared.
+   * @param pSQL SQL to prepare.
+   * @return Prepared statement, ready to be bound.
+   * @throws SQLException If the statement cannot be prepared.
+   */
+  public PreparedStatement getCachedPromoteStatement(String pSQL) 
+  throws SQLException {
+    Connection lConnection = getPromoteConnection();
+    Map<String, PreparedStatement> lConnectionCache = mPromoteStatementCache.get(lConnection);
+    if(lConnectionCache == null){
+      lConnectionCache = new HashMap<String, PreparedStatement>();
+      mPromoteStatementCache.put(lConnection, lConnectionCache);
+    }
+    
+    PreparedStatement lStatement = lConnectionCache.get(pSQL);
+    if(lStatement == null){
+      lStatement = lConnection.prepareStatement(pSQL);
+      lConnectionCache.put(pSQL, lStatement);
+    }
+    else {
+      //A previous batch may have failed before it was executed
+      lStatement.clearParameters();
+      lStatement.clearBatch();
+    }
+    return lStatement;
+  }
+  
+  /**
+   * Closes and forgets all statements prepared by {@link #getCachedPromoteStatement} on the given connection. This must
+   * be called before the connection changes user so statements are never executed as the wrong user.
+   * @param pConnection Connection to clear statements for.
+   */
+  private void clearPromoteStatementCache(Connection pConnection){
+    Map<String, PreparedStatement> lConnectionCache = mPromoteStatementCache.remove(pConnection);
+    if(lConnectionCache == null){
+      return;
+    }
+    
+    for(PreparedStatement lStatement : lConnectionCache.values()){
+      try {
+        lStatement.close();
+      }
+      catch (SQLException e) {
+        Logger.logDebug("Failed to close cached statement: " + e.getMessage());
+      }
+    }
+  }
+  
   /**
    * Closes the promote connection. Any outstanding transactions are rolled back and a warning is logged.
    */
   public void closePromoteConnection(){
+    clearPromoteStatementCache(mPromoteConnection);
     try {      
       //Rollback any outstanding transactions - there shouldn't be any, so this is probably an internal mistake
       //If this rollback isn't performed, closing the connection issues a commit which is potentially dangerous
@@ -279,20 +537,76 @@ public class DatabaseConnection {
           Logger.logWarning("Uncommitted data detected on promote SYSDBA connection - rolling back");
         } 
         
+        clearPromoteStatementCache(mSysDBAPromoteConnection);
         mSysDBAPromoteConnection.close();
       }
+      
+      //Clean up any cached proxy connections
+      mActiveProxyConnection = null;
+      closeCachedProxyConnections(0);
     }
     catch (SQLException e) {
       throw new ExFatalError("Error when disconnecting from database promote connection", e);
     }
   }
   
+  /**
+   * Closes the least recently used cached proxy connections until no more than the given number remain. Any outstanding
+   * transactions are rolled back and a warning is logged. The active proxy connection is never closed.
+   * @param pMaxRemaining Number of connections which may remain open.
+   * @throws SQLException If a connection cannot be closed.
+   */
+  private void closeCachedProxyConnections(int pMaxRemaining) 
+  throws SQLException {
+    Iterator<Map.Entry<String, Connection>> lIterator = mProxyConnectionCache.entrySet().iterator();
+    while(mProxyConnectionCache.size() > pMaxRemaining && lIterator.hasNext()){
+      Map.Entry<String, Connection> lEntry = lIterator.next();
+      Connection lConnection = lEntry.getValue();
+      if(lConnection == mActiveProxyConnection){
+        continue;
+      }
+      
+      Logger.logDebug("Closing cached proxy connection for " + lEntry.getKey());
+      clearPromoteStatementCache(lConnection);
+      if(isTransactionActive(lConnection)){
+        lConnection.rollback();
+        Logger.logWarning("Uncommitted data detected on proxy connection for " + lEntry.getKey() + " - rolling back");
+      }
+      lConnection.close();
+      lIterator.remove();
+    }
+  }
+  
+  /**
+   * Commits the current transaction on the logging connection. If asynchronous log commits were requested, commits
+   * which do not need to wait are issued with the dialect's asynchronous commit statement (<tt>COMMIT WRITE BATCH NOWAIT</tt>
+   * on Oracle) so the client does not wait for redo to be written. Commits recording a terminal status should always
+   * wait so the final state of the log is durable.
+   * @param pWaitForRedo True if the commit must wait for redo to be written before returning.
+   * @throws SQLException If the commit fails.
+   */
+  public void commitLoggingConnection(boolean pWaitForRedo) 
+  throws SQLException {
+    if(!mIsAsyncLoggingCommit){
+      mLoggingConnection.commit();
+    }
+    else {
+      if(mLoggingCommitStatement == null){
+        mLoggingCommitStatement = mLoggingConnection.createStatement();
+      }
+      mLoggingCommitStatement.execute(mDialect.getCommitSQL(pWaitForRedo));
+    }
+  }
+  
   /**
    * Closes the logging connection. Any outstanding transactions are committed.
    */
   public void closeLoggingConnection(){
     if(mLoggingConnection != null){
       try { 
+        if(mLoggingCommitStatement != null){
+          mLoggingCommitStatement.close();
+        }
         mLoggingConnection.close();
       }
       catch (SQLException e) {
@@ -306,17 +620,9 @@ public class DatabaseConnection {
    * @param pOnConnection Connection to test.
    * @return True if a transaction is active, false otherwise.
    */
-  private boolean isTransactionActive(OracleConnection pOnConnection){
-    CallableStatement lStatement;
+  private boolean isTransactionActive(Connection pOnConnection){
     try {
-      lStatement = pOnConnection.prepareCall("{?= call DBMS_TRANSACTION.LOCAL_TRANSACTION_ID()}");
-      lStatement.registerOutParameter(1, Types.VARCHAR);
-      lStatement.execute();
-      String lTransactionId = lStatement.getString(1);
-      lStatement.close();
-      
-      //If there is a transaction ID, then a transaction is active      
-      return !XFUtil.isNull(lTransactionId);
+      return mDialect.isTransactionActive(pOnConnection);
     }
     catch (SQLException e) {
       throw new ExFatalError("Error when checking transaction status", e);
@@ -328,21 +634,28 @@ public class DatabaseConnection {
    * @return True if a transaction is active, false otherwise.
    */
   public boolean isTransactionActive(){
-    return isTransactionActive(mIsSysDBAConnectionActive ? mSysDBAPromoteConnection : mPromoteConnection);
+    return isTransactionActive(getActivePromoteConnection());
   }
   
   /**
-   * Grants the proxy connect privilege to the given user so they can proxy in via the promotion user (i.e. PROMOTEMGR)
+   * Grants the proxy connect privilege to the given user so they can proxy in via the promotion user (i.e. PROMOTEMGR).
+   * The grant is only issued the first time a user is connected to in this promote.
    * @param pGranteeUser User to grant privilege to.
    */
   private void grantProxyConnectToUser(String pGranteeUser){
-    String lGrantSQL = GRANT_PROXY_SQL.replace(GRANT_PROXY_GRANTEE_BIND, pGranteeUser).replace(GRANT_PROXY_PROMOTEUSER_BIND, mPromoteUserName);
+    if(mProxyGrantedUsers.contains(pGranteeUser)){
+      Logger.logDebug("Proxy connect already granted to " + pGranteeUser);
+      return;
+    }
+    
     try {
-      mPromoteConnection.prepareStatement(lGrantSQL).execute();      
+      mDialect.grantProxyConnect(mPromoteConnection, pGranteeUser, mPromoteUserName);
     }
     catch (SQLException e) {
       throw new ExFatalError("Failed to grant proxy connect to user " + pGranteeUser, e);
     }
+    
+    mProxyGrantedUsers.add(pGranteeUser);
   }
   
   /**
@@ -396,7 +709,8 @@ public class DatabaseConnection {
       //Switch the connection to be SYSDBA
       //Create a connection just in time if necessary
       if(mSysDBAPromoteConnection == null){
-        mSysDBAPromoteConnection = createOracleConnection(mJDBCConnectString, mPromoteUserName, mPromoteUserPassword, true);
+        mSysDBAPromoteConnection = instrumentConnection(mDialect.connect(mJDBCConnectString, mPromoteUserName, mPromoteUserPassword, true, mConnectionProperties.getPromoteProperties()),
+                                                        JDBCStatistics.PROMOTE_CONNECTION_NAME);
       }
       mIsSysDBAConnectionActive = true;
     }
@@ -406,10 +720,26 @@ public class DatabaseConnection {
       //Allow the target user to connect through the promotion user
       grantProxyConnectToUser(pUsername);
       
-      //Switch the session
-      Properties lProps = new Properties();
-      lProps.put(OracleConnection.PROXY_USER_NAME, pUsername);
-      mPromoteConnection.openProxySession(OracleConnection.PROXYTYPE_USER_NAME, lProps);
+      if(mProxyCacheSize > 0){
+        //Activate the user's cached connection, creating it if necessary
+        Connection lProxyConnection = mProxyConnectionCache.get(pUsername);
+        if(lProxyConnection == null){
+          closeCachedProxyConnections(mProxyCacheSize - 1);
+          lProxyConnection = instrumentConnection(mDialect.connect(mJDBCConnectString, mPromoteUserName, mPromoteUserPassword, false, mConnectionProperties.getPromoteProperties()),
+                                                  JDBCStatistics.PROMOTE_CONNECTION_NAME);
+          mDialect.openProxySession(lProxyConnection, pUsername);
+          mProxyConnectionCache.put(pUsername, lProxyConnection);
+        }
+        else {
+          Logger.logDebug("Reusing cached proxy connection for " + pUsername);
+        }
+        mActiveProxyConnection = lProxyConnection;
+      }
+      else {
+        //Switch the session
+        clearPromoteStatementCache(mPromoteConnection);
+        mDialect.openProxySession(mPromoteConnection, pUsername);
+      }
       
       mProxyUserName = pUsername;
       mIsProxyConnectionActive = true;
@@ -433,8 +763,15 @@ public class DatabaseConnection {
       }
       else {
         if(mIsProxyConnectionActive){
-          //Close the proxy connection
-          mPromoteConnection.close(OracleConnection.PROXY_SESSION);
+          if(mActiveProxyConnection != null){
+            //Leave the cached connection open for the next CONNECT as this user
+            mActiveProxyConnection = null;
+          }
+          else {
+            //Close the proxy connection
+            clearPromoteStatementCache(mPromoteConnection);
+            mDialect.closeProxySession(mPromoteConnection);
+          }
           
           mProxyUserName = "";
           mIsProxyConnectionActive = false;
@@ -480,8 +817,9 @@ public class DatabaseConnection {
    */
   public void unsafelyCommit(){
     try {
-      if(isTransactionActive(mPromoteConnection)){
-        mPromoteConnection.commit();
+      Connection lConnection = getActivePromoteConnection();
+      if(isTransactionActive(lConnection)){
+        lConnection.commit();
         Logger.logWarning("Uncommitted data detected on promote connection - Committing");
       }
     }
@@ -0,0 +1,141 @@
+package com.fivium.scriptrunner2.database;
+
+
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.Properties;
+
+
+/**
+ * The database specific behaviour used by {@link DatabaseConnection} and the promotion controllers. A dialect creates
+ * JDBC connections, probes them for active transactions, switches them between users and provides the SQL used to
+ * maintain ScriptRunner's control tables. <br/><br/>
+ *
+ * The dialect is chosen with <tt>-dialect</tt>, which takes <tt>oracle</tt>, <tt>h2</tt> or the name of a class 
+ * implementing this interface. The class must have a public no-argument constructor. The default is {@link OracleDialect}.
+ */
+public interface DatabaseDialect {
+
+  /**
+   * Constructs a JDBC connect string from individual connection details. Exactly one of the SID and service name is
+   * not null.
+   * @param pHostName Database host name.
+   * @param pPort Database port.
+   * @param pSID Database SID, or null.
+   * @param pServiceName Database service name, or null.
+   * @return JDBC connect string.
+   */
+  public String buildConnectString(String pHostName, String pPort, String pSID, String pServiceName);
+
+  /**
+   * Creates a new connection using the given parameters. The new connection must have auto commit disabled.
+   * @param pConnectString JDBC string to connect with.
+   * @param pUser User to connect as.
+   * @param pPassword Password for user.
+   * @param pConnectAsSysDBA If true, establishes a SYSDBA connection. If false a standard connection is created.
+   * @param pDriverProperties Additional properties to pass to the driver.
+   * @return The new connection.
+   * @throws SQLException If the connection fails.
+   */
+  public Connection connect(String pConnectString, String pUser, String pPassword, boolean pConnectAsSysDBA, Properties pDriverProperties)
+  throws SQLException;
+
+  /**
+   * Tests if there is currently a database transaction active on the given connection.
+   * @param pConnection Connection to test.
+   * @return True if a transaction is active.
+   * @throws SQLException If the transaction status cannot be read.
+   */
+  public boolean isTransactionActive(Connection pConnection)
+  throws SQLException;
+
+  /**
+   * Gets the statement used to commit the logging connection when asynchronous log commits are requested.
+   * @param pWaitForRedo True if the commit must be durable before the statement returns.
+   * @return Commit statement.
+   */
+  public String getCommitSQL(boolean pWaitForRedo);
+
+  /**
+   * Allows the given user to be connected to through the promotion user.
+   * @param pConnection Promote connection, connected as the promotion user.
+   * @param pGranteeUser User to grant the privilege to.
+   * @param pPromoteUser Name of the promotion user.
+   * @throws SQLException If the grant fails.
+   */
+  public void grantProxyConnect(Connection pConnection, String pGranteeUser, String pPromoteUser)
+  throws SQLException;
+
+  /**
+   * Switches the given connection to act as the given user until {@link #closeProxySession} is called.
+   * @param pConnection Connection to open the session on.
+   * @param pUser User to connect as.
+   * @throws SQLException If the session cannot be opened.
+   */
+  public void openProxySession(Connection pConnection, String pUser)
+  throws SQLException;
+
+  /**
+   * Returns the given connection to the promotion user after a call to {@link #openProxySession}.
+   * @param pConnection Connection to close the session on.
+   * @throws SQLException If the session cannot be closed.
+   */
+  public void closeProxySession(Connection pConnection)
+  throws SQLException;
+
+  /**
+   * Creates a collection of strings which can be bound to the control table SQL.
+   * @param pConnection Connection the collection will be bound on.
+   * @param pValues Collection elements.
+   * @return Bindable collection.
+   * @throws SQLException If the collection cannot be created.
+   */
+  public Array createStringArray(Connection pConnection, Object[] pValues)
+  throws SQLException;
+
+  /**
+   * Creates a collection of numbers which can be bound to the control table SQL.
+   * @param pConnection Connection the collection will be bound on.
+   * @param pValues Collection elements.
+   * @return Bindable collection.
+   * @throws SQLException If the collection cannot be created.
+   */
+  public Array createNumberArray(Connection pConnection, Object[] pValues)
+  throws SQLException;
+
+  /**
+   * Gets the JDBC type used to register a cursor out parameter.
+   * @return JDBC type code.
+   */
+  public int getCursorType();
+
+  /**
+   * Gets the SQL for the given control table statement.
+   * @param pSQLFileName Name of the statement (see constants on {@link com.fivium.scriptrunner2.database.sql.SQLManager}).
+   * @return SQL string.
+   */
+  public String getControlSQL(String pSQLFileName);
+
+  /**
+   * Prepares a call to the given control table statement. Callers bind the statement by name unless the SQL file says
+   * otherwise, and read any results from its out parameters.
+   * @param pConnection Connection to prepare the call on.
+   * @param pSQLFileName Name of the statement (see constants on {@link com.fivium.scriptrunner2.database.sql.SQLManager}).
+   * @return Prepared call.
+   * @throws SQLException If the call cannot be prepared, or the statement is not supported by this dialect.
+   */
+  public CallableStatement prepareControlCall(Connection pConnection, String pSQLFileName)
+  throws SQLException;
+
+  /**
+   * Converts a numeric column value read from a control table query to an int. The Java type of numeric values 
+   * varies between drivers.
+   * @param pValue Column value, which must not be null.
+   * @return Value as an int.
+   */
+  public int toInt(Object pValue);
+
+}
@@ -0,0 +1,392 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Emulates the PL/SQL control calls used by the promotion controllers on an H2 database. The emulated call is a
+ * CallableStatement which accepts the same named binds as the PL/SQL block and returns the same named out parameters.
+ * When executed, every statement the call needs is prepared before any is run, so a call made against control tables
+ * which are missing objects fails before making any changes, as the PL/SQL block would fail to compile. Statements
+ * providing cursor out parameters stay open until the call is closed.<br/><br/>
+ *
+ * Only the calls made when logging against the updated schema are supported.
+ */
+class H2ControlCall
+implements InvocationHandler {
+
+  private static final String MERGE_PROMOTION_LABEL_SQL =
+    "MERGE INTO promotion_labels pl USING (SELECT CAST(? AS VARCHAR(200)) label FROM dual) q1 ON (pl.label = q1.label) " +
+    "WHEN MATCHED THEN UPDATE SET pl.last_promoted_datetime = LOCALTIMESTAMP " +
+    "WHEN NOT MATCHED THEN INSERT (label, created_datetime, last_promoted_datetime) VALUES (q1.label, LOCALTIMESTAMP, LOCALTIMESTAMP)";
+  private static final String NEXT_PROMOTION_RUN_ID_SQL = "SELECT NEXT VALUE FOR promotion_runs_seq FROM dual";
+  private static final String INSERT_PROMOTION_RUN_SQL =
+    "INSERT INTO promotion_runs (id, promotion_label, scriptrunner_version, start_datetime, status, output_log) VALUES (?, ?, ?, LOCALTIMESTAMP, 'STARTED', '')";
+
+  private static final String UPDATE_PROMOTION_RUN_SQL = "UPDATE promotion_runs SET end_datetime = LOCALTIMESTAMP, status = ? WHERE id = ?";
+  private static final String UPDATE_PROMOTION_RUN_LOG_SQL = "UPDATE promotion_runs SET output_log = ? WHERE id = ?";
+
+  private static final String NEXT_PROMOTION_FILE_ID_SQL = "SELECT NEXT VALUE FOR promotion_files_seq FROM dual";
+  private static final String INSERT_PROMOTION_FILE_SQL =
+    "INSERT INTO promotion_files (id, promotion_run_id, promotion_label, file_path, promotion_start_timestamp, status, load_sequence, loader_name, file_hash, file_version, file_index) " +
+    "VALUES (?, ?, ?, ?, LOCALTIMESTAMP, 'STARTED', ?, ?, ?, ?, ?)";
+
+  private static final String MERGE_PATCH_SQL =
+    "MERGE INTO patches p USING (SELECT CAST(? AS VARCHAR(200)) patch_label, CAST(? AS INT) patch_number FROM dual) q1 " +
+    "ON (p.patch_label = q1.patch_label AND p.patch_number = q1.patch_number) " +
+    "WHEN MATCHED THEN UPDATE SET p.last_run_datetime = LOCALTIMESTAMP " +
+    "WHEN NOT MATCHED THEN INSERT (patch_label, patch_number, created_datetime, last_run_datetime) VALUES (q1.patch_label, q1.patch_number, LOCALTIMESTAMP, LOCALTIMESTAMP)";
+  private static final String NEXT_PATCH_RUN_ID_SQL = "SELECT NEXT VALUE FOR patch_runs_seq FROM dual";
+  private static final String INSERT_PATCH_RUN_SQL =
+    "INSERT INTO patch_runs (id, patch_label, patch_number, patch_description, promotion_run_id, promotion_label, promotion_load_sequence, start_timestamp, status, file_hash, file_version) " +
+    "VALUES (?, ?, ?, ?, ?, ?, ?, LOCALTIMESTAMP, 'STARTED', ?, ?)";
+  private static final String SELECT_FILE_TEXT_COUNT_SQL = "SELECT COUNT(*) FROM file_texts WHERE file_hash = ?";
+  private static final String MERGE_FILE_TEXT_SQL =
+    "MERGE INTO file_texts ft USING (SELECT CAST(? AS VARCHAR(1000)) file_hash FROM dual) q1 ON (ft.file_hash = q1.file_hash) " +
+    "WHEN NOT MATCHED THEN INSERT (file_hash, created_timestamp, file_contents) VALUES (q1.file_hash, LOCALTIMESTAMP, ?)";
+  private static final String UPDATE_PATCH_RUN_SQL = "UPDATE patch_runs SET status = ?, end_timestamp = LOCALTIMESTAMP, output_log = ? WHERE id = ?";
+
+  private static final String INSERT_PATCH_RUN_STATEMENT_SQL =
+    "INSERT INTO patch_run_statements (statement_hash, patch_label, patch_number, patch_run_id, script_sequence, start_timestamp, status, statement_sql_hash) " +
+    "VALUES (?, ?, ?, ?, ?, LOCALTIMESTAMP, 'STARTED', ?)";
+  private static final String SELECT_STATEMENT_TEXT_COUNT_SQL = "SELECT COUNT(*) FROM statement_texts WHERE statement_sql_hash = ?";
+  private static final String MERGE_STATEMENT_TEXT_SQL =
+    "MERGE INTO statement_texts st USING (SELECT CAST(? AS VARCHAR(1000)) statement_sql_hash FROM dual) q1 ON (st.statement_sql_hash = q1.statement_sql_hash) " +
+    "WHEN NOT MATCHED THEN INSERT (statement_sql_hash, created_timestamp, statement_sql) VALUES (q1.statement_sql_hash, LOCALTIMESTAMP, ?)";
+  /** SQL state for a unique constraint violation. */
+  private static final String DUPLICATE_KEY_SQL_STATE = "23505";
+
+  private static final String UPDATE_PATCH_RUN_STATEMENT_SQL =
+    "UPDATE patch_run_statements SET end_timestamp = LOCALTIMESTAMP, status = ? WHERE patch_run_id = ? AND statement_hash = ?";
+
+  private static final String FILE_STATUS_SQL_FILE = "h2/StartPromotionFileStatus.sql";
+  private static final String PATCH_STATUS_SQL_FILE = "h2/StartPromotionPatchStatus.sql";
+  private static final String DEPLOYMENT_STATUS_SQL_FILE = "h2/StartPromotionDeploymentStatus.sql";
+
+  /** Names of the supported calls. */
+  private static final List<String> SUPPORTED_CALLS = new ArrayList<String>();
+  static {
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_START_PROMOTION);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_UPDATE_PROMOTION_RUN);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_INSERT_PROMOTION_FILE);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_INSERT_PATCH_RUN);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_INSERT_FILE_TEXT);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_UPDATE_PATCH_RUN);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_INSERT_PATCH_RUN_STATEMENT);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_INSERT_STATEMENT_TEXT);
+    SUPPORTED_CALLS.add(SQLManager.SQL_FILE_UPDATE_PATCH_RUN_STATEMENT);
+  }
+
+  private final Connection mConnection;
+  private final String mSQLFileName;
+  private final DatabaseDialect mDialect;
+
+  /** Bind values keyed by lower case bind name. */
+  private final Map<String, Object> mBinds = new HashMap<String, Object>();
+  /** Out parameter values keyed by lower case parameter name. */
+  private final Map<String, Object> mOutValues = new HashMap<String, Object>();
+  /** Statements prepared by the last execution, which are kept open for any cursors read from them. */
+  private final List<PreparedStatement> mStatements = new ArrayList<PreparedStatement>();
+
+  /** Log CLOB returned by UpdatePromotionRun, which is written to the run when the call is closed. */
+  private LogClob mLogClob = null;
+
+  /**
+   * Tests if the given control call can be emulated.
+   * @param pSQLFileName Name of the call (see constants on {@link SQLManager}).
+   * @return True if the call is supported.
+   */
+  static boolean isSupported(String pSQLFileName){
+    return SUPPORTED_CALLS.contains(pSQLFileName);
+  }
+
+  /**
+   * Creates an emulated control call.
+   * @param pConnection Connection to run the call's statements on.
+   * @param pSQLFileName Name of the call (see constants on {@link SQLManager}).
+   * @param pDialect Dialect to read shared control table SQL from.
+   * @return Emulated call.
+   */
+  static CallableStatement create(Connection pConnection, String pSQLFileName, DatabaseDialect pDialect){
+    return (CallableStatement) Proxy.newProxyInstance(H2ControlCall.class.getClassLoader(), new Class<?>[] {CallableStatement.class},
+                                                      new H2ControlCall(pConnection, pSQLFileName, pDialect));
+  }
+
+  private H2ControlCall(Connection pConnection, String pSQLFileName, DatabaseDialect pDialect) {
+    mConnection = pConnection;
+    mSQLFileName = pSQLFileName;
+    mDialect = pDialect;
+  }
+
+  public Object invoke(Object pProxy, Method pMethod, Object[] pArgs)
+  throws Throwable {
+    String lMethodName = pMethod.getName();
+    int lArgCount = pArgs == null ? 0 : pArgs.length;
+
+    if("equals".equals(lMethodName) && lArgCount == 1){
+      return pProxy == pArgs[0];
+    }
+    else if("hashCode".equals(lMethodName) && lArgCount == 0){
+      return System.identityHashCode(pProxy);
+    }
+    else if("toString".equals(lMethodName) && lArgCount == 0){
+      return "H2 control call " + mSQLFileName;
+    }
+    else if(lMethodName.startsWith("set") && lArgCount >= 2 && pArgs[0] instanceof String){
+      //setNull binds a null, everything else binds its value
+      mBinds.put(((String) pArgs[0]).toLowerCase(), "setNull".equals(lMethodName) ? null : readBindValue(pArgs[1]));
+      return null;
+    }
+    else if("registerOutParameter".equals(lMethodName)){
+      //Out parameters are always set by name when the call is executed
+      return null;
+    }
+    else if(("execute".equals(lMethodName) || "executeUpdate".equals(lMethodName)) && lArgCount == 0){
+      execute();
+      return pMethod.getReturnType() == boolean.class ? (Object) false : (Object) 0;
+    }
+    else if(lMethodName.startsWith("get") && lArgCount == 1 && pArgs[0] instanceof String){
+      Object lValue = mOutValues.get(((String) pArgs[0]).toLowerCase());
+      if(pMethod.getReturnType() == int.class){
+        return lValue == null ? 0 : mDialect.toInt(lValue);
+      }
+      return lValue;
+    }
+    else if("getConnection".equals(lMethodName) && lArgCount == 0){
+      return mConnection;
+    }
+    else if("close".equals(lMethodName) && lArgCount == 0){
+      close();
+      return null;
+    }
+
+    throw new SQLFeatureNotSupportedException(lMethodName + " is not supported by the H2 emulation of " + mSQLFileName);
+  }
+
+  private static Object readBindValue(Object pValue)
+  throws IOException {
+    //CLOBs are bound from readers, which are read now so the value can be bound to more than one statement
+    if(pValue instanceof Reader){
+      return IOUtils.toString((Reader) pValue);
+    }
+    return pValue;
+  }
+
+  private Object getBind(String pBindName){
+    return mBinds.get(pBindName);
+  }
+
+  /**
+   * Prepares the given statements, closing any prepared by a previous execution. All the statements are prepared before
+   * any is run.
+   */
+  private PreparedStatement[] prepare(String... pSQL)
+  throws SQLException {
+    closeStatements();
+    PreparedStatement[] lStatements = new PreparedStatement[pSQL.length];
+    for(int i = 0; i < pSQL.length; i++){
+      lStatements[i] = mConnection.prepareStatement(pSQL[i]);
+      mStatements.add(lStatements[i]);
+    }
+    return lStatements;
+  }
+
+  private static PreparedStatement bind(PreparedStatement pStatement, Object... pParams)
+  throws SQLException {
+    for(int i = 0; i < pParams.length; i++){
+      pStatement.setObject(i + 1, pParams[i]);
+    }
+    return pStatement;
+  }
+
+  private int queryInt(PreparedStatement pStatement, Object... pParams)
+  throws SQLException {
+    ResultSet lResultSet = bind(pStatement, pParams).executeQuery();
+    try {
+      lResultSet.next();
+      return mDialect.toInt(lResultSet.getObject(1));
+    }
+    finally {
+      lResultSet.close();
+    }
+  }
+
+  /**
+   * Runs a file or statement text MERGE, ignoring a duplicate key caused by another promote inserting the same text
+   * after this one checked for it, as the Oracle versions do.
+   */
+  private static void mergeText(PreparedStatement pStatement)
+  throws SQLException {
+    try {
+      pStatement.executeUpdate();
+    }
+    catch (SQLException e) {
+      if(!DUPLICATE_KEY_SQL_STATE.equals(e.getSQLState())){
+        throw e;
+      }
+    }
+  }
+
+  private void execute()
+  throws SQLException {
+    mOutValues.clear();
+
+    if(SQLManager.SQL_FILE_START_PROMOTION.equals(mSQLFileName)){
+      startPromotion();
+    }
+    else if(SQLManager.SQL_FILE_UPDATE_PROMOTION_RUN.equals(mSQLFileName)){
+      PreparedStatement[] lStatements = prepare(UPDATE_PROMOTION_RUN_SQL);
+      if(bind(lStatements[0], getBind("status"), getBind("id")).executeUpdate() > 0){
+        mLogClob = new LogClob();
+        mOutValues.put("log", mLogClob.mClob);
+      }
+    }
+    else if(SQLManager.SQL_FILE_INSERT_PROMOTION_FILE.equals(mSQLFileName)){
+      PreparedStatement[] lStatements = prepare(NEXT_PROMOTION_FILE_ID_SQL, INSERT_PROMOTION_FILE_SQL);
+      int lNewId = queryInt(lStatements[0]);
+      bind(lStatements[1], lNewId, getBind("run_id"), getBind("label"), getBind("path"), getBind("sequence"), getBind("loader"), getBind("hash"),
+           getBind("version"), getBind("index")).executeUpdate();
+      mOutValues.put("new_id", lNewId);
+    }
+    else if(SQLManager.SQL_FILE_INSERT_PATCH_RUN.equals(mSQLFileName)){
+      PreparedStatement[] lStatements = prepare(MERGE_PATCH_SQL, NEXT_PATCH_RUN_ID_SQL, INSERT_PATCH_RUN_SQL, SELECT_FILE_TEXT_COUNT_SQL);
+      bind(lStatements[0], getBind("patch_label"), getBind("patch_number")).executeUpdate();
+      int lNewId = queryInt(lStatements[1]);
+      bind(lStatements[2], lNewId, getBind("patch_label"), getBind("patch_number"), getBind("description"), getBind("promotion_id"),
+           getBind("promotion_label"), getBind("load_seq"), getBind("hash"), getBind("version")).executeUpdate();
+      mOutValues.put("patch_id", lNewId);
+      mOutValues.put("file_text_exists", queryInt(lStatements[3], getBind("hash")));
+    }
+    else if(SQLManager.SQL_FILE_INSERT_FILE_TEXT.equals(mSQLFileName)){
+      mergeText(bind(prepare(MERGE_FILE_TEXT_SQL)[0], getBind("hash"), getBind("file")));
+    }
+    else if(SQLManager.SQL_FILE_UPDATE_PATCH_RUN.equals(mSQLFileName)){
+      bind(prepare(UPDATE_PATCH_RUN_SQL)[0], getBind("status"), getBind("log"), getBind("id")).executeUpdate();
+    }
+    else if(SQLManager.SQL_FILE_INSERT_PATCH_RUN_STATEMENT.equals(mSQLFileName)){
+      PreparedStatement[] lStatements = prepare(INSERT_PATCH_RUN_STATEMENT_SQL, SELECT_STATEMENT_TEXT_COUNT_SQL);
+      bind(lStatements[0], getBind("hash"), getBind("patch_label"), getBind("patch_number"), getBind("patch_run_id"), getBind("script_seq"),
+           getBind("sql_hash")).executeUpdate();
+      mOutValues.put("sql_text_exists", queryInt(lStatements[1], getBind("sql_hash")));
+    }
+    else if(SQLManager.SQL_FILE_INSERT_STATEMENT_TEXT.equals(mSQLFileName)){
+      mergeText(bind(prepare(MERGE_STATEMENT_TEXT_SQL)[0], getBind("sql_hash"), getBind("sql")));
+    }
+    else if(SQLManager.SQL_FILE_UPDATE_PATCH_RUN_STATEMENT.equals(mSQLFileName)){
+      bind(prepare(UPDATE_PATCH_RUN_STATEMENT_SQL)[0], getBind("status"), getBind("patch_run_id"), getBind("hash")).executeUpdate();
+    }
+  }
+
+  /**
+   * Emulates StartPromotion.sql.
+   */
+  private void startPromotion()
+  throws SQLException {
+
+    PreparedStatement[] lStatements = prepare(mDialect.getControlSQL(SQLManager.SQL_FILE_VERSION_CHECK),
+                                              mDialect.getControlSQL(SQLManager.SQL_FILE_SELECT_PROMOTION_RUN_COUNT),
+                                              MERGE_PROMOTION_LABEL_SQL, NEXT_PROMOTION_RUN_ID_SQL, INSERT_PROMOTION_RUN_SQL,
+                                              SQLManager.getSQLByName(FILE_STATUS_SQL_FILE), SQLManager.getSQLByName(PATCH_STATUS_SQL_FILE),
+                                              SQLManager.getSQLByName(DEPLOYMENT_STATUS_SQL_FILE));
+    Object lLabel = getBind("promotion_label");
+
+    //ScriptRunner version check (skipped if no expected patch number is given)
+    int lLatestPatch = queryInt(lStatements[0], getBind("internal_patch_label"));
+    mOutValues.put("latest_patch", lLatestPatch);
+
+    Object lExpectedPatch = getBind("expected_patch");
+    if(lExpectedPatch != null && mDialect.toInt(lExpectedPatch) != lLatestPatch){
+      return;
+    }
+
+    //Check the label has not already been promoted
+    int lExistingRunCount = queryInt(lStatements[1], lLabel);
+    mOutValues.put("existing_run_count", lExistingRunCount);
+    if(lExistingRunCount > 0){
+      return;
+    }
+
+    bind(lStatements[2], lLabel).executeUpdate();
+    int lNewId = queryInt(lStatements[3]);
+    bind(lStatements[4], lNewId, lLabel, getBind("version")).executeUpdate();
+    mOutValues.put("new_id", lNewId);
+
+    mOutValues.put("file_status", bind(lStatements[5], lLabel).executeQuery());
+    mOutValues.put("patch_status", bind(lStatements[6], getBind("patch_labels")).executeQuery());
+    mOutValues.put("deployment_status", bind(lStatements[7], getBind("delta_paths")).executeQuery());
+  }
+
+  private void closeStatements()
+  throws SQLException {
+    for(PreparedStatement lStatement : mStatements){
+      lStatement.close();
+    }
+    mStatements.clear();
+  }
+
+  private void close()
+  throws SQLException {
+    closeStatements();
+
+    if(mLogClob != null){
+      //Write the log to the run now the caller has finished writing it
+      PreparedStatement lStatement = mConnection.prepareStatement(UPDATE_PROMOTION_RUN_LOG_SQL);
+      try {
+        bind(lStatement, mLogClob.mWriter.toString(), getBind("id")).executeUpdate();
+      }
+      finally {
+        lStatement.close();
+      }
+      mLogClob = null;
+    }
+  }
+
+  /**
+   * CLOB returned in place of a locator for the promotion run log. Its contents are buffered until the call is closed.
+   */
+  private static class LogClob
+  implements InvocationHandler {
+
+    final StringWriter mWriter = new StringWriter();
+    final Clob mClob = (Clob) Proxy.newProxyInstance(H2ControlCall.class.getClassLoader(), new Class<?>[] {Clob.class}, this);
+
+    public Object invoke(Object pProxy, Method pMethod, Object[] pArgs)
+    throws Throwable {
+      if("setCharacterStream".equals(pMethod.getName())){
+        return mWriter;
+      }
+      else if("equals".equals(pMethod.getName()) && pArgs != null && pArgs.length == 1){
+        return pProxy == pArgs[0];
+      }
+      else if("hashCode".equals(pMethod.getName())){
+        return System.identityHashCode(pProxy);
+      }
+      throw new SQLFeatureNotSupportedException(pMethod.getName() + " is not supported on the H2 promotion run log");
+    }
+  }
+
+}
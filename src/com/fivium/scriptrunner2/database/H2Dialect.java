@@ -0,0 +1,248 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.PatchScript;
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.ex.ExParser;
+import com.fivium.scriptrunner2.install.Installer;
+import com.fivium.scriptrunner2.script.parser.ParsedStatement;
+import com.fivium.scriptrunner2.script.parser.ScriptParser;
+import com.fivium.scriptrunner2.update.Updater;
+import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
+import com.fivium.scriptrunner2.util.XFUtil;
+
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.Properties;
+
+
+/**
+ * Dialect for the H2 embedded database, which allows promotes to be run without an Oracle database, for instance to
+ * measure promote throughput in a build. The H2 driver must be on the classpath; it is not shipped with ScriptRunner.
+ * <br/><br/>
+ *
+ * H2 has no equivalent of the ScriptRunner installer, so the control tables are created in a schema named after the
+ * promotion user the first time it connects, and recorded as being at the latest update patch. Users are switched by
+ * changing the connection's current schema. PL/SQL control calls are emulated by {@link H2ControlCall}. SYSDBA
+ * connections, archiving, LOB staging and compile error harvesting are not supported, and nor is the legacy schema.
+ */
+public class H2Dialect
+implements DatabaseDialect {
+
+  private static final String JDBC_PREFIX = "jdbc:h2:tcp://";
+
+  /** Folder within the SQL package containing the H2 versions of the control table SQL. */
+  private static final String SQL_FOLDER = "h2/";
+  private static final String CREATE_OBJECTS_FILE_NAME = SQL_FOLDER + "create_objects.sql";
+
+  private static final String CONTROL_TABLE_EXISTS_SQL = "SELECT COUNT(*) FROM information_schema.tables WHERE table_schema = ? AND table_name = 'PROMOTION_RUNS'";
+  private static final String TRANSACTION_ACTIVE_SQL = "SELECT contains_uncommitted FROM information_schema.sessions WHERE id = SESSION_ID()";
+
+  private static final String INSTALL_PROMOTION_LABEL = "ScriptRunner-Install";
+  private static final String INSERT_INSTALL_LABEL_SQL = "INSERT INTO promotion_labels (label, created_datetime, last_promoted_datetime) VALUES (?, LOCALTIMESTAMP, LOCALTIMESTAMP)";
+  private static final String INSERT_INSTALL_RUN_SQL = "INSERT INTO promotion_runs (id, promotion_label, scriptrunner_version, start_datetime, end_datetime, status) VALUES (NEXT VALUE FOR promotion_runs_seq, ?, ?, LOCALTIMESTAMP, LOCALTIMESTAMP, 'COMPLETE')";
+  private static final String INSERT_INSTALL_PATCH_SQL = "INSERT INTO patches (patch_label, patch_number, created_datetime, last_run_datetime) VALUES (?, ?, LOCALTIMESTAMP, LOCALTIMESTAMP)";
+  private static final String INSERT_INSTALL_PATCH_RUN_SQL = "INSERT INTO patch_runs (id, patch_label, patch_number, patch_description, promotion_run_id, promotion_label, promotion_load_sequence, start_timestamp, end_timestamp, status, file_hash) " +
+                                                             "VALUES (NEXT VALUE FOR patch_runs_seq, ?, ?, ?, (SELECT MAX(id) FROM promotion_runs), ?, ?, LOCALTIMESTAMP, LOCALTIMESTAMP, 'COMPLETE', ?)";
+
+  private static final String STRING_ARRAY_TYPE = "VARCHAR";
+  private static final String NUMBER_ARRAY_TYPE = "DECIMAL";
+
+  public String buildConnectString(String pHostName, String pPort, String pSID, String pServiceName) {
+    //A H2 server identifies databases by name, so the SID and service name are treated the same
+    return JDBC_PREFIX + pHostName + ":" + pPort + "/" + (!XFUtil.isNull(pSID) ? pSID : pServiceName);
+  }
+
+  public Connection connect(String pConnectString, String pUser, String pPassword, boolean pConnectAsSysDBA, Properties pDriverProperties)
+  throws SQLException {
+
+    if(pConnectAsSysDBA){
+      throw new SQLFeatureNotSupportedException("SYSDBA connections are not supported by the H2 dialect");
+    }
+
+    Properties lProperties = new Properties();
+    lProperties.putAll(pDriverProperties);
+    lProperties.setProperty("user", pUser);
+    lProperties.setProperty("password", pPassword);
+
+    Connection lConnection = DriverManager.getConnection(pConnectString, lProperties);
+
+    //Auto commit should be off by default
+    lConnection.setAutoCommit(false);
+
+    createControlObjects(lConnection, pUser.toUpperCase());
+
+    return lConnection;
+  }
+
+  /**
+   * Creates the promotion user's schema and the control tables within it if they do not already exist, and makes it the
+   * connection's current schema.
+   * @param pConnection New connection.
+   * @param pPromoteUser Name of the promotion user.
+   * @throws SQLException If the objects cannot be created.
+   */
+  private void createControlObjects(Connection pConnection, String pPromoteUser)
+  throws SQLException {
+
+    Statement lStatement = pConnection.createStatement();
+    try {
+      lStatement.execute("CREATE SCHEMA IF NOT EXISTS \"" + pPromoteUser + "\"");
+    }
+    finally {
+      lStatement.close();
+    }
+    pConnection.setSchema(pPromoteUser);
+
+    //The promote and logging connections are created one after the other so only the first needs to create the tables
+    PreparedStatement lExistsStatement = pConnection.prepareStatement(CONTROL_TABLE_EXISTS_SQL);
+    try {
+      lExistsStatement.setString(1, pPromoteUser);
+      ResultSet lResultSet = lExistsStatement.executeQuery();
+      lResultSet.next();
+      if(lResultSet.getInt(1) > 0){
+        return;
+      }
+    }
+    finally {
+      lExistsStatement.close();
+    }
+
+    Logger.logAndEcho("Creating ScriptRunner control tables in H2 schema " + pPromoteUser + "...");
+
+    lStatement = pConnection.createStatement();
+    try {
+      for(ParsedStatement lParsedStatement : ScriptParser.parse(SQLManager.getSQLByName(CREATE_OBJECTS_FILE_NAME))){
+        if(!lParsedStatement.isAllCommentsOrEmpty()){
+          lStatement.execute(lParsedStatement.getStatementString());
+        }
+      }
+    }
+    catch (ExParser e) {
+      throw new ExFatalError("Failed to parse H2 control table script", e);
+    }
+    finally {
+      lStatement.close();
+    }
+
+    recordInstall(pConnection);
+
+    pConnection.commit();
+  }
+
+  /**
+   * Logs the installation and every update patch as having been run, so the version check passes.
+   */
+  private static void recordInstall(Connection pConnection)
+  throws SQLException {
+    executeInstallStatement(pConnection, INSERT_INSTALL_LABEL_SQL, INSTALL_PROMOTION_LABEL);
+    executeInstallStatement(pConnection, INSERT_INSTALL_RUN_SQL, INSTALL_PROMOTION_LABEL, ScriptRunnerVersion.getVersionNumber());
+
+    int lSequence = 0;
+    for(PatchScript lPatch : Updater.getUpdatePatches()){
+      executeInstallStatement(pConnection, INSERT_INSTALL_PATCH_SQL, Installer.INSTALL_PATCH_PREFIX, lPatch.getPatchNumber());
+      executeInstallStatement(pConnection, INSERT_INSTALL_PATCH_RUN_SQL, Installer.INSTALL_PATCH_PREFIX, lPatch.getPatchNumber(), lPatch.getDescription(),
+                              INSTALL_PROMOTION_LABEL, ++lSequence, lPatch.getPatchFileHash());
+    }
+  }
+
+  private static void executeInstallStatement(Connection pConnection, String pSQL, Object... pParams)
+  throws SQLException {
+    PreparedStatement lStatement = pConnection.prepareStatement(pSQL);
+    try {
+      for(int i = 0; i < pParams.length; i++){
+        lStatement.setObject(i + 1, pParams[i]);
+      }
+      lStatement.executeUpdate();
+    }
+    finally {
+      lStatement.close();
+    }
+  }
+
+  public boolean isTransactionActive(Connection pConnection)
+  throws SQLException {
+    Statement lStatement = pConnection.createStatement();
+    try {
+      ResultSet lResultSet = lStatement.executeQuery(TRANSACTION_ACTIVE_SQL);
+      return lResultSet.next() && lResultSet.getBoolean(1);
+    }
+    finally {
+      lStatement.close();
+    }
+  }
+
+  public String getCommitSQL(boolean pWaitForRedo) {
+    //H2 has no asynchronous commit statement
+    return "COMMIT";
+  }
+
+  public void grantProxyConnect(Connection pConnection, String pGranteeUser, String pPromoteUser) {
+    //Schemas are switched directly so no grant is needed
+  }
+
+  public void openProxySession(Connection pConnection, String pUser)
+  throws SQLException {
+    pConnection.setSchema(pUser.toUpperCase());
+  }
+
+  public void closeProxySession(Connection pConnection)
+  throws SQLException {
+    pConnection.setSchema(pConnection.getMetaData().getUserName().toUpperCase());
+  }
+
+  public Array createStringArray(Connection pConnection, Object[] pValues)
+  throws SQLException {
+    return pConnection.createArrayOf(STRING_ARRAY_TYPE, pValues);
+  }
+
+  public Array createNumberArray(Connection pConnection, Object[] pValues)
+  throws SQLException {
+    return pConnection.createArrayOf(NUMBER_ARRAY_TYPE, pValues);
+  }
+
+  public int getCursorType() {
+    //Cursors are read from emulated calls as result set objects
+    return Types.OTHER;
+  }
+
+  /**
+   * Gets the H2 version of the given control table statement if there is one, otherwise the Oracle version, which is
+   * also valid H2 SQL.
+   * @param pSQLFileName Name of the statement (see constants on {@link SQLManager}).
+   * @return SQL string.
+   */
+  public String getControlSQL(String pSQLFileName) {
+    if(SQLManager.class.getResource(SQL_FOLDER + pSQLFileName) != null){
+      return SQLManager.getSQLByName(SQL_FOLDER + pSQLFileName);
+    }
+    else {
+      return SQLManager.getSQLByName(pSQLFileName);
+    }
+  }
+
+  public CallableStatement prepareControlCall(Connection pConnection, String pSQLFileName)
+  throws SQLException {
+    if(!H2ControlCall.isSupported(pSQLFileName)){
+      throw new SQLFeatureNotSupportedException(pSQLFileName + " is not supported by the H2 dialect");
+    }
+    return H2ControlCall.create(pConnection, pSQLFileName, this);
+  }
+
+  public int toInt(Object pValue) {
+    //The H2 driver reads numbers as the narrowest Java type which fits the column
+    return ((Number) pValue).intValue();
+  }
+
+}
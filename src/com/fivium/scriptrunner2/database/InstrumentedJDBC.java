@@ -0,0 +1,282 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.database.JDBCStatistics.CallType;
+
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+
+
+/**
+ * Wraps JDBC connections in dynamic proxies which record calls to a {@link JDBCStatistics}. Statements created by a
+ * wrapped connection and LOBs created or fetched through it are wrapped in turn. Calls which are not recorded are passed
+ * straight to the underlying object, so the driver's own classes can still be reached with <tt>unwrap</tt>.
+ */
+class InstrumentedJDBC {
+
+  private InstrumentedJDBC() {}
+
+  /**
+   * Wraps a connection so its calls are recorded against the given connection name.
+   * @param pConnection Connection to wrap.
+   * @param pStatistics Statistics to record calls to.
+   * @param pConnectionName Name to record calls against (see constants on {@link JDBCStatistics}).
+   * @return Wrapped connection.
+   */
+  static Connection wrapConnection(Connection pConnection, JDBCStatistics pStatistics, String pConnectionName){
+    return (Connection) createProxy(Connection.class, new ConnectionHandler(pConnection, pStatistics, pConnectionName));
+  }
+
+  private static Object createProxy(Class<?> pInterface, InvocationHandler pHandler){
+    return Proxy.newProxyInstance(InstrumentedJDBC.class.getClassLoader(), new Class<?>[] {pInterface}, pHandler);
+  }
+
+  /**
+   * Base handler which passes calls to the wrapped object and times the calls which are recorded.
+   */
+  private static abstract class RecordingHandler
+  implements InvocationHandler {
+
+    final Object mTarget;
+    final JDBCStatistics mStatistics;
+    final String mConnectionName;
+
+    RecordingHandler(Object pTarget, JDBCStatistics pStatistics, String pConnectionName){
+      mTarget = pTarget;
+      mStatistics = pStatistics;
+      mConnectionName = pConnectionName;
+    }
+
+    /**
+     * Invokes the method on the wrapped object, recording the call if a call type is given.
+     */
+    Object invokeTarget(Method pMethod, Object[] pArgs, CallType pCallType, String pSQLName)
+    throws Throwable {
+      //The driver expects its own objects, e.g. when a LOB is bound
+      if(pArgs != null){
+        for(int i = 0; i < pArgs.length; i++){
+          if(pArgs[i] != null && Proxy.isProxyClass(pArgs[i].getClass()) && Proxy.getInvocationHandler(pArgs[i]) instanceof RecordingHandler){
+            pArgs[i] = ((RecordingHandler) Proxy.getInvocationHandler(pArgs[i])).mTarget;
+          }
+        }
+      }
+
+      long lStart = System.nanoTime();
+      try {
+        return pMethod.invoke(mTarget, pArgs);
+      }
+      catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+      finally {
+        if(pCallType != null){
+          mStatistics.record(mConnectionName, pCallType, pSQLName, System.nanoTime() - lStart);
+        }
+      }
+    }
+
+    /**
+     * Wraps LOBs created or fetched through the wrapped object so writes to them are recorded.
+     */
+    Object wrapLob(Method pMethod, Object pResult){
+      if(pResult instanceof Clob && pMethod.getReturnType() == Clob.class){
+        return createProxy(Clob.class, new LobHandler(pResult, mStatistics, mConnectionName));
+      }
+      else if(pResult instanceof Blob && pMethod.getReturnType() == Blob.class){
+        return createProxy(Blob.class, new LobHandler(pResult, mStatistics, mConnectionName));
+      }
+      return pResult;
+    }
+
+    /**
+     * Tests if the method is equals, which must compare proxies rather than the wrapped objects.
+     */
+    static boolean isEquals(Method pMethod){
+      return "equals".equals(pMethod.getName()) && pMethod.getParameterTypes().length == 1;
+    }
+  }
+
+  private static class ConnectionHandler
+  extends RecordingHandler {
+
+    ConnectionHandler(Connection pConnection, JDBCStatistics pStatistics, String pConnectionName){
+      super(pConnection, pStatistics, pConnectionName);
+    }
+
+    public Object invoke(Object pProxy, Method pMethod, Object[] pArgs)
+    throws Throwable {
+      String lMethodName = pMethod.getName();
+      if(isEquals(pMethod)){
+        return pProxy == pArgs[0];
+      }
+      else if("prepareStatement".equals(lMethodName) || "prepareCall".equals(lMethodName) || "createStatement".equals(lMethodName)){
+        String lSQLName = "createStatement".equals(lMethodName) ? null : mStatistics.getSQLName((String) pArgs[0]);
+        Object lStatement = invokeTarget(pMethod, pArgs, CallType.PREPARE, lSQLName);
+        return createProxy(pMethod.getReturnType(), new StatementHandler(lStatement, mStatistics, mConnectionName, (Connection) pProxy, lSQLName));
+      }
+      else if("commit".equals(lMethodName)){
+        return invokeTarget(pMethod, pArgs, CallType.COMMIT, null);
+      }
+      else if("rollback".equals(lMethodName)){
+        return invokeTarget(pMethod, pArgs, CallType.ROLLBACK, null);
+      }
+      else {
+        return wrapLob(pMethod, invokeTarget(pMethod, pArgs, null, null));
+      }
+    }
+  }
+
+  private static class StatementHandler
+  extends RecordingHandler {
+
+    private final Connection mConnectionProxy;
+    /** Name of the SQL the statement was prepared with, or null for a plain statement. */
+    private final String mSQLName;
+
+    StatementHandler(Object pStatement, JDBCStatistics pStatistics, String pConnectionName, Connection pConnectionProxy, String pSQLName){
+      super(pStatement, pStatistics, pConnectionName);
+      mConnectionProxy = pConnectionProxy;
+      mSQLName = pSQLName;
+    }
+
+    public Object invoke(Object pProxy, Method pMethod, Object[] pArgs)
+    throws Throwable {
+      String lMethodName = pMethod.getName();
+      if(isEquals(pMethod)){
+        return pProxy == pArgs[0];
+      }
+      else if(lMethodName.startsWith("execute")){
+        //Plain statements are given their SQL when executed
+        String lSQLName = pArgs != null && pArgs.length > 0 && pArgs[0] instanceof String ? mStatistics.getSQLName((String) pArgs[0]) : mSQLName;
+        return invokeTarget(pMethod, pArgs, CallType.EXECUTE, lSQLName == null ? JDBCStatistics.OTHER_SQL_NAME : lSQLName);
+      }
+      else if("getConnection".equals(lMethodName) && pMethod.getParameterTypes().length == 0){
+        //LOBs created from the statement's connection should be recorded too
+        return mConnectionProxy;
+      }
+      else {
+        return wrapLob(pMethod, invokeTarget(pMethod, pArgs, null, null));
+      }
+    }
+  }
+
+  private static class LobHandler
+  extends RecordingHandler {
+
+    LobHandler(Object pLob, JDBCStatistics pStatistics, String pConnectionName){
+      super(pLob, pStatistics, pConnectionName);
+    }
+
+    public Object invoke(Object pProxy, Method pMethod, Object[] pArgs)
+    throws Throwable {
+      String lMethodName = pMethod.getName();
+      if(isEquals(pMethod)){
+        return pProxy == pArgs[0];
+      }
+      else if("setString".equals(lMethodName) || "setBytes".equals(lMethodName) || "truncate".equals(lMethodName)){
+        return invokeTarget(pMethod, pArgs, CallType.LOB_WRITE, null);
+      }
+
+      //Streams write to the database as their buffers fill, so each write to them is recorded
+      Object lResult = invokeTarget(pMethod, pArgs, null, null);
+      if(lResult instanceof Writer){
+        return new RecordingWriter((Writer) lResult);
+      }
+      else if(lResult instanceof OutputStream){
+        return new RecordingOutputStream((OutputStream) lResult);
+      }
+      return lResult;
+    }
+
+    private void record(long pStart){
+      mStatistics.record(mConnectionName, CallType.LOB_WRITE, null, System.nanoTime() - pStart);
+    }
+
+    private class RecordingWriter
+    extends FilterWriter {
+
+      RecordingWriter(Writer pWriter){
+        super(pWriter);
+      }
+
+      @Override
+      public void write(int pChar)
+      throws IOException {
+        long lStart = System.nanoTime();
+        out.write(pChar);
+        record(lStart);
+      }
+
+      @Override
+      public void write(char[] pChars, int pOffset, int pLength)
+      throws IOException {
+        long lStart = System.nanoTime();
+        out.write(pChars, pOffset, pLength);
+        record(lStart);
+      }
+
+      @Override
+      public void write(String pString, int pOffset, int pLength)
+      throws IOException {
+        long lStart = System.nanoTime();
+        out.write(pString, pOffset, pLength);
+        record(lStart);
+      }
+
+      @Override
+      public void close()
+      throws IOException {
+        //Closing writes any buffered data
+        long lStart = System.nanoTime();
+        out.close();
+        record(lStart);
+      }
+    }
+
+    private class RecordingOutputStream
+    extends FilterOutputStream {
+
+      RecordingOutputStream(OutputStream pOutputStream){
+        super(pOutputStream);
+      }
+
+      @Override
+      public void write(int pByte)
+      throws IOException {
+        long lStart = System.nanoTime();
+        out.write(pByte);
+        record(lStart);
+      }
+
+      @Override
+      public void write(byte[] pBytes, int pOffset, int pLength)
+      throws IOException {
+        long lStart = System.nanoTime();
+        out.write(pBytes, pOffset, pLength);
+        record(lStart);
+      }
+
+      @Override
+      public void close()
+      throws IOException {
+        //Closing writes any buffered data
+        long lStart = System.nanoTime();
+        out.close();
+        record(lStart);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,197 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+import com.fivium.scriptrunner2.ex.ExInternal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Counts and times the JDBC calls made on the promote and logging connections of a promote, as requested with
+ * <tt>-jdbcstats</tt>. Calls are recorded by the connection wrappers created by {@link InstrumentedJDBC}, grouped by
+ * connection and call type, and for prepares and executes also by the name of the ScriptRunner SQL file which was
+ * run. Each group has a latency histogram. SQL which is not one of ScriptRunner's own files, such as the statements
+ * in a patch, is grouped together.<br/><br/>
+ *
+ * Lane connections share the statistics of the connection they were created from, so recording is thread safe.
+ */
+public class JDBCStatistics {
+
+  public static final String PROMOTE_CONNECTION_NAME = "promote";
+  public static final String LOGGING_CONNECTION_NAME = "logging";
+
+  static final String OTHER_SQL_NAME = "(other)";
+
+  private static final String SQL_FILE_FIELD_PREFIX = "SQL_FILE_";
+
+  /** Upper bounds of each latency histogram bucket, in microseconds. The final bucket has no upper bound. */
+  private static final long[] BUCKET_BOUNDS_MICROS = {100, 1000, 10000, 100000, 1000000};
+  private static final String[] BUCKET_LABELS = {"<0.1ms", "<1ms", "<10ms", "<100ms", "<1s", ">=1s"};
+
+  /**
+   * Types of JDBC call which are recorded.
+   */
+  public enum CallType {
+    PREPARE, EXECUTE, COMMIT, ROLLBACK, LOB_WRITE;
+  }
+
+  /** Names of ScriptRunner SQL files keyed by their SQL. */
+  private final Map<String, String> mSQLNames = new HashMap<String, String>();
+
+  /** Statistics keyed by connection name and call type. */
+  private final Map<String, CallStatistics> mCallTypeStatistics = new TreeMap<String, CallStatistics>();
+  /** Statistics for prepares and executes keyed by connection name and SQL name. */
+  private final Map<String, CallStatistics> mSQLStatistics = new TreeMap<String, CallStatistics>();
+
+  /**
+   * The count, total and maximum latency and latency histogram of one group of calls.
+   */
+  static class CallStatistics {
+    int mCount = 0;
+    long mTotalNanos = 0;
+    long mMaxNanos = 0;
+    final int[] mBucketCounts = new int[BUCKET_LABELS.length];
+
+    void record(long pNanos){
+      mCount++;
+      mTotalNanos += pNanos;
+      mMaxNanos = Math.max(mMaxNanos, pNanos);
+
+      long lMicros = pNanos / 1000;
+      int lBucket = 0;
+      while(lBucket < BUCKET_BOUNDS_MICROS.length && lMicros >= BUCKET_BOUNDS_MICROS[lBucket]){
+        lBucket++;
+      }
+      mBucketCounts[lBucket]++;
+    }
+  }
+
+  /**
+   * Creates a new JDBCStatistics which recognises the SQL files provided by the given dialect.
+   * @param pDialect Dialect of the connections being recorded.
+   */
+  public JDBCStatistics(DatabaseDialect pDialect) {
+    for(Field lField : SQLManager.class.getFields()){
+      if(lField.getName().startsWith(SQL_FILE_FIELD_PREFIX) && Modifier.isStatic(lField.getModifiers()) && lField.getType() == String.class){
+        try {
+          String lSQLFileName = (String) lField.get(null);
+          mSQLNames.put(pDialect.getControlSQL(lSQLFileName), lSQLFileName);
+        }
+        catch (IllegalAccessException e) {
+          throw new ExInternal("Failed to read SQL file name " + lField.getName(), e);
+        }
+      }
+    }
+
+    mSQLNames.put(pDialect.getCommitSQL(true), "COMMIT (wait)");
+    mSQLNames.put(pDialect.getCommitSQL(false), "COMMIT (no wait)");
+  }
+
+  /**
+   * Gets the name of the ScriptRunner SQL file which contains the given SQL.
+   * @param pSQL SQL which was prepared or executed, or null if not known.
+   * @return SQL file name, or a placeholder name if the SQL is not from a ScriptRunner SQL file.
+   */
+  String getSQLName(String pSQL){
+    String lName = pSQL == null ? null : mSQLNames.get(pSQL);
+    return lName == null ? OTHER_SQL_NAME : lName;
+  }
+
+  /**
+   * Records a call.
+   * @param pConnectionName Name of the connection the call was made on.
+   * @param pCallType Type of call.
+   * @param pSQLName Name of the SQL which was prepared or executed, or null if the call does not run SQL.
+   * @param pNanos Time the call took in nanoseconds.
+   */
+  synchronized void record(String pConnectionName, CallType pCallType, String pSQLName, long pNanos){
+    getStatistics(mCallTypeStatistics, pConnectionName + " " + pCallType.toString()).record(pNanos);
+    if(pSQLName != null){
+      getStatistics(mSQLStatistics, pConnectionName + " " + pSQLName).record(pNanos);
+    }
+  }
+
+  private static CallStatistics getStatistics(Map<String, CallStatistics> pMap, String pKey){
+    CallStatistics lStatistics = pMap.get(pKey);
+    if(lStatistics == null){
+      lStatistics = new CallStatistics();
+      pMap.put(pKey, lStatistics);
+    }
+    return lStatistics;
+  }
+
+  /**
+   * Gets a summary of all the calls recorded so far, as a table of call types followed by a table of SQL files.
+   * @return Summary text.
+   */
+  public synchronized String getSummary(){
+
+    StringBuilder lSummary = new StringBuilder();
+    lSummary.append("JDBC call statistics\n====================================\n");
+    appendTable(lSummary, "Connection / call", mCallTypeStatistics);
+    lSummary.append("\n");
+    appendTable(lSummary, "Connection / SQL", mSQLStatistics);
+
+    long lPromoteNanos = 0;
+    long lLoggingNanos = 0;
+    int lCallCount = 0;
+    for(Map.Entry<String, CallStatistics> lEntry : mCallTypeStatistics.entrySet()){
+      lCallCount += lEntry.getValue().mCount;
+      if(lEntry.getKey().startsWith(PROMOTE_CONNECTION_NAME + " ")){
+        lPromoteNanos += lEntry.getValue().mTotalNanos;
+      }
+      else {
+        lLoggingNanos += lEntry.getValue().mTotalNanos;
+      }
+    }
+
+    lSummary.append("\n" + lCallCount + " calls; " + (lPromoteNanos / 1000000) + "ms on the promote connection, " +
+                    (lLoggingNanos / 1000000) + "ms on the logging connection\n");
+
+    return lSummary.toString();
+  }
+
+  private static void appendTable(StringBuilder pSummary, String pKeyHeading, Map<String, CallStatistics> pStatisticsMap){
+
+    int lLongestKey = pKeyHeading.length();
+    for(String lKey : pStatisticsMap.keySet()){
+      lLongestKey = Math.max(lLongestKey, lKey.length());
+    }
+
+    StringBuilder lFormatMask = new StringBuilder("%-" + (lLongestKey + 2) + "s%8s%12s%10s%10s");
+    for(int i = 0; i < BUCKET_LABELS.length; i++){
+      lFormatMask.append("%8s");
+    }
+    lFormatMask.append("\n");
+
+    Object[] lHeadings = new Object[5 + BUCKET_LABELS.length];
+    lHeadings[0] = pKeyHeading;
+    lHeadings[1] = "Count";
+    lHeadings[2] = "Total ms";
+    lHeadings[3] = "Avg ms";
+    lHeadings[4] = "Max ms";
+    System.arraycopy(BUCKET_LABELS, 0, lHeadings, 5, BUCKET_LABELS.length);
+    pSummary.append(String.format(lFormatMask.toString(), lHeadings));
+
+    for(Map.Entry<String, CallStatistics> lEntry : pStatisticsMap.entrySet()){
+      CallStatistics lStatistics = lEntry.getValue();
+      Object[] lValues = new Object[5 + BUCKET_LABELS.length];
+      lValues[0] = lEntry.getKey();
+      lValues[1] = lStatistics.mCount;
+      lValues[2] = String.format("%.1f", lStatistics.mTotalNanos / 1000000d);
+      lValues[3] = String.format("%.2f", lStatistics.mTotalNanos / 1000000d / lStatistics.mCount);
+      lValues[4] = String.format("%.1f", lStatistics.mMaxNanos / 1000000d);
+      for(int i = 0; i < BUCKET_LABELS.length; i++){
+        lValues[5 + i] = lStatistics.mBucketCounts[i];
+      }
+      pSummary.append(String.format(lFormatMask.toString(), lValues));
+    }
+  }
+
+}
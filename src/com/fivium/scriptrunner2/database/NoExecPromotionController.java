@@ -5,8 +5,11 @@ import com.fivium.scriptrunner2.Logger;
 import com.fivium.scriptrunner2.PromotionFile;
 import com.fivium.scriptrunner2.ScriptRunner;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 
+import java.util.Collection;
+
 /**
  * Controller for a promotion which is being run in <tt>-noexec mode</tt>, and therefore will not promote any files.
  */
@@ -26,7 +29,7 @@ extends PromotionController {
    * @return True if    
    */
   @Override
-  public boolean startPromote() {
+  public boolean startPromote(Collection<String> pPatchLabels, Collection<String> pDeltaPaths) {
     //Check a non-ignored run does not already exist
     if(!checkPromotionAllowed(getDatabaseConnection().getLoggingConnection())){
       mScriptRunner.addNoExecLabelLog(getPromotionLabel(), false, "Promotion label " + getPromotionLabel() + " already promoted");
@@ -60,6 +63,34 @@ extends PromotionController {
     return false;
   }
 
+  @Override
+  public boolean skipIfUnchanged(PromotionFile pPromotionFile) {
+    
+    FilePromoteStatus lFilePromoteStatus = getFilePromoteStatus(pPromotionFile, getDatabaseConnection().getLoggingConnection());
+    
+    if(lFilePromoteStatus.mIsPromoteAllowed && lFilePromoteStatus.mLastSuccessHash.equals(pPromotionFile.getFileHash())){
+      mScriptRunner.addNoExecFileLog(pPromotionFile, false, "Unchanged since last successful promotion");
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public String skipIfDeployed(PromotionFile pPromotionFile) {
+    
+    Connection lConnection = getDatabaseConnection().getLoggingConnection();
+    
+    if(!getFilePromoteStatus(pPromotionFile, lConnection).mIsPromoteAllowed){
+      return null;
+    }
+    
+    String lDeployedLabel = getUnchangedDeploymentLabel(pPromotionFile, lConnection);
+    if(lDeployedLabel != null){
+      mScriptRunner.addNoExecFileLog(pPromotionFile, false, "Unchanged since deployed in label " + lDeployedLabel);
+    }
+    return lDeployedLabel;
+  }
+
   @Override
   public void finaliseFilePromote(PromotionFile pPromotionFile, boolean pWasSuccess) {
     //do nothing
@@ -0,0 +1,153 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.util.XFUtil;
+
+import java.math.BigDecimal;
+
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.Properties;
+
+import oracle.jdbc.OracleDriver;
+import oracle.jdbc.OracleTypes;
+import oracle.jdbc.driver.OracleConnection;
+
+
+/**
+ * Dialect for Oracle databases using the Oracle thin JDBC driver. Users are switched with proxy sessions and SYSDBA
+ * connections are requested with the <tt>internal_logon</tt> driver property.
+ */
+public class OracleDialect
+implements DatabaseDialect {
+
+  private static final String JDBC_PREFIX =  "jdbc:oracle:thin:@";
+
+  private static final String GRANT_PROXY_GRANTEE_BIND =  ":grantee";
+  private static final String GRANT_PROXY_PROMOTEUSER_BIND =  ":promoteuser";
+  private static final String GRANT_PROXY_SQL =  "ALTER USER " + GRANT_PROXY_GRANTEE_BIND + " GRANT CONNECT THROUGH " + GRANT_PROXY_PROMOTEUSER_BIND;
+
+  private static final String COMMIT_NOWAIT_SQL = "COMMIT WRITE BATCH NOWAIT";
+  private static final String COMMIT_WAIT_SQL = "COMMIT WRITE WAIT";
+
+  private static final String STRING_LIST_TYPE = "SYS.ODCIVARCHAR2LIST";
+  private static final String NUMBER_LIST_TYPE = "SYS.ODCINUMBERLIST";
+
+  public String buildConnectString(String pHostName, String pPort, String pSID, String pServiceName) {
+    if(!XFUtil.isNull(pSID)){
+      //Construct SID connect syntax if a SID was specified
+      return JDBC_PREFIX + pHostName + ":" + pPort + ":" + pSID;
+    }
+    else {
+      //Otherwise construct service name connect syntax
+      return JDBC_PREFIX + "//" + pHostName + ":" + pPort + "/" + pServiceName;
+    }
+  }
+
+  public Connection connect(String pConnectString, String pUser, String pPassword, boolean pConnectAsSysDBA, Properties pDriverProperties)
+  throws SQLException {
+
+    Properties lProperties = new Properties();
+    OracleDriver lDriver = new OracleDriver();
+
+    lProperties.putAll(pDriverProperties);
+    lProperties.setProperty("user", pUser);
+    lProperties.setProperty("password", pPassword);
+    if(pConnectAsSysDBA){
+      //If a SYSDBA connection is required set this property
+      lProperties.setProperty("internal_logon", "sysdba");
+      Logger.logDebug("Connecting as SYSDBA");
+    }
+
+    Connection lConnection = lDriver.connect(pConnectString, lProperties);
+
+    //The connect method seems to return null if the JDBC string is invalid
+    if(lConnection == null){
+      throw new ExFatalError("Could not connect to database. Check your JDBC string syntax: '" + pConnectString + "'");
+    }
+
+    //Auto commit should be off by default
+    lConnection.setAutoCommit(false);
+
+    return lConnection;
+  }
+
+  public boolean isTransactionActive(Connection pConnection)
+  throws SQLException {
+    CallableStatement lStatement = pConnection.prepareCall("{?= call DBMS_TRANSACTION.LOCAL_TRANSACTION_ID()}");
+    try {
+      lStatement.registerOutParameter(1, Types.VARCHAR);
+      lStatement.execute();
+
+      //If there is a transaction ID, then a transaction is active
+      return !XFUtil.isNull(lStatement.getString(1));
+    }
+    finally {
+      lStatement.close();
+    }
+  }
+
+  public String getCommitSQL(boolean pWaitForRedo) {
+    return pWaitForRedo ? COMMIT_WAIT_SQL : COMMIT_NOWAIT_SQL;
+  }
+
+  public void grantProxyConnect(Connection pConnection, String pGranteeUser, String pPromoteUser)
+  throws SQLException {
+    Statement lStatement = pConnection.createStatement();
+    try {
+      lStatement.execute(GRANT_PROXY_SQL.replace(GRANT_PROXY_GRANTEE_BIND, pGranteeUser).replace(GRANT_PROXY_PROMOTEUSER_BIND, pPromoteUser));
+    }
+    finally {
+      lStatement.close();
+    }
+  }
+
+  public void openProxySession(Connection pConnection, String pUser)
+  throws SQLException {
+    Properties lProps = new Properties();
+    lProps.put(OracleConnection.PROXY_USER_NAME, pUser);
+    pConnection.unwrap(OracleConnection.class).openProxySession(OracleConnection.PROXYTYPE_USER_NAME, lProps);
+  }
+
+  public void closeProxySession(Connection pConnection)
+  throws SQLException {
+    pConnection.unwrap(OracleConnection.class).close(OracleConnection.PROXY_SESSION);
+  }
+
+  public Array createStringArray(Connection pConnection, Object[] pValues)
+  throws SQLException {
+    return pConnection.unwrap(OracleConnection.class).createARRAY(STRING_LIST_TYPE, pValues);
+  }
+
+  public Array createNumberArray(Connection pConnection, Object[] pValues)
+  throws SQLException {
+    return pConnection.unwrap(OracleConnection.class).createARRAY(NUMBER_LIST_TYPE, pValues);
+  }
+
+  public int getCursorType() {
+    return OracleTypes.CURSOR;
+  }
+
+  public String getControlSQL(String pSQLFileName) {
+    return SQLManager.getSQLByName(pSQLFileName);
+  }
+
+  public CallableStatement prepareControlCall(Connection pConnection, String pSQLFileName)
+  throws SQLException {
+    return pConnection.prepareCall(getControlSQL(pSQLFileName));
+  }
+
+  public int toInt(Object pValue) {
+    //The Oracle driver reads all NUMBER columns as BigDecimals
+    return ((BigDecimal) pValue).intValue();
+  }
+
+}
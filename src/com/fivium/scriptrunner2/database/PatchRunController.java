@@ -13,8 +13,6 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 
-import java.math.BigDecimal;
-
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -32,6 +30,8 @@ public class PatchRunController {
   private final PromotionController mPromotionController;
   private final PatchScript mPatchScript;
   private final Writer mLogWriter;
+  /** If false, the log tables are as created by the install patch and have not had any update patches applied */
+  private final boolean mUseUpdatedSchema;
   
   protected String mPreviousHash = "";
   
@@ -54,36 +54,55 @@ public class PatchRunController {
    * @param pPatchScript PatchScript to be executed.
    */
   public PatchRunController(DatabaseConnection pDatabaseConnection, PromotionController pPromotionController, PatchScript pPatchScript){
+    this(pDatabaseConnection, pPromotionController, pPatchScript, true);
+  }
+  
+  /**
+   * Constructs a new PatchRunController for validating and logging the execution of a PatchScript.
+   * @param pDatabaseConnection Database connection to use when logging the patch.
+   * @param pPromotionController Promotion controller for the overall promotion which this patch is being run in.
+   * @param pPatchScript PatchScript to be executed.
+   * @param pUseUpdatedSchema True if the ScriptRunner update patches have been applied to the log tables. Use false when
+   * logging during installation, in which case file and statement text is written inline on the run rows and archived 
+   * runs are not consulted.
+   */
+  public PatchRunController(DatabaseConnection pDatabaseConnection, PromotionController pPromotionController, PatchScript pPatchScript, 
+                            boolean pUseUpdatedSchema){
     mDatabaseConnection = pDatabaseConnection;    
+    mUseUpdatedSchema = pUseUpdatedSchema;
     mPromotionController = pPromotionController;
     mPatchScript = pPatchScript;
     mLogWriter = new StringWriter();
   }
   
   /**
-   * Tests if the patch is allowed to run, based on the presence of any non-ignored previous patch runs in the run table.
+   * Tests if the patch is allowed to run, based on the presence of any non-ignored previous patch runs in the run table
+   * or its archive.
    * @param pConnection Connection to use.
    * @return True if the patch is allowed to run, false otherwise.
    */
   protected boolean validatePatchRun(Connection pConnection){    
-    Map<String,Object> lResultMap;
-    try {
-      lResultMap = SQLManager.queryMap(pConnection, SQLManager.SQL_FILE_SELECT_PATCH_RUN_COUNT, 
-                                       mPatchScript.getPatchLabel(), mPatchScript.getPatchNumber());
-    }
-    catch (SQLException e) {
-      throw new ExFatalError("Error querying status for patch script " + mPatchScript.getDisplayName());
+    //Use the snapshot taken at the start of the promote if there is one
+    Map<String,Object> lResultMap = mPromotionController.getSnapshotPatchRunStatus(mPatchScript);
+    if(lResultMap == null){
+      try {
+        lResultMap = SQLManager.queryMap(mDatabaseConnection.getDialect(), pConnection, mUseUpdatedSchema ? SQLManager.SQL_FILE_SELECT_PATCH_RUN_COUNT : SQLManager.SQL_FILE_SELECT_PATCH_RUN_COUNT_LEGACY, 
+                                         mPatchScript.getPatchLabel(), mPatchScript.getPatchNumber());
+      }
+      catch (SQLException e) {
+        throw new ExFatalError("Error querying status for patch script " + mPatchScript.getDisplayName());
+      }
     }
     
     //Check if at least 1 row was founrd
     if(lResultMap.get("IGNORED_COUNT") != null){    
       //Set the re-run flag to true if any ignore runs exist
-      mIsRerun = ((BigDecimal) lResultMap.get("IGNORED_COUNT")).intValue() > 0;
+      mIsRerun = mDatabaseConnection.getDialect().toInt(lResultMap.get("IGNORED_COUNT")) > 0;
       
       mPreviousHash = (String) lResultMap.get("LAST_FILE_HASH");
       
       //Return true if there are 0 non-ignored previous runs
-      return ((BigDecimal) lResultMap.get("NOT_IGNORED_COUNT")).intValue() == 0;
+      return mDatabaseConnection.getDialect().toInt(lResultMap.get("NOT_IGNORED_COUNT")) == 0;
     }
     else {
       //No existing rows - this won't be a re-run, and is allowed
@@ -115,12 +134,61 @@ public class PatchRunController {
   }
   
   /**
-   * Inserts a row into the patch_runs table.
+   * Inserts a row into the patch_runs table. The file contents are only written if no other run has already stored a file
+   * with the same hash.
    */
   private void insertPatchRun() {
+    if(!mUseUpdatedSchema){
+      insertPatchRunLegacy();
+      return;
+    }
+    
     try {
       Connection lConnection = mDatabaseConnection.getLoggingConnection();    
-      CallableStatement lStatement = lConnection.prepareCall(SQLManager.getSQLByName(SQLManager.SQL_FILE_INSERT_PATCH_RUN));
+      CallableStatement lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_INSERT_PATCH_RUN);
+      
+      lStatement.setString("patch_label", mPatchScript.getPatchLabel());
+      lStatement.setInt   ("patch_number", mPatchScript.getPatchNumber());
+      lStatement.setString("description", mPatchScript.getDescription());    
+      lStatement.setInt   ("promotion_id", mPromotionController.getPromotionRunId());
+      lStatement.setString("promotion_label", mPromotionController.getPromotionLabel());
+      lStatement.setInt   ("load_seq",  mPatchScript.getPromotionSequencePosition());
+      lStatement.setString("hash",  mPatchScript.getPatchFileHash());
+      lStatement.setString("version",  mPatchScript.getFileVersion());
+      
+      lStatement.registerOutParameter("patch_id", Types.INTEGER);
+      lStatement.registerOutParameter("file_text_exists", Types.INTEGER);
+      
+      lStatement.executeUpdate();
+      
+      mPatchRunId = lStatement.getInt("patch_id");
+      boolean lFileTextExists = lStatement.getInt("file_text_exists") > 0;
+      
+      lStatement.close();
+      
+      //Only ship the file contents across the network if this is a version of the file we have not seen before
+      if(!lFileTextExists){
+        lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_INSERT_FILE_TEXT);
+        lStatement.setString("hash",  mPatchScript.getPatchFileHash());
+        lStatement.setClob  ("file",  new StringReader(mPatchScript.getOriginalPatchString()));
+        lStatement.executeUpdate();
+        lStatement.close();
+      }
+            
+      mDatabaseConnection.commitLoggingConnection(false);
+    }
+    catch (SQLException e) {
+      throw new ExFatalError("Failed to insert patch run", e);
+    }
+  }
+  
+  /**
+   * Inserts a row into the patch_runs table, storing the file contents on the row itself.
+   */
+  private void insertPatchRunLegacy() {
+    try {
+      Connection lConnection = mDatabaseConnection.getLoggingConnection();    
+      CallableStatement lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_INSERT_PATCH_RUN_LEGACY);
       
       lStatement.setString("patch_label", mPatchScript.getPatchLabel());
       lStatement.setInt   ("patch_number", mPatchScript.getPatchNumber());
@@ -136,7 +204,7 @@ public class PatchRunController {
       
       lStatement.executeUpdate();
             
-      lConnection.commit();    
+      mDatabaseConnection.commitLoggingConnection(false);
       
       mPatchRunId = lStatement.getInt("patch_id");
       
@@ -154,7 +222,7 @@ public class PatchRunController {
   public void endPatchRun(boolean pWasSuccess) {
     try {
       Connection lConnection = mDatabaseConnection.getLoggingConnection();    
-      CallableStatement lStatement = lConnection.prepareCall(SQLManager.getSQLByName(SQLManager.SQL_FILE_UPDATE_PATCH_RUN));
+      CallableStatement lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_UPDATE_PATCH_RUN);
       
       lStatement.setString("status", pWasSuccess ? "COMPLETE" : "FAILED");
       lStatement.setClob("log", new StringReader(mLogWriter.toString()));
@@ -163,7 +231,7 @@ public class PatchRunController {
       lStatement.executeUpdate();
       lStatement.close();
       
-      lConnection.commit();
+      mDatabaseConnection.commitLoggingConnection(true);
     }
     catch (SQLException e) {
       throw new ExFatalError("Failed to end patch run", e);
@@ -185,7 +253,7 @@ public class PatchRunController {
     boolean lRunAllowed;
     if(mIsRerun){
       //If this is a script re-run, check the statement table to see if we can run this statement
-      int lRowCount = SQLManager.queryScalarInt(mDatabaseConnection.getLoggingConnection(), SQLManager.SQL_FILE_SELECT_PATCH_RUN_STATEMENT_COUNT, 
+      int lRowCount = SQLManager.queryScalarInt(mDatabaseConnection.getDialect(), mDatabaseConnection.getLoggingConnection(), SQLManager.SQL_FILE_SELECT_PATCH_RUN_STATEMENT_COUNT, 
                                                 mPatchScript.getPatchLabel(), mPatchScript.getPatchNumber(), pScriptSQL.getHash());
       lRunAllowed = lRowCount == 0;
     }
@@ -229,15 +297,55 @@ public class PatchRunController {
   }
   
   /**
-   * Inserts a row into the patch_run_statements table.
+   * Inserts a row into the patch_run_statements table. The statement text is only written if it has not been stored before.
    * @param pScriptSQL Statement being logged.
    * @param pStatementSequence Sequence of the statement within the patch script.
    * @throws SQLException If logging fails.
    */
   private void insertPatchRunStatement(ScriptSQL pScriptSQL, int pStatementSequence) 
+  throws SQLException {
+    if(!mUseUpdatedSchema){
+      insertPatchRunStatementLegacy(pScriptSQL, pStatementSequence);
+      return;
+    }
+    
+    Connection lConnection = mDatabaseConnection.getLoggingConnection();    
+    CallableStatement lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_INSERT_PATCH_RUN_STATEMENT);
+    
+    lStatement.setString("hash", pScriptSQL.getHash());    
+    lStatement.setString("patch_label", mPatchScript.getPatchLabel());
+    lStatement.setInt   ("patch_number", mPatchScript.getPatchNumber());    
+    lStatement.setInt   ("patch_run_id", mPatchRunId);        
+    lStatement.setInt   ("script_seq", pStatementSequence);
+    lStatement.setString("sql_hash", pScriptSQL.getSQLHash());
+    
+    lStatement.registerOutParameter("sql_text_exists", Types.INTEGER);
+    
+    lStatement.executeUpdate();
+    boolean lTextExists = lStatement.getInt("sql_text_exists") > 0;
+    lStatement.close();
+    
+    if(!lTextExists){
+      lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_INSERT_STATEMENT_TEXT);
+      lStatement.setString("sql_hash", pScriptSQL.getSQLHash());
+      lStatement.setClob  ("sql", new StringReader(pScriptSQL.getParsedSQL()));
+      lStatement.executeUpdate();
+      lStatement.close();
+    }
+    
+    mDatabaseConnection.commitLoggingConnection(false);
+  }
+  
+  /**
+   * Inserts a row into the patch_run_statements table, storing the statement text on the row itself.
+   * @param pScriptSQL Statement being logged.
+   * @param pStatementSequence Sequence of the statement within the patch script.
+   * @throws SQLException If logging fails.
+   */
+  private void insertPatchRunStatementLegacy(ScriptSQL pScriptSQL, int pStatementSequence) 
   throws SQLException {    
     Connection lConnection = mDatabaseConnection.getLoggingConnection();    
-    CallableStatement lStatement = lConnection.prepareCall(SQLManager.getSQLByName(SQLManager.SQL_FILE_INSERT_PATCH_RUN_STATEMENT));
+    CallableStatement lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_INSERT_PATCH_RUN_STATEMENT_LEGACY);
     
     lStatement.setString("hash", pScriptSQL.getHash());    
     lStatement.setString("patch_label", mPatchScript.getPatchLabel());
@@ -249,7 +357,7 @@ public class PatchRunController {
     lStatement.executeUpdate();    
     lStatement.close();
     
-    lConnection.commit(); 
+    mDatabaseConnection.commitLoggingConnection(false);
   }
   
   /**
@@ -263,7 +371,7 @@ public class PatchRunController {
         ScriptSQL lScriptSQL = (ScriptSQL) pScriptExecutable;
       
         Connection lConnection = mDatabaseConnection.getLoggingConnection();    
-        CallableStatement lStatement = lConnection.prepareCall(SQLManager.getSQLByName(SQLManager.SQL_FILE_UPDATE_PATCH_RUN_STATEMENT));
+        CallableStatement lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_UPDATE_PATCH_RUN_STATEMENT);
         
         lStatement.setString("status", pWasSuccess ? "COMPLETE" : "FAILED");
         lStatement.setInt   ("patch_run_id", mPatchRunId);    
@@ -272,7 +380,7 @@ public class PatchRunController {
         lStatement.executeUpdate();
         lStatement.close();
         
-        lConnection.commit(); 
+        mDatabaseConnection.commitLoggingConnection(true);
       }
     }
     catch (SQLException e) {
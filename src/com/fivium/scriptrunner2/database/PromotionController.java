@@ -2,24 +2,35 @@ package com.fivium.scriptrunner2.database;
 
 
 import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.PatchScript;
 import com.fivium.scriptrunner2.PromotionFile;
 import com.fivium.scriptrunner2.database.sql.SQLManager;
 import com.fivium.scriptrunner2.ex.ExFatalError;
 import com.fivium.scriptrunner2.ex.ExInternal;
 import com.fivium.scriptrunner2.ex.ExPromote;
+import com.fivium.scriptrunner2.install.Installer;
 import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
+import com.fivium.scriptrunner2.util.XFUtil;
 
-import java.math.BigDecimal;
+import java.io.StringReader;
 
 import java.sql.CallableStatement;
 import java.sql.Clob;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 
+import org.apache.commons.dbutils.handlers.MapListHandler;
+
+
 /**
  * Provides methods for starting and finishing a promote, including the promotion of PromotionFiles (not PatchScripts).
  * Holds stateful information about the current promote's internal and external IDs.
@@ -28,6 +39,17 @@ public class PromotionController {
   
   private final String mPromotionLabel;
   private final DatabaseConnection mDatabaseConnection;
+  /** If false, the log tables are as created by the install patch and have not had any update patches applied */
+  private final boolean mUseUpdatedSchema;
+  /** If true, the ScriptRunner version check is performed as part of the start promote call */
+  private final boolean mCheckVersion;
+  
+  /** Status rows for files previously promoted under this label, keyed by {@link #statusKey}. Null if not loaded. */
+  private Map<String, Map<String, Object>> mFileStatusSnapshot = null;
+  /** Status rows for previous runs of patches in this promotion, keyed by {@link #statusKey}. Null if not loaded. */
+  private Map<String, Map<String, Object>> mPatchStatusSnapshot = null;
+  /** Latest deployment under any label of each file path in a -delta promote, keyed by path. Null if not loaded. */
+  private Map<String, Map<String, Object>> mDeploymentSnapshot = null;
   
   private int mPromotionRunId;
   
@@ -40,8 +62,117 @@ public class PromotionController {
    * @param pPromotionLabel Promotion label to be promoted.
    */
   public PromotionController(DatabaseConnection pDatabaseConnection, String pPromotionLabel){
+    this(pDatabaseConnection, pPromotionLabel, true);
+  }
+  
+  /**
+   * Constructs a new PromotionController for controlling the promotion of the given label.
+   * @param pDatabaseConnection Database connection to use for logging.
+   * @param pPromotionLabel Promotion label to be promoted.
+   * @param pUseUpdatedSchema True if the ScriptRunner update patches have been applied to the log tables. Use false when
+   * logging during installation, in which case archived runs are not consulted.
+   */
+  public PromotionController(DatabaseConnection pDatabaseConnection, String pPromotionLabel, boolean pUseUpdatedSchema){
+    this(pDatabaseConnection, pPromotionLabel, pUseUpdatedSchema, false);
+  }
+  
+  /**
+   * Constructs a new PromotionController for controlling the promotion of the given label.
+   * @param pDatabaseConnection Database connection to use for logging.
+   * @param pPromotionLabel Promotion label to be promoted.
+   * @param pUseUpdatedSchema True if the ScriptRunner update patches have been applied to the log tables. Use false when
+   * logging during installation, in which case archived runs are not consulted.
+   * @param pCheckVersion If true, {@link #startPromote} asserts that the latest ScriptRunner update patch run on the 
+   * database is the one expected by this version. Only applicable when using the updated schema.
+   */
+  public PromotionController(DatabaseConnection pDatabaseConnection, String pPromotionLabel, boolean pUseUpdatedSchema, boolean pCheckVersion){
     mDatabaseConnection = pDatabaseConnection;
     mPromotionLabel = pPromotionLabel;    
+    mUseUpdatedSchema = pUseUpdatedSchema;
+    mCheckVersion = pCheckVersion;
+  }
+  
+  /**
+   * Constructs a lane controller which logs files for the same promotion run as the given controller, using a different
+   * database connection.
+   * @param pParentController Controller which has started the promotion run.
+   * @param pLaneConnection Database connection to use for logging.
+   */
+  private PromotionController(PromotionController pParentController, DatabaseConnection pLaneConnection){
+    mDatabaseConnection = pLaneConnection;
+    mPromotionLabel = pParentController.mPromotionLabel;
+    mUseUpdatedSchema = pParentController.mUseUpdatedSchema;
+    mCheckVersion = false;
+    mFileStatusSnapshot = pParentController.mFileStatusSnapshot;
+    mPatchStatusSnapshot = pParentController.mPatchStatusSnapshot;
+    mDeploymentSnapshot = pParentController.mDeploymentSnapshot;
+    mPromotionRunId = pParentController.mPromotionRunId;
+    mStartTimeMS = pParentController.mStartTimeMS;
+  }
+  
+  /**
+   * Creates a controller for promoting files in a parallel lane. The new controller writes <tt>promotion_files</tt> rows
+   * for this controller's promotion run on the lane's own logging connection, and shares this controller's status 
+   * snapshots, which are not modified after the promote has started. Lane controllers must not be used to start or end 
+   * the promote.
+   * @param pLaneConnection Database connection belonging to the lane.
+   * @return New lane controller.
+   */
+  public PromotionController createLaneController(DatabaseConnection pLaneConnection){
+    return new PromotionController(this, pLaneConnection);
+  }
+  
+  /**
+   * Gets the key used to look up a row in a status snapshot map.
+   * @param pName File path or patch label.
+   * @param pNumber File index or patch number.
+   * @return Map key.
+   */
+  private static String statusKey(String pName, Object pNumber){
+    return pName + "/" + pNumber;
+  }
+  
+  /**
+   * Converts the rows of a status snapshot cursor into a map keyed by {@link #statusKey}.
+   * @param pDialect Dialect of the connection the cursor was opened on.
+   * @param pResultSet Open cursor.
+   * @param pNameColumn Column containing the file path or patch label.
+   * @param pNumberColumn Column containing the file index or patch number.
+   * @return Map of keys to rows.
+   * @throws SQLException If the cursor cannot be read.
+   */
+  private static Map<String, Map<String, Object>> readStatusSnapshot(DatabaseDialect pDialect, ResultSet pResultSet, String pNameColumn, String pNumberColumn) 
+  throws SQLException {
+    Map<String, Map<String, Object>> lSnapshot = new HashMap<String, Map<String, Object>>();
+    try {
+      for(Map<String, Object> lRow : new MapListHandler().handle(pResultSet)){
+        lSnapshot.put(statusKey((String) lRow.get(pNameColumn), pDialect.toInt(lRow.get(pNumberColumn))), lRow);
+      }
+    }
+    finally {
+      pResultSet.close();
+    }
+    return lSnapshot;
+  }
+  
+  /**
+   * Converts the rows of the deployment status cursor into a map keyed by file path.
+   * @param pResultSet Open cursor.
+   * @return Map of file paths to rows.
+   * @throws SQLException If the cursor cannot be read.
+   */
+  private static Map<String, Map<String, Object>> readDeploymentSnapshot(ResultSet pResultSet) 
+  throws SQLException {
+    Map<String, Map<String, Object>> lSnapshot = new HashMap<String, Map<String, Object>>();
+    try {
+      for(Map<String, Object> lRow : new MapListHandler().handle(pResultSet)){
+        lSnapshot.put((String) lRow.get("FILE_PATH"), lRow);
+      }
+    }
+    finally {
+      pResultSet.close();
+    }
+    return lSnapshot;
   }
   
   /**
@@ -52,7 +183,8 @@ public class PromotionController {
   protected boolean checkPromotionAllowed(Connection pConnection ){
     int lExistingPromotionCount;
     try {
-      lExistingPromotionCount = SQLManager.queryScalarInt(pConnection, SQLManager.SQL_FILE_SELECT_PROMOTION_RUN_COUNT, mPromotionLabel);
+      String lQueryName = mUseUpdatedSchema ? SQLManager.SQL_FILE_SELECT_PROMOTION_RUN_COUNT : SQLManager.SQL_FILE_SELECT_PROMOTION_RUN_COUNT_LEGACY;
+      lExistingPromotionCount = SQLManager.queryScalarInt(mDatabaseConnection.getDialect(), pConnection, lQueryName, mPromotionLabel);
     }
     catch (SQLException e) {
       throw new ExInternal("Error running promotion check SQL", e);
@@ -67,23 +199,67 @@ public class PromotionController {
    * This could be because the promotion label has already been run and is not 'ignored'.
    */
   public boolean startPromote()
+  throws ExPromote {
+    return startPromote(Collections.<String>emptySet());
+  }
+  
+  /**
+   * Validates that a promote can begin and logs the start on the database if it can. When using the updated schema, the
+   * version check, label check and run insert are performed in a single database call, which also returns the status of 
+   * all files previously promoted under this label and all previous runs of patches with the given labels. These are 
+   * then used to validate individual files and patches without further queries.
+   * @param pPatchLabels Labels of all the patches in this promotion.
+   * @return True if the promote can be started.
+   * @throws ExPromote If the promote cannot be started, as this is an error which needs to be handeled.
+   * This could be because the promotion label has already been run and is not 'ignored'.
+   */
+  public boolean startPromote(Collection<String> pPatchLabels)
+  throws ExPromote {
+    return startPromote(pPatchLabels, Collections.<String>emptySet());
+  }
+  
+  /**
+   * Validates that a promote can begin and logs the start on the database if it can, as for 
+   * {@link #startPromote(Collection)}. The latest deployment of each of the given file paths under any label is also
+   * retrieved in the same database call, for use by {@link #skipIfDeployed}.
+   * @param pPatchLabels Labels of all the patches in this promotion.
+   * @param pDeltaPaths Paths of all the files which may be skipped if they are unchanged since their last deployment.
+   * @return True if the promote can be started.
+   * @throws ExPromote If the promote cannot be started.
+   */
+  public boolean startPromote(Collection<String> pPatchLabels, Collection<String> pDeltaPaths)
   throws ExPromote {
     
     mStartTimeMS = System.currentTimeMillis();
     
     Connection lConnection = mDatabaseConnection.getLoggingConnection();
     
-    //Check if this promote has already been run at least once and no ignore flag has been set    
-    if(!checkPromotionAllowed(lConnection)){
-      throw new ExPromote("This label has already been promoted. To force a re-promotion, use the ignore flag.");
-    }
-    
-    //Insert the new promotion run record
-    try {
-      insertPromotionRunRow(lConnection);
+    if(mUseUpdatedSchema){
+      try {
+        bootstrapPromotionRun(lConnection, pPatchLabels, pDeltaPaths);
+      }
+      catch (SQLException e) {
+        //On a database which has not been updated the call can fail before it checks the version, as it refers to objects
+        //created by the update patches - check the version separately so the user is told to run -update
+        if(mCheckVersion){
+          ScriptRunnerVersion.assertLatestUpdatePatchNumber(ScriptRunnerVersion.getLatestUpdatePatchNumber(mDatabaseConnection.getDialect(), lConnection));
+        }
+        throw new ExInternal("Error running start promotion SQL", e);
+      }
     }
-    catch (SQLException e) {
-      throw new ExInternal("Error running insert promotion row SQL", e);
+    else {
+      //Check if this promote has already been run at least once and no ignore flag has been set    
+      if(!checkPromotionAllowed(lConnection)){
+        throw new ExPromote("This label has already been promoted. To force a re-promotion, use the ignore flag.");
+      }
+      
+      //Insert the new promotion run record
+      try {
+        insertPromotionRunRow(lConnection);
+      }
+      catch (SQLException e) {
+        throw new ExInternal("Error running insert promotion row SQL", e);
+      }
     }
         
     Logger.logInfo("\n*** Starting promote\n");
@@ -92,6 +268,77 @@ public class PromotionController {
     return true;
   }
   
+  /**
+   * Checks the ScriptRunner version (if required) and that this label is allowed to be promoted, then inserts the 
+   * promotion_runs row and reads the file and patch status snapshots, all in one round trip.
+   * @param pConnection Connection to use.
+   * @param pPatchLabels Labels of all the patches in this promotion.
+   * @param pDeltaPaths Paths of files to read the latest deployment of.
+   * @throws SQLException If the call fails.
+   * @throws ExPromote If the version check fails or the label has already been promoted.
+   */
+  private void bootstrapPromotionRun(Connection pConnection, Collection<String> pPatchLabels, Collection<String> pDeltaPaths) 
+  throws SQLException, ExPromote {
+    
+    DatabaseDialect lDialect = mDatabaseConnection.getDialect();
+    CallableStatement lStatement = lDialect.prepareControlCall(pConnection, SQLManager.SQL_FILE_START_PROMOTION);
+    try {
+      lStatement.setString("promotion_label", mPromotionLabel);
+      if(mCheckVersion){
+        lStatement.setInt("expected_patch", ScriptRunnerVersion.getLatestExpectedUpdatePatchNumber());
+      }
+      else {
+        lStatement.setNull("expected_patch", Types.INTEGER);
+      }
+      lStatement.setObject("patch_labels", lDialect.createStringArray(pConnection, pPatchLabels.toArray()));
+      lStatement.setObject("delta_paths", lDialect.createStringArray(pConnection, pDeltaPaths.toArray()));
+      lStatement.setString("internal_patch_label", Installer.INSTALL_PATCH_PREFIX);
+      lStatement.setString("version", ScriptRunnerVersion.getVersionNumber());
+      
+      lStatement.registerOutParameter("latest_patch", Types.INTEGER);
+      lStatement.registerOutParameter("existing_run_count", Types.INTEGER);
+      lStatement.registerOutParameter("new_id", Types.INTEGER);
+      lStatement.registerOutParameter("file_status", lDialect.getCursorType());
+      lStatement.registerOutParameter("patch_status", lDialect.getCursorType());
+      lStatement.registerOutParameter("deployment_status", lDialect.getCursorType());
+      
+      lStatement.executeUpdate();
+      
+      if(mCheckVersion){
+        ScriptRunnerVersion.assertLatestUpdatePatchNumber(lStatement.getInt("latest_patch"));
+      }
+      
+      if(lStatement.getInt("existing_run_count") > 0){
+        throw new ExPromote("This label has already been promoted. To force a re-promotion, use the ignore flag.");
+      }
+      
+      mPromotionRunId = lStatement.getInt("new_id");
+      
+      mFileStatusSnapshot = readStatusSnapshot(lDialect, (ResultSet) lStatement.getObject("file_status"), "FILE_PATH", "FILE_INDEX");
+      mPatchStatusSnapshot = readStatusSnapshot(lDialect, (ResultSet) lStatement.getObject("patch_status"), "PATCH_LABEL", "PATCH_NUMBER");
+      mDeploymentSnapshot = readDeploymentSnapshot((ResultSet) lStatement.getObject("deployment_status"));
+    }
+    finally {
+      lStatement.close();
+    }
+    
+    mDatabaseConnection.commitLoggingConnection(false);
+  }
+  
+  /**
+   * Gets the status of previous runs of the given patch from the snapshot taken when this promotion started, in the same
+   * form as the result of the patch run count query.
+   * @param pPatchScript Patch to get the status of.
+   * @return Status row, an empty map if the patch has never been run, or null if no snapshot was taken.
+   */
+  Map<String, Object> getSnapshotPatchRunStatus(PatchScript pPatchScript){
+    if(mPatchStatusSnapshot == null){
+      return null;
+    }
+    Map<String, Object> lRow = mPatchStatusSnapshot.get(statusKey(pPatchScript.getPatchLabel(), pPatchScript.getPatchNumber()));
+    return lRow != null ? lRow : Collections.<String, Object>emptyMap();
+  }
+  
   /**
    * Inserts a row into the promotion_runs table.
    * @param pConnection Connection to use.
@@ -100,8 +347,7 @@ public class PromotionController {
   private void insertPromotionRunRow(Connection pConnection) 
   throws SQLException {
     //Prepare the call
-    String lStatementString = SQLManager.getSQLByName(SQLManager.SQL_FILE_INSERT_PROMOTION_RUN);    
-    CallableStatement lStatement = pConnection.prepareCall(lStatementString);
+    CallableStatement lStatement = mDatabaseConnection.prepareControlCall(pConnection, SQLManager.SQL_FILE_INSERT_PROMOTION_RUN);
     
     //Set params
     lStatement.setString("promotion_label", mPromotionLabel);
@@ -115,7 +361,7 @@ public class PromotionController {
     
     lStatement.close();
     
-    pConnection.commit();
+    mDatabaseConnection.commitLoggingConnection(false);
   }
   
   /**
@@ -129,10 +375,18 @@ public class PromotionController {
     Clob lClob;
     Connection lConnection = mDatabaseConnection.getLoggingConnection();
     
-    String lStatementString = SQLManager.getSQLByName(SQLManager.SQL_FILE_UPDATE_PROMOTION_RUN);    
-    CallableStatement lStatement;    
-
-    lStatement = lConnection.prepareCall(lStatementString);
+    JDBCStatistics lStatistics = mDatabaseConnection.getStatistics();
+    if(lStatistics != null){
+      //Statistics are only diagnostic so a failure to record them must not stop the run being marked as finished
+      try {
+        recordStatistics(lConnection, lStatistics.getSummary());
+      }
+      catch (SQLException e) {
+        Logger.logWarning("Failed to record JDBC statistics on promotion run: " + e.getMessage());
+      }
+    }
+    
+    CallableStatement lStatement = mDatabaseConnection.prepareControlCall(lConnection, SQLManager.SQL_FILE_UPDATE_PROMOTION_RUN);
     
     lStatement.setString("status", pWasSuccess ? "COMPLETE" : "FAILED");
     lStatement.setInt("id", mPromotionRunId);
@@ -152,13 +406,35 @@ public class PromotionController {
     
     lStatement.close();
     
-    lConnection.commit();
+    mDatabaseConnection.commitLoggingConnection(true);
     mDatabaseConnection.closeLoggingConnection();
     
     Logger.logInfo("\n*** Promotion finished in " + (System.currentTimeMillis() - mStartTimeMS) / 1000  + " seconds\n");
     
   }
   
+  /**
+   * Writes the JDBC statistics summary to the log and to the promotion_runs row.
+   * @param pConnection Logging connection.
+   * @param pSummary Statistics summary.
+   * @throws SQLException If the row cannot be updated.
+   */
+  private void recordStatistics(Connection pConnection, String pSummary) 
+  throws SQLException {
+    
+    Logger.logInfo("\n" + pSummary);
+    
+    PreparedStatement lStatement = pConnection.prepareStatement(mDatabaseConnection.getControlSQL(SQLManager.SQL_FILE_UPDATE_PROMOTION_RUN_STATISTICS));
+    try {
+      lStatement.setClob(1, new StringReader(pSummary));
+      lStatement.setInt(2, mPromotionRunId);
+      lStatement.executeUpdate();
+    }
+    finally {
+      lStatement.close();
+    }
+  }
+  
   /**
    * Internal property object for passing around the result of querying the promotion_files table.
    */
@@ -169,11 +445,14 @@ public class PromotionController {
     final boolean mIsRerun;
     /** The file hash of the last instance of the file to be promoted. Can be empty. */
     final String mPreviousHash;
+    /** The file hash of the last instance of the file to be promoted successfully, or skipped as unchanged. Can be empty. */
+    final String mLastSuccessHash;
     
-    FilePromoteStatus(boolean pIsPromoteAllowed, boolean pIsRerun, String pPreviousHash){
+    FilePromoteStatus(boolean pIsPromoteAllowed, boolean pIsRerun, String pPreviousHash, String pLastSuccessHash){
       mIsPromoteAllowed = pIsPromoteAllowed;
       mIsRerun = pIsRerun;
       mPreviousHash = pPreviousHash;
+      mLastSuccessHash = pLastSuccessHash;
     }
   }
   
@@ -189,32 +468,45 @@ public class PromotionController {
     boolean lIsPromoteAllowed;
     boolean lIsRerun;
     String lPreviousHash;
-    try {
-      lResultMap = SQLManager.queryMap(pConnection, SQLManager.SQL_FILE_SELECT_PROMOTION_FILE_COUNT, 
-                                       mPromotionLabel, pPromotionFile.getFilePath(), pPromotionFile.getFileIndex());
+    String lLastSuccessHash;
+    if(mFileStatusSnapshot != null){
+      //Use the snapshot taken at the start of the promote
+      lResultMap = mFileStatusSnapshot.get(statusKey(pPromotionFile.getFilePath(), pPromotionFile.getFileIndex()));
+      if(lResultMap == null){
+        lResultMap = Collections.emptyMap();
+      }
+    }
+    else {
+      try {
+        lResultMap = SQLManager.queryMap(mDatabaseConnection.getDialect(), pConnection, SQLManager.SQL_FILE_SELECT_PROMOTION_FILE_COUNT, 
+                                         mPromotionLabel, pPromotionFile.getFilePath(), pPromotionFile.getFileIndex());
+      }
+      catch (SQLException e) {
+        throw new ExFatalError("Error querying status for file " + pPromotionFile.getFilePath());
+      }    
     }
-    catch (SQLException e) {
-      throw new ExFatalError("Error querying status for file " + pPromotionFile.getFilePath());
-    }    
     
     //Check if at least 1 row was founrd
     if(lResultMap.get("IGNORED_COUNT") != null){    
       //Set the re-run flag to true if any ignore runs exist
-      lIsRerun = ((BigDecimal) lResultMap.get("IGNORED_COUNT")).intValue() > 0;  
+      lIsRerun = mDatabaseConnection.getDialect().toInt(lResultMap.get("IGNORED_COUNT")) > 0;  
       
       //Return true if there are 0 non-ignored previous runs
-      lIsPromoteAllowed = ((BigDecimal) lResultMap.get("NOT_IGNORED_COUNT")).intValue() == 0;
+      lIsPromoteAllowed = mDatabaseConnection.getDialect().toInt(lResultMap.get("NOT_IGNORED_COUNT")) == 0;
       
       lPreviousHash = (String) lResultMap.get("LAST_FILE_HASH");
+      
+      lLastSuccessHash = XFUtil.nvl((String) lResultMap.get("LAST_SUCCESS_FILE_HASH"), "");
     }
     else {
       //No existing rows - this won't be a re-run, and is allowed
       lIsRerun = false;
       lIsPromoteAllowed = true;
       lPreviousHash = "";
+      lLastSuccessHash = "";
     }
     
-    return new FilePromoteStatus(lIsPromoteAllowed, lIsRerun, lPreviousHash);    
+    return new FilePromoteStatus(lIsPromoteAllowed, lIsRerun, lPreviousHash, lLastSuccessHash);    
   }
   
   /**
@@ -240,6 +532,87 @@ public class PromotionController {
     return true;
   }
   
+  /**
+   * Tests if a file is allowed to be promoted but has the same hash as the last time it was successfully promoted under
+   * this label. If so, a log row is written with a SKIPPED_UNCHANGED status and the file should not be promoted.
+   * @param pPromotionFile File about to be promoted.
+   * @return True if the file was logged as unchanged and should be skipped, false if it should be promoted as normal.
+   */
+  public boolean skipIfUnchanged(PromotionFile pPromotionFile){
+    
+    Connection lConnection = mDatabaseConnection.getLoggingConnection();
+    
+    FilePromoteStatus lStatus = getFilePromoteStatus(pPromotionFile, lConnection);
+    if(!lStatus.mIsPromoteAllowed || XFUtil.isNull(lStatus.mLastSuccessHash) || !lStatus.mLastSuccessHash.equals(pPromotionFile.getFileHash())){
+      return false;
+    }
+    
+    int lRunFileId = insertPromotionRunFile(lConnection, pPromotionFile);
+    pPromotionFile.setPromotionFileId(lRunFileId);
+    updatePromotionRunFileStatus(pPromotionFile, "SKIPPED_UNCHANGED");
+    
+    return true;
+  }
+  
+  /**
+   * Gets the label under which the given file was last deployed, if the file is unchanged since that deployment and it
+   * succeeded. Deployments under any label are considered, excluding ignored rows. A file whose latest deployment failed
+   * is never treated as deployed, even if an earlier deployment of the same contents succeeded.
+   * @param pPromotionFile File to check.
+   * @param pConnection Connection to use if no deployment snapshot was taken.
+   * @return The label of the matching deployment, or null if the file has changed or was not successfully deployed.
+   */
+  protected String getUnchangedDeploymentLabel(PromotionFile pPromotionFile, Connection pConnection){
+    Map<String, Object> lResultMap;
+    if(mDeploymentSnapshot != null){
+      lResultMap = mDeploymentSnapshot.get(pPromotionFile.getFilePath());
+      if(lResultMap == null){
+        return null;
+      }
+    }
+    else {
+      try {
+        lResultMap = SQLManager.queryMap(mDatabaseConnection.getDialect(), pConnection, SQLManager.SQL_FILE_SELECT_LAST_FILE_DEPLOYMENT, pPromotionFile.getFilePath(), pPromotionFile.getFilePath());
+      }
+      catch (SQLException e) {
+        throw new ExFatalError("Error querying last deployment of file " + pPromotionFile.getFilePath(), e);
+      }
+    }
+    
+    String lLastStatus = (String) lResultMap.get("LAST_STATUS");
+    if(!"COMPLETE".equals(lLastStatus) && !"SKIPPED_UNCHANGED".equals(lLastStatus)){
+      return null;
+    }
+    
+    return pPromotionFile.getFileHash().equals(lResultMap.get("LAST_FILE_HASH")) ? (String) lResultMap.get("LAST_PROMOTION_LABEL") : null;
+  }
+  
+  /**
+   * Tests if a file is allowed to be promoted but has the same hash as its latest successful deployment under any label.
+   * If so, a log row is written with a SKIPPED_UNCHANGED status and the file should not be promoted. This is used by 
+   * -delta promotes.
+   * @param pPromotionFile File about to be promoted.
+   * @return The label the file was last deployed under if it was logged as unchanged and should be skipped, or null if 
+   * it should be promoted as normal.
+   */
+  public String skipIfDeployed(PromotionFile pPromotionFile){
+    
+    Connection lConnection = mDatabaseConnection.getLoggingConnection();
+    
+    if(!getFilePromoteStatus(pPromotionFile, lConnection).mIsPromoteAllowed){
+      return null;
+    }
+    
+    String lDeployedLabel = getUnchangedDeploymentLabel(pPromotionFile, lConnection);
+    if(lDeployedLabel != null){
+      int lRunFileId = insertPromotionRunFile(lConnection, pPromotionFile);
+      pPromotionFile.setPromotionFileId(lRunFileId);
+      updatePromotionRunFileStatus(pPromotionFile, "SKIPPED_UNCHANGED");
+    }
+    
+    return lDeployedLabel;
+  }
+  
   /**
    * Inserts a new row into the <tt>promotion_files</tt> table and returns the new row's ID column.
    * @param pConnection Connection to use.
@@ -247,10 +620,9 @@ public class PromotionController {
    * @return New ID.
    */
   private int insertPromotionRunFile(Connection pConnection, PromotionFile pPromotionFile){
-    String lStatementString = SQLManager.getSQLByName(SQLManager.SQL_FILE_INSERT_PROMOTION_FILE);    
     CallableStatement lStatement;    
     try {
-      lStatement = pConnection.prepareCall(lStatementString);
+      lStatement = mDatabaseConnection.prepareControlCall(pConnection, SQLManager.SQL_FILE_INSERT_PROMOTION_FILE);
       
       lStatement.setInt("run_id", mPromotionRunId);
       lStatement.setString("label", mPromotionLabel);
@@ -264,7 +636,7 @@ public class PromotionController {
       lStatement.registerOutParameter("new_id", Types.INTEGER);
       
       lStatement.executeUpdate();
-      pConnection.commit();
+      mDatabaseConnection.commitLoggingConnection(false);
       
       int lNewId = lStatement.getInt("new_id");
       lStatement.close();
@@ -282,10 +654,19 @@ public class PromotionController {
    * @param pWasSuccess True if the promotion was successful, false otherwise.
    */
   public void finaliseFilePromote(PromotionFile pPromotionFile, boolean pWasSuccess){
+    updatePromotionRunFileStatus(pPromotionFile, pWasSuccess ? "COMPLETE" : "FAILED");
+  }
+  
+  /**
+   * Sets the final status of a file's log row.
+   * @param pPromotionFile File which has been logged.
+   * @param pStatus New status.
+   */
+  private void updatePromotionRunFileStatus(PromotionFile pPromotionFile, String pStatus){
     try {
       Connection lConnection = mDatabaseConnection.getLoggingConnection();
-      SQLManager.executeUpdate(lConnection, SQLManager.SQL_FILE_UPDATE_PROMOTION_FILE, pWasSuccess ? "COMPLETE" : "FAILED", pPromotionFile.getPromotionFileId());
-      lConnection.commit();
+      SQLManager.executeUpdate(mDatabaseConnection.getDialect(), lConnection, SQLManager.SQL_FILE_UPDATE_PROMOTION_FILE, pStatus, pPromotionFile.getPromotionFileId());
+      mDatabaseConnection.commitLoggingConnection(true);
     }
     catch (SQLException e) {
       throw new ExFatalError("Error updating promotion run file row for file " + pPromotionFile.getFilePath(), e);
@@ -0,0 +1,95 @@
+DECLARE
+  l_run_ids SYS.ODCINUMBERLIST;
+  p_cutoff DATE := SYSDATE - :days;
+  p_internal_patch_label VARCHAR2(200) := :internal_patch_label;
+BEGIN
+
+  -- Lock the finished runs which are old enough to be archived so the set cannot change while rows are moved. Runs which
+  -- logged ScriptRunner's own install or update patches are kept, as the version check relies on them.
+  SELECT pr.id
+  BULK COLLECT INTO l_run_ids
+  FROM promotion_runs pr
+  WHERE pr.start_datetime < p_cutoff
+  AND pr.status IN ('COMPLETE', 'FAILED')
+  AND NOT EXISTS (
+    SELECT 1
+    FROM patch_runs r
+    WHERE r.promotion_run_id = pr.id
+    AND r.patch_label = p_internal_patch_label
+  )
+  FOR UPDATE;
+  
+  :promotion_run_count := l_run_ids.COUNT;
+  :promotion_file_count := 0;
+  :patch_run_count := 0;
+  :statement_count := 0;
+  
+  IF l_run_ids.COUNT = 0 THEN
+    RETURN;
+  END IF;
+  
+  -- Direct path inserts so the archive rows are written compressed
+  INSERT /*+ APPEND */ INTO patch_run_statements_archive
+  SELECT prs.*
+  FROM patch_run_statements prs
+  WHERE prs.patch_run_id IN (
+    SELECT r.id
+    FROM patch_runs r
+    WHERE r.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids))
+  );
+  
+  :statement_count := SQL%ROWCOUNT;
+  
+  INSERT /*+ APPEND */ INTO patch_runs_archive
+  SELECT r.*
+  FROM patch_runs r
+  WHERE r.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids));
+  
+  :patch_run_count := SQL%ROWCOUNT;
+  
+  INSERT /*+ APPEND */ INTO promotion_file_errors_archive
+  SELECT fe.*
+  FROM promotion_file_errors fe
+  WHERE fe.promotion_file_id IN (
+    SELECT f.id
+    FROM promotion_files f
+    WHERE f.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids))
+  );
+  
+  INSERT /*+ APPEND */ INTO promotion_files_archive
+  SELECT f.*
+  FROM promotion_files f
+  WHERE f.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids));
+  
+  :promotion_file_count := SQL%ROWCOUNT;
+  
+  INSERT /*+ APPEND */ INTO promotion_runs_archive
+  SELECT pr.*
+  FROM promotion_runs pr
+  WHERE pr.id IN (SELECT column_value FROM TABLE(l_run_ids));
+  
+  -- Remove from the hot tables, children first
+  DELETE FROM patch_run_statements prs
+  WHERE prs.patch_run_id IN (
+    SELECT r.id
+    FROM patch_runs r
+    WHERE r.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids))
+  );
+  
+  DELETE FROM patch_runs r
+  WHERE r.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids));
+  
+  DELETE FROM promotion_file_errors fe
+  WHERE fe.promotion_file_id IN (
+    SELECT f.id
+    FROM promotion_files f
+    WHERE f.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids))
+  );
+  
+  DELETE FROM promotion_files f
+  WHERE f.promotion_run_id IN (SELECT column_value FROM TABLE(l_run_ids));
+  
+  DELETE FROM promotion_runs pr
+  WHERE pr.id IN (SELECT column_value FROM TABLE(l_run_ids));
+  
+END;
\ No newline at end of file
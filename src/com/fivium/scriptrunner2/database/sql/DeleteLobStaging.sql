@@ -0,0 +1,2 @@
+DELETE FROM promotion_lob_staging
+WHERE promotion_run_id = :run_id
\ No newline at end of file
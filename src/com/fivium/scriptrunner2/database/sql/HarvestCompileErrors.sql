@@ -0,0 +1,43 @@
+DECLARE
+  l_file_ids SYS.ODCINUMBERLIST := :file_ids;
+  l_owners SYS.ODCIVARCHAR2LIST := :owners;
+  l_names SYS.ODCIVARCHAR2LIST := :names;
+  l_types SYS.ODCIVARCHAR2LIST := :types;
+BEGIN
+
+  -- Objects without an explicit owner were created in the promotion user's schema
+  FORALL i IN 1 .. l_file_ids.COUNT
+    INSERT INTO promotion_file_errors (
+      promotion_file_id
+    , owner
+    , object_name
+    , object_type
+    , object_status
+    , line
+    , position
+    , attribute
+    , error_text
+    )
+    SELECT
+      l_file_ids(i)
+    , o.owner
+    , o.object_name
+    , o.object_type
+    , o.status
+    , e.line
+    , e.position
+    , e.attribute
+    , SUBSTR(e.text, 1, 4000)
+    FROM all_objects o
+    LEFT JOIN all_errors e
+    ON e.owner = o.owner
+    AND e.name = o.object_name
+    AND e.type = o.object_type
+    WHERE o.owner = NVL(l_owners(i), SYS_CONTEXT('USERENV', 'CURRENT_SCHEMA'))
+    AND o.object_name = l_names(i)
+    AND o.object_type = l_types(i)
+    AND (o.status = 'INVALID' OR e.name IS NOT NULL);
+  
+  :row_count := SQL%ROWCOUNT;
+  
+END;
\ No newline at end of file
@@ -0,0 +1,21 @@
+BEGIN
+
+  MERGE INTO file_texts ft
+  USING (SELECT :hash file_hash FROM dual) q1
+  ON (ft.file_hash = q1.file_hash)
+  WHEN NOT MATCHED THEN INSERT (
+    file_hash
+  , created_timestamp
+  , file_contents
+  )
+  VALUES (
+    q1.file_hash
+  , SYSTIMESTAMP
+  , :file
+  );
+
+EXCEPTION
+  --Another promote inserted the same text after this one checked for it - the existing row is identical
+  WHEN DUP_VAL_ON_INDEX THEN
+    NULL;
+END;
\ No newline at end of file
@@ -0,0 +1,19 @@
+BEGIN
+
+  INSERT INTO promotion_lob_staging (
+    promotion_run_id
+  , content_key
+  , created_timestamp
+  , blob_content
+  , clob_content
+  )
+  VALUES (
+    :run_id
+  , :content_key
+  , SYSTIMESTAMP
+  , :blob_content
+  , :clob_content
+  )
+  RETURNING blob_content, clob_content INTO :blob_locator, :clob_locator;
+
+END;
\ No newline at end of file
@@ -1,8 +1,9 @@
 DECLARE
   l_new_id NUMBER;
-  l_existing_run_count NUMBER;
+  l_text_count NUMBER;
   p_patch_label VARCHAR2(100) := :patch_label;
   p_patch_number NUMBER := :patch_number;
+  p_hash VARCHAR2(1000) := :hash;
 BEGIN
 
   MERGE INTO patches p
@@ -34,7 +35,6 @@ BEGIN
   , status
   , file_hash
   , file_version
-  , file_contents
   )
   VALUES (
     patch_runs_seq.nextval
@@ -46,12 +46,19 @@ BEGIN
   , :load_seq
   , SYSTIMESTAMP
   , 'STARTED'
-  , :hash
+  , p_hash
   , :version
-  , :file
   )
   RETURNING id INTO l_new_id;
   
   :patch_id := l_new_id;  
   
+  --Tell the caller if the file contents need to be stored
+  SELECT COUNT(*)
+  INTO l_text_count
+  FROM file_texts
+  WHERE file_hash = p_hash;
+  
+  :file_text_exists := l_text_count;
+  
 END;
\ No newline at end of file
@@ -1,20 +1,35 @@
-INSERT INTO patch_run_statements (
-  statement_hash
-, patch_label
-, patch_number
-, patch_run_id
-, script_sequence
-, start_timestamp
-, status
-, statement_sql
-)
-VALUES (
-  :hash
-, :patch_label
-, :patch_number
-, :patch_run_id
-, :script_seq
-, SYSTIMESTAMP
-, 'STARTED'
-, :sql
-)
\ No newline at end of file
+DECLARE
+  l_text_count NUMBER;
+  p_sql_hash VARCHAR2(1000) := :sql_hash;
+BEGIN
+
+  INSERT INTO patch_run_statements (
+    statement_hash
+  , patch_label
+  , patch_number
+  , patch_run_id
+  , script_sequence
+  , start_timestamp
+  , status
+  , statement_sql_hash
+  )
+  VALUES (
+    :hash
+  , :patch_label
+  , :patch_number
+  , :patch_run_id
+  , :script_seq
+  , SYSTIMESTAMP
+  , 'STARTED'
+  , p_sql_hash
+  );
+  
+  --Tell the caller if the statement text needs to be stored
+  SELECT COUNT(*)
+  INTO l_text_count
+  FROM statement_texts
+  WHERE statement_sql_hash = p_sql_hash;
+  
+  :sql_text_exists := l_text_count;
+  
+END;
\ No newline at end of file
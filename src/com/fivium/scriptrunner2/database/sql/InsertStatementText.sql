@@ -0,0 +1,21 @@
+BEGIN
+
+  MERGE INTO statement_texts st
+  USING (SELECT :sql_hash statement_sql_hash FROM dual) q1
+  ON (st.statement_sql_hash = q1.statement_sql_hash)
+  WHEN NOT MATCHED THEN INSERT (
+    statement_sql_hash
+  , created_timestamp
+  , statement_sql
+  )
+  VALUES (
+    q1.statement_sql_hash
+  , SYSTIMESTAMP
+  , :sql
+  );
+
+EXCEPTION
+  --Another promote inserted the same text after this one checked for it - the existing row is identical
+  WHEN DUP_VAL_ON_INDEX THEN
+    NULL;
+END;
\ No newline at end of file
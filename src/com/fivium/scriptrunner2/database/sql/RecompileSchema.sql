@@ -0,0 +1,3 @@
+BEGIN
+  DBMS_UTILITY.COMPILE_SCHEMA(NVL(:schema, SYS_CONTEXT('USERENV', 'CURRENT_SCHEMA')), FALSE);
+END;
\ No newline at end of file
@@ -0,0 +1,3 @@
+BEGIN
+  UTL_RECOMP.RECOMP_PARALLEL(:threads, NVL(:schema, SYS_CONTEXT('USERENV', 'CURRENT_SCHEMA')));
+END;
\ No newline at end of file
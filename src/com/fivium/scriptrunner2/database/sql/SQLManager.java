@@ -1,12 +1,11 @@
 package com.fivium.scriptrunner2.database.sql;
 
 
+import com.fivium.scriptrunner2.database.DatabaseDialect;
 import com.fivium.scriptrunner2.ex.ExInternal;
 
 import java.io.IOException;
 
-import java.math.BigDecimal;
-
 import java.sql.Connection;
 import java.sql.SQLException;
 
@@ -21,19 +20,27 @@ import org.apache.commons.io.IOUtils;
 
 /**
  * Utility class for accessing and executing internal SQL files. SQL files in this package should be accessed by methods
- * on this class.
+ * on this class. The files are written for Oracle; the executing methods read SQL from the given dialect so other
+ * dialects can provide their own versions.
  */
 public class SQLManager {
   
   public static final String SQL_FILE_SELECT_PROMOTION_RUN_COUNT = "SelectPromotionRunCount.sql";  
+  public static final String SQL_FILE_SELECT_PROMOTION_RUN_COUNT_LEGACY = "SelectPromotionRunCountLegacy.sql";  
   public static final String SQL_FILE_SELECT_PROMOTION_FILE_COUNT = "SelectPromotionFileCount.sql";  
+  public static final String SQL_FILE_SELECT_LAST_FILE_DEPLOYMENT = "SelectLastFileDeployment.sql";
   
   public static final String SQL_FILE_SELECT_PATCH_RUN_COUNT = "SelectPatchRunCount.sql";  
+  public static final String SQL_FILE_SELECT_PATCH_RUN_COUNT_LEGACY = "SelectPatchRunCountLegacy.sql";  
   public static final String SQL_FILE_INSERT_PATCH_RUN = "InsertPatchRun.sql";
+  public static final String SQL_FILE_INSERT_PATCH_RUN_LEGACY = "InsertPatchRunLegacy.sql";
+  public static final String SQL_FILE_INSERT_FILE_TEXT = "InsertFileText.sql";
   public static final String SQL_FILE_UPDATE_PATCH_RUN = "UpdatePatchRun.sql";
   
   public static final String SQL_FILE_SELECT_PATCH_RUN_STATEMENT_COUNT = "SelectPatchRunStatementCount.sql";  
   public static final String SQL_FILE_INSERT_PATCH_RUN_STATEMENT = "InsertPatchRunStatement.sql";
+  public static final String SQL_FILE_INSERT_PATCH_RUN_STATEMENT_LEGACY = "InsertPatchRunStatementLegacy.sql";
+  public static final String SQL_FILE_INSERT_STATEMENT_TEXT = "InsertStatementText.sql";
   public static final String SQL_FILE_UPDATE_PATCH_RUN_STATEMENT = "UpdatePatchRunStatement.sql";
 
   public static final String SQL_FILE_INSERT_PROMOTION_FILE = "InsertPromotionFile.sql";
@@ -41,9 +48,22 @@ public class SQLManager {
   
   public static final String SQL_FILE_INSERT_PROMOTION_RUN = "InsertPromotionRun.sql";
   public static final String SQL_FILE_UPDATE_PROMOTION_RUN = "UpdatePromotionRun.sql";
+  public static final String SQL_FILE_UPDATE_PROMOTION_RUN_STATISTICS = "UpdatePromotionRunStatistics.sql";
+  public static final String SQL_FILE_START_PROMOTION = "StartPromotion.sql";
   
   public static final String SQL_FILE_VERSION_CHECK = "ScriptRunnerVersionCheck.sql";
   
+  public static final String SQL_FILE_ARCHIVE_PROMOTION_RUNS = "ArchivePromotionRuns.sql";
+  
+  public static final String SQL_FILE_INSERT_LOB_STAGING = "InsertLobStaging.sql";
+  public static final String SQL_FILE_DELETE_LOB_STAGING = "DeleteLobStaging.sql";
+  
+  public static final String SQL_FILE_SELECT_OBJECT_STATUS = "SelectObjectStatus.sql";
+  public static final String SQL_FILE_HARVEST_COMPILE_ERRORS = "HarvestCompileErrors.sql";
+  public static final String SQL_FILE_SELECT_COMPILE_ERROR_SUMMARY = "SelectCompileErrorSummary.sql";
+  public static final String SQL_FILE_RECOMPILE_SCHEMA_PARALLEL = "RecompileSchemaParallel.sql";
+  public static final String SQL_FILE_RECOMPILE_SCHEMA = "RecompileSchema.sql";
+  
   /**
    * Gets the SQL String from the contents of the file specified.
    * @param pSQLFileName Filename string (see constants on this class).
@@ -62,44 +82,48 @@ public class SQLManager {
   
   /**
    * Executes a SQL DDL/DML statement.
+   * @param pDialect Dialect to read the SQL from.
    * @param pDBConnection Connection to use.
    * @param pSQLFileName Name of SQL file to execute (see constants on this class).
    * @param pParams Params to bind into the statement.
    * @return Number of rows affected.
    * @throws SQLException If the query cannot be executed.
    */
-  public static int executeUpdate(Connection pDBConnection, String pSQLFileName, Object... pParams) 
+  public static int executeUpdate(DatabaseDialect pDialect, Connection pDBConnection, String pSQLFileName, Object... pParams) 
   throws SQLException {
-    String lSQLString = getSQLByName(pSQLFileName);
+    String lSQLString = pDialect.getControlSQL(pSQLFileName);
     return new QueryRunner().update(pDBConnection, lSQLString, pParams);
   }
   
   /**
    * Runs a query which returns a single integer result.
+   * @param pDialect Dialect to read the SQL from.
    * @param pDBConnection Connection to use.
    * @param pSQLFileName Name of SQL file to execute (see constants on this class).
    * @param pParams Params to bind into the statement.
    * @return The integer result of running the query.
    * @throws SQLException If the query cannot be executed.
    */
-  public static int queryScalarInt(Connection pDBConnection, String pSQLFileName, Object... pParams) 
+  public static int queryScalarInt(DatabaseDialect pDialect, Connection pDBConnection, String pSQLFileName, Object... pParams) 
   throws SQLException {
-    String lSQLString = getSQLByName(pSQLFileName);
-    ResultSetHandler<BigDecimal> lHandler = new ScalarHandler<BigDecimal>();
+    String lSQLString = pDialect.getControlSQL(pSQLFileName);
+    //Number types vary between drivers
+    ResultSetHandler<Number> lHandler = new ScalarHandler<Number>();
     return new QueryRunner().query(pDBConnection, lSQLString, lHandler, pParams).intValue();
   }
   
   /**
    * Runs a query which returns a single row presented as a map of column names to values.
+   * @param pDialect Dialect to read the SQL from.
    * @param pDBConnection Connection to use.
    * @param pSQLFileName Name of SQL file to execute (see constants on this class).
    * @param pParams Params to bind into the statement.
    * @return Map result
    * @throws SQLException If the query cannot be executed.
    */
-  public static Map<String, Object> queryMap(Connection pDBConnection, String pSQLFileName, Object... pParams) 
+  public static Map<String, Object> queryMap(DatabaseDialect pDialect, Connection pDBConnection, String pSQLFileName, Object... pParams) 
   throws SQLException {
-    String lSQLString = getSQLByName(pSQLFileName);
+    String lSQLString = pDialect.getControlSQL(pSQLFileName);
     ResultSetHandler<Map<String, Object>> lHandler = new MapHandler();
     return new QueryRunner().query(pDBConnection, lSQLString, lHandler, pParams);
   }
@@ -0,0 +1,21 @@
+SELECT
+  f.file_path
+, e.owner
+, e.object_name
+, e.object_type
+, e.object_status
+, COUNT(CASE WHEN e.attribute = 'ERROR' THEN 1 END) error_count
+, COUNT(CASE WHEN e.attribute = 'WARNING' THEN 1 END) warning_count
+, MIN(CASE WHEN e.attribute = 'ERROR' THEN e.line || '/' || e.position || ' ' || e.error_text END) KEEP (DENSE_RANK FIRST ORDER BY CASE WHEN e.attribute = 'ERROR' THEN e.line END NULLS LAST, e.position) first_error
+FROM promotion_file_errors e
+JOIN promotion_files f
+ON f.id = e.promotion_file_id
+WHERE f.promotion_run_id = :run_id
+GROUP BY
+  f.load_sequence
+, f.file_path
+, e.owner
+, e.object_name
+, e.object_type
+, e.object_status
+ORDER BY f.load_sequence, e.owner, e.object_name, e.object_type
\ No newline at end of file
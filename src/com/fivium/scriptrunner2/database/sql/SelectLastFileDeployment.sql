@@ -0,0 +1,16 @@
+WITH all_files AS (
+  SELECT f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files f
+  WHERE f.file_path = ?
+  AND f.ignore_flag IS NULL
+  UNION ALL
+  SELECT f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files_archive f
+  WHERE f.file_path = ?
+  AND f.ignore_flag IS NULL
+)
+SELECT
+  MAX(promotion_label) KEEP (DENSE_RANK LAST ORDER BY promotion_start_timestamp) last_promotion_label
+, MAX(file_hash) KEEP (DENSE_RANK LAST ORDER BY promotion_start_timestamp) last_file_hash
+, MAX(status) KEEP (DENSE_RANK LAST ORDER BY promotion_start_timestamp) last_status
+FROM all_files
\ No newline at end of file
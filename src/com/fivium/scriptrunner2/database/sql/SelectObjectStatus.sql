@@ -0,0 +1,7 @@
+SELECT
+  owner
+, status
+FROM all_objects
+WHERE owner = NVL(:owner, SYS_CONTEXT('USERENV', 'CURRENT_SCHEMA'))
+AND object_name = :name
+AND object_type = :type
\ No newline at end of file
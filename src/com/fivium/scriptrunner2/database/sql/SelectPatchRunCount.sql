@@ -1,10 +1,25 @@
-WITH q1 AS (
+WITH params AS (
+  SELECT
+    ? patch_label
+  , ? patch_number
+  FROM dual
+)
+, all_runs AS (
+  SELECT pr.patch_label, pr.patch_number, pr.ignore_flag, pr.file_hash, pr.start_timestamp
+  FROM patch_runs pr, params p
+  WHERE pr.patch_label = p.patch_label
+  AND pr.patch_number = p.patch_number
+  UNION ALL
+  SELECT pr.patch_label, pr.patch_number, pr.ignore_flag, pr.file_hash, pr.start_timestamp
+  FROM patch_runs_archive pr, params p
+  WHERE pr.patch_label = p.patch_label
+  AND pr.patch_number = p.patch_number
+)
+, q1 AS (
   SELECT
     pr.*
   , FIRST_VALUE(file_hash) OVER (PARTITION BY patch_label, patch_number ORDER BY start_timestamp DESC) last_file_hash
-  FROM patch_runs pr
-  WHERE patch_label = ?
-  AND patch_number = ?
+  FROM all_runs pr
 )
 SELECT 
   SUM(CASE WHEN ignore_flag = 'Y' THEN 1 ELSE 0 END) ignored_count
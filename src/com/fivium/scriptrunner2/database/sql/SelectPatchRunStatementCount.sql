@@ -1,6 +1,23 @@
+WITH params AS (
+  SELECT
+    ? patch_label
+  , ? patch_number
+  , ? statement_hash
+  FROM dual
+)
 SELECT COUNT(*)
-FROM patch_run_statements
-WHERE patch_label = ?
-AND patch_number = ?
-AND statement_hash = ?
-AND ignore_flag IS NULL
\ No newline at end of file
+FROM (
+  SELECT 1
+  FROM patch_run_statements prs, params p
+  WHERE prs.patch_label = p.patch_label
+  AND prs.patch_number = p.patch_number
+  AND prs.statement_hash = p.statement_hash
+  AND prs.ignore_flag IS NULL
+  UNION ALL
+  SELECT 1
+  FROM patch_run_statements_archive prs, params p
+  WHERE prs.patch_label = p.patch_label
+  AND prs.patch_number = p.patch_number
+  AND prs.statement_hash = p.statement_hash
+  AND prs.ignore_flag IS NULL
+)
\ No newline at end of file
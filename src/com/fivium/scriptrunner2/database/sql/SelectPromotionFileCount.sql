@@ -1,14 +1,33 @@
-WITH q1 AS (
+WITH params AS (
+  SELECT
+    ? promotion_label
+  , ? file_path
+  , ? file_index
+  FROM dual
+)
+, all_files AS (
+  SELECT f.promotion_label, f.file_path, f.ignore_flag, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files f, params p
+  WHERE f.promotion_label = p.promotion_label
+  AND f.file_path = p.file_path
+  AND f.file_index = p.file_index
+  UNION ALL
+  SELECT f.promotion_label, f.file_path, f.ignore_flag, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files_archive f, params p
+  WHERE f.promotion_label = p.promotion_label
+  AND f.file_path = p.file_path
+  AND f.file_index = p.file_index
+)
+, q1 AS (
   SELECT
     FIRST_VALUE(file_hash) OVER (PARTITION BY promotion_label, file_path ORDER BY promotion_start_timestamp DESC) last_file_hash
   , f.*
-  FROM promotion_files f
-  WHERE promotion_label = ?
-  AND file_path = ?
-  AND file_index = ?
+  FROM all_files f
 )
 SELECT 
   SUM(CASE WHEN ignore_flag = 'Y' THEN 1 ELSE 0 END) ignored_count
 , SUM(CASE WHEN ignore_flag = 'Y' THEN 0 ELSE 1 END) not_ignored_count
 , MAX(last_file_hash) last_file_hash --MAX() to flatten
+, MAX(CASE WHEN status IN ('COMPLETE', 'SKIPPED_UNCHANGED') THEN file_hash END) 
+    KEEP (DENSE_RANK LAST ORDER BY CASE WHEN status IN ('COMPLETE', 'SKIPPED_UNCHANGED') THEN promotion_start_timestamp END NULLS FIRST) last_success_file_hash
 FROM q1
\ No newline at end of file
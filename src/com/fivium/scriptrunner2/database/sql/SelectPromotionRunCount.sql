@@ -1,4 +1,16 @@
+WITH params AS (
+  SELECT ? promotion_label
+  FROM dual
+)
 SELECT COUNT(*)
-FROM promotion_runs
-WHERE promotion_label = ?
-AND ignore_flag IS NULL
\ No newline at end of file
+FROM (
+  SELECT 1
+  FROM promotion_runs pr, params p
+  WHERE pr.promotion_label = p.promotion_label
+  AND pr.ignore_flag IS NULL
+  UNION ALL
+  SELECT 1
+  FROM promotion_runs_archive pr, params p
+  WHERE pr.promotion_label = p.promotion_label
+  AND pr.ignore_flag IS NULL
+)
\ No newline at end of file
@@ -0,0 +1,4 @@
+SELECT COUNT(*)
+FROM promotion_runs
+WHERE promotion_label = ?
+AND ignore_flag IS NULL
\ No newline at end of file
@@ -0,0 +1,150 @@
+DECLARE
+  l_new_id NUMBER;
+  l_latest_patch NUMBER;
+  l_existing_run_count NUMBER;
+  p_label VARCHAR2(200) := :promotion_label;
+  p_expected_patch NUMBER := :expected_patch;
+  p_patch_labels SYS.ODCIVARCHAR2LIST := :patch_labels;
+  p_delta_paths SYS.ODCIVARCHAR2LIST := :delta_paths;
+BEGIN
+
+  -- ScriptRunner version check (skipped if no expected patch number is given)
+  SELECT NVL(MAX(patch_number), 0)
+  INTO l_latest_patch
+  FROM patch_runs
+  WHERE patch_label = :internal_patch_label
+  AND ignore_flag IS NULL;
+  
+  :latest_patch := l_latest_patch;
+  
+  IF p_expected_patch IS NOT NULL AND l_latest_patch != p_expected_patch THEN
+    RETURN;
+  END IF;
+  
+  -- Check the label has not already been promoted
+  SELECT COUNT(*)
+  INTO l_existing_run_count
+  FROM (
+    SELECT 1
+    FROM promotion_runs
+    WHERE promotion_label = p_label
+    AND ignore_flag IS NULL
+    UNION ALL
+    SELECT 1
+    FROM promotion_runs_archive
+    WHERE promotion_label = p_label
+    AND ignore_flag IS NULL
+  );
+  
+  :existing_run_count := l_existing_run_count;
+  
+  IF l_existing_run_count > 0 THEN
+    RETURN;
+  END IF;
+
+  MERGE INTO promotion_labels pl
+  USING (
+    SELECT p_label label FROM dual
+  ) q1
+  ON (q1.label = pl.label)
+  WHEN NOT MATCHED THEN INSERT (label, created_datetime, last_promoted_datetime)
+  VALUES (p_label, SYSDATE, SYSDATE)
+  WHEN MATCHED THEN UPDATE
+  SET pl.last_promoted_datetime = SYSDATE;
+
+  INSERT INTO promotion_runs(
+    id
+  , promotion_label  
+  , scriptrunner_version
+  , start_datetime  
+  , status
+  , output_log
+  )
+  VALUES (
+    promotion_runs_seq.nextval
+  , p_label
+  , :version
+  , SYSDATE
+  , 'STARTED'
+  , EMPTY_CLOB()
+  )
+  RETURNING id INTO l_new_id;
+  
+  :new_id := l_new_id;
+  
+  -- Status of every file previously promoted under this label, in the same form as SelectPromotionFileCount.sql
+  OPEN :file_status FOR
+  WITH all_files AS (
+    SELECT f.file_path, f.file_index, f.ignore_flag, f.file_hash, f.status, f.promotion_start_timestamp
+    FROM promotion_files f
+    WHERE f.promotion_label = p_label
+    UNION ALL
+    SELECT f.file_path, f.file_index, f.ignore_flag, f.file_hash, f.status, f.promotion_start_timestamp
+    FROM promotion_files_archive f
+    WHERE f.promotion_label = p_label
+  )
+  , q1 AS (
+    SELECT
+      FIRST_VALUE(file_hash) OVER (PARTITION BY file_path, file_index ORDER BY promotion_start_timestamp DESC) last_file_hash
+    , f.*
+    FROM all_files f
+  )
+  SELECT
+    file_path
+  , file_index
+  , SUM(CASE WHEN ignore_flag = 'Y' THEN 1 ELSE 0 END) ignored_count
+  , SUM(CASE WHEN ignore_flag = 'Y' THEN 0 ELSE 1 END) not_ignored_count
+  , MAX(last_file_hash) last_file_hash
+  , MAX(CASE WHEN status IN ('COMPLETE', 'SKIPPED_UNCHANGED') THEN file_hash END) 
+      KEEP (DENSE_RANK LAST ORDER BY CASE WHEN status IN ('COMPLETE', 'SKIPPED_UNCHANGED') THEN promotion_start_timestamp END NULLS FIRST) last_success_file_hash
+  FROM q1
+  GROUP BY file_path, file_index;
+  
+  -- Status of every patch run for the patch labels in this promotion, in the same form as SelectPatchRunCount.sql
+  OPEN :patch_status FOR
+  WITH all_runs AS (
+    SELECT pr.patch_label, pr.patch_number, pr.ignore_flag, pr.file_hash, pr.start_timestamp
+    FROM patch_runs pr
+    WHERE pr.patch_label IN (SELECT column_value FROM TABLE(p_patch_labels))
+    UNION ALL
+    SELECT pr.patch_label, pr.patch_number, pr.ignore_flag, pr.file_hash, pr.start_timestamp
+    FROM patch_runs_archive pr
+    WHERE pr.patch_label IN (SELECT column_value FROM TABLE(p_patch_labels))
+  )
+  , q1 AS (
+    SELECT
+      pr.*
+    , FIRST_VALUE(file_hash) OVER (PARTITION BY patch_label, patch_number ORDER BY start_timestamp DESC) last_file_hash
+    FROM all_runs pr
+  )
+  SELECT
+    patch_label
+  , patch_number
+  , SUM(CASE WHEN ignore_flag = 'Y' THEN 1 ELSE 0 END) ignored_count
+  , SUM(CASE WHEN ignore_flag = 'Y' THEN 0 ELSE 1 END) not_ignored_count
+  , MAX(last_file_hash) last_file_hash
+  FROM q1
+  GROUP BY patch_label, patch_number;
+  
+  -- Latest deployment under any label of each path in a -delta promote, in the same form as SelectLastFileDeployment.sql
+  OPEN :deployment_status FOR
+  WITH all_files AS (
+    SELECT f.file_path, f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+    FROM promotion_files f
+    WHERE f.file_path IN (SELECT column_value FROM TABLE(p_delta_paths))
+    AND f.ignore_flag IS NULL
+    UNION ALL
+    SELECT f.file_path, f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+    FROM promotion_files_archive f
+    WHERE f.file_path IN (SELECT column_value FROM TABLE(p_delta_paths))
+    AND f.ignore_flag IS NULL
+  )
+  SELECT
+    file_path
+  , MAX(promotion_label) KEEP (DENSE_RANK LAST ORDER BY promotion_start_timestamp) last_promotion_label
+  , MAX(file_hash) KEEP (DENSE_RANK LAST ORDER BY promotion_start_timestamp) last_file_hash
+  , MAX(status) KEEP (DENSE_RANK LAST ORDER BY promotion_start_timestamp) last_status
+  FROM all_files
+  GROUP BY file_path;
+  
+END;
\ No newline at end of file
@@ -0,0 +1,3 @@
+UPDATE promotion_runs
+SET jdbc_statistics = :jdbc_statistics
+WHERE id = :id
\ No newline at end of file
@@ -0,0 +1,23 @@
+WITH all_files AS (
+  SELECT f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files f
+  WHERE f.file_path = ?
+  AND f.ignore_flag IS NULL
+  UNION ALL
+  SELECT f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files_archive f
+  WHERE f.file_path = ?
+  AND f.ignore_flag IS NULL
+)
+, q1 AS (
+  SELECT
+    ROW_NUMBER() OVER (ORDER BY promotion_start_timestamp DESC) rn
+  , f.*
+  FROM all_files f
+)
+SELECT
+  MAX(promotion_label) last_promotion_label --MAX() over the latest row so a row is returned when there are no deployments
+, MAX(file_hash) last_file_hash
+, MAX(status) last_status
+FROM q1
+WHERE rn = 1
\ No newline at end of file
@@ -0,0 +1,22 @@
+WITH all_runs AS (
+  SELECT pr.patch_label, pr.patch_number, pr.ignore_flag, pr.file_hash, pr.start_timestamp
+  FROM patch_runs pr
+  WHERE pr.patch_label = ?1
+  AND pr.patch_number = ?2
+  UNION ALL
+  SELECT pr.patch_label, pr.patch_number, pr.ignore_flag, pr.file_hash, pr.start_timestamp
+  FROM patch_runs_archive pr
+  WHERE pr.patch_label = ?1
+  AND pr.patch_number = ?2
+)
+, q1 AS (
+  SELECT
+    pr.*
+  , FIRST_VALUE(file_hash) OVER (ORDER BY start_timestamp DESC) last_file_hash
+  FROM all_runs pr
+)
+SELECT 
+  SUM(CASE WHEN ignore_flag = 'Y' THEN 1 ELSE 0 END) ignored_count
+, SUM(CASE WHEN ignore_flag = 'Y' THEN 0 ELSE 1 END) not_ignored_count
+, MAX(last_file_hash) last_file_hash
+FROM q1
\ No newline at end of file
@@ -0,0 +1,16 @@
+SELECT COUNT(*)
+FROM (
+  SELECT 1
+  FROM patch_run_statements prs
+  WHERE prs.patch_label = ?1
+  AND prs.patch_number = ?2
+  AND prs.statement_hash = ?3
+  AND prs.ignore_flag IS NULL
+  UNION ALL
+  SELECT 1
+  FROM patch_run_statements_archive prs
+  WHERE prs.patch_label = ?1
+  AND prs.patch_number = ?2
+  AND prs.statement_hash = ?3
+  AND prs.ignore_flag IS NULL
+)
\ No newline at end of file
@@ -0,0 +1,27 @@
+WITH all_files AS (
+  SELECT f.promotion_label, f.file_path, f.ignore_flag, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files f
+  WHERE f.promotion_label = ?1
+  AND f.file_path = ?2
+  AND f.file_index = ?3
+  UNION ALL
+  SELECT f.promotion_label, f.file_path, f.ignore_flag, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files_archive f
+  WHERE f.promotion_label = ?1
+  AND f.file_path = ?2
+  AND f.file_index = ?3
+)
+, q1 AS (
+  SELECT
+    FIRST_VALUE(file_hash) OVER (ORDER BY promotion_start_timestamp DESC) last_file_hash
+  , FIRST_VALUE(CASE WHEN status IN ('COMPLETE', 'SKIPPED_UNCHANGED') THEN file_hash END) 
+      OVER (ORDER BY CASE WHEN status IN ('COMPLETE', 'SKIPPED_UNCHANGED') THEN promotion_start_timestamp END DESC NULLS LAST) last_success_file_hash
+  , f.*
+  FROM all_files f
+)
+SELECT 
+  SUM(CASE WHEN ignore_flag = 'Y' THEN 1 ELSE 0 END) ignored_count
+, SUM(CASE WHEN ignore_flag = 'Y' THEN 0 ELSE 1 END) not_ignored_count
+, MAX(last_file_hash) last_file_hash --MAX() to flatten
+, MAX(last_success_file_hash) last_success_file_hash
+FROM q1
\ No newline at end of file
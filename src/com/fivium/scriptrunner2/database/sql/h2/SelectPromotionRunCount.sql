@@ -0,0 +1,12 @@
+SELECT COUNT(*)
+FROM (
+  SELECT 1
+  FROM promotion_runs pr
+  WHERE pr.promotion_label = ?1
+  AND pr.ignore_flag IS NULL
+  UNION ALL
+  SELECT 1
+  FROM promotion_runs_archive pr
+  WHERE pr.promotion_label = ?1
+  AND pr.ignore_flag IS NULL
+)
\ No newline at end of file
@@ -0,0 +1,25 @@
+-- Latest deployment under any label of each of the given paths, in the same form as SelectLastFileDeployment.sql
+WITH all_files AS (
+  SELECT f.file_path, f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files f
+  WHERE f.file_path = ANY(?1)
+  AND f.ignore_flag IS NULL
+  UNION ALL
+  SELECT f.file_path, f.promotion_label, f.file_hash, f.status, f.promotion_start_timestamp
+  FROM promotion_files_archive f
+  WHERE f.file_path = ANY(?1)
+  AND f.ignore_flag IS NULL
+)
+, q1 AS (
+  SELECT
+    ROW_NUMBER() OVER (PARTITION BY file_path ORDER BY promotion_start_timestamp DESC) rn
+  , f.*
+  FROM all_files f
+)
+SELECT
+  file_path
+, promotion_label last_promotion_label
+, file_hash last_file_hash
+, status last_status
+FROM q1
+WHERE rn = 1
\ No newline at end of file
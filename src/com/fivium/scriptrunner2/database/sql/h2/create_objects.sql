@@ -0,0 +1,218 @@
+-- ScriptRunner control tables for the H2 dialect. These are the tables created by install/create_objects.sql with 
+-- every update patch applied, without the Oracle storage clauses, function based indexes or DDL trigger. Columns added
+-- by update patches are kept at the end of their tables so the archive tables have the same column order.
+
+CREATE TABLE promotion_labels (
+  label VARCHAR(200) PRIMARY KEY
+, created_datetime TIMESTAMP NOT NULL
+, last_promoted_datetime TIMESTAMP NOT NULL
+)
+/
+
+CREATE TABLE promotion_runs (
+  id INT PRIMARY KEY
+, promotion_label VARCHAR(200) NOT NULL REFERENCES promotion_labels(label)
+, scriptrunner_version VARCHAR(100) NOT NULL
+, ignore_flag VARCHAR(1) CHECK (ignore_flag IS NULL OR ignore_flag = 'Y')
+, start_datetime TIMESTAMP NOT NULL
+, end_datetime TIMESTAMP
+, status VARCHAR(10) CHECK (status IN('STARTED', 'COMPLETE', 'FAILED'))
+, output_log CLOB
+, jdbc_statistics CLOB
+)
+/
+
+CREATE INDEX promotion_runs_idx1
+ON promotion_runs(promotion_label)
+/
+
+CREATE SEQUENCE promotion_runs_seq
+/
+
+CREATE TABLE promotion_files (
+  id INT PRIMARY KEY
+, promotion_run_id INT NOT NULL REFERENCES promotion_runs(id)
+, promotion_label VARCHAR(200) NOT NULL REFERENCES promotion_labels(label)
+, file_path VARCHAR(4000) NOT NULL
+, ignore_flag VARCHAR(1) CHECK (ignore_flag IS NULL OR ignore_flag = 'Y')
+, promotion_start_timestamp TIMESTAMP NOT NULL
+, promotion_end_timestamp TIMESTAMP
+, status VARCHAR(20) NOT NULL CHECK (status IN('STARTED', 'COMPLETE', 'FAILED', 'SKIPPED_UNCHANGED'))
+, load_sequence INT NOT NULL
+, loader_name VARCHAR(500) NOT NULL
+, file_hash VARCHAR(1000) NOT NULL
+, file_version VARCHAR(4000)
+, file_index INT NOT NULL
+)
+/
+
+CREATE INDEX promotion_files_idx1
+ON promotion_files(promotion_run_id)
+/
+
+CREATE INDEX promotion_files_idx2
+ON promotion_files(promotion_label)
+/
+
+CREATE INDEX promotion_files_idx3
+ON promotion_files(file_path, promotion_start_timestamp)
+/
+
+CREATE SEQUENCE promotion_files_seq
+/
+
+CREATE TABLE patches (
+  patch_label VARCHAR(200)
+, patch_number INT
+, created_datetime TIMESTAMP NOT NULL
+, last_run_datetime TIMESTAMP NOT NULL
+, PRIMARY KEY (patch_label, patch_number)
+)
+/
+
+CREATE TABLE patch_runs (
+  id INT PRIMARY KEY
+, patch_label VARCHAR(200) NOT NULL
+, patch_number INT NOT NULL
+, patch_description VARCHAR(4000) NOT NULL
+, ignore_flag VARCHAR(1) CHECK (ignore_flag IS NULL OR ignore_flag = 'Y')
+, promotion_run_id INT NOT NULL REFERENCES promotion_runs(id)
+, promotion_label VARCHAR(200) NOT NULL REFERENCES promotion_labels(label)
+, promotion_load_sequence INT NOT NULL
+, start_timestamp TIMESTAMP NOT NULL
+, end_timestamp TIMESTAMP
+, status VARCHAR(10) NOT NULL CHECK (status IN('STARTED', 'COMPLETE', 'FAILED'))
+, file_hash VARCHAR(1000) NOT NULL
+, file_version VARCHAR(4000)
+, file_contents CLOB
+, output_log CLOB
+, FOREIGN KEY (patch_label, patch_number) REFERENCES patches(patch_label, patch_number)
+)
+/
+
+CREATE INDEX patch_runs_idx1
+ON patch_runs(patch_label, patch_number)
+/
+
+CREATE INDEX patch_runs_idx2
+ON patch_runs(promotion_label)
+/
+
+CREATE INDEX patch_runs_idx3
+ON patch_runs(promotion_run_id)
+/
+
+CREATE SEQUENCE patch_runs_seq
+/
+
+CREATE TABLE patch_run_statements (
+  statement_hash VARCHAR(1000) NOT NULL
+, patch_label VARCHAR(200) NOT NULL
+, patch_number INT NOT NULL
+, patch_run_id INT NOT NULL REFERENCES patch_runs(id)
+, ignore_flag VARCHAR(1) CHECK (ignore_flag IS NULL OR ignore_flag = 'Y')
+, script_sequence INT NOT NULL
+, start_timestamp TIMESTAMP NOT NULL
+, end_timestamp TIMESTAMP
+, status VARCHAR(10) NOT NULL CHECK (status IN('STARTED', 'COMPLETE', 'FAILED'))
+, statement_sql CLOB
+, statement_sql_hash VARCHAR(1000) NOT NULL
+, FOREIGN KEY (patch_label, patch_number) REFERENCES patches(patch_label, patch_number)
+)
+/
+
+CREATE INDEX patch_run_statements_idx1
+ON patch_run_statements(statement_hash)
+/
+
+CREATE INDEX patch_run_statements_idx2
+ON patch_run_statements(patch_label, patch_number)
+/
+
+CREATE INDEX patch_run_statements_idx3
+ON patch_run_statements(patch_run_id)
+/
+
+CREATE INDEX patch_run_statements_idx4
+ON patch_run_statements(statement_sql_hash)
+/
+
+CREATE TABLE statement_texts (
+  statement_sql_hash VARCHAR(1000) PRIMARY KEY
+, created_timestamp TIMESTAMP NOT NULL
+, statement_sql CLOB NOT NULL
+)
+/
+
+CREATE TABLE file_texts (
+  file_hash VARCHAR(1000) PRIMARY KEY
+, created_timestamp TIMESTAMP NOT NULL
+, file_contents CLOB NOT NULL
+)
+/
+
+CREATE TABLE promotion_runs_archive AS SELECT * FROM promotion_runs WHERE 1 = 0
+/
+
+CREATE INDEX promotion_runs_archive_idx1
+ON promotion_runs_archive(promotion_label)
+/
+
+CREATE TABLE promotion_files_archive AS SELECT * FROM promotion_files WHERE 1 = 0
+/
+
+CREATE INDEX promotion_files_archive_idx1
+ON promotion_files_archive(promotion_label, file_path, file_index)
+/
+
+CREATE INDEX promotion_files_archive_idx2
+ON promotion_files_archive(file_path, promotion_start_timestamp)
+/
+
+CREATE TABLE patch_runs_archive AS SELECT * FROM patch_runs WHERE 1 = 0
+/
+
+CREATE INDEX patch_runs_archive_idx1
+ON patch_runs_archive(patch_label, patch_number)
+/
+
+CREATE TABLE patch_run_statements_archive AS SELECT * FROM patch_run_statements WHERE 1 = 0
+/
+
+CREATE INDEX patch_run_statements_archive_idx1
+ON patch_run_statements_archive(patch_label, patch_number, statement_hash)
+/
+
+CREATE TABLE promotion_lob_staging (
+  promotion_run_id INT NOT NULL
+, content_key VARCHAR(1000) NOT NULL
+, created_timestamp TIMESTAMP NOT NULL
+, blob_content BLOB
+, clob_content CLOB
+, PRIMARY KEY (promotion_run_id, content_key)
+)
+/
+
+CREATE TABLE promotion_file_errors (
+  promotion_file_id INT NOT NULL
+, owner VARCHAR(128) NOT NULL
+, object_name VARCHAR(128) NOT NULL
+, object_type VARCHAR(30) NOT NULL
+, object_status VARCHAR(7) NOT NULL
+, line INT
+, position INT
+, attribute VARCHAR(9)
+, error_text VARCHAR(4000)
+)
+/
+
+CREATE INDEX promotion_file_errors_idx1
+ON promotion_file_errors(promotion_file_id)
+/
+
+CREATE TABLE promotion_file_errors_archive AS SELECT * FROM promotion_file_errors WHERE 1 = 0
+/
+
+CREATE INDEX promotion_file_errors_archive_idx1
+ON promotion_file_errors_archive(promotion_file_id)
+/
\ No newline at end of file
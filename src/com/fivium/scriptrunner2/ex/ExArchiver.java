@@ -0,0 +1,22 @@
+package com.fivium.scriptrunner2.ex;
+
+/**
+ * Exception class for errors caused by the ScriptRunner archiver.
+ */
+public class ExArchiver extends ExRoot {
+  public ExArchiver() {
+    super();
+  }
+
+  public ExArchiver(String pString) {
+    super(pString);
+  }
+
+  public ExArchiver(String pString, Throwable pThrowable) {
+    super(pString, pThrowable);
+  }
+
+  public ExArchiver(Throwable pThrowable) {
+    super(pThrowable);
+  }
+}
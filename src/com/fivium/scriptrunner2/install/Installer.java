@@ -120,8 +120,9 @@ public class Installer {
     PatchScript lInstallPatch = runInstallPatch(lDatabaseConnection, lPromoteUserName, CREATE_OBJECTS_FILE_NAME);
     
     //Log the success in the patch tables we just created
-    PromotionController lPromotionController = new PromotionController(lDatabaseConnection, INSTALL_PROMOTION_LABEL);
-    PatchRunController lPatchRunController = new PatchRunController(lDatabaseConnection, lPromotionController, lInstallPatch);
+    //The update patches have not run yet, so log against the tables exactly as the install patch created them
+    PromotionController lPromotionController = new PromotionController(lDatabaseConnection, INSTALL_PROMOTION_LABEL, false);
+    PatchRunController lPatchRunController = new PatchRunController(lDatabaseConnection, lPromotionController, lInstallPatch, false);
     try {
       lPromotionController.startPromote();
       lPatchRunController.validateAndStartPatchRun();
@@ -1,6 +1,8 @@
 package com.fivium.scriptrunner2.loader;
 
 
+import com.fivium.scriptrunner2.CommandLineOption;
+import com.fivium.scriptrunner2.CompileSchedule;
 import com.fivium.scriptrunner2.Logger;
 import com.fivium.scriptrunner2.PromotionFile;
 import com.fivium.scriptrunner2.ScriptRunner;
@@ -10,7 +12,10 @@ import com.fivium.scriptrunner2.ex.ExPromote;
 import com.fivium.scriptrunner2.script.ScriptExecutable;
 import com.fivium.scriptrunner2.script.ScriptExecutableParser;
 import com.fivium.scriptrunner2.script.ScriptSQL;
+import com.fivium.scriptrunner2.script.parser.ParsedStatement;
+import com.fivium.scriptrunner2.script.parser.ScriptParser;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import java.util.List;
@@ -25,6 +30,11 @@ import org.apache.commons.io.FileUtils;
 public class DatabaseSourceLoader 
 extends SourceLoader {
 
+  /** 
+   * Property which forces a file to be promoted in a -delta promote, even if it is unchanged since it was last deployed.
+   */
+  public static final String FORCE_PROMOTE_PROPERTY_NAME = "force_promote";
+
   private boolean implicitCommit = false;
 
   /**
@@ -43,12 +53,31 @@ extends SourceLoader {
     this.implicitCommit = pImplicitCommit;
   }
 
+  /**
+   * In a -delta promote, also skips the file if it is unchanged since its latest successful deployment under any label,
+   * unless the <tt>force_promote</tt> property is set.
+   */
   @Override
-  public void doPromote(ScriptRunner pScriptRunner, PromotionFile pFile)
-  throws ExPromote {
+  protected boolean skipIfUnchanged(ScriptRunner pScriptRunner, PromotionFile pPromotionFile){
+    if(pScriptRunner.hasCommandLineOption(CommandLineOption.DELTA) && 
+       !"true".equals(pPromotionFile.getPropertyMap().get(FORCE_PROMOTE_PROPERTY_NAME))){
+      String lDeployedLabel = pScriptRunner.getPromotionController().skipIfDeployed(pPromotionFile);
+      if(lDeployedLabel != null){
+        Logger.logInfo("Skipping " + pPromotionFile.getSequencePosition() + ": " + pPromotionFile.getFilePath() + " - unchanged since deployed in label " + lDeployedLabel);
+        return true;
+      }
+    }
+    return super.skipIfUnchanged(pScriptRunner, pPromotionFile);
+  }
 
-    long lStart = System.currentTimeMillis();
-    Logger.logInfo("\nPromote DatabaseSource " + pFile.getFilePath());
+  /**
+   * Reads and parses a DatabaseSource file, and validates that it only contains SQL. The objects the file defines and
+   * refers to are recorded on the PromotionFile from the same parse, for compile scheduling and error harvesting.
+   */
+  @Override
+  public PreparedFile prepareFile(ScriptRunner pScriptRunner, PromotionFile pFile)
+  throws ExPromote {
+    
     //Read the DBSource file in
     String lFileContents;
     try {
@@ -58,15 +87,16 @@ extends SourceLoader {
       throw new ExFatalError("Failed to read contents of file " + pFile.getFilePath(), e);
     }
 
-    List<ScriptExecutable> lExecutableList;
+    List<ParsedStatement> lParsedStatementList;
     try {
-      lExecutableList = ScriptExecutableParser.parseScriptExecutables(lFileContents, false);
+      lParsedStatementList = ScriptParser.parse(lFileContents);
     }
     catch (ExParser e) {
       throw new ExFatalError("Failed to read contents of file " + pFile.getFilePath() + ": " + e.getMessage(), e);
     }
     
-    Logger.logDebug("Validating source file");
+    List<ScriptExecutable> lExecutableList = ScriptExecutableParser.parseScriptExecutables(lParsedStatementList, false);
+    pFile.setSourceReferences(CompileSchedule.parseReferences(lParsedStatementList));
     
     //Validate contents
     for(ScriptExecutable lExecutable : lExecutableList){
@@ -76,6 +106,31 @@ extends SourceLoader {
       }
     }
     
+    return new ParsedSource(lExecutableList);
+  }
+  
+  /**
+   * The file's contents are held as Java strings, which use 2 bytes per character.
+   */
+  @Override
+  public long estimatePreparedSize(ScriptRunner pScriptRunner, PromotionFile pFile){
+    try {
+      return pScriptRunner.resolveFile(pFile.getFilePath()).length() * 2;
+    }
+    catch (FileNotFoundException e) {
+      return 0;
+    }
+  }
+
+  @Override
+  public void doPromote(ScriptRunner pScriptRunner, PromotionFile pFile)
+  throws ExPromote {
+
+    long lStart = System.currentTimeMillis();
+    Logger.logInfo("\nPromote DatabaseSource " + pFile.getFilePath());
+    
+    List<ScriptExecutable> lExecutableList = ((ParsedSource) getPreparedFile(pScriptRunner, pFile)).mExecutableList;
+    
     try {
       for(ScriptExecutable lExecutable : lExecutableList){
         lExecutable.execute(pScriptRunner.getDatabaseConnection());
@@ -92,5 +147,18 @@ extends SourceLoader {
     Logger.logInfo("OK (took " + lTime + "ms)");
     
   }
+  
+  /**
+   * The validated statements parsed from a DatabaseSource file.
+   */
+  private static class ParsedSource
+  implements PreparedFile {
+    
+    private final List<ScriptExecutable> mExecutableList;
+    
+    ParsedSource(List<ScriptExecutable> pExecutableList){
+      mExecutableList = pExecutableList;
+    }
+  }
 
 }
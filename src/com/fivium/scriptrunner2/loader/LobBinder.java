@@ -0,0 +1,368 @@
+package com.fivium.scriptrunner2.loader;
+
+
+import com.fivium.scriptrunner2.CommandLineOption;
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.ManifestEntry;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.ex.ExInternal;
+import com.fivium.scriptrunner2.ex.ExLoader;
+import com.fivium.scriptrunner2.util.XFUtil;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.List;
+
+
+/**
+ * Binds the contents of promotion files into statements as BLOBs or CLOBs. Files are read through a file channel in
+ * chunks of a configurable size and are bound with their exact length where it is known without reading the file, so
+ * the driver does not need to discover the length by buffering the stream itself. CLOBs in multibyte character sets are
+ * bound without a length, so each file is only read once. Files at or above the temporary LOB threshold are written into a temporary
+ * LOB on the promotion connection before binding, which avoids the driver's own piecewise handling of very large
+ * streams. These temporary LOBs are freed when the bind's Closeables are closed.<br/><br/>
+ *
+ * CLOBs are decoded using the character set given in the file's <tt>clob_charset</tt> property, or the platform default
+ * character set if the property is not specified.<br/><br/>
+ *
+ * If a file's hash check has been deferred, the bytes read for the bind are hashed as they are read and a 
+ * {@link DeferredHashCheck} is added to the bind's Closeables, which must be verified after execution and before commit.
+ */
+public class LobBinder {
+
+  /** Property which specifies the character set to use when decoding a file for a CLOB bind. */
+  public static final String CLOB_CHARSET_PROPERTY_NAME = "clob_charset";
+
+  /** Default number of bytes to read from a file at a time. */
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  /** Default file size in bytes at which a temporary LOB is used for the bind. */
+  public static final long DEFAULT_TEMPORARY_LOB_THRESHOLD = 32L * 1024 * 1024;
+
+  private final int mChunkSize;
+  private final long mTemporaryLobThreshold;
+
+  /**
+   * Creates a LobBinder using the -lobchunksize and -lobtempthreshold command line options, falling back to the defaults
+   * if they are not specified.
+   * @param pCommandLineWrapper Command line options for the current run.
+   * @return New LobBinder.
+   * @throws ExFatalError If either option is not a positive integer.
+   */
+  public static LobBinder createFromCommandLine(CommandLineWrapper pCommandLineWrapper)
+  throws ExFatalError {
+    long lChunkSize = parseSizeOption(pCommandLineWrapper, CommandLineOption.LOB_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+    if(lChunkSize > Integer.MAX_VALUE){
+      throw new ExFatalError("-" + CommandLineOption.LOB_CHUNK_SIZE.getArgString() + " argument is too large");
+    }
+
+    long lThreshold = parseSizeOption(pCommandLineWrapper, CommandLineOption.LOB_TEMPORARY_THRESHOLD, DEFAULT_TEMPORARY_LOB_THRESHOLD);
+
+    return new LobBinder((int) lChunkSize, lThreshold);
+  }
+
+  private static long parseSizeOption(CommandLineWrapper pCommandLineWrapper, CommandLineOption pOption, long pDefault){
+    String lValue = pCommandLineWrapper.getOption(pOption);
+    if(XFUtil.isNull(lValue)){
+      return pDefault;
+    }
+
+    long lSize;
+    try {
+      lSize = Long.parseLong(lValue.trim());
+    }
+    catch (NumberFormatException e) {
+      throw new ExFatalError("-" + pOption.getArgString() + " argument must be a number of bytes, got '" + lValue + "'", e);
+    }
+
+    if(lSize < 1){
+      throw new ExFatalError("-" + pOption.getArgString() + " argument must be a positive number of bytes, got '" + lValue + "'");
+    }
+
+    return lSize;
+  }
+
+  /**
+   * Creates a new LobBinder.
+   * @param pChunkSize Number of bytes to read from a file at a time.
+   * @param pTemporaryLobThreshold File size in bytes at which the file is written into a temporary LOB.
+   */
+  public LobBinder(int pChunkSize, long pTemporaryLobThreshold) {
+    mChunkSize = pChunkSize;
+    mTemporaryLobThreshold = pTemporaryLobThreshold;
+  }
+
+  /**
+   * Resolves the character set to use for a CLOB bind from the given property value.
+   * @param pCharsetName Value of the clob_charset property. Can be null.
+   * @return The named character set, or the platform default if no name is given.
+   * @throws ExLoader If the character set is not valid or not supported.
+   */
+  public static Charset resolveCharset(String pCharsetName)
+  throws ExLoader {
+    if(XFUtil.isNull(pCharsetName)){
+      return Charset.defaultCharset();
+    }
+
+    try {
+      return Charset.forName(pCharsetName.trim());
+    }
+    catch (IllegalCharsetNameException e) {
+      throw new ExLoader("Invalid " + CLOB_CHARSET_PROPERTY_NAME + " property value '" + pCharsetName + "'", e);
+    }
+    catch (UnsupportedCharsetException e) {
+      throw new ExLoader("Unsupported " + CLOB_CHARSET_PROPERTY_NAME + " property value '" + pCharsetName + "'", e);
+    }
+  }
+
+  /**
+   * Binds the contents of a file into a statement as a BLOB.
+   * @param pStatement Statement to bind into.
+   * @param pIndex Bind index.
+   * @param pFile File to bind.
+   * @param pDeferredHash Expected hash of the file if its hash check has been deferred, otherwise null.
+   * @param pCloseableList List to be populated with any streams or temporary LOBs which must be closed after execution.
+   * @throws SQLException If the bind fails.
+   * @throws IOException If the file cannot be read.
+   */
+  public void bindBlob(PreparedStatement pStatement, int pIndex, File pFile, String pDeferredHash, List<Closeable> pCloseableList)
+  throws SQLException, IOException {
+
+    long lStartTime = System.currentTimeMillis();
+    long lLength = pFile.length();
+    boolean lUseTemporaryLob = lLength >= mTemporaryLobThreshold;
+
+    InputStream lFileInputStream = openInputStream(pFile, pDeferredHash, pCloseableList);
+
+    if(lUseTemporaryLob){
+      Blob lBlob = pStatement.getConnection().createBlob();
+      pCloseableList.add(new TemporaryLob(lBlob, null));
+
+      OutputStream lOutputStream = lBlob.setBinaryStream(1);
+      try {
+        byte[] lBuffer = new byte[mChunkSize];
+        int lRead;
+        while((lRead = lFileInputStream.read(lBuffer)) != -1){
+          lOutputStream.write(lBuffer, 0, lRead);
+        }
+      }
+      finally {
+        lOutputStream.close();
+      }
+      pStatement.setBlob(pIndex, lBlob);
+    }
+    else {
+      InputStream lInputStream = new BufferedInputStream(lFileInputStream, mChunkSize);
+      pCloseableList.add(lInputStream);
+      pStatement.setBlob(pIndex, lInputStream, lLength);
+    }
+
+    logBind(pFile, "BLOB", lLength, lUseTemporaryLob, lStartTime);
+  }
+
+  /**
+   * Binds the contents of a file into a statement as a CLOB, decoding it with the given character set.
+   * @param pStatement Statement to bind into.
+   * @param pIndex Bind index.
+   * @param pFile File to bind.
+   * @param pCharset Character set of the file.
+   * @param pDeferredHash Expected hash of the file if its hash check has been deferred, otherwise null.
+   * @param pCloseableList List to be populated with any streams or temporary LOBs which must be closed after execution.
+   * @throws SQLException If the bind fails.
+   * @throws IOException If the file cannot be read.
+   */
+  public void bindClob(PreparedStatement pStatement, int pIndex, File pFile, Charset pCharset, String pDeferredHash, List<Closeable> pCloseableList)
+  throws SQLException, IOException {
+
+    long lStartTime = System.currentTimeMillis();
+    long lLength = pFile.length();
+    boolean lUseTemporaryLob = lLength >= mTemporaryLobThreshold;
+
+    if(lUseTemporaryLob){
+      Clob lClob = pStatement.getConnection().createClob();
+      pCloseableList.add(new TemporaryLob(null, lClob));
+
+      Reader lReader = openReader(pFile, pCharset, pDeferredHash, pCloseableList);
+      Writer lWriter = lClob.setCharacterStream(1);
+      try {
+        char[] lBuffer = new char[mChunkSize];
+        int lRead;
+        while((lRead = lReader.read(lBuffer)) != -1){
+          lWriter.write(lBuffer, 0, lRead);
+        }
+      }
+      finally {
+        lWriter.close();
+      }
+      pStatement.setClob(pIndex, lClob);
+    }
+    else {
+      Reader lReader = openReader(pFile, pCharset, pDeferredHash, pCloseableList);
+      
+      //The length in characters is only known in advance for single byte character sets - counting it for other character
+      //sets would mean decoding the file twice, so the driver is left to read the stream to its end instead
+      if(isSingleByteCharset(pCharset)){
+        pStatement.setClob(pIndex, lReader, lLength);
+      }
+      else {
+        pStatement.setClob(pIndex, lReader);
+      }
+    }
+
+    logBind(pFile, "CLOB (" + pCharset.name() + ")", lLength, lUseTemporaryLob, lStartTime);
+  }
+
+  /**
+   * Opens an unbuffered stream over a file's channel. If the file's hash check is deferred, the stream is hashed as it is
+   * read and a DeferredHashCheck is added to the Closeable list.
+   */
+  private InputStream openInputStream(File pFile, String pDeferredHash, List<Closeable> pCloseableList)
+  throws IOException {
+    FileInputStream lFileInputStream = new FileInputStream(pFile);
+    pCloseableList.add(lFileInputStream);
+    InputStream lInputStream = Channels.newInputStream(lFileInputStream.getChannel());
+    
+    if(pDeferredHash != null){
+      DeferredHashCheck lHashCheck = new DeferredHashCheck(pFile, lInputStream, pDeferredHash);
+      pCloseableList.add(lHashCheck);
+      lInputStream = lHashCheck.mDigestInputStream;
+    }
+    
+    return lInputStream;
+  }
+
+  private Reader openReader(File pFile, Charset pCharset, String pDeferredHash, List<Closeable> pCloseableList)
+  throws IOException {
+    ReadableByteChannel lChannel = Channels.newChannel(openInputStream(pFile, pDeferredHash, pCloseableList));
+    Reader lReader = Channels.newReader(lChannel, newDecoder(pCharset), mChunkSize);
+    pCloseableList.add(lReader);
+    return lReader;
+  }
+
+  /**
+   * Creates a decoder which replaces invalid input, consistent with the behaviour of a FileReader.
+   */
+  private static CharsetDecoder newDecoder(Charset pCharset){
+    return pCharset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  private static boolean isSingleByteCharset(Charset pCharset){
+    return pCharset.canEncode() && pCharset.newEncoder().maxBytesPerChar() == 1f && pCharset.newDecoder().maxCharsPerByte() == 1f;
+  }
+
+  private static void logBind(File pFile, String pBindType, long pLength, boolean pUsedTemporaryLob, long pStartTime){
+    long lElapsed = System.currentTimeMillis() - pStartTime;
+    Logger.logDebug("Bound " + pFile.getName() + " as " + pBindType + ": " + pLength + " bytes in " + lElapsed + "ms" +
+                    (lElapsed > 0 ? " (" + (pLength / lElapsed) + " bytes/ms)" : "") + (pUsedTemporaryLob ? " using temporary LOB" : ""));
+  }
+
+  /**
+   * Hashes a file as it is read for a bind, so its deferred hash check can be performed once the driver has consumed
+   * the stream.
+   */
+  public static class DeferredHashCheck
+  implements Closeable {
+    
+    private final File mFile;
+    private final DigestInputStream mDigestInputStream;
+    private final String mExpectedHash;
+    
+    DeferredHashCheck(File pFile, InputStream pInputStream, String pExpectedHash){
+      mFile = pFile;
+      mExpectedHash = pExpectedHash;
+      try {
+        mDigestInputStream = new DigestInputStream(pInputStream, MessageDigest.getInstance(ManifestEntry.HASH_DIGEST_ALGORITHM));
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new ExInternal("Hash algorithm " + ManifestEntry.HASH_DIGEST_ALGORITHM + " not available", e);
+      }
+    }
+    
+    /**
+     * Reads any part of the file which the driver did not consume and computes the file's hash. This should only be 
+     * called once.
+     * @return The actual hash of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public String computeHash()
+    throws IOException {
+      byte[] lBuffer = new byte[8192];
+      while(mDigestInputStream.read(lBuffer) != -1){
+        //Drain the stream so the whole file is hashed
+      }
+      return ManifestEntry.formatHashDigest(mDigestInputStream.getMessageDigest().digest());
+    }
+    
+    public String getExpectedHash() {
+      return mExpectedHash;
+    }
+    
+    public File getFile() {
+      return mFile;
+    }
+    
+    @Override
+    public void close()
+    throws IOException {
+      mDigestInputStream.close();
+    }
+  }
+
+  /**
+   * Closeable wrapper which frees a temporary LOB once the statement using it has been executed.
+   */
+  private static class TemporaryLob
+  implements Closeable {
+
+    private final Blob mBlob;
+    private final Clob mClob;
+
+    TemporaryLob(Blob pBlob, Clob pClob){
+      mBlob = pBlob;
+      mClob = pClob;
+    }
+
+    @Override
+    public void close()
+    throws IOException {
+      try {
+        if(mBlob != null){
+          mBlob.free();
+        }
+        if(mClob != null){
+          mClob.free();
+        }
+      }
+      catch (SQLException e) {
+        throw new IOException("Failed to free temporary LOB: " + e.getMessage(), e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+package com.fivium.scriptrunner2.loader;
+
+
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.database.DatabaseConnection;
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.Charset;
+
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Stages the contents of promotion files in the promotion_lob_staging table, so files with identical contents are only
+ * sent to the database once per promote. Contents are keyed by file hash, plus the character set for CLOBs. The first
+ * time a key is seen the file is uploaded on the logging connection using the {@link LobBinder} and committed. The
+ * locator of the staged LOB is then bound into every loader statement which needs the same contents, instead of the
+ * file being streamed again.<br/><br/>
+ *
+ * Files whose hash check has been deferred are not staged, as their hash is not yet known to match their contents.
+ * Staged rows are deleted when the promote finishes.
+ */
+public class LobStaging {
+
+  private final DatabaseConnection mDatabaseConnection;
+  private final int mPromotionRunId;
+  private final LobBinder mLobBinder;
+
+  /** Locators of BLOBs staged in this promote, keyed by content key. */
+  private final Map<String, Blob> mStagedBlobMap = new HashMap<String, Blob>();
+
+  /** Locators of CLOBs staged in this promote, keyed by content key. */
+  private final Map<String, Clob> mStagedClobMap = new HashMap<String, Clob>();
+
+  private int mReuseCount = 0;
+
+  /**
+   * Creates a new LobStaging for a promotion run which has been started.
+   * @param pDatabaseConnection Connection of the ScriptRunner which started the promote. Content is uploaded on its
+   * logging connection.
+   * @param pPromotionRunId ID of the current promotion run.
+   * @param pLobBinder Binder used to upload file contents.
+   */
+  public LobStaging(DatabaseConnection pDatabaseConnection, int pPromotionRunId, LobBinder pLobBinder) {
+    mDatabaseConnection = pDatabaseConnection;
+    mPromotionRunId = pPromotionRunId;
+    mLobBinder = pLobBinder;
+  }
+
+  /**
+   * Binds the staged copy of a file into a statement as a BLOB, staging the file first if its contents have not been
+   * seen in this promote.
+   * @param pStatement Statement to bind into.
+   * @param pIndex Bind index.
+   * @param pFile File to bind.
+   * @param pFileHash Verified hash of the file.
+   * @throws SQLException If the file cannot be staged or bound.
+   * @throws IOException If the file cannot be read.
+   */
+  public synchronized void bindBlob(PreparedStatement pStatement, int pIndex, File pFile, String pFileHash)
+  throws SQLException, IOException {
+    Blob lBlob = mStagedBlobMap.get(pFileHash);
+    if(lBlob == null){
+      lBlob = (Blob) stage(pFile, pFileHash, null);
+      mStagedBlobMap.put(pFileHash, lBlob);
+    }
+    else {
+      logReuse(pFile, pFileHash);
+    }
+    pStatement.setBlob(pIndex, lBlob);
+  }
+
+  /**
+   * Binds the staged copy of a file into a statement as a CLOB, staging the file first if its contents have not been
+   * seen in this promote with the same character set.
+   * @param pStatement Statement to bind into.
+   * @param pIndex Bind index.
+   * @param pFile File to bind.
+   * @param pCharset Character set of the file.
+   * @param pFileHash Verified hash of the file.
+   * @throws SQLException If the file cannot be staged or bound.
+   * @throws IOException If the file cannot be read.
+   */
+  public synchronized void bindClob(PreparedStatement pStatement, int pIndex, File pFile, Charset pCharset, String pFileHash)
+  throws SQLException, IOException {
+    String lContentKey = pFileHash + "/" + pCharset.name();
+    Clob lClob = mStagedClobMap.get(lContentKey);
+    if(lClob == null){
+      lClob = (Clob) stage(pFile, lContentKey, pCharset);
+      mStagedClobMap.put(lContentKey, lClob);
+    }
+    else {
+      logReuse(pFile, lContentKey);
+    }
+    pStatement.setClob(pIndex, lClob);
+  }
+
+  /**
+   * Uploads a file into the staging table and commits it. Binds are set by position as the LobBinder binds by index.
+   * @return Locator of the staged BLOB, or the staged CLOB if a character set is given.
+   */
+  private Object stage(File pFile, String pContentKey, Charset pCharset)
+  throws SQLException, IOException {
+
+    Logger.logDebug("Staging contents of " + pFile.getName() + " with key " + pContentKey);
+
+    CallableStatement lStatement = mDatabaseConnection.prepareControlCall(mDatabaseConnection.getLoggingConnection(), SQLManager.SQL_FILE_INSERT_LOB_STAGING);
+    List<Closeable> lCloseableList = new ArrayList<Closeable>();
+    Object lLocator;
+    try {
+      lStatement.setInt(1, mPromotionRunId);
+      lStatement.setString(2, pContentKey);
+      if(pCharset == null){
+        mLobBinder.bindBlob(lStatement, 3, pFile, null, lCloseableList);
+        lStatement.setNull(4, Types.CLOB);
+      }
+      else {
+        lStatement.setNull(3, Types.BLOB);
+        mLobBinder.bindClob(lStatement, 4, pFile, pCharset, null, lCloseableList);
+      }
+      lStatement.registerOutParameter(5, Types.BLOB);
+      lStatement.registerOutParameter(6, Types.CLOB);
+
+      lStatement.executeUpdate();
+      lLocator = pCharset == null ? lStatement.getBlob(5) : lStatement.getClob(6);
+    }
+    finally {
+      lStatement.close();
+      for(Closeable lCloseable : lCloseableList){
+        try {
+          lCloseable.close();
+        }
+        catch (IOException e) {
+          Logger.logDebug("Failed to close stream after staging " + pFile.getName() + ": " + e.getMessage());
+        }
+      }
+    }
+
+    mDatabaseConnection.commitLoggingConnection(false);
+
+    return lLocator;
+  }
+
+  private void logReuse(File pFile, String pContentKey){
+    mReuseCount++;
+    Logger.logDebug("Binding staged contents for " + pFile.getName() + " with key " + pContentKey);
+  }
+
+  /**
+   * Deletes all content staged in this promote. This must be called before the logging connection is closed. Errors
+   * are logged but not thrown.
+   */
+  public synchronized void close(){
+
+    if(mStagedBlobMap.size() + mStagedClobMap.size() > 0){
+      Logger.logInfo("LOB staging uploaded " + (mStagedBlobMap.size() + mStagedClobMap.size()) + " distinct file contents and " +
+                     "avoided uploading " + mReuseCount + " duplicates");
+    }
+
+    try {
+      SQLManager.executeUpdate(mDatabaseConnection.getDialect(), mDatabaseConnection.getLoggingConnection(), SQLManager.SQL_FILE_DELETE_LOB_STAGING, mPromotionRunId);
+      mDatabaseConnection.commitLoggingConnection(false);
+    }
+    catch (SQLException e) {
+      Logger.logWarning("Failed to delete staged LOBs for promotion run " + mPromotionRunId + ": " + e.getMessage());
+    }
+
+    mStagedBlobMap.clear();
+    mStagedClobMap.clear();
+  }
+
+}
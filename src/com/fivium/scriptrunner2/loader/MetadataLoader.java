@@ -15,19 +15,18 @@ import com.fivium.scriptrunner2.script.ScriptSQL;
 
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 
-import java.sql.Connection;
+import java.nio.charset.Charset;
+
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 
@@ -44,11 +43,17 @@ extends SourceLoader {
   protected final String mLoaderFilePath;
   
   private List<ScriptExecutable> mExecutableList = null;
-    
-  private static final Pattern SUBSTITUTION_VARIABLE_PATTERN = Pattern.compile("\\$\\$\\{(.+?)\\}\\$\\$");
+  /** Substitution templates for each SQL statement in the executable list, compiled at prepare time. */
+  private final Map<ScriptSQL, SubstitutionTemplate> mTemplateMap = new HashMap<ScriptSQL, SubstitutionTemplate>();
   
   private static final String SKIP_SUBSTITUTION_PROPERTY_NAME = "skip_substitution";
   private static final String AUTO_COMMIT_PROPERTY_NAME = "auto_commit"; //TODO enum - built in parameters
+  private static final String BATCH_SIZE_PROPERTY_NAME = "batch_size";
+  /** 
+   * Largest batch_size allowed for a loader which binds file contents. Every file in a batch holds its file open (and
+   * any deferred hash digest) until the batch has executed, so larger batches could exhaust file descriptors.
+   */
+  static final int MAX_LOB_BATCH_SIZE = 100;
   
   private static final String LOADER_FILE_LOCATION = "ScriptRunner/Loaders/";
   private static final String LOADER_FILE_EXTENSION = ".sql";
@@ -57,6 +62,56 @@ extends SourceLoader {
   public static final String BIND_NAME_CLOB = "clob";
   public static final String BIND_NAME_NAME = "name";
   
+  /**
+   * Gets the maximum number of consecutive files using the same loader which may be executed together in a JDBC batch
+   * with the given file, as specified by its <tt>batch_size</tt> property. Files which have not specified a batch size 
+   * have a batch size of 1. Loaders which bind file contents are limited to {@link #MAX_LOB_BATCH_SIZE}, which is 
+   * checked by {@link #validateForFile}.
+   * @param pPromotionFile File to get batch size for.
+   * @return Batch size.
+   * @throws ExFatalError If the property is not a positive integer (this should have been validated in advance).
+   */
+  public static int getBatchSize(PromotionFile pPromotionFile){
+    String lBatchSize = pPromotionFile.getPropertyMap().get(BATCH_SIZE_PROPERTY_NAME);
+    if(lBatchSize == null){
+      return 1;
+    }
+    try {
+      int lSize = Integer.parseInt(lBatchSize.trim());
+      if(lSize < 1){
+        throw new ExFatalError(BATCH_SIZE_PROPERTY_NAME + " property must be a positive integer, got " + lBatchSize);
+      }
+      return lSize;
+    }
+    catch (NumberFormatException e) {
+      throw new ExFatalError(BATCH_SIZE_PROPERTY_NAME + " property must be a positive integer, got " + lBatchSize, e);
+    }
+  }
+  
+  /**
+   * Gets the consecutive files, starting at the given position in the file list, which should be promoted together in
+   * a batch. Batched files must use the same loader and specify the same batch size. The returned list always contains at 
+   * least the file at the start position.
+   * @param pFileList Full list of files in the promotion.
+   * @param pStartIndex Index of the first file in the batch.
+   * @return List of files to batch together.
+   */
+  public static List<PromotionFile> getBatchFromPosition(List<PromotionFile> pFileList, int pStartIndex){
+    PromotionFile lFirstFile = pFileList.get(pStartIndex);
+    int lBatchSize = getBatchSize(lFirstFile);
+    
+    int lEndIndex = pStartIndex + 1;
+    while(lEndIndex < pFileList.size() && lEndIndex - pStartIndex < lBatchSize){
+      PromotionFile lFile = pFileList.get(lEndIndex);
+      if(!lFile.getLoaderName().equals(lFirstFile.getLoaderName()) || getBatchSize(lFile) != lBatchSize){
+        break;
+      }
+      lEndIndex++;
+    }
+    
+    return pFileList.subList(pStartIndex, lEndIndex);
+  }
+  
   public MetadataLoader(String pName){
     mName = pName;
     mLoaderFilePath = LOADER_FILE_LOCATION + pName + LOADER_FILE_EXTENSION;
@@ -68,37 +123,21 @@ extends SourceLoader {
   }
   
   /**
-   * Replaces <tt>$${PARAMETER}$$</tt> references in the parsed statement string with their corresponding values
-   * from the promotion file's property map.
+   * Replaces <tt>$${PARAMETER}$$</tt> references in a loader statement with their corresponding values from the promotion 
+   * file's property map.
+   * @param pTemplate Compiled statement template.
    * @param pPromotionFile File about to be loaded.
    * @return Parsed statement string with substitution variables replaced with actual values.
    * @throws ExLoader If substitution variables cannot be resolved.
    */
-  private static String replaceSubstitutionVariables(String pParsedStatementString, PromotionFile pPromotionFile) 
+  private static String replaceSubstitutionVariables(SubstitutionTemplate pTemplate, PromotionFile pPromotionFile) 
   throws ExLoader {
     
     //Replace variables only if one exists and a property has not been set instructing not to substitute 
-    if(pParsedStatementString.indexOf("$${") > 0){
+    if(pTemplate.hasVariables()){
       if(!"true".equals(pPromotionFile.getPropertyMap().get(SKIP_SUBSTITUTION_PROPERTY_NAME))){
         Logger.logDebug("Performing variable substitution for " + pPromotionFile.getFilePath());
-        
-        StringBuffer lReplacedStatementString = new StringBuffer();
-        
-        Matcher lMatcher = SUBSTITUTION_VARIABLE_PATTERN.matcher(pParsedStatementString);
-        
-        while (lMatcher.find()) {
-          String lParamName = lMatcher.group(1).toLowerCase();
-          
-          String lParamValue = pPromotionFile.getPropertyMap().get(lParamName);
-          if(lParamValue == null){
-            throw new ExLoader("Parameter value for '" + lParamName + "' substitution variable not defined");
-          }
-          
-          lMatcher.appendReplacement(lReplacedStatementString, lParamValue);
-        }
-        lMatcher.appendTail(lReplacedStatementString);
-        
-        return lReplacedStatementString.toString();
+        return pTemplate.render(pPromotionFile.getPropertyMap());
       }
       else {
         Logger.logDebug("Skipping variable substitution for " + pPromotionFile.getFilePath() + " because " + SKIP_SUBSTITUTION_PROPERTY_NAME + " was true");
@@ -106,12 +145,12 @@ extends SourceLoader {
     }
     
     //Skipping
-    return pParsedStatementString;
+    return pTemplate.getTemplateString();
   }  
   
   /**
    * Binds values from the given list into a PreparedStatement for a PromotionFile, handling special binds such as "blob"
-   * (for the binary representation of the file) and "name" (for the file name). Remaining named binds are treated as
+   * (for the binary representation of the file, see {@link LobBinder}) and "name" (for the file name). Remaining named binds are treated as
    * property values and the appropriate properties are bound in from the PromotionFile's property map. If streams are
    * opened for the purposes of reading a file's contents, they are added to pCloseableList.<br/><br/>
    * 
@@ -155,31 +194,36 @@ extends SourceLoader {
       
       if(BIND_NAME_BLOB.equals(lBindName) && isFileBindingAllowed()){
         //Bind the file as a BLOB
-        if(pStatement != null){          
-          FileInputStream lInputStream;
+        if(pStatement != null){
           try {
-            lInputStream = new FileInputStream(lFile);
-            pCloseableList.add(lInputStream);
+            if(isStagingAllowed(pScriptRunner, pPromotionFile)){
+              pScriptRunner.getLobStaging().bindBlob(pStatement, i + 1, lFile, pPromotionFile.getFileHash());
+            }
+            else {
+              pScriptRunner.getLobBinder().bindBlob(pStatement, i + 1, lFile, getDeferredHash(pPromotionFile), pCloseableList);
+            }
           }
-          catch (FileNotFoundException e) {
-            throw new ExFatalError("File not found", e);
+          catch (IOException e) {
+            throw new ExFatalError("Failed to read " + pPromotionFile.getFilePath() + " for BLOB bind", e);
           }
-          pStatement.setBlob(i + 1, lInputStream);
         }
         lFileBound = true;
       }
       else if(BIND_NAME_CLOB.equals(lBindName) && isFileBindingAllowed()){
-        //Bind the file as a CLOB
+        //Bind the file as a CLOB - resolve the charset first so an invalid property is caught during validation
+        Charset lCharset = LobBinder.resolveCharset(pPromotionFile.getPropertyMap().get(LobBinder.CLOB_CHARSET_PROPERTY_NAME));
         if(pStatement != null){
-        FileReader lReader;
           try {
-            lReader = new FileReader(lFile);
-            pCloseableList.add(lReader);
+            if(isStagingAllowed(pScriptRunner, pPromotionFile)){
+              pScriptRunner.getLobStaging().bindClob(pStatement, i + 1, lFile, lCharset, pPromotionFile.getFileHash());
+            }
+            else {
+              pScriptRunner.getLobBinder().bindClob(pStatement, i + 1, lFile, lCharset, getDeferredHash(pPromotionFile), pCloseableList);
+            }
           }
-          catch (FileNotFoundException e) {
-            throw new ExFatalError("File not found", e);
+          catch (IOException e) {
+            throw new ExFatalError("Failed to read " + pPromotionFile.getFilePath() + " for CLOB bind", e);
           }
-          pStatement.setClob(i + 1, lReader);
         }
         lFileBound = true;
       }
@@ -213,6 +257,50 @@ extends SourceLoader {
     
   }
   
+  /**
+   * Tests if a file's contents can be bound from LOB staging. Files with deferred hash checks are streamed directly, as
+   * their hash is not yet known to identify their contents.
+   */
+  private static boolean isStagingAllowed(ScriptRunner pScriptRunner, PromotionFile pPromotionFile){
+    return pScriptRunner.getLobStaging() != null && !pPromotionFile.isFileHashDeferred();
+  }
+  
+  private static String getDeferredHash(PromotionFile pPromotionFile){
+    return pPromotionFile.isFileHashDeferred() ? pPromotionFile.getFileHash() : null;
+  }
+  
+  /**
+   * Verifies the hashes of any files whose hash check was deferred until they were streamed into a bind. This must be
+   * called after the statements using the binds have been executed and before any commit. If a hash does not match, the
+   * promote connection is rolled back.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pStreamsToClose Closeables from binding, which include the hash checks.
+   * @throws ExPromote If a file's hash does not match or cannot be computed.
+   */
+  private void verifyDeferredHashes(ScriptRunner pScriptRunner, List<Closeable> pStreamsToClose)
+  throws ExPromote {
+    for(Closeable lCloseable : pStreamsToClose){
+      if(lCloseable instanceof LobBinder.DeferredHashCheck){
+        LobBinder.DeferredHashCheck lHashCheck = (LobBinder.DeferredHashCheck) lCloseable;
+        String lActualHash;
+        try {
+          lActualHash = lHashCheck.computeHash();
+        }
+        catch (IOException e) {
+          pScriptRunner.getDatabaseConnection().safelyRollback();
+          throw new ExPromote("Could not generate hash for file " + lHashCheck.getFile().getName(), e);
+        }
+        
+        if(!lHashCheck.getExpectedHash().equals(lActualHash)){
+          pScriptRunner.getDatabaseConnection().safelyRollback();
+          throw new ExPromote("Hash verification failed for file " + lHashCheck.getFile().getName() + " - expected " + 
+                              lHashCheck.getExpectedHash() + " but got " + lActualHash);
+        }
+        Logger.logDebug("Deferred hash check OK for file " + lHashCheck.getFile().getName());
+      }
+    }
+  }
+  
   /**
    * Indicates that this class is allowed to bind a promotion file (:clob, :blob binds) into the loader.
    * @return True.
@@ -245,6 +333,14 @@ extends SourceLoader {
     catch (ExParser e) {
       throw new ExFatalError("Failed to parse contents of metadata loader " + mName + ": " + e.getMessage(), e);
     }
+    
+    //Compile substitution templates so they do not need to be scanned again for every file
+    mTemplateMap.clear();
+    for(ScriptExecutable lExecutable : mExecutableList){
+      if(lExecutable instanceof ScriptSQL){
+        mTemplateMap.put((ScriptSQL) lExecutable, new SubstitutionTemplate(((ScriptSQL) lExecutable).getParsedSQL()));
+      }
+    }
   }
   
   private void closeCloseables(PromotionFile pPromotionFile, List<Closeable> pStreamsToClose){
@@ -267,15 +363,24 @@ extends SourceLoader {
    */
   public void validateForFile(ScriptRunner pScriptRunner, PromotionFile pPromotionFile)
   throws ExPromote {    
+    try {
+      if(getBatchSize(pPromotionFile) > MAX_LOB_BATCH_SIZE && bindsFileContents()){
+        throw new ExPromote("Validation of " + mName + " loader failed for file " + pPromotionFile.getFilePath() + ": " + BATCH_SIZE_PROPERTY_NAME + 
+                            " property cannot exceed " + MAX_LOB_BATCH_SIZE + " for a loader which binds file contents");
+      }
+    }
+    catch (ExFatalError e) {
+      throw new ExPromote("Validation of " + mName + " loader failed for file " + pPromotionFile.getFilePath() + ": " + e.getMessage(), e);
+    }
+    
     List<Closeable> lStreamsToClose = new ArrayList<Closeable>();
     try {
       for(ScriptExecutable lExecutable : mExecutableList){
         if(lExecutable instanceof ScriptSQL){
           //If this fails an error will be thrown    
-          String lStatementString = ((ScriptSQL) lExecutable).getParsedSQL();
           try {
             //Replace substitution variables in the statement
-            lStatementString = replaceSubstitutionVariables(lStatementString, pPromotionFile);
+            replaceSubstitutionVariables(mTemplateMap.get(lExecutable), pPromotionFile);
             
             //"practice" a bind with a null prepared statement
             bind(null, ((ScriptSQL) lExecutable).getBindList(), pScriptRunner, pPromotionFile, null);
@@ -294,19 +399,83 @@ extends SourceLoader {
       //Close all open FileInputStreams and Readers
       closeCloseables(pPromotionFile, lStreamsToClose);
     }
+    
+    //If the file will not be streamed into a LOB bind, its deferred hash check cannot wait until it is loaded
+    if(pPromotionFile.isFileHashDeferred() && !bindsFileContents()){
+      try {
+        if(!pPromotionFile.verifyDeferredFileHash(pScriptRunner)){
+          throw new ExPromote("Hash verification failed for file " + pPromotionFile.getFilePath() + " - does not match expected hash " + pPromotionFile.getFileHash());
+        }
+      }
+      catch (IOException e) {
+        throw new ExPromote("Could not generate hash for file " + pPromotionFile.getFilePath(), e);
+      }
+    }
   }
   
+  /**
+   * Tests if any statement in this loader binds the contents of the promotion file as a BLOB or CLOB.
+   * @return True if the file's contents are bound.
+   */
+  private boolean bindsFileContents(){
+    if(!isFileBindingAllowed()){
+      return false;
+    }
+    for(ScriptExecutable lExecutable : mExecutableList){
+      if(lExecutable instanceof ScriptSQL){
+        List<String> lBindList = ((ScriptSQL) lExecutable).getBindList();
+        if(lBindList.contains(BIND_NAME_BLOB) || lBindList.contains(BIND_NAME_CLOB)){
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+  
+  
+  /**
+   * Gets the text of a loader statement for the given file, with substitution variables replaced.
+   * @param pScriptSQL Loader statement.
+   * @param pPromotionFile File being promoted.
+   * @return Statement text to execute.
+   * @throws ExPromote If substitution variables cannot be resolved.
+   */
+  private String getStatementString(ScriptSQL pScriptSQL, PromotionFile pPromotionFile) 
+  throws ExPromote {
+    try {
+      return replaceSubstitutionVariables(mTemplateMap.get(pScriptSQL), pPromotionFile);
+    }
+    catch (ExLoader e) {
+      throw new ExPromote("Failed to prepare " + mName + " loader for file " + pPromotionFile.getFilePath() + ": " + e.getMessage(), e);
+    }
+  }
   
-  private PreparedStatement prepareStatement(ScriptSQL pScriptSQL, ScriptRunner pScriptRunner, PromotionFile pPromotionFile, Connection pConnection, List<Closeable> pStreamsToClose) 
+  /**
+   * Gets a bound PreparedStatement for executing a loader statement against a file. Cached statements are reused from the
+   * connection's cache, so they are only prepared once for all files using this loader (for as long as the connection 
+   * stays connected as the same user). Otherwise a new statement is prepared for this file, and it must be closed by the 
+   * caller.
+   * @param pScriptSQL Loader statement.
+   * @param pStatementString Statement text after substitution.
+   * @param pUseCache True if the statement should be obtained from the connection's statement cache.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile File being promoted.
+   * @param pStreamsToClose List to be populated with any streams opened for binding.
+   * @return Bound statement.
+   * @throws ExPromote If the statement cannot be prepared or bound.
+   */
+  private PreparedStatement prepareStatement(ScriptSQL pScriptSQL, String pStatementString, boolean pUseCache, ScriptRunner pScriptRunner, 
+                                             PromotionFile pPromotionFile, List<Closeable> pStreamsToClose) 
   throws ExPromote {
     PreparedStatement lPreparedStatement;
     try {
-      String lStatementString = pScriptSQL.getParsedSQL();
-      //Replace substitution variables in the statement
-      lStatementString = replaceSubstitutionVariables(lStatementString, pPromotionFile);
-      
       //Get a prepared statement
-      lPreparedStatement = pConnection.prepareStatement(lStatementString);
+      if(pUseCache){
+        lPreparedStatement = pScriptRunner.getDatabaseConnection().getCachedPromoteStatement(pStatementString);
+      }
+      else {
+        lPreparedStatement = pScriptRunner.getDatabaseConnection().getPromoteConnection().prepareStatement(pStatementString);
+      }
       
       //Perform the SQL binding
       bind(lPreparedStatement, pScriptSQL.getBindList(), pScriptRunner, pPromotionFile, pStreamsToClose);            
@@ -320,6 +489,33 @@ extends SourceLoader {
     return lPreparedStatement;
   }
   
+  /**
+   * Renders the text of each loader statement for the given file, with substitution variables replaced.
+   */
+  @Override
+  public PreparedFile prepareFile(ScriptRunner pScriptRunner, PromotionFile pPromotionFile) 
+  throws ExPromote {
+    Map<ScriptSQL, String> lStatementStringMap = new HashMap<ScriptSQL, String>();
+    for(ScriptExecutable lExecutable : mExecutableList){
+      if(lExecutable instanceof ScriptSQL){
+        lStatementStringMap.put((ScriptSQL) lExecutable, getStatementString((ScriptSQL) lExecutable, pPromotionFile));
+      }
+    }
+    return new RenderedStatements(lStatementStringMap);
+  }
+  
+  /**
+   * Rendered statements are about the size of the loader's statements, held as Java strings at 2 bytes per character.
+   */
+  @Override
+  public long estimatePreparedSize(ScriptRunner pScriptRunner, PromotionFile pPromotionFile){
+    long lSize = 0;
+    for(SubstitutionTemplate lTemplate : mTemplateMap.values()){
+      lSize += lTemplate.getTemplateString().length() * 2;
+    }
+    return lSize;
+  }
+  
   @Override
   public void doPromote(ScriptRunner pScriptRunner, PromotionFile pPromotionFile) 
   throws ExPromote {
@@ -329,8 +525,8 @@ extends SourceLoader {
     if(mExecutableList == null || mExecutableList.size() == 0){
       throw new ExInternal("No exectuables found for loader " + mName);
     }
-        
-    Connection lConn = pScriptRunner.getDatabaseConnection().getPromoteConnection();
+    
+    Map<ScriptSQL, String> lStatementStringMap = ((RenderedStatements) getPreparedFile(pScriptRunner, pPromotionFile)).mStatementStringMap;
     
     List<Closeable> lStreamsToClose = new ArrayList<Closeable>();
     try {
@@ -341,18 +537,30 @@ extends SourceLoader {
         if(lExecutable instanceof ScriptSQL){          
           ScriptSQL lScriptSQL = (ScriptSQL) lExecutable;
           
-          //Prepare the statement
-          PreparedStatement lPreparedStatement = prepareStatement(lScriptSQL, pScriptRunner, pPromotionFile, lConn, lStreamsToClose);       
+          //Prepare the statement - it can only be reused across files if substitution has not changed the text
+          String lStatementString = lStatementStringMap.get(lScriptSQL);
+          boolean lUseCache = lStatementString.equals(lScriptSQL.getParsedSQL());
+          PreparedStatement lPreparedStatement = prepareStatement(lScriptSQL, lStatementString, lUseCache, pScriptRunner, pPromotionFile, lStreamsToClose);       
           
           //Run the statement
           try {      
             Logger.logInfo("Execute SQL as " + pScriptRunner.getDatabaseConnection().currentUserName() + " (" +  lScriptSQL.getStatementPreview() + "...)");
             lPreparedStatement.executeUpdate();
-            lPreparedStatement.close();
           }
           catch (SQLException e) {
             throw new ExPromote("Failed to load file " + pPromotionFile.getFilePath() + ": " + e.getMessage(), e);
           }
+          finally {
+            //Cached statements stay open for the next file
+            if(!lUseCache){
+              try {
+                lPreparedStatement.close();
+              }
+              catch (SQLException e) {
+                Logger.logDebug("Failed to close statement: " + e.getMessage());
+              }
+            }
+          }
           
         }        
         else {
@@ -369,6 +577,8 @@ extends SourceLoader {
         long lTime = System.currentTimeMillis() - lStart;
         Logger.logInfo("OK (took " + lTime + "ms)\n");
       }
+      
+      verifyDeferredHashes(pScriptRunner, lStreamsToClose);
     }
     finally {
       //Close all open FileInputStreams and Readers
@@ -376,25 +586,21 @@ extends SourceLoader {
     }
     
     //Check there's no outstanding uncommitted data - commit if allowed, or raise an error
+    //A CONNECT in the loader may have switched the active connection (i.e. to a cached proxy connection), so it must be
+    //read again now the executables have run
     if(pScriptRunner.getDatabaseConnection().isTransactionActive()){
       if("true".equals(pPromotionFile.getPropertyMap().get(AUTO_COMMIT_PROPERTY_NAME))){
         Logger.logDebug("Committing as auto_commit property is true");
         try {      
-          lConn.commit();
+          pScriptRunner.getDatabaseConnection().getPromoteConnection().commit();
         }
         catch (SQLException e) {
           throw new ExPromote("Failed to commit file " + pPromotionFile.getFilePath() + ": " + e.getMessage(), e);
         }
       }
       else {
-        //Rollback and throw an error
-        try {      
-          lConn.rollback();
-        }
-        catch (SQLException e) {
-          //Any errors here should not take precedence over the "main" error
-          Logger.logWarning("Failed to rollback during error handler - promote may be in inconsistent state");
-        }
+        //Rollback and throw an error - any errors here should not take precedence over the "main" error
+        pScriptRunner.getDatabaseConnection().safelyRollback();
         
         throw new ExPromote("Uncommitted data detected after promoting " + pPromotionFile.getFilePath() + 
                             "\nFix loader statement or consider using " + AUTO_COMMIT_PROPERTY_NAME + " property");
@@ -414,6 +620,154 @@ extends SourceLoader {
     
   }
   
+  /**
+   * Promotes a list of consecutive files using this loader, executing the loader statement for all of them in a single
+   * JDBC batch. Batching is only possible if the loader consists of a single SQL statement whose text is not changed by
+   * substitution variables; otherwise the files are promoted individually. Each file is still validated and logged 
+   * individually. If the batch fails, or leaves uncommitted data which not every file allows to be committed, the batch
+   * is rolled back and the files are replayed one by one so the error is reported against the correct file. Loaders used
+   * in batch mode should therefore not commit.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pFileList Files to promote, in promotion order.
+   * @throws ExPromote If any file fails to promote.
+   */
+  public void promoteFileBatch(ScriptRunner pScriptRunner, List<PromotionFile> pFileList) 
+  throws ExPromote {
+    
+    //Check the loader is batchable - otherwise fall back to promoting individually
+    ScriptSQL lScriptSQL = null;
+    if(mExecutableList != null && mExecutableList.size() == 1 && mExecutableList.get(0) instanceof ScriptSQL){
+      lScriptSQL = (ScriptSQL) mExecutableList.get(0);
+    }
+    
+    if(pFileList.size() == 1 || lScriptSQL == null){
+      for(PromotionFile lFile : pFileList){
+        promoteFile(pScriptRunner, lFile);
+      }
+      return;
+    }
+    
+    //Validate and log the start of each file
+    List<PromotionFile> lStartedFiles = new ArrayList<PromotionFile>();
+    boolean lAllowAutoCommit = true;
+    for(PromotionFile lFile : pFileList){
+      if(skipIfUnchanged(pScriptRunner, lFile)){
+        continue;
+      }
+      else if(pScriptRunner.getPromotionController().validateAndStartFilePromote(lFile)){
+        lStartedFiles.add(lFile);
+        lAllowAutoCommit &= "true".equals(lFile.getPropertyMap().get(AUTO_COMMIT_PROPERTY_NAME));
+      }
+      else {
+        logSkippedFile(pScriptRunner, lFile);
+      }
+    }
+    
+    if(lStartedFiles.size() == 0){
+      return;
+    }
+    
+    Logger.logInfo("\nPromote " + mName + " batch of " + lStartedFiles.size() + " file(s), starting with " + lStartedFiles.get(0).getFilePath());
+    long lStart = System.currentTimeMillis();
+    
+    boolean lBatchSuccess = executeBatch(pScriptRunner, lScriptSQL, lStartedFiles, lAllowAutoCommit);
+    
+    if(lBatchSuccess){
+      Logger.logInfo("OK (took " + (System.currentTimeMillis() - lStart) + "ms)\n");
+      for(PromotionFile lFile : lStartedFiles){
+        try {
+          pScriptRunner.getPromotionController().finaliseFilePromote(lFile, true);
+        }
+        catch (Throwable th){
+          throw new ExFatalError("Unexpected error finalising promotion log for file " + lFile.getFilePath(), th);
+        }
+      }
+    }
+    else {
+      //Replay individually to find the failing file - already started files do not need validating again
+      Logger.logInfo("Batch failed; replaying files individually");
+      for(PromotionFile lFile : lStartedFiles){
+        promoteStartedFile(pScriptRunner, lFile);
+      }
+    }
+  }
+  
+  /**
+   * Attempts to execute a loader statement as a single JDBC batch for all the given files. On failure, the transaction is
+   * rolled back and the reason is logged; the caller is expected to replay the files individually to report the error.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pScriptSQL The loader's only statement.
+   * @param pFileList Files to execute the statement for.
+   * @param pAllowAutoCommit True if every file in the batch allows its changes to be committed.
+   * @return True if the batch was executed and committed (if required) successfully, false if it was rolled back.
+   */
+  private boolean executeBatch(ScriptRunner pScriptRunner, ScriptSQL pScriptSQL, List<PromotionFile> pFileList, boolean pAllowAutoCommit) {
+    
+    List<Closeable> lStreamsToClose = new ArrayList<Closeable>();
+    PreparedStatement lStatement = null;
+    try {
+      //All files must produce the same statement text for the batch to be valid
+      for(PromotionFile lFile : pFileList){
+        if(!getStatementString(pScriptSQL, lFile).equals(pScriptSQL.getParsedSQL())){
+          Logger.logInfo("Cannot batch " + mName + " loader as substitution variables change its statement");
+          return false;
+        }
+      }
+      
+      lStatement = pScriptRunner.getDatabaseConnection().getCachedPromoteStatement(pScriptSQL.getParsedSQL());
+      for(PromotionFile lFile : pFileList){
+        bind(lStatement, pScriptSQL.getBindList(), pScriptRunner, lFile, lStreamsToClose);
+        lStatement.addBatch();
+      }
+      
+      Logger.logInfo("Execute batched SQL as " + pScriptRunner.getDatabaseConnection().currentUserName() + " (" +  pScriptSQL.getStatementPreview() + "...)");
+      lStatement.executeBatch();
+      
+      verifyDeferredHashes(pScriptRunner, lStreamsToClose);
+      
+      if(pScriptRunner.getDatabaseConnection().isTransactionActive()){
+        if(pAllowAutoCommit){
+          Logger.logDebug("Committing batch as auto_commit property is true for all files");
+          pScriptRunner.getDatabaseConnection().getPromoteConnection().commit();
+        }
+        else {
+          Logger.logInfo("Uncommitted data detected after batch");
+          pScriptRunner.getDatabaseConnection().safelyRollback();
+          return false;
+        }
+      }
+      
+      return true;
+    }
+    catch (SQLException e) {
+      Logger.logInfo("Batch execution failed: " + e.getMessage());
+      pScriptRunner.getDatabaseConnection().safelyRollback();
+      return false;
+    }
+    catch (ExLoader e) {
+      Logger.logInfo("Batch binding failed: " + e.getMessage());
+      return false;
+    }
+    catch (ExPromote e) {
+      Logger.logInfo("Batch preparation failed: " + e.getMessage());
+      return false;
+    }
+    finally {
+      //The cached statement is reused by the replay, so rows queued before a failure must not be left on it
+      if(lStatement != null){
+        try {
+          lStatement.clearBatch();
+        }
+        catch (SQLException e) {
+          Logger.logDebug("Failed to clear batch: " + e.getMessage());
+        }
+      }
+      
+      //Close all open FileInputStreams and Readers
+      closeCloseables(pFileList.get(0), lStreamsToClose);
+    }
+  }
+  
   public String getName() {
     return mName;
   }
@@ -421,5 +775,18 @@ extends SourceLoader {
   public String getLoaderFilePath() {
     return mLoaderFilePath;
   }
+  
+  /**
+   * The text of each loader statement after substitution for a single file.
+   */
+  private static class RenderedStatements
+  implements PreparedFile {
+    
+    private final Map<ScriptSQL, String> mStatementStringMap;
+    
+    RenderedStatements(Map<ScriptSQL, String> pStatementStringMap){
+      mStatementStringMap = pStatementStringMap;
+    }
+  }
 
 }
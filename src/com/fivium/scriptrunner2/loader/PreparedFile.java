@@ -0,0 +1,9 @@
+package com.fivium.scriptrunner2.loader;
+
+
+/**
+ * Marker for the result of the client side work needed to promote a file, as produced by 
+ * {@link SourceLoader#prepareFile}. Each SourceLoader defines its own implementation.
+ */
+public interface PreparedFile {
+}
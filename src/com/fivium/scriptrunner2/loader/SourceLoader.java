@@ -16,6 +16,12 @@ import com.fivium.scriptrunner2.ex.ExRuntimeRoot;
 public abstract class SourceLoader 
 extends BuiltInLoader{
   
+  /** 
+   * Property which allows a file to be skipped if it is unchanged since it was last successfully promoted under the
+   * current label. This should only be set for loaders which have no side effects that need repeating.
+   */
+  public static final String SKIP_UNCHANGED_PROPERTY_NAME = "skip_unchanged";
+  
   /**
    * General handler for promoting a DatabaseSource file or database metadata. This method coordinates with a 
    * {@link PromotionController} to handle the execution verification and logging of the promote.
@@ -28,50 +34,93 @@ extends BuiltInLoader{
     
     PromotionController lController = pScriptRunner.getPromotionController();
     
+    if(skipIfUnchanged(pScriptRunner, pPromotionFile)){
+      return;
+    }
+    
     boolean lPromoteFile = lController.validateAndStartFilePromote(pPromotionFile);    
     if(lPromoteFile){
-      //Do the promotion
-      boolean lSuccess = true;
+      promoteStartedFile(pScriptRunner, pPromotionFile);
+    }
+    else {
+      logSkippedFile(pScriptRunner, pPromotionFile);
+    }
+    
+  }
+  
+  /**
+   * Promotes a file which has already been validated and had its promotion logged as started, then finalises its log row.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile File to be promoted.
+   * @throws ExPromote If the promotion fails.
+   */
+  protected void promoteStartedFile(ScriptRunner pScriptRunner, PromotionFile pPromotionFile) 
+  throws ExPromote {
+    
+    PromotionController lController = pScriptRunner.getPromotionController();
+    
+    //Do the promotion
+    boolean lSuccess = true;
+    try {
+      doPromote(pScriptRunner, pPromotionFile);
+    }
+    catch (ExPromote e){
+      lSuccess = false;
+      handleError(e, pPromotionFile);
+      throw e;
+    }
+    catch (ExRuntimeRoot e) {
+      lSuccess = false;
+      handleError(e, pPromotionFile);
+      throw e;
+    }
+    catch (Throwable th){
+      lSuccess = false;
+      ExPromote e = new ExPromote("Unexpected error promoting file " + pPromotionFile.getFilePath(), th);
+      handleError(e, pPromotionFile);
+      throw e;
+    }
+    finally {        
+      //Log the total time on the database row
       try {
-        doPromote(pScriptRunner, pPromotionFile);
-      }
-      catch (ExPromote e){
-        lSuccess = false;
-        handleError(e, pPromotionFile);
-        throw e;
-      }
-      catch (ExRuntimeRoot e) {
-        lSuccess = false;
-        handleError(e, pPromotionFile);
-        throw e;
+        lController.finaliseFilePromote(pPromotionFile, lSuccess);  
       }
       catch (Throwable th){
-        lSuccess = false;
-        ExPromote e = new ExPromote("Unexpected error promoting file " + pPromotionFile.getFilePath(), th);
-        handleError(e, pPromotionFile);
-        throw e;
-      }
-      finally {        
-        //Log the total time on the database row
-        try {
-          lController.finaliseFilePromote(pPromotionFile, lSuccess);  
-        }
-        catch (Throwable th){
-          //Only re-throw if there wasn't already an error
-          if(lSuccess){
-            throw new ExFatalError("Unexpected error finalising promotion log for file " + pPromotionFile.getFilePath(), th);
-          }
-          else {
-            Logger.logInfo("Unexpected error finalising promotion log for file " + pPromotionFile.getFilePath() + ": " + th.getMessage());
-          }          
+        //Only re-throw if there wasn't already an error
+        if(lSuccess){
+          throw new ExFatalError("Unexpected error finalising promotion log for file " + pPromotionFile.getFilePath(), th);
         }
-      }      
-    }
-    else {
-      Logger.logInfo("Skipping " + pPromotionFile.getSequencePosition() + ": " + pPromotionFile.getFilePath() + 
-                     " - " + (lController.isNoExecController() ? "-noexec promotion" : "already promoted in this label"));
+        else {
+          Logger.logInfo("Unexpected error finalising promotion log for file " + pPromotionFile.getFilePath() + ": " + th.getMessage());
+        }          
+      }
+    }      
+  }
+  
+  /**
+   * Skips a file if its <tt>skip_unchanged</tt> property is set and its hash matches the last time it was successfully 
+   * promoted under this label. The skip is logged by the controller.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile File about to be promoted.
+   * @return True if the file was skipped.
+   */
+  protected boolean skipIfUnchanged(ScriptRunner pScriptRunner, PromotionFile pPromotionFile){
+    if("true".equals(pPromotionFile.getPropertyMap().get(SKIP_UNCHANGED_PROPERTY_NAME)) && 
+       pScriptRunner.getPromotionController().skipIfUnchanged(pPromotionFile)){
+      Logger.logInfo("Skipping " + pPromotionFile.getSequencePosition() + ": " + pPromotionFile.getFilePath() + " - unchanged since last successful promotion");
+      return true;
     }
-    
+    return false;
+  }
+  
+  /**
+   * Logs that a file was not promoted because the controller did not allow it.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile File being skipped.
+   */
+  protected void logSkippedFile(ScriptRunner pScriptRunner, PromotionFile pPromotionFile){
+    Logger.logInfo("Skipping " + pPromotionFile.getSequencePosition() + ": " + pPromotionFile.getFilePath() + 
+                   " - " + (pScriptRunner.getPromotionController().isNoExecController() ? "-noexec promotion" : "already promoted in this label"));
   }
   
   private final void handleError(Throwable pError, PromotionFile pPromotionFile){
@@ -79,6 +128,48 @@ extends BuiltInLoader{
     Logger.logError(pError);
   }
   
+  /**
+   * Performs the client side work needed to promote a file which does not require a database connection, such as reading
+   * and parsing its contents. This may be called on a background thread ahead of the file being promoted, so 
+   * implementations must not modify any shared state. The default implementation has nothing to prepare.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile File to prepare.
+   * @return Prepared file, or null if there is nothing to prepare.
+   * @throws ExPromote If the file cannot be prepared.
+   */
+  public PreparedFile prepareFile(ScriptRunner pScriptRunner, PromotionFile pPromotionFile)
+  throws ExPromote {
+    return null;
+  }
+  
+  /**
+   * Estimates the number of bytes of memory which the result of {@link #prepareFile} will use for the given file. This is
+   * used to limit the amount of memory held by prefetched files.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile File to be prepared.
+   * @return Estimated size in bytes.
+   */
+  public long estimatePreparedSize(ScriptRunner pScriptRunner, PromotionFile pPromotionFile){
+    return 0;
+  }
+  
+  /**
+   * Gets the prepared content for a file which is about to be promoted. If the file was prefetched the prefetched result is
+   * used, otherwise the file is prepared now.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile File being promoted.
+   * @return Prepared file.
+   * @throws ExPromote If the file cannot be prepared.
+   */
+  protected PreparedFile getPreparedFile(ScriptRunner pScriptRunner, PromotionFile pPromotionFile)
+  throws ExPromote {
+    PreparedFile lPreparedFile = pScriptRunner.takePrefetchedFile(pPromotionFile);
+    if(lPreparedFile == null){
+      lPreparedFile = prepareFile(pScriptRunner, pPromotionFile);
+    }
+    return lPreparedFile;
+  }
+  
   /**
    * Promotes the given PromotionFile using this SourceLoader.
    * @param pScriptRunner Current ScriptRunner.
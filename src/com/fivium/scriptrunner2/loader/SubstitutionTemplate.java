@@ -0,0 +1,145 @@
+package com.fivium.scriptrunner2.loader;
+
+
+import com.fivium.scriptrunner2.ex.ExLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A statement string which has been compiled into a sequence of literal chunks and <tt>$${VARIABLE}$$</tt> substitution 
+ * variable slots, so it can be rendered repeatedly without re-scanning the string. A variable name may not be empty or 
+ * contain a line break; text which looks like a variable but breaks these rules is treated as a literal. Variable names 
+ * are case insensitive and are resolved as lower case property names.<br/><br/>
+ * 
+ * Property values are inserted exactly as they are - no characters in a value have any special meaning.
+ */
+public class SubstitutionTemplate {
+  
+  private static final String VARIABLE_START = "$${";
+  private static final String VARIABLE_END = "}$$";
+  
+  private final String mTemplateString;
+  
+  /** Literal chunks. There is always one more chunk than there are variables; chunks may be empty. */
+  private final List<String> mLiteralList = new ArrayList<String>();
+  /** Lower case variable names, in order of occurrence. */
+  private final List<String> mVariableList = new ArrayList<String>();
+  /** Total length of all literal chunks. */
+  private final int mLiteralLength;
+  
+  /**
+   * Compiles a string into a SubstitutionTemplate.
+   * @param pTemplateString String containing 0 or more substitution variables.
+   */
+  public SubstitutionTemplate(String pTemplateString){
+    
+    mTemplateString = pTemplateString;
+    
+    int lLiteralStart = 0;
+    int lSearchFrom = 0;
+    int lLiteralLength = 0;
+    int lVariableStart;
+    while((lVariableStart = pTemplateString.indexOf(VARIABLE_START, lSearchFrom)) != -1){
+      int lNameStart = lVariableStart + VARIABLE_START.length();
+      //Name must be at least 1 character, so look for the end marker after that
+      int lVariableEnd = pTemplateString.indexOf(VARIABLE_END, lNameStart + 1);
+      if(lVariableEnd == -1){
+        //No more variables can be terminated
+        break;
+      }
+      
+      String lName = pTemplateString.substring(lNameStart, lVariableEnd);
+      if(containsLineBreak(lName)){
+        //Not a variable - carry on looking from the next character
+        lSearchFrom = lVariableStart + 1;
+        continue;
+      }
+      
+      String lLiteral = pTemplateString.substring(lLiteralStart, lVariableStart);
+      mLiteralList.add(lLiteral);
+      lLiteralLength += lLiteral.length();
+      mVariableList.add(lName.toLowerCase());
+      
+      lLiteralStart = lVariableEnd + VARIABLE_END.length();
+      lSearchFrom = lLiteralStart;
+    }
+    
+    String lTail = pTemplateString.substring(lLiteralStart);
+    mLiteralList.add(lTail);
+    mLiteralLength = lLiteralLength + lTail.length();
+  }
+  
+  private static boolean containsLineBreak(String pString){
+    for(int i = 0; i < pString.length(); i++){
+      char c = pString.charAt(i);
+      if(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'){
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Tests if this template contains any substitution variables.
+   * @return True if there is at least one variable.
+   */
+  public boolean hasVariables(){
+    return mVariableList.size() > 0;
+  }
+  
+  /**
+   * Gets the names of the substitution variables in this template, in lower case and in order of occurrence.
+   * @return Variable name list.
+   */
+  public List<String> getVariableNames(){
+    return Collections.unmodifiableList(mVariableList);
+  }
+  
+  /**
+   * Gets the original string this template was compiled from.
+   * @return Template string.
+   */
+  public String getTemplateString(){
+    return mTemplateString;
+  }
+  
+  /**
+   * Renders this template, replacing each variable with the corresponding value from the given property map.
+   * @param pPropertyMap Map of lower case property names to values.
+   * @return Rendered string. If there are no variables this is the original template string.
+   * @throws ExLoader If a property is not defined for a variable.
+   */
+  public String render(Map<String, String> pPropertyMap) 
+  throws ExLoader {
+    
+    if(!hasVariables()){
+      return mTemplateString;
+    }
+    
+    //Resolve all values first so the result can be allocated at its exact size
+    String[] lValues = new String[mVariableList.size()];
+    int lLength = mLiteralLength;
+    for(int i = 0; i < lValues.length; i++){
+      String lParamName = mVariableList.get(i);
+      lValues[i] = pPropertyMap.get(lParamName);
+      if(lValues[i] == null){
+        throw new ExLoader("Parameter value for '" + lParamName + "' substitution variable not defined");
+      }
+      lLength += lValues[i].length();
+    }
+    
+    StringBuilder lResult = new StringBuilder(lLength);
+    for(int i = 0; i < lValues.length; i++){
+      lResult.append(mLiteralList.get(i));
+      lResult.append(lValues[i]);
+    }
+    lResult.append(mLiteralList.get(lValues.length));
+    
+    return lResult.toString();
+  }
+  
+}
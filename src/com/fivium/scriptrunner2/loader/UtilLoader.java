@@ -1,14 +1,19 @@
 package com.fivium.scriptrunner2.loader;
 
+import com.fivium.scriptrunner2.Logger;
 import com.fivium.scriptrunner2.PromotionFile;
 import com.fivium.scriptrunner2.ScriptRunner;
+import com.fivium.scriptrunner2.ex.ExFatalError;
 import com.fivium.scriptrunner2.ex.ExPromote;
 
+import java.util.Map;
+
 /**
  * Special type of loader for running ScriptRunner utility scripts. These are scripts which the user wishes to run
  * during the promote but do not make any structural changes to the database. For instance, a "compile all" script.
- * A singleton UtilLoader is used to just-in-time parse the SQL in the promotion file into a pseuedo MetadataLoader,
- * to allow property binding. The pseudo MetadataLoader (a {@link UtilLoaderScript}) is then executed and discarded.<br/><br/>
+ * A singleton UtilLoader is used to parse the SQL in the promotion file into a pseuedo MetadataLoader, to allow property 
+ * binding. The pseudo MetadataLoader (a {@link UtilLoaderScript}) is cached on the ScriptRunner by file path and hash, so 
+ * a script which appears many times in a manifest is only read and parsed once per promote.<br/><br/>
  *
  * Utility scripts are always run and their execution is not logged seperately. For this reason end users should ensure
  * that the utility makes no permanent database changes.
@@ -33,15 +38,54 @@ extends BuiltInLoader {
     
     //Only run anything if this is not a -noexec run
     if(!pScriptRunner.getPromotionController().isNoExecController()){      
-      //Create a new UtilLoaderScript for the given promotion file (the promotion file is the util script we want to run)
-      UtilLoaderScript lLoader = new UtilLoaderScript(pPromotionFile);
-      //Prepare the MetadataLoader - this reads in the SQL and parses for binds
-      lLoader.prepare(pScriptRunner);    
+      //Get the UtilLoaderScript for the given promotion file (the promotion file is the util script we want to run)
+      MetadataLoader lLoader = getUtilLoaderScript(pScriptRunner, pPromotionFile);
       //Directly run the "loader" - i.e. the utility script - with no logging
       lLoader.doPromote(pScriptRunner, pPromotionFile);      
     }
   }
   
+  /**
+   * Validates that a utility script can be run for the given promotion file, parsing the script if it has not already
+   * been parsed in this promote.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile Utility script file to be validated.
+   * @throws ExPromote If validation fails.
+   */
+  public void validateForFile(ScriptRunner pScriptRunner, PromotionFile pPromotionFile)
+  throws ExPromote {
+    getUtilLoaderScript(pScriptRunner, pPromotionFile).validateForFile(pScriptRunner, pPromotionFile);
+  }
+  
+  /**
+   * Gets the prepared UtilLoaderScript for a utility script file from the ScriptRunner's cache, creating and preparing it
+   * if this version of the file has not been seen before.
+   * @param pScriptRunner Current ScriptRunner.
+   * @param pPromotionFile Utility script file.
+   * @return Prepared UtilLoaderScript.
+   * @throws ExFatalError If the script cannot be read or parsed.
+   */
+  private MetadataLoader getUtilLoaderScript(ScriptRunner pScriptRunner, PromotionFile pPromotionFile)
+  throws ExFatalError {
+    
+    String lCacheKey = pPromotionFile.getFilePath() + "/" + pPromotionFile.getFileHash();
+    Map<String, MetadataLoader> lCache = pScriptRunner.getUtilLoaderScriptCache();
+    
+    synchronized(lCache){
+      MetadataLoader lLoader = lCache.get(lCacheKey);
+      if(lLoader == null){
+        lLoader = new UtilLoaderScript(pPromotionFile);
+        //Prepare the MetadataLoader - this reads in the SQL and parses for binds
+        lLoader.prepare(pScriptRunner);
+        lCache.put(lCacheKey, lLoader);
+      }
+      else {
+        Logger.logDebug("Using cached utility script " + pPromotionFile.getFilePath());
+      }
+      return lLoader;
+    }
+  }
+  
   /**
    * A special MetadataLoader which will be used to run a utility script. The contents of the script is treated as a loader -
    * this allows properties to be bound in.
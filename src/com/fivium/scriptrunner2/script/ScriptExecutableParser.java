@@ -40,7 +40,17 @@ public class ScriptExecutableParser {
   throws ExParser {
 
     //Parse the script string into a list of parsed statements
-    List<ParsedStatement> lParsedStatementList = ScriptParser.parse(pScriptString);
+    return parseScriptExecutables(ScriptParser.parse(pScriptString), pAllowSQLBinds);
+  }
+  
+  /**
+   * Converts statements which have already been parsed by a {@link ScriptParser} into a list of {@link ScriptExecutable}s,
+   * for callers which also need the parsed statements themselves.
+   * @param pParsedStatementList Statements parsed from a script string.
+   * @param pAllowSQLBinds If true, statements will be parsed for bind variables.
+   * @return List of ScriptExecutables from the given statements.
+   */
+  public static List<ScriptExecutable> parseScriptExecutables(List<ParsedStatement> pParsedStatementList, boolean pAllowSQLBinds) {
     
     List<ScriptExecutable> lResult = new ArrayList<ScriptExecutable>();
     
@@ -49,7 +59,7 @@ public class ScriptExecutableParser {
     
     List<ScriptSQL> lScriptSQLCounter = new ArrayList<ScriptSQL>();
     
-    for(ParsedStatement lStatement : lParsedStatementList) {
+    for(ParsedStatement lStatement : pParsedStatementList) {
       //Parse each nested script for CONNECT/DISCONNECT/SQL syntax and extract each one into an individual exectuable statement
       lResult.addAll(parseScriptExecutables(lStatement, pAllowSQLBinds, lHashOccurrenceCounter, lScriptSQLCounter));
     }
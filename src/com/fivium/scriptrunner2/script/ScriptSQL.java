@@ -28,6 +28,7 @@ implements ScriptExecutable {
   private final String mOriginalSQL;
   private String mParsedSQL;
   private final List<String> mBindList = new ArrayList<String>();
+  private final String mInternalHash;
   private final String mExternalHash;
   private final boolean mIsComment;
   /** Index of this SQL within its containing PatchScript */
@@ -52,6 +53,7 @@ implements ScriptExecutable {
     if(pHashOccurrenceCounter.containsKey(lInternalHash)){
       lHashOccurrenceCount = pHashOccurrenceCounter.get(lInternalHash);
     }
+    mInternalHash = lInternalHash;
     mExternalHash = lInternalHash + "-" + ++lHashOccurrenceCount;
     pHashOccurrenceCounter.put(lInternalHash, lHashOccurrenceCount);
     
@@ -151,6 +153,15 @@ implements ScriptExecutable {
   public String getHash(){    
     return mExternalHash;
   }
+  
+  /**
+   * Gets the hash of this statement's parsed SQL, without the occurrence suffix. Identical statements will have the same
+   * SQL hash regardless of which script they appear in.
+   * @return The MD5 hash of this SQL.
+   */
+  public String getSQLHash(){
+    return mInternalHash;
+  }
 
   /**
    * Gets the index of this SQL statement within its parent PatchScript.
@@ -64,6 +64,32 @@ public class ParsedStatement {
     return lBuilder.toString();
   }
   
+  /**
+   * Gets the code of this statement with each comment and string literal replaced by a single space, not including its
+   * terminating delimiter. Double quoted identifiers are kept with their quotes. This is suitable for scanning the 
+   * statement for keywords and identifiers.
+   * @return Statement code.
+   */
+  public String getCodeString(){
+    
+    StringBuilder lBuilder = new StringBuilder();
+    for(ScriptSegment lSegment : mSegmentList){
+      if(lSegment instanceof UnescapedTextSegment){
+        lSegment.serialiseTo(lBuilder);
+      }
+      else if(lSegment instanceof EscapedTextSegment){
+        if(((EscapedTextSegment) lSegment).getEscapeDelimiter() == EscapeDelimiter.DOUBLE_QUOTE){
+          lSegment.serialiseTo(lBuilder);
+        }
+        else {
+          lBuilder.append(' ');
+        }
+      }
+    }
+    
+    return lBuilder.toString();
+  }
+  
   /**
    * Internal test to check if this statment consists entirely of either empty content or escaped content which is escaped
    * by a delimiter in pAllowedEscapeDelimiters.
@@ -0,0 +1,109 @@
+-- Distinct statement SQL, keyed by the hash of the statement text (the part of patch_run_statements.statement_hash 
+-- before the occurrence suffix)
+CREATE TABLE statement_texts (
+  statement_sql_hash VARCHAR2(1000)
+, created_timestamp TIMESTAMP NOT NULL
+, statement_sql CLOB NOT NULL
+)
+TABLESPACE tbsdata
+LOB (statement_sql) STORE AS (TABLESPACE tbsclob)
+/
+
+ALTER TABLE statement_texts
+ADD CONSTRAINT statement_texts_pk
+PRIMARY KEY (statement_sql_hash)
+USING INDEX TABLESPACE tbsidx
+/
+
+-- Distinct patch file contents, keyed by file hash
+CREATE TABLE file_texts (
+  file_hash VARCHAR2(1000)
+, created_timestamp TIMESTAMP NOT NULL
+, file_contents CLOB NOT NULL
+)
+TABLESPACE tbsdata
+LOB (file_contents) STORE AS (TABLESPACE tbsclob)
+/
+
+ALTER TABLE file_texts
+ADD CONSTRAINT file_texts_pk
+PRIMARY KEY (file_hash)
+USING INDEX TABLESPACE tbsidx
+/
+
+ALTER TABLE patch_run_statements
+ADD statement_sql_hash VARCHAR2(1000)
+/
+
+ALTER TABLE patch_run_statements
+MODIFY statement_sql NULL
+/
+
+-- Move existing statement text into the new table, keeping the earliest copy of each distinct statement
+INSERT INTO statement_texts (
+  statement_sql_hash
+, created_timestamp
+, statement_sql
+)
+SELECT 
+  statement_sql_hash
+, start_timestamp
+, statement_sql
+FROM (
+  SELECT
+    SUBSTR(statement_hash, 1, INSTR(statement_hash, '-') - 1) statement_sql_hash
+  , start_timestamp
+  , statement_sql
+  , ROW_NUMBER() OVER (PARTITION BY SUBSTR(statement_hash, 1, INSTR(statement_hash, '-') - 1) ORDER BY start_timestamp) rn
+  FROM patch_run_statements
+  WHERE statement_sql IS NOT NULL
+)
+WHERE rn = 1
+/
+
+UPDATE patch_run_statements
+SET 
+  statement_sql_hash = SUBSTR(statement_hash, 1, INSTR(statement_hash, '-') - 1)
+, statement_sql = NULL
+/
+
+-- Move existing patch file contents into the new table, keeping the earliest copy of each distinct file
+INSERT INTO file_texts (
+  file_hash
+, created_timestamp
+, file_contents
+)
+SELECT 
+  file_hash
+, start_timestamp
+, file_contents
+FROM (
+  SELECT
+    file_hash
+  , start_timestamp
+  , file_contents
+  , ROW_NUMBER() OVER (PARTITION BY file_hash ORDER BY start_timestamp) rn
+  FROM patch_runs
+  WHERE file_contents IS NOT NULL
+)
+WHERE rn = 1
+/
+
+UPDATE patch_runs
+SET file_contents = NULL
+WHERE file_hash IN (SELECT file_hash FROM file_texts)
+/
+
+COMMIT
+/
+
+ALTER TABLE patch_run_statements
+MODIFY statement_sql_hash NOT NULL
+/
+
+CREATE INDEX patch_run_statements_idx4
+ON patch_run_statements(statement_sql_hash)
+TABLESPACE tbsidx
+/
+
+-- Space freed from the old LOB columns can be reclaimed by a DBA with ALTER TABLE ... MODIFY LOB (...) (SHRINK SPACE)
@@ -0,0 +1,55 @@
+-- Archive tables for runs moved out of the hot log tables by -archive. These must have the same columns, in the same 
+-- order, as their hot table counterparts; any patch which adds a column to a hot table must add it here too.
+-- Basic table compression only applies to direct path inserts, which is how the archiver populates these tables.
+
+CREATE TABLE promotion_runs_archive
+TABLESPACE tbsdata
+COMPRESS
+LOB (output_log) STORE AS (TABLESPACE tbsclob)
+AS SELECT * FROM promotion_runs WHERE 1 = 0
+/
+
+CREATE INDEX promotion_runs_archive_idx1
+ON promotion_runs_archive(promotion_label)
+TABLESPACE tbsidx
+COMPRESS
+/
+
+CREATE TABLE promotion_files_archive
+TABLESPACE tbsdata
+COMPRESS
+AS SELECT * FROM promotion_files WHERE 1 = 0
+/
+
+CREATE INDEX promotion_files_archive_idx1
+ON promotion_files_archive(promotion_label, file_path, file_index)
+TABLESPACE tbsidx
+COMPRESS 2
+/
+
+CREATE TABLE patch_runs_archive
+TABLESPACE tbsdata
+COMPRESS
+LOB (output_log) STORE AS (TABLESPACE tbsclob)
+LOB (file_contents) STORE AS (TABLESPACE tbsclob)
+AS SELECT * FROM patch_runs WHERE 1 = 0
+/
+
+CREATE INDEX patch_runs_archive_idx1
+ON patch_runs_archive(patch_label, patch_number)
+TABLESPACE tbsidx
+COMPRESS 1
+/
+
+CREATE TABLE patch_run_statements_archive
+TABLESPACE tbsdata
+COMPRESS
+LOB (statement_sql) STORE AS (TABLESPACE tbsclob)
+AS SELECT * FROM patch_run_statements WHERE 1 = 0
+/
+
+CREATE INDEX patch_run_statements_archive_idx1
+ON patch_run_statements_archive(patch_label, patch_number, statement_hash)
+TABLESPACE tbsidx
+COMPRESS 2
+/
\ No newline at end of file
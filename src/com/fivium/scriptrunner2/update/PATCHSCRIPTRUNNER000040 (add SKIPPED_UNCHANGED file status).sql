@@ -0,0 +1,19 @@
+-- Files skipped by the skip_unchanged property are logged with a SKIPPED_UNCHANGED status, which is too long for the 
+-- original status column. The archive table is widened too so archived rows still fit.
+
+ALTER TABLE promotion_files
+MODIFY status VARCHAR2(20)
+/
+
+ALTER TABLE promotion_files_archive
+MODIFY status VARCHAR2(20)
+/
+
+ALTER TABLE promotion_files
+DROP CONSTRAINT promotion_files_ck2
+/
+
+ALTER TABLE promotion_files
+ADD CONSTRAINT promotion_files_ck2
+CHECK (status IN('STARTED', 'COMPLETE', 'FAILED', 'SKIPPED_UNCHANGED'))
+/
\ No newline at end of file
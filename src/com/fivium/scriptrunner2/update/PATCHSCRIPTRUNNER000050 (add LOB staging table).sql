@@ -0,0 +1,21 @@
+-- Staging area for file contents bound into metadata loaders when the -lobstaging option is used. Each distinct file 
+-- content is uploaded once per promotion run and the staged LOB is bound into every loader statement which needs it.
+-- Rows are deleted when the run finishes. Rows left behind by a promote which was killed can safely be deleted when no
+-- promote is running.
+CREATE TABLE promotion_lob_staging (
+  promotion_run_id NUMBER NOT NULL
+, content_key VARCHAR2(1000) NOT NULL
+, created_timestamp TIMESTAMP NOT NULL
+, blob_content BLOB
+, clob_content CLOB
+)
+TABLESPACE tbsdata
+LOB (blob_content) STORE AS (TABLESPACE tbsclob)
+LOB (clob_content) STORE AS (TABLESPACE tbsclob)
+/
+
+ALTER TABLE promotion_lob_staging
+ADD CONSTRAINT promotion_lob_staging_pk
+PRIMARY KEY (promotion_run_id, content_key)
+USING INDEX TABLESPACE tbsidx
+/
\ No newline at end of file
@@ -0,0 +1,33 @@
+-- Compilation errors and invalid statuses of objects created by DatabaseSource files, harvested when a promote finishes.
+-- One row is recorded per error, or a single row with no error details for an object which is invalid without errors.
+CREATE TABLE promotion_file_errors (
+  promotion_file_id NUMBER NOT NULL
+, owner VARCHAR2(128) NOT NULL
+, object_name VARCHAR2(128) NOT NULL
+, object_type VARCHAR2(30) NOT NULL
+, object_status VARCHAR2(7) NOT NULL
+, line NUMBER
+, position NUMBER
+, attribute VARCHAR2(9)
+, error_text VARCHAR2(4000)
+)
+TABLESPACE tbsdata
+/
+
+CREATE INDEX promotion_file_errors_idx1
+ON promotion_file_errors(promotion_file_id)
+TABLESPACE tbsidx
+/
+
+-- Archive counterpart, which must have the same columns in the same order (see PATCHSCRIPTRUNNER000030)
+CREATE TABLE promotion_file_errors_archive
+TABLESPACE tbsdata
+COMPRESS
+AS SELECT * FROM promotion_file_errors WHERE 1 = 0
+/
+
+CREATE INDEX promotion_file_errors_archive_idx1
+ON promotion_file_errors_archive(promotion_file_id)
+TABLESPACE tbsidx
+COMPRESS
+/
\ No newline at end of file
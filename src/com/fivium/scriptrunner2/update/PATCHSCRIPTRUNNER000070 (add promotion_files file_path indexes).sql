@@ -0,0 +1,12 @@
+-- A -delta promote looks up the latest deployment of each DatabaseSource path under any label, which the existing 
+-- label-based indexes cannot serve.
+CREATE INDEX promotion_files_idx3
+ON promotion_files(file_path, promotion_start_timestamp)
+TABLESPACE tbsidx
+/
+
+CREATE INDEX promotion_files_archive_idx2
+ON promotion_files_archive(file_path, promotion_start_timestamp)
+TABLESPACE tbsidx
+COMPRESS 1
+/
\ No newline at end of file
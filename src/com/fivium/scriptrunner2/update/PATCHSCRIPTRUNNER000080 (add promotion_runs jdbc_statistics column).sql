@@ -0,0 +1,11 @@
+-- JDBC call statistics recorded when a promote is run with -jdbcstats.
+ALTER TABLE promotion_runs
+ADD jdbc_statistics CLOB
+LOB (jdbc_statistics) STORE AS (TABLESPACE tbsclob)
+/
+
+-- Archive counterpart, which must have the same columns in the same order (see PATCHSCRIPTRUNNER000030)
+ALTER TABLE promotion_runs_archive
+ADD jdbc_statistics CLOB
+LOB (jdbc_statistics) STORE AS (TABLESPACE tbsclob)
+/
\ No newline at end of file
@@ -36,6 +36,13 @@ public class Updater {
   //Do not add patches with numbers lower than the highest number as they will not be run
   private static final String[] PATCH_FILES = new String[] {
     "PATCHSCRIPTRUNNER000010 (add file_index column to promotion_files table).sql"
+  , "PATCHSCRIPTRUNNER000020 (add content-addressed text tables).sql"
+  , "PATCHSCRIPTRUNNER000030 (add archive tables).sql"
+  , "PATCHSCRIPTRUNNER000040 (add SKIPPED_UNCHANGED file status).sql"
+  , "PATCHSCRIPTRUNNER000050 (add LOB staging table).sql"
+  , "PATCHSCRIPTRUNNER000060 (add promotion_file_errors table).sql"
+  , "PATCHSCRIPTRUNNER000070 (add promotion_files file_path indexes).sql"
+  , "PATCHSCRIPTRUNNER000080 (add promotion_runs jdbc_statistics column).sql"
   };
   
   private static final String UPDATE_PROMOTION_LABEL_PREFIX = "ScriptRunner-Update-";
@@ -132,7 +139,7 @@ public class Updater {
     
     List<PatchScript> lUpdatePatchList = getUpdatePatches();
     
-    int lLatestPatch = ScriptRunnerVersion.getLatestUpdatePatchNumber(lDatabaseConnection.getLoggingConnection());
+    int lLatestPatch = ScriptRunnerVersion.getLatestUpdatePatchNumber(lDatabaseConnection.getDialect(), lDatabaseConnection.getLoggingConnection());
     
     List<PatchScript> lRunPatchList = new ArrayList<PatchScript>();
     
@@ -185,16 +192,17 @@ public class Updater {
       
       Logger.logInfo("Logging update run");
       
+      try {
+        lPromotionController.startPromote();
+      }
+      catch (ExPromote e) {
+        throw new ExUpdater("Failed to start update promotion log: " + e.getMessage(), e);
+      }
+      
       for(PatchScript lUpdatePatch : lRunPatchList){
         PatchRunController lPatchRunController = new PatchRunController(lDatabaseConnection, lPromotionController, lUpdatePatch);
-        try {
-          lPromotionController.startPromote();
-          lPatchRunController.validateAndStartPatchRun();
-          lPatchRunController.endPatchRun(true);        
-        }
-        catch (ExPromote e) {
-          throw new ExUpdater("Failed to log update for patch " + lUpdatePatch.getDisplayName() + ": " + e.getMessage(), e);
-        }
+        lPatchRunController.validateAndStartPatchRun();
+        lPatchRunController.endPatchRun(true);
       }
       
       //Finalise the update promote
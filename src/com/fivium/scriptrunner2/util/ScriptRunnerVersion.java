@@ -2,8 +2,10 @@ package com.fivium.scriptrunner2.util;
 
 
 import com.fivium.scriptrunner2.PatchScript;
+import com.fivium.scriptrunner2.database.DatabaseDialect;
 import com.fivium.scriptrunner2.database.sql.SQLManager;
 import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.ex.ExPromote;
 import com.fivium.scriptrunner2.install.Installer;
 import com.fivium.scriptrunner2.update.Updater;
 
@@ -83,9 +85,23 @@ public class ScriptRunnerVersion {
     return lList.get(lList.size()-1).getPatchNumber();
   }
   
-  public static int getLatestUpdatePatchNumber(Connection pConnection){
+  /**
+   * Asserts that the latest update patch run on the target database is the one expected by this version of ScriptRunner.
+   * @param pLatestPatch Number of the latest update patch which has been run on the database.
+   * @throws ExPromote If the patch numbers do not match.
+   */
+  public static void assertLatestUpdatePatchNumber(int pLatestPatch) 
+  throws ExPromote {
+    int lExpectedPatch = getLatestExpectedUpdatePatchNumber();
+    if(pLatestPatch != lExpectedPatch){
+      throw new ExPromote("ScriptRunner database version check failed - the latest " + Installer.INSTALL_PATCH_PREFIX + " patch run was #" + 
+                          pLatestPatch + " but this version expects the latest patch to be #" + lExpectedPatch + ". Use -update to update the database.");
+    }
+  }
+  
+  public static int getLatestUpdatePatchNumber(DatabaseDialect pDialect, Connection pConnection){
     try {
-      return SQLManager.queryScalarInt(pConnection, SQLManager.SQL_FILE_VERSION_CHECK, Installer.INSTALL_PATCH_PREFIX);
+      return SQLManager.queryScalarInt(pDialect, pConnection, SQLManager.SQL_FILE_VERSION_CHECK, Installer.INSTALL_PATCH_PREFIX);
     }
     catch (SQLException e) {
       throw new ExFatalError("Error getting latest update patch number: " + e.getMessage(), e);
@@ -0,0 +1,106 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.CompileSchedule.SourceReferences;
+import com.fivium.scriptrunner2.ex.ExParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+
+public class CompileScheduleTest {
+  
+  private static final String PACKAGE_A_SPEC = "CREATE OR REPLACE PACKAGE app.pkg_a AS\n  PROCEDURE run;\nEND pkg_a;\n/";
+  private static final String PACKAGE_A_BODY = "CREATE OR REPLACE PACKAGE BODY app.pkg_a AS\n  PROCEDURE run IS BEGIN NULL; END;\nEND pkg_a;\n/";
+  private static final String PACKAGE_B_SPEC = "CREATE OR REPLACE PACKAGE app.pkg_b AS\n  PROCEDURE run;\nEND pkg_b;\n/";
+  private static final String PACKAGE_B_BODY = "CREATE OR REPLACE PACKAGE BODY app.pkg_b AS\n  PROCEDURE run IS BEGIN app.pkg_a.run; END;\nEND pkg_b;\n/";
+  private static final String VIEW_C = "CREATE OR REPLACE FORCE VIEW app.view_c AS\nSELECT 'pkg_a' name -- pkg_b\nFROM dual\n/";
+  
+  private List<PromotionFile> mFileList;
+  
+  private CompileSchedule createSchedule(String... pFileContents)
+  throws ExParser {
+    mFileList = new ArrayList<PromotionFile>();
+    List<SourceReferences> lReferenceList = new ArrayList<SourceReferences>();
+    for(int i = 0; i < pFileContents.length; i++){
+      mFileList.add(new PromotionFile("DatabaseSource/file" + i + ".sql", "DatabaseSource", i + 1, new HashMap<String, String>(), false));
+      lReferenceList.add(CompileSchedule.parseReferences(pFileContents[i]));
+    }
+    return new CompileSchedule(mFileList, lReferenceList);
+  }
+  
+  @Test
+  public void testParseDefinedObjects()
+  throws ExParser {
+    SourceReferences lReferences = CompileSchedule.parseReferences("/* header */\n" + PACKAGE_B_BODY);
+    
+    assertEquals("One object should be defined", 1, lReferences.mDefinedObjects.size());
+    assertEquals("Type should be parsed", "PACKAGE BODY", lReferences.mDefinedObjects.get(0).mType);
+    assertEquals("Owner should be parsed", "APP", lReferences.mDefinedObjects.get(0).mOwner);
+    assertEquals("Name should be parsed", "PKG_B", lReferences.mDefinedObjects.get(0).mName);
+    assertTrue("Referenced identifiers should be found", lReferences.mIdentifiers.contains("PKG_A"));
+  }
+  
+  @Test
+  public void testNonCreateStatementIsBarrier()
+  throws ExParser {
+    SourceReferences lReferences = CompileSchedule.parseReferences(PACKAGE_A_SPEC + "\nGRANT EXECUTE ON app.pkg_a TO other\n/");
+    assertTrue("A file with a non-CREATE statement should be a barrier", lReferences.isBarrier());
+    assertEquals("Objects created by the file should still be reported", 1, lReferences.mDefinedObjects.size());
+  }
+  
+  @Test
+  public void testDependencies()
+  throws ExParser {
+    CompileSchedule lSchedule = createSchedule(PACKAGE_A_SPEC, PACKAGE_B_SPEC, PACKAGE_A_BODY, PACKAGE_B_BODY, VIEW_C);
+    
+    assertEquals("Independent specs should not depend on each other", Collections.<Integer>emptySet(), lSchedule.getPendingDependencies(1));
+    assertEquals("Body should depend on its spec", new HashSet<Integer>(Arrays.asList(0)), lSchedule.getPendingDependencies(2));
+    assertEquals("Body should depend on its spec and referenced objects", new HashSet<Integer>(Arrays.asList(0, 1, 2)), lSchedule.getPendingDependencies(3));
+    assertEquals("Names in literals and comments should not be dependencies", Collections.<Integer>emptySet(), lSchedule.getPendingDependencies(4));
+  }
+  
+  @Test
+  public void testScheduleOrder()
+  throws ExParser, InterruptedException {
+    CompileSchedule lSchedule = createSchedule(PACKAGE_A_SPEC, PACKAGE_A_BODY, PACKAGE_B_SPEC);
+    
+    assertSame("First file should be started first", mFileList.get(0), lSchedule.next());
+    assertSame("Independent file should be started before the body", mFileList.get(2), lSchedule.next());
+    
+    lSchedule.complete(mFileList.get(0));
+    assertSame("Body should be started once its spec completes", mFileList.get(1), lSchedule.next());
+    assertNull("No files should remain", lSchedule.next());
+  }
+  
+  @Test
+  public void testScheduleUsesPreparedReferences()
+  throws ExParser {
+    //The files do not exist, so the schedule can only be created from the references parsed when they were prepared
+    createSchedule(PACKAGE_A_SPEC, PACKAGE_A_BODY);
+    mFileList.get(0).setSourceReferences(CompileSchedule.parseReferences(PACKAGE_A_SPEC));
+    mFileList.get(1).setSourceReferences(CompileSchedule.parseReferences(PACKAGE_A_BODY));
+    
+    CompileSchedule lSchedule = CompileSchedule.createForFiles(null, mFileList);
+    assertEquals("Body should depend on its spec", new HashSet<Integer>(Arrays.asList(0)), lSchedule.getPendingDependencies(1));
+  }
+  
+  @Test
+  public void testRecompileStatement()
+  throws ExParser {
+    SourceReferences lReferences = CompileSchedule.parseReferences(PACKAGE_A_BODY);
+    assertEquals("Body should be recompiled with its specification type", "ALTER PACKAGE \"APP\".\"PKG_A\" COMPILE BODY", 
+                 CompileSchedule.getRecompileStatement(lReferences.mDefinedObjects.get(0), "APP"));
+  }
+  
+}
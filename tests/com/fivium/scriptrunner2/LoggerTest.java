@@ -0,0 +1,58 @@
+package com.fivium.scriptrunner2;
+
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+
+public class LoggerTest {
+  
+  @Test
+  public void testConcurrentLogContextsGetSeparateFiles()
+  throws Exception {
+    final File lLogDirectory = File.createTempFile("scriptrunner-logs", "");
+    lLogDirectory.delete();
+    lLogDirectory.mkdir();
+    
+    ExecutorService lExecutor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Logger.LogContext>> lFutures = new ArrayList<Future<Logger.LogContext>>();
+      for(int i = 0; i < 16; i++){
+        lFutures.add(lExecutor.submit(new Callable<Logger.LogContext>() {
+          public Logger.LogContext call()
+          throws Exception {
+            return Logger.createLogContext("job", lLogDirectory, null);
+          }
+        }));
+      }
+      
+      Set<File> lLogFiles = new HashSet<File>();
+      for(Future<Logger.LogContext> lFuture : lFutures){
+        Logger.LogContext lContext = lFuture.get();
+        lLogFiles.add(lContext.getLogFile());
+        Logger.closeLogContext(lContext);
+      }
+      
+      assertEquals("Each context should have its own log file", 16, lLogFiles.size());
+      assertEquals("Each log file should exist", 16, lLogDirectory.listFiles().length);
+    }
+    finally {
+      lExecutor.shutdown();
+      FileUtils.deleteDirectory(lLogDirectory);
+    }
+  }
+  
+}
@@ -0,0 +1,41 @@
+package com.fivium.scriptrunner2;
+
+
+import com.fivium.scriptrunner2.ex.ExFatalError;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+
+public class TargetFanOutTest {
+  
+  @Test
+  public void testParseTargets() {
+    List<TargetFanOut.Target> lTargets = TargetFanOut.parseTargets(Arrays.asList(
+      "# Test databases",
+      "",
+      "dev1   jdbc:oracle:thin:@dev1:1521:DEV1",
+      "  jdbc:oracle:thin:@(DESCRIPTION=(ADDRESS=(PROTOCOL=TCP)(HOST=dev2)(PORT=1521))(CONNECT_DATA=(SID=DEV2)))  "
+    ));
+    
+    assertEquals("Comments and blank lines should be ignored", 2, lTargets.size());
+    assertEquals("Named target should use its name", "dev1", lTargets.get(0).mName);
+    assertEquals("Named target connect string should follow the name", "jdbc:oracle:thin:@dev1:1521:DEV1", lTargets.get(0).mJDBCConnectString);
+    assertEquals("Unnamed target should be named by position", "target2", lTargets.get(1).mName);
+    assertEquals("Unnamed target should use the whole line", "jdbc:oracle:thin:@(DESCRIPTION=(ADDRESS=(PROTOCOL=TCP)(HOST=dev2)(PORT=1521))(CONNECT_DATA=(SID=DEV2)))", lTargets.get(1).mJDBCConnectString);
+  }
+  
+  @Test(expected = ExFatalError.class)
+  public void testDuplicateTargetNameRejected() {
+    TargetFanOut.parseTargets(Arrays.asList("dev jdbc:oracle:thin:@dev1:1521:DEV1", "dev jdbc:oracle:thin:@dev2:1521:DEV2"));
+  }
+  
+  @Test(expected = ExFatalError.class)
+  public void testEmptyTargetsRejected() {
+    TargetFanOut.parseTargets(Collections.singletonList("# nothing here"));
+  }
+}
@@ -0,0 +1,42 @@
+package com.fivium.scriptrunner2.daemon;
+
+
+import java.io.File;
+
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.apache.commons.io.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+
+public class ScriptRunnerDaemonTest {
+  
+  @Test
+  public void testTokenFileOnlyReadableByOwner()
+  throws Exception {
+    File lHomeDirectory = Files.createTempDirectory("scriptrunner-home").toFile();
+    String lOriginalHome = System.getProperty("user.home");
+    System.setProperty("user.home", lHomeDirectory.getAbsolutePath());
+    try {
+      String lToken = ScriptRunnerDaemon.createTokenFile(4567);
+      assertEquals("Token should be read back from the token file", lToken, ScriptRunnerDaemon.readTokenFile(4567));
+      
+      String lSecondToken = ScriptRunnerDaemon.createTokenFile(4567);
+      assertFalse("A new token should be generated each time the daemon starts", lToken.equals(lSecondToken));
+      
+      File lTokenFile = ScriptRunnerDaemon.getTokenFile(4567);
+      if(lTokenFile.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")){
+        assertEquals("Token file should only be accessible by its owner", "rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(lTokenFile.toPath())));
+      }
+    }
+    finally {
+      System.setProperty("user.home", lOriginalHome);
+      FileUtils.deleteDirectory(lHomeDirectory);
+    }
+  }
+  
+}
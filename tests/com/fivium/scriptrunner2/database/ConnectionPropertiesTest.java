@@ -0,0 +1,53 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+
+public class ConnectionPropertiesTest {
+  
+  @Test
+  public void testPrefixedSettingsOverrideUnprefixed() {
+    Properties lSettings = new Properties();
+    lSettings.setProperty("oracle.jdbc.implicitStatementCacheSize", "50");
+    lSettings.setProperty("logging.oracle.jdbc.implicitStatementCacheSize", "10");
+    lSettings.setProperty("promote.defaultRowPrefetch", "100");
+    
+    ConnectionProperties lProperties = new ConnectionProperties(lSettings);
+    
+    assertEquals("Unprefixed setting should apply to the promote connection", "50", lProperties.getPromoteProperties().getProperty("oracle.jdbc.implicitStatementCacheSize"));
+    assertEquals("Prefixed setting should override unprefixed setting", "10", lProperties.getLoggingProperties().getProperty("oracle.jdbc.implicitStatementCacheSize"));
+    assertEquals("Promote setting should apply to the promote connection", "100", lProperties.getPromoteProperties().getProperty("defaultRowPrefetch"));
+    assertNull("Promote setting should not apply to the logging connection", lProperties.getLoggingProperties().getProperty("defaultRowPrefetch"));
+  }
+  
+  @Test(expected = ExFatalError.class)
+  public void testReservedSettingRejected() {
+    Properties lSettings = new Properties();
+    lSettings.setProperty("promote.password", "secret");
+    new ConnectionProperties(lSettings);
+  }
+  
+  @Test
+  public void testCommandLineOverridesBundledProfile() 
+  throws Exception {
+    CommandLineWrapper lCommandLine = new CommandLineWrapper(new String[] {
+      "-run", "promote.zip", "-jdbcproperties", "lob-heavy", "-jdbcproperty", "promote.defaultRowPrefetch=500", "-jdbcproperty", "oracle.jdbc.defaultLobPrefetchSize=1024"
+    });
+    
+    ConnectionProperties lProperties = ConnectionProperties.createFromCommandLine(lCommandLine);
+    
+    assertEquals("Bundled profile should be loaded", "50", lProperties.getPromoteProperties().getProperty("oracle.jdbc.implicitStatementCacheSize"));
+    assertEquals("Command line setting should override profile", "500", lProperties.getPromoteProperties().getProperty("defaultRowPrefetch"));
+    assertEquals("Prefixed profile setting should override unprefixed command line setting", "65536", lProperties.getPromoteProperties().getProperty("oracle.jdbc.defaultLobPrefetchSize"));
+    assertEquals("Unprefixed command line setting should apply to logging connection", "1024", lProperties.getLoggingProperties().getProperty("oracle.jdbc.defaultLobPrefetchSize"));
+  }
+  
+}
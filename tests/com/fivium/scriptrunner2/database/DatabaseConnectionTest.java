@@ -0,0 +1,64 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.CommandLineWrapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+
+public class DatabaseConnectionTest {
+
+  @Test
+  public void testCachedStatementClearsBatchLeftByFailedBind()
+  throws Exception {
+    DatabaseConnection lDatabaseConnection = DatabaseConnection.createConnection(new CommandLineWrapper(new String[] {
+      "-run", "promote.zip", "-jdbc", "jdbc:h2:mem:cached_statement_test;DB_CLOSE_DELAY=-1", "-user", "promotemgr", "-password", "test", "-dialect", "h2"
+    }));
+    try {
+      Statement lStatement = lDatabaseConnection.getPromoteConnection().createStatement();
+      lStatement.execute("CREATE TABLE batch_items (name VARCHAR(100) NOT NULL)");
+      lStatement.close();
+
+      String lSQL = "INSERT INTO batch_items (name) VALUES (?)";
+
+      //Queue a row then fail to bind the next one, as a failed batch would
+      PreparedStatement lFailedBatch = lDatabaseConnection.getCachedPromoteStatement(lSQL);
+      lFailedBatch.setString(1, "abandoned");
+      lFailedBatch.addBatch();
+      try {
+        lFailedBatch.setObject(1, new Object());
+        fail("Binding an unsupported object should fail");
+      }
+      catch (SQLException e) {
+        //Expected
+      }
+
+      PreparedStatement lRetry = lDatabaseConnection.getCachedPromoteStatement(lSQL);
+      assertSame("Statement should be reused from the cache", lFailedBatch, lRetry);
+      lRetry.setString(1, "retried");
+      lRetry.addBatch();
+      assertEquals("Only the retried row should be executed", 1, lRetry.executeBatch().length);
+
+      lStatement = lDatabaseConnection.getPromoteConnection().createStatement();
+      ResultSet lResultSet = lStatement.executeQuery("SELECT COUNT(*) FROM batch_items WHERE name = 'abandoned'");
+      lResultSet.next();
+      assertEquals("Row queued before the failure should not be inserted", 0, lResultSet.getInt(1));
+      lStatement.close();
+
+      lDatabaseConnection.getPromoteConnection().rollback();
+    }
+    finally {
+      lDatabaseConnection.closePromoteConnection();
+      lDatabaseConnection.closeLoggingConnection();
+    }
+  }
+
+}
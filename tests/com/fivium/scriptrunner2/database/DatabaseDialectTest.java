@@ -0,0 +1,36 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+
+public class DatabaseDialectTest {
+
+  @Test
+  public void testOracleDialectIsDefault()
+  throws Exception {
+    assertTrue("Oracle dialect should be used when none is specified",
+               DatabaseConnection.establishDialect(new CommandLineWrapper(new String[] {"-run", "promote.zip"})) instanceof OracleDialect);
+    assertTrue("Oracle dialect should be created from class name",
+               DatabaseConnection.establishDialect(new CommandLineWrapper(new String[] {"-run", "promote.zip", "-dialect", OracleDialect.class.getName()})) instanceof OracleDialect);
+  }
+
+  @Test(expected = ExFatalError.class)
+  public void testNonDialectClassRejected()
+  throws Exception {
+    DatabaseConnection.establishDialect(new CommandLineWrapper(new String[] {"-run", "promote.zip", "-dialect", "java.lang.String"}));
+  }
+
+  @Test
+  public void testOracleConnectString() {
+    OracleDialect lDialect = new OracleDialect();
+    assertEquals("SID syntax should be used if a SID is given", "jdbc:oracle:thin:@dbhost:1521:ORCL", lDialect.buildConnectString("dbhost", "1521", "ORCL", null));
+    assertEquals("Service name syntax should be used if no SID is given", "jdbc:oracle:thin:@//dbhost:1521/orcl.example", lDialect.buildConnectString("dbhost", "1521", null, "orcl.example"));
+  }
+
+}
@@ -0,0 +1,108 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.ScriptRunner;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
+
+import java.io.File;
+
+import java.nio.file.Files;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.apache.commons.io.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+public class H2DialectTest {
+
+  private static File gPromoteDirectory;
+
+  @BeforeClass
+  public static void createPromote()
+  throws Exception {
+    gPromoteDirectory = Files.createTempDirectory("scriptrunner-h2").toFile();
+    //The log file is shared by every test which runs a promote so must outlive the promote directory
+    Logger.initialiseLogFile(new File(System.getProperty("java.io.tmpdir")));
+
+    FileUtils.write(new File(gPromoteDirectory, ScriptRunner.MANIFEST_RELATIVE_FILE_PATH),
+                    "PROMOTION {promotion_label=\"h2_test\", scriptrunner_version=\"" + ScriptRunnerVersion.getVersionNumber() + "\"}\n\n" +
+                    "001000: Patch DatabasePatches/TestPatches/PATCHTEST00001 (create test table).sql\n" +
+                    "002000: TestLoader Metadata/item1.txt {batch_size=\"2\", auto_commit=\"true\"}\n" +
+                    "003000: TestLoader Metadata/item2.txt {batch_size=\"2\", auto_commit=\"true\"}\n" +
+                    "004000: TestLoader Metadata/item3.txt {auto_commit=\"true\"}\n");
+    FileUtils.write(new File(gPromoteDirectory, "ScriptRunner/Loaders/TestLoader.sql"),
+                    "INSERT INTO test_items (name, contents) VALUES (:name, :clob)\n/\n");
+    FileUtils.write(new File(gPromoteDirectory, "DatabasePatches/TestPatches/PATCHTEST00001 (create test table).sql"),
+                    "CREATE TABLE test_items (name VARCHAR(100), contents CLOB)\n/\n");
+    for(int i = 1; i <= 3; i++){
+      FileUtils.write(new File(gPromoteDirectory, "Metadata/item" + i + ".txt"), "Contents of item " + i);
+    }
+  }
+
+  @AfterClass
+  public static void deletePromote()
+  throws Exception {
+    FileUtils.deleteDirectory(gPromoteDirectory);
+  }
+
+  private static String[] getArgs(String pJDBCString){
+    return new String[] {"-run", gPromoteDirectory.getAbsolutePath(), "-jdbc", pJDBCString, "-user", "promotemgr", "-password", "test",
+                         "-dialect", "h2", "-nohashcheck", "-jdbcstats"};
+  }
+
+  private static int queryInt(Connection pConnection, String pSQL)
+  throws Exception {
+    Statement lStatement = pConnection.createStatement();
+    try {
+      ResultSet lResultSet = lStatement.executeQuery(pSQL);
+      lResultSet.next();
+      return lResultSet.getInt(1);
+    }
+    finally {
+      lStatement.close();
+    }
+  }
+
+  @Test
+  public void testPromoteRunsEndToEnd()
+  throws Throwable {
+    String lJDBCString = "jdbc:h2:mem:h2_promote_test;DB_CLOSE_DELAY=-1";
+    Connection lConnection = DriverManager.getConnection(lJDBCString, "promotemgr", "test");
+    try {
+      ScriptRunner.run(new CommandLineWrapper(getArgs(lJDBCString)));
+
+      lConnection.setSchema("PROMOTEMGR");
+      assertEquals("Promotion run should be complete", 1, queryInt(lConnection, "SELECT COUNT(*) FROM promotion_runs WHERE promotion_label = 'h2_test' AND status = 'COMPLETE'"));
+      assertTrue("Promotion run log should be written", queryInt(lConnection, "SELECT LENGTH(output_log) FROM promotion_runs WHERE promotion_label = 'h2_test'") > 0);
+      assertEquals("JDBC statistics should be recorded", 1, queryInt(lConnection, "SELECT COUNT(*) FROM promotion_runs WHERE promotion_label = 'h2_test' AND jdbc_statistics LIKE 'JDBC call statistics%'"));
+      assertEquals("Every metadata file should be logged as complete", 3, queryInt(lConnection, "SELECT COUNT(*) FROM promotion_files WHERE promotion_label = 'h2_test' AND status = 'COMPLETE'"));
+      assertEquals("Patch run should be logged as complete", 1, queryInt(lConnection, "SELECT COUNT(*) FROM patch_runs WHERE patch_label = 'PATCHTEST' AND status = 'COMPLETE'"));
+      assertEquals("Metadata files should be loaded", 3, queryInt(lConnection, "SELECT COUNT(*) FROM test_items WHERE contents LIKE 'Contents of item %'"));
+
+      try {
+        ScriptRunner.run(new CommandLineWrapper(getArgs(lJDBCString)));
+        fail("A label which has already been promoted should not be promoted again");
+      }
+      catch (ExFatalError e) {
+        assertTrue("Error should explain the label has already been promoted", e.getMessage().contains("already been promoted"));
+      }
+    }
+    finally {
+      lConnection.close();
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.database.sql.SQLManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+
+public class JDBCStatisticsTest {
+
+  /**
+   * Creates a stand-in for a driver object which returns further stand-ins for any JDBC interface and defaults otherwise.
+   */
+  private static Object createStandIn(Class<?> pInterface){
+    return Proxy.newProxyInstance(JDBCStatisticsTest.class.getClassLoader(), new Class<?>[] {pInterface}, new InvocationHandler() {
+      public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) {
+        Class<?> lReturnType = pMethod.getReturnType();
+        if(lReturnType.isInterface() && lReturnType.getName().startsWith("java.sql.")){
+          return createStandIn(lReturnType);
+        }
+        else if(lReturnType == boolean.class){
+          return false;
+        }
+        else if(lReturnType == int.class){
+          return 0;
+        }
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testCallsRecordedByTypeAndSQLName()
+  throws Exception {
+    OracleDialect lDialect = new OracleDialect();
+    JDBCStatistics lStatistics = new JDBCStatistics(lDialect);
+    Connection lConnection = InstrumentedJDBC.wrapConnection((Connection) createStandIn(Connection.class), lStatistics, JDBCStatistics.LOGGING_CONNECTION_NAME);
+
+    PreparedStatement lStatement = lConnection.prepareStatement(lDialect.getControlSQL(SQLManager.SQL_FILE_UPDATE_PROMOTION_FILE));
+    lStatement.executeUpdate();
+    lStatement.executeUpdate();
+    assertSame("Statement should return the wrapped connection", lConnection, lStatement.getConnection());
+
+    Statement lPlainStatement = lConnection.createStatement();
+    lPlainStatement.execute("SELECT 1 FROM dual");
+    lConnection.commit();
+
+    assertEquals("SQL from a ScriptRunner SQL file should be named", SQLManager.SQL_FILE_UPDATE_PROMOTION_FILE, lStatistics.getSQLName(lDialect.getControlSQL(SQLManager.SQL_FILE_UPDATE_PROMOTION_FILE)));
+    assertEquals("Other SQL should be grouped", JDBCStatistics.OTHER_SQL_NAME, lStatistics.getSQLName("SELECT 1 FROM dual"));
+
+    String lSummary = lStatistics.getSummary();
+    assertTrue("Executes should be counted by type", lSummary.matches("(?s).*logging EXECUTE\\s+3\\s.*"));
+    assertTrue("Prepare and executes should be counted by SQL file", lSummary.matches("(?s).*logging " + SQLManager.SQL_FILE_UPDATE_PROMOTION_FILE.replace(".", "\\.") + "\\s+3\\s.*"));
+    assertTrue("Commits should be counted", lSummary.matches("(?s).*logging COMMIT\\s+1\\s.*"));
+    assertTrue("Total should include every call", lSummary.contains("6 calls;"));
+  }
+
+}
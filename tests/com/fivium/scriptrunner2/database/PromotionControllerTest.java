@@ -0,0 +1,58 @@
+package com.fivium.scriptrunner2.database;
+
+
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.ex.ExPromote;
+import com.fivium.scriptrunner2.install.Installer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+
+public class PromotionControllerTest {
+
+  @Test
+  public void testStartPromoteOnDatabaseNotUpdatedRequestsUpdate()
+  throws Exception {
+    String lJDBCString = "jdbc:h2:mem:not_updated_test;DB_CLOSE_DELAY=-1";
+
+    //Create the control tables as they were before the update patches, without the archive tables
+    Connection lConnection = DriverManager.getConnection(lJDBCString, "promotemgr", "test");
+    try {
+      Statement lStatement = lConnection.createStatement();
+      lStatement.execute("CREATE SCHEMA promotemgr");
+      lStatement.execute("SET SCHEMA promotemgr");
+      lStatement.execute("CREATE TABLE promotion_labels (label VARCHAR(200) PRIMARY KEY, created_datetime TIMESTAMP, last_promoted_datetime TIMESTAMP)");
+      lStatement.execute("CREATE TABLE promotion_runs (id INT PRIMARY KEY, promotion_label VARCHAR(200), scriptrunner_version VARCHAR(100), ignore_flag VARCHAR(1), " +
+                         "start_datetime TIMESTAMP, end_datetime TIMESTAMP, status VARCHAR(10), output_log CLOB)");
+      lStatement.execute("CREATE TABLE patch_runs (id INT PRIMARY KEY, patch_label VARCHAR(200), patch_number INT, ignore_flag VARCHAR(1))");
+      lStatement.execute("INSERT INTO patch_runs VALUES (1, '" + Installer.INSTALL_PATCH_PREFIX + "', 10, NULL)");
+      lStatement.close();
+      lConnection.commit();
+    }
+    finally {
+      lConnection.close();
+    }
+
+    DatabaseConnection lDatabaseConnection = DatabaseConnection.createConnection(new CommandLineWrapper(new String[] {
+      "-run", "promote.zip", "-jdbc", lJDBCString, "-user", "promotemgr", "-password", "test", "-dialect", "h2"
+    }), false);
+    try {
+      new PromotionController(lDatabaseConnection, "not_updated", true, true).startPromote();
+      fail("Promote should not start on a database which has not been updated");
+    }
+    catch (ExPromote e) {
+      assertTrue("Error should tell the user to run -update", e.getMessage().contains("-update"));
+    }
+    finally {
+      lDatabaseConnection.closePromoteConnection();
+      lDatabaseConnection.closeLoggingConnection();
+    }
+  }
+
+}
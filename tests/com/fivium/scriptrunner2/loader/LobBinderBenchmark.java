@@ -0,0 +1,240 @@
+package com.fivium.scriptrunner2.loader;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.charset.Charset;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Measures the upload throughput of {@link LobBinder} by file size. For each size, a file is generated and bound as a
+ * BLOB, as a CLOB in a single byte character set (bound with its length) and as a CLOB in UTF-8 (bound without a length),
+ * then inserted into a scratch table. Each insert is rolled back, and the table is dropped when the run finishes.<br/><br/>
+ *
+ * This is not a unit test, so it is not run by the test target. Run it with the <tt>benchmark-lob</tt> Ant target, or
+ * directly with the test classpath. Arguments (all optional):
+ * <ul>
+ * <li><tt>-jdbc</tt> JDBC connect string. Defaults to an in-memory H2 database, which measures the binder's own
+ * overhead; use an Oracle connect string to measure real upload throughput.</li>
+ * <li><tt>-user</tt>, <tt>-password</tt> Credentials. The user needs to be able to create a table in its own schema.</li>
+ * <li><tt>-sizes</tt> Comma separated list of file sizes in bytes, with an optional K, M or G suffix. Defaults to
+ * 1K,64K,1M,16M,64M.</li>
+ * <li><tt>-iterations</tt> Number of times to bind each file. The mean is reported. Defaults to 3.</li>
+ * <li><tt>-lobchunksize</tt>, <tt>-lobtempthreshold</tt> As for a promote.</li>
+ * </ul>
+ */
+public class LobBinderBenchmark {
+
+  private static final String DEFAULT_JDBC = "jdbc:h2:mem:lob_benchmark";
+  private static final String DEFAULT_SIZES = "1K,64K,1M,16M,64M";
+  private static final int DEFAULT_ITERATIONS = 3;
+
+  private static final String TABLE_NAME = "scriptrunner_lob_benchmark";
+
+  private static final String BLOB = "BLOB";
+  private static final String CLOB_SINGLE_BYTE = "CLOB ISO-8859-1";
+  private static final String CLOB_UTF8 = "CLOB UTF-8";
+
+  private final Connection mConnection;
+  private final LobBinder mLobBinder;
+  private final int mIterations;
+
+  public static void main(String[] pArgs)
+  throws Exception {
+
+    String lJDBC = DEFAULT_JDBC;
+    String lUser = "";
+    String lPassword = "";
+    String lSizes = DEFAULT_SIZES;
+    int lIterations = DEFAULT_ITERATIONS;
+    int lChunkSize = LobBinder.DEFAULT_CHUNK_SIZE;
+    long lThreshold = LobBinder.DEFAULT_TEMPORARY_LOB_THRESHOLD;
+
+    for(int i = 0; i < pArgs.length; i += 2){
+      if(i + 1 >= pArgs.length){
+        throw new IllegalArgumentException("No value given for " + pArgs[i]);
+      }
+      String lValue = pArgs[i + 1];
+      if("-jdbc".equals(pArgs[i])){
+        lJDBC = lValue;
+      }
+      else if("-user".equals(pArgs[i])){
+        lUser = lValue;
+      }
+      else if("-password".equals(pArgs[i])){
+        lPassword = lValue;
+      }
+      else if("-sizes".equals(pArgs[i])){
+        lSizes = lValue;
+      }
+      else if("-iterations".equals(pArgs[i])){
+        lIterations = Integer.parseInt(lValue);
+      }
+      else if("-lobchunksize".equals(pArgs[i])){
+        lChunkSize = Integer.parseInt(lValue);
+      }
+      else if("-lobtempthreshold".equals(pArgs[i])){
+        lThreshold = parseSize(lValue);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown argument " + pArgs[i]);
+      }
+    }
+
+    Connection lConnection = DriverManager.getConnection(lJDBC, lUser, lPassword);
+    try {
+      lConnection.setAutoCommit(false);
+      System.out.println("LOB bind throughput against " + lConnection.getMetaData().getDatabaseProductName() + ", chunk size " + lChunkSize +
+                         " bytes, temporary LOB threshold " + lThreshold + " bytes, mean of " + lIterations + " iterations");
+      System.out.println(String.format("%15s  %-16s  %10s  %10s", "Size (bytes)", "Bind", "Mean (ms)", "MB/s"));
+
+      new LobBinderBenchmark(lConnection, new LobBinder(lChunkSize, lThreshold), lIterations).run(lSizes.split(","));
+    }
+    finally {
+      lConnection.close();
+    }
+  }
+
+  /**
+   * Parses a size in bytes with an optional K, M or G suffix.
+   */
+  static long parseSize(String pSize){
+    String lSize = pSize.trim().toUpperCase();
+    long lMultiplier = 1;
+    if(lSize.endsWith("K")){
+      lMultiplier = 1024L;
+    }
+    else if(lSize.endsWith("M")){
+      lMultiplier = 1024L * 1024;
+    }
+    else if(lSize.endsWith("G")){
+      lMultiplier = 1024L * 1024 * 1024;
+    }
+    if(lMultiplier > 1){
+      lSize = lSize.substring(0, lSize.length() - 1);
+    }
+    return Long.parseLong(lSize) * lMultiplier;
+  }
+
+  LobBinderBenchmark(Connection pConnection, LobBinder pLobBinder, int pIterations) {
+    mConnection = pConnection;
+    mLobBinder = pLobBinder;
+    mIterations = pIterations;
+  }
+
+  void run(String[] pSizes)
+  throws SQLException, IOException {
+
+    Statement lStatement = mConnection.createStatement();
+    try {
+      lStatement.execute("CREATE TABLE " + TABLE_NAME + " (blob_data BLOB, clob_data CLOB)");
+    }
+    finally {
+      lStatement.close();
+    }
+
+    try {
+      for(String lSize : pSizes){
+        File lFile = createFile(parseSize(lSize));
+        try {
+          report(lFile.length(), BLOB, time(lFile, BLOB));
+          report(lFile.length(), CLOB_SINGLE_BYTE, time(lFile, CLOB_SINGLE_BYTE));
+          report(lFile.length(), CLOB_UTF8, time(lFile, CLOB_UTF8));
+        }
+        finally {
+          lFile.delete();
+        }
+      }
+    }
+    finally {
+      lStatement = mConnection.createStatement();
+      try {
+        lStatement.execute("DROP TABLE " + TABLE_NAME);
+      }
+      finally {
+        lStatement.close();
+      }
+    }
+  }
+
+  /**
+   * Creates a temporary file of the given size containing printable ASCII text, so it is valid in either character set.
+   */
+  private static File createFile(long pSize)
+  throws IOException {
+    File lFile = File.createTempFile("lob_benchmark", ".dat");
+    Random lRandom = new Random(pSize);
+    byte[] lBuffer = new byte[64 * 1024];
+    OutputStream lOutputStream = new FileOutputStream(lFile);
+    try {
+      for(long lWritten = 0; lWritten < pSize; lWritten += lBuffer.length){
+        for(int i = 0; i < lBuffer.length; i++){
+          lBuffer[i] = (byte) (' ' + lRandom.nextInt(95));
+        }
+        lOutputStream.write(lBuffer, 0, (int) Math.min(lBuffer.length, pSize - lWritten));
+      }
+    }
+    finally {
+      lOutputStream.close();
+    }
+    return lFile;
+  }
+
+  /**
+   * Binds and inserts the file the requested number of times, rolling back each insert.
+   * @return Mean elapsed time in nanoseconds.
+   */
+  private long time(File pFile, String pBindType)
+  throws SQLException, IOException {
+
+    String lColumn = BLOB.equals(pBindType) ? "blob_data" : "clob_data";
+    long lTotalTime = 0;
+
+    for(int i = 0; i < mIterations; i++){
+      List<Closeable> lCloseableList = new ArrayList<Closeable>();
+      PreparedStatement lStatement = mConnection.prepareStatement("INSERT INTO " + TABLE_NAME + " (" + lColumn + ") VALUES (?)");
+      try {
+        long lStart = System.nanoTime();
+        if(BLOB.equals(pBindType)){
+          mLobBinder.bindBlob(lStatement, 1, pFile, null, lCloseableList);
+        }
+        else {
+          Charset lCharset = Charset.forName(CLOB_UTF8.equals(pBindType) ? "UTF-8" : "ISO-8859-1");
+          mLobBinder.bindClob(lStatement, 1, pFile, lCharset, null, lCloseableList);
+        }
+        lStatement.executeUpdate();
+        lTotalTime += System.nanoTime() - lStart;
+      }
+      finally {
+        for(Closeable lCloseable : lCloseableList){
+          lCloseable.close();
+        }
+        lStatement.close();
+        mConnection.rollback();
+      }
+    }
+
+    return lTotalTime / mIterations;
+  }
+
+  private static void report(long pSize, String pBindType, long pMeanNanos){
+    double lMillis = pMeanNanos / 1000000d;
+    double lMegabytesPerSecond = pMeanNanos > 0 ? (pSize / (1024d * 1024d)) / (pMeanNanos / 1000000000d) : 0;
+    System.out.println(String.format("%15d  %-16s  %10.1f  %10.1f", pSize, pBindType, lMillis, lMegabytesPerSecond));
+  }
+
+}
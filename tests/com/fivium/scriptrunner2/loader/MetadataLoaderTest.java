@@ -0,0 +1,102 @@
+package com.fivium.scriptrunner2.loader;
+
+
+import com.fivium.scriptrunner2.CommandLineWrapper;
+import com.fivium.scriptrunner2.Logger;
+import com.fivium.scriptrunner2.ScriptRunner;
+import com.fivium.scriptrunner2.ex.ExFatalError;
+import com.fivium.scriptrunner2.util.ScriptRunnerVersion;
+
+import java.io.File;
+
+import java.nio.file.Files;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.apache.commons.io.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class MetadataLoaderTest {
+
+  private File mPromoteDirectory;
+
+  @Before
+  public void createPromote()
+  throws Exception {
+    mPromoteDirectory = Files.createTempDirectory("scriptrunner-loader").toFile();
+    //The log file is shared by every test which runs a promote so must outlive the promote directory
+    Logger.initialiseLogFile(new File(System.getProperty("java.io.tmpdir")));
+
+    FileUtils.write(new File(mPromoteDirectory, ScriptRunner.MANIFEST_RELATIVE_FILE_PATH),
+                    "PROMOTION {promotion_label=\"proxy_loader_test\", scriptrunner_version=\"" + ScriptRunnerVersion.getVersionNumber() + "\"}\n\n" +
+                    "001000: Patch DatabasePatches/TestPatches/PATCHTEST00001 (create test table).sql\n" +
+                    "002000: ProxyLoader Metadata/item1.txt {auto_commit=\"true\"}\n");
+    FileUtils.write(new File(mPromoteDirectory, "ScriptRunner/Loaders/ProxyLoader.sql"),
+                    "CONNECT appuser\n/\nINSERT INTO proxy_items (name, contents) VALUES (:name, :clob)\n/\n");
+    FileUtils.write(new File(mPromoteDirectory, "DatabasePatches/TestPatches/PATCHTEST00001 (create test table).sql"),
+                    "CONNECT appuser\n/\nCREATE TABLE proxy_items (name VARCHAR(100), contents CLOB)\n/\n");
+    FileUtils.write(new File(mPromoteDirectory, "Metadata/item1.txt"), "Contents of item 1");
+  }
+
+  @After
+  public void deletePromote()
+  throws Exception {
+    FileUtils.deleteDirectory(mPromoteDirectory);
+  }
+
+  @Test
+  public void testAutoCommitAfterConnectUsesCachedProxyConnection()
+  throws Throwable {
+    String lJDBCString = "jdbc:h2:mem:proxy_loader_test;DB_CLOSE_DELAY=-1";
+    Connection lConnection = DriverManager.getConnection(lJDBCString, "promotemgr", "test");
+    try {
+      Statement lStatement = lConnection.createStatement();
+      lStatement.execute("CREATE SCHEMA appuser");
+      lStatement.close();
+
+      ScriptRunner.run(new CommandLineWrapper(new String[] {
+        "-run", mPromoteDirectory.getAbsolutePath(), "-jdbc", lJDBCString, "-user", "promotemgr", "-password", "test",
+        "-dialect", "h2", "-nohashcheck", "-proxycache", "2"
+      }));
+
+      //Read from a new session so only committed rows are visible
+      lStatement = lConnection.createStatement();
+      ResultSet lResultSet = lStatement.executeQuery("SELECT COUNT(*) FROM appuser.proxy_items WHERE contents = 'Contents of item 1'");
+      lResultSet.next();
+      assertEquals("Loader changes made after a CONNECT should be committed on the proxy connection", 1, lResultSet.getInt(1));
+      lStatement.close();
+    }
+    finally {
+      lConnection.close();
+    }
+  }
+
+  @Test
+  public void testLobLoaderBatchSizeIsLimited()
+  throws Throwable {
+    FileUtils.write(new File(mPromoteDirectory, ScriptRunner.MANIFEST_RELATIVE_FILE_PATH),
+                    "PROMOTION {promotion_label=\"lob_batch_test\", scriptrunner_version=\"" + ScriptRunnerVersion.getVersionNumber() + "\"}\n\n" +
+                    "001000: ProxyLoader Metadata/item1.txt {batch_size=\"" + (MetadataLoader.MAX_LOB_BATCH_SIZE + 1) + "\", auto_commit=\"true\"}\n");
+    try {
+      ScriptRunner.run(new CommandLineWrapper(new String[] {
+        "-run", mPromoteDirectory.getAbsolutePath(), "-jdbc", "jdbc:h2:mem:lob_batch_test", "-user", "promotemgr", "-password", "test",
+        "-dialect", "h2", "-nohashcheck"
+      }));
+      fail("A LOB loader with a batch size over the limit should fail validation");
+    }
+    catch (ExFatalError e) {
+      assertTrue("Error should explain the batch size limit", e.getMessage().contains("cannot exceed " + MetadataLoader.MAX_LOB_BATCH_SIZE));
+    }
+  }
+
+}
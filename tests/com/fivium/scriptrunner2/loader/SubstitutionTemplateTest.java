@@ -0,0 +1,72 @@
+package com.fivium.scriptrunner2.loader;
+
+
+import com.fivium.scriptrunner2.ex.ExLoader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+
+public class SubstitutionTemplateTest {
+  public SubstitutionTemplateTest() {
+    super();
+  }
+  
+  private Map<String, String> mPropertyMap = new HashMap<String, String>();
+  
+  @Test
+  public void testNoVariables() 
+  throws ExLoader {
+    String lString = "BEGIN load(:clob); END;";
+    SubstitutionTemplate lTemplate = new SubstitutionTemplate(lString);
+    
+    assertFalse("Template without variables should report none", lTemplate.hasVariables());
+    assertSame("Rendering a template without variables returns the original string", lString, lTemplate.render(mPropertyMap));
+  }
+  
+  @Test
+  public void testVariables() 
+  throws ExLoader {
+    mPropertyMap.put("schema", "APP");
+    mPropertyMap.put("table", "DATA");
+    SubstitutionTemplate lTemplate = new SubstitutionTemplate("$${SCHEMA}$$.load_$${table}$$(:clob); -- $${schema}$$");
+    
+    assertTrue("Template should report variables", lTemplate.hasVariables());
+    assertEquals("Variable names are lower cased and in order", "[schema, table, schema]", lTemplate.getVariableNames().toString());
+    assertEquals("Variables at start, middle and end are replaced", "APP.load_DATA(:clob); -- APP", lTemplate.render(mPropertyMap));
+  }
+  
+  @Test
+  public void testSpecialCharactersInValues() 
+  throws ExLoader {
+    mPropertyMap.put("value", "a$1\\b");
+    SubstitutionTemplate lTemplate = new SubstitutionTemplate("x $${value}$$ y");
+    
+    assertEquals("Dollars and backslashes in values are inserted literally", "x a$1\\b y", lTemplate.render(mPropertyMap));
+  }
+  
+  @Test
+  public void testNonVariables() 
+  throws ExLoader {
+    mPropertyMap.put("b", "B");
+    mPropertyMap.put("}$$x", "C");
+    
+    assertEquals("Variable names cannot span lines", "$${a\n}$$ B", new SubstitutionTemplate("$${a\n}$$ $${b}$$").render(mPropertyMap));
+    assertEquals("Unterminated variables are literals", "B $${c", new SubstitutionTemplate("$${b}$$ $${c").render(mPropertyMap));
+    assertEquals("Variable names cannot be empty", "C", new SubstitutionTemplate("$${}$$x}$$").render(mPropertyMap));
+    assertEquals("Variable start can be preceded by dollars", "$B", new SubstitutionTemplate("$$${b}$$").render(mPropertyMap));
+  }
+  
+  @Test(expected = ExLoader.class)
+  public void testMissingProperty() 
+  throws ExLoader {
+    new SubstitutionTemplate("$${missing}$$").render(mPropertyMap);
+  }
+  
+}
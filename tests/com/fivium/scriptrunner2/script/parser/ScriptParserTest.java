@@ -324,4 +324,19 @@ public class ScriptParserTest {
     assertEquals("Result should not treat final comment as unescaped segment",   "SELECT *\n--FROM dual\n", mResult.get(0).getStatementString());
   }
   
+  @Test
+  public void testCodeStringExcludesCommentsAndLiterals() 
+  throws ExParser {
+    
+    String lParseString = 
+      "SELECT 'text' \"Alias\" --comment\n" +
+      "FROM /* comment */ dual\n" +
+      "/";
+    
+    mResult = ScriptParser.parse(lParseString);
+
+    assertEquals("Result has 1 statement", 1, mResult.size());
+    assertEquals("Code string should replace comments and literals but keep quoted identifiers", "SELECT   \"Alias\"  FROM   dual\n", mResult.get(0).getCodeString());
+  }
+  
 }